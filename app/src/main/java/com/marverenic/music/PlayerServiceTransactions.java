@@ -0,0 +1,47 @@
+package com.marverenic.music;
+
+/**
+ * Describes the binder transactions of {@link IPlayerService}. The transaction codes generated
+ * for {@link IPlayerService.Stub} are only visible inside of this package.
+ */
+public final class PlayerServiceTransactions {
+
+    /**
+     * This class is never instantiated
+     */
+    private PlayerServiceTransactions() {
+
+    }
+
+    /**
+     * @param code The transaction code passed to {@link IPlayerService.Stub#onTransact}
+     * @return Whether the call can't change the state of the player. Calls that aren't listed
+     *         here are assumed to change something.
+     */
+    public static boolean isReadOnly(int code) {
+        switch (code) {
+            case IPlayerService.Stub.TRANSACTION_isPlaying:
+            case IPlayerService.Stub.TRANSACTION_getNowPlaying:
+            case IPlayerService.Stub.TRANSACTION_getQueue:
+            case IPlayerService.Stub.TRANSACTION_getQueuePosition:
+            case IPlayerService.Stub.TRANSACTION_getQueueSize:
+            case IPlayerService.Stub.TRANSACTION_getQueueChunk:
+            case IPlayerService.Stub.TRANSACTION_getSharedQueue:
+            case IPlayerService.Stub.TRANSACTION_getCurrentPosition:
+            case IPlayerService.Stub.TRANSACTION_getDuration:
+            case IPlayerService.Stub.TRANSACTION_getPlayerState:
+            case IPlayerService.Stub.TRANSACTION_getMultiRepeatCount:
+            case IPlayerService.Stub.TRANSACTION_getShuffleMode:
+            case IPlayerService.Stub.TRANSACTION_getRepeatMode:
+            case IPlayerService.Stub.TRANSACTION_getSleepTimerEndTime:
+            case IPlayerService.Stub.TRANSACTION_getMediaSessionToken:
+            case IPlayerService.Stub.TRANSACTION_beginLargeQueueTransaction:
+            case IPlayerService.Stub.TRANSACTION_sendQueueChunk:
+            case IPlayerService.Stub.TRANSACTION_registerCallback:
+            case IPlayerService.Stub.TRANSACTION_unregisterCallback:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.marverenic.music.data.index;
+
+import androidx.room.ColumnInfo;
+
+/**
+ * A projection of the most recently modified song in each album, which is used to detect albums
+ * whose artwork hasn't been extracted by the {@link ArtworkIndexer} yet or is out of date
+ */
+public class AlbumGeneration {
+
+    @ColumnInfo(name = "album_id")
+    public long albumId;
+
+    @ColumnInfo(name = "path")
+    public String path;
+
+    @ColumnInfo(name = "date_modified")
+    public long dateModified;
+
+}
@@ -0,0 +1,346 @@
+package com.marverenic.music.data.index;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import androidx.palette.graphics.Palette;
+
+import com.marverenic.music.R;
+import com.marverenic.music.utils.ArtworkCache;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Extracts the artwork of every album in the library index in the background, so that it doesn't
+ * have to be extracted while the user is scrolling through their library.
+ *
+ * For each album, the artwork of its most recently modified song is resolved through the
+ * {@link ArtworkCache}, which writes thumbnails at the resolutions used by grids and lists. The
+ * swatch that album grids are colored with is picked from the grid thumbnail's palette and stored
+ * in the library index along with the album's generation and the path of the song, so albums are
+ * only processed again when one of their songs changes. Since the ArtworkCache is keyed by song,
+ * album grids load their artwork from that same song, and are colored with a palette from the
+ * same image that they show.
+ *
+ * Indexing runs on a low priority thread and sleeps between albums. It pauses while the battery
+ * is low or the device is in power saving mode, and resumes once the device is plugged in or the
+ * battery recovers. Because every album is committed as soon as it's processed, indexing picks up
+ * where it left off after being paused or after the app is restarted.
+ *
+ * Indexing doesn't wait for the device to be idle. Artwork is most likely to be needed right after
+ * a scan, while the user is browsing their library, and waiting for the screen to turn off would
+ * leave albums without artwork until then. Instead, indexing is throttled and runs at the lowest
+ * thread priority. When the device is dozing, this thread isn't kept awake, so indexing stops by
+ * itself until the device wakes up.
+ */
+public class ArtworkIndexer {
+
+    /**
+     * How long to wait between albums, so that indexing doesn't saturate storage while music is
+     * being played or the library is being browsed
+     */
+    private static final long THROTTLE_MS = 250;
+
+    /**
+     * The fraction of the battery that must be left to index artwork while the device isn't
+     * charging
+     */
+    private static final float MIN_BATTERY_LEVEL = 0.3f;
+
+    private final Context mContext;
+    private final LibraryIndexDatabase mDatabase;
+    private final Scheduler mScheduler;
+    private final int[] mThumbnailSizes;
+
+    private final Object mLock = new Object();
+
+    /**
+     * The artwork of every album that has been indexed, keyed by album ID. This is {@code null}
+     * until it has been loaded from the library index.
+     */
+    @Nullable
+    private Map<Long, IndexedAlbumArtwork> mArtwork;
+    private boolean mRunning;
+    private boolean mRestartRequested;
+    @Nullable
+    private BroadcastReceiver mResumeReceiver;
+
+    public ArtworkIndexer(Context context, LibraryIndexDatabase database) {
+        mContext = context;
+        mDatabase = database;
+
+        // Grid artwork is also used to pick the album's colors, so it has to come first
+        Resources res = context.getResources();
+        mThumbnailSizes = new int[] {
+                res.getDimensionPixelSize(R.dimen.grid_width),
+                res.getDimensionPixelSize(R.dimen.list_thumbnail_size)
+        };
+
+        HandlerThread thread = new HandlerThread("ArtworkIndexer", Process.THREAD_PRIORITY_LOWEST);
+        thread.start();
+        mScheduler = AndroidSchedulers.from(thread.getLooper());
+    }
+
+    /**
+     * Starts extracting artwork for any albums that haven't been indexed yet, or that changed
+     * since they were indexed. If indexing is already in progress, the library will be checked
+     * again once the current pass finishes.
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mRunning) {
+                mRestartRequested = true;
+                return;
+            }
+            mRunning = true;
+        }
+
+        Observable.fromCallable(this::indexAlbums)
+                .subscribeOn(mScheduler)
+                .subscribe(complete -> {
+                    if (!complete) {
+                        resumeWhenPossible();
+                    }
+                }, throwable -> {
+                    Timber.e(throwable, "Failed to index album artwork");
+                    synchronized (mLock) {
+                        mRunning = false;
+                        mRestartRequested = false;
+                    }
+                });
+    }
+
+    /**
+     * Looks up the artwork that was extracted for an album
+     * @param albumId The ID of the album
+     * @return An observable that emits the album's indexed artwork, or {@code null} if it hasn't
+     *         been indexed yet
+     */
+    public Observable<IndexedAlbumArtwork> getAlbumArtwork(long albumId) {
+        synchronized (mLock) {
+            if (mArtwork != null) {
+                return Observable.just(mArtwork.get(albumId));
+            }
+        }
+
+        return Observable.fromCallable(() -> loadArtwork().get(albumId))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    private Map<Long, IndexedAlbumArtwork> loadArtwork() {
+        List<IndexedAlbumArtwork> rows = mDatabase.getLibraryIndexDao().getAlbumArtwork();
+        Map<Long, IndexedAlbumArtwork> artwork = new HashMap<>(rows.size());
+        for (IndexedAlbumArtwork row : rows) {
+            artwork.put(row.albumId, row);
+        }
+
+        synchronized (mLock) {
+            mArtwork = artwork;
+        }
+        return artwork;
+    }
+
+    /**
+     * Indexes albums until every album is up to date, or until indexing has to be paused
+     * @return Whether every album was indexed
+     */
+    private boolean indexAlbums() {
+        do {
+            if (!indexPendingAlbums()) {
+                synchronized (mLock) {
+                    mRunning = false;
+                    mRestartRequested = false;
+                }
+                return false;
+            }
+        } while (shouldRestart());
+
+        return true;
+    }
+
+    private boolean shouldRestart() {
+        synchronized (mLock) {
+            if (mRestartRequested) {
+                mRestartRequested = false;
+                return true;
+            }
+
+            mRunning = false;
+            return false;
+        }
+    }
+
+    /**
+     * Extracts the artwork of every album that hasn't been indexed or has changed since it was
+     * indexed. This method blocks.
+     * @return Whether every album was indexed, or {@code false} if indexing had to be paused
+     */
+    boolean indexPendingAlbums() {
+        LibraryIndexDao dao = mDatabase.getLibraryIndexDao();
+        dao.deleteOrphanedAlbumArtwork();
+
+        Map<Long, IndexedAlbumArtwork> indexed = loadArtwork();
+        List<AlbumGeneration> albums = dao.getAlbumGenerations();
+        int extracted = 0;
+
+        for (AlbumGeneration album : albums) {
+            IndexedAlbumArtwork existing = indexed.get(album.albumId);
+            if (existing != null && existing.dateModified == album.dateModified) {
+                continue;
+            }
+
+            if (!canIndex()) {
+                Timber.i("Pausing artwork indexing after %d albums", extracted);
+                return false;
+            }
+
+            IndexedAlbumArtwork artwork = extractArtwork(album);
+            dao.putAlbumArtwork(artwork);
+            synchronized (mLock) {
+                indexed.put(album.albumId, artwork);
+            }
+
+            extracted++;
+            SystemClock.sleep(THROTTLE_MS);
+        }
+
+        Timber.i("Indexed artwork for %d albums", extracted);
+        return true;
+    }
+
+    private IndexedAlbumArtwork extractArtwork(AlbumGeneration album) {
+        IndexedAlbumArtwork artwork = new IndexedAlbumArtwork();
+        artwork.albumId = album.albumId;
+        artwork.dateModified = album.dateModified;
+        artwork.path = album.path;
+
+        Uri location = Uri.fromFile(new File(album.path));
+        Bitmap image = ArtworkCache.getInstance(mContext)
+                .preload(location, album.albumId, mThumbnailSizes);
+
+        if (image != null) {
+            artwork.hasArtwork = true;
+
+            Palette.Swatch swatch = pickSwatch(Palette.from(image).generate());
+            if (swatch != null) {
+                artwork.hasSwatch = true;
+                artwork.backgroundColor = swatch.getRgb();
+                artwork.titleTextColor = swatch.getTitleTextColor();
+                artwork.bodyTextColor = swatch.getBodyTextColor();
+            }
+        }
+
+        return artwork;
+    }
+
+    /**
+     * Chooses the swatch that album artwork is colored with
+     * @return The most vibrant swatch in the palette, or {@code null} if the palette doesn't
+     *         have a suitable swatch
+     */
+    @Nullable
+    public static Palette.Swatch pickSwatch(Palette palette) {
+        if (palette.getVibrantSwatch() != null) {
+            return palette.getVibrantSwatch();
+        }
+        if (palette.getLightVibrantSwatch() != null) {
+            return palette.getLightVibrantSwatch();
+        }
+        if (palette.getDarkVibrantSwatch() != null) {
+            return palette.getDarkVibrantSwatch();
+        }
+        if (palette.getLightMutedSwatch() != null) {
+            return palette.getLightMutedSwatch();
+        }
+        if (palette.getDarkMutedSwatch() != null) {
+            return palette.getDarkMutedSwatch();
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the device is charging, or has enough battery left and isn't trying to
+     *         save power
+     */
+    private boolean canIndex() {
+        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        Intent battery = mContext.registerReceiver(null, filter);
+        if (battery == null) {
+            return true;
+        }
+
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        if (status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL) {
+            return true;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PowerManager power = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+            if (power != null && power.isPowerSaveMode()) {
+                return false;
+            }
+        }
+
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level < 0 || scale <= 0 || level >= scale * MIN_BATTERY_LEVEL;
+    }
+
+    /**
+     * Restarts indexing the next time that the device is plugged in or its battery recovers
+     */
+    private void resumeWhenPossible() {
+        BroadcastReceiver receiver;
+        synchronized (mLock) {
+            if (mResumeReceiver != null) {
+                return;
+            }
+
+            receiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    synchronized (mLock) {
+                        if (mResumeReceiver != this) {
+                            return;
+                        }
+                        mResumeReceiver = null;
+                    }
+
+                    mContext.unregisterReceiver(this);
+                    start();
+                }
+            };
+            mResumeReceiver = receiver;
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_BATTERY_OKAY);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        }
+        mContext.registerReceiver(receiver, filter);
+    }
+}
@@ -0,0 +1,23 @@
+package com.marverenic.music.data.index;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "index_metadata")
+public class IndexMetadataItem {
+
+    @NonNull
+    @PrimaryKey
+    @ColumnInfo(name = "key")
+    public String key;
+
+    @ColumnInfo(name = "value")
+    public long value;
+
+    public IndexMetadataItem(@NonNull String key, long value) {
+        this.key = key;
+        this.value = value;
+    }
+}
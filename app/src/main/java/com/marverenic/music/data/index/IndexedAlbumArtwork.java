@@ -0,0 +1,58 @@
+package com.marverenic.music.data.index;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.Nullable;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * The artwork of an album that was extracted ahead of time by the {@link ArtworkIndexer}, along
+ * with the colors picked from its palette
+ */
+@Entity(tableName = "album_artwork")
+public class IndexedAlbumArtwork {
+
+    @PrimaryKey
+    @ColumnInfo(name = "album_id")
+    public long albumId;
+
+    /**
+     * The modification date of the song that the artwork was extracted from. If it no longer
+     * matches the album's {@link AlbumGeneration}, the artwork is extracted again.
+     */
+    @ColumnInfo(name = "date_modified")
+    public long dateModified;
+
+    /**
+     * The path of the song that the artwork was extracted from. The thumbnails in the
+     * {@link com.marverenic.music.utils.ArtworkCache} are keyed by song, so the album's artwork
+     * has to be loaded from this song for the thumbnails to be found.
+     */
+    @Nullable
+    @ColumnInfo(name = "path")
+    public String path;
+
+    @ColumnInfo(name = "has_artwork")
+    public boolean hasArtwork;
+
+    /**
+     * Whether a swatch could be picked from the artwork's palette. If this is {@code false}, the
+     * colors below are unset.
+     */
+    @ColumnInfo(name = "has_swatch")
+    public boolean hasSwatch;
+
+    @ColorInt
+    @ColumnInfo(name = "background_color")
+    public int backgroundColor;
+
+    @ColorInt
+    @ColumnInfo(name = "title_text_color")
+    public int titleTextColor;
+
+    @ColorInt
+    @ColumnInfo(name = "body_text_color")
+    public int bodyTextColor;
+
+}
@@ -0,0 +1,155 @@
+package com.marverenic.music.data.index;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.provider.MediaStore;
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import com.marverenic.music.R;
+import com.marverenic.music.data.store.MediaStoreUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.marverenic.music.model.ModelUtil.parseUnknown;
+import static com.marverenic.music.model.ModelUtil.sortableTitle;
+
+@Entity(
+        tableName = "songs",
+        indices = { @Index("album_id"), @Index("artist_id") }
+)
+public class IndexedSong {
+
+    @PrimaryKey
+    @ColumnInfo(name = "song_id")
+    public long songId;
+
+    @NonNull
+    @ColumnInfo(name = "name")
+    public String songName;
+
+    @NonNull
+    @ColumnInfo(name = "artist_name")
+    public String artistName;
+
+    @NonNull
+    @ColumnInfo(name = "album_name")
+    public String albumName;
+
+    @ColumnInfo(name = "duration")
+    public long songDuration;
+
+    @NonNull
+    @ColumnInfo(name = "path")
+    public String path;
+
+    @ColumnInfo(name = "year")
+    public int year;
+
+    @ColumnInfo(name = "date_added")
+    public long dateAdded;
+
+    @ColumnInfo(name = "date_modified")
+    public long dateModified;
+
+    @ColumnInfo(name = "album_id")
+    public long albumId;
+
+    @ColumnInfo(name = "artist_id")
+    public long artistId;
+
+    @ColumnInfo(name = "track")
+    public int trackNumber;
+
+    @NonNull
+    @ColumnInfo(name = "sortable_name")
+    public String sortableName;
+
+    @NonNull
+    @ColumnInfo(name = "sortable_artist_name")
+    public String sortableArtistName;
+
+    @NonNull
+    @ColumnInfo(name = "sortable_album_name")
+    public String sortableAlbumName;
+
+    public IndexedSong() {
+        songName = "";
+        artistName = "";
+        albumName = "";
+        path = "";
+        sortableName = "";
+        sortableArtistName = "";
+        sortableAlbumName = "";
+    }
+
+    /**
+     * Builds a {@link List} of index rows from a Cursor
+     * @param cur A {@link Cursor} to use when reading the {@link MediaStore}. This Cursor may have
+     *            any filters and sorting, but MUST have AT LEAST the columns in
+     *            {@link MediaStoreUtil#INDEX_PROJECTION}. The caller is responsible for closing
+     *            this Cursor.
+     * @param res A {@link Resources} Object from {@link Context#getResources()} used to get the
+     *            default values if an unknown value is encountered
+     * @return A List of index rows populated by entries in the Cursor. Rows without a path are
+     *         skipped.
+     */
+    public static List<IndexedSong> buildIndexedSongList(Cursor cur, Resources res) {
+        List<IndexedSong> songs = new ArrayList<>(cur.getCount());
+
+        int titleIndex = cur.getColumnIndex(MediaStore.Audio.Media.TITLE);
+        int idIndex = cur.getColumnIndex(MediaStore.Audio.Media._ID);
+        int artistIndex = cur.getColumnIndex(MediaStore.Audio.Media.ARTIST);
+        int albumIndex = cur.getColumnIndex(MediaStore.Audio.Media.ALBUM);
+        int durationIndex = cur.getColumnIndex(MediaStore.Audio.Media.DURATION);
+        int dataIndex = cur.getColumnIndex(MediaStore.Audio.Media.DATA);
+        int yearIndex = cur.getColumnIndex(MediaStore.Audio.Media.YEAR);
+        int dateIndex = cur.getColumnIndex(MediaStore.Audio.Media.DATE_ADDED);
+        int modifiedIndex = cur.getColumnIndex(MediaStore.Audio.Media.DATE_MODIFIED);
+        int albumIdIndex = cur.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID);
+        int artistIdIndex = cur.getColumnIndex(MediaStore.Audio.Media.ARTIST_ID);
+        int trackIndex = cur.getColumnIndex(MediaStore.Audio.Media.TRACK);
+
+        final String unknownSong = res.getString(R.string.unknown);
+        final String unknownArtist = res.getString(R.string.unknown_artist);
+        final String unknownAlbum = res.getString(R.string.unknown_album);
+
+        for (int i = 0; i < cur.getCount(); i++) {
+            cur.moveToPosition(i);
+
+            // The MediaStore doesn't guarantee a path for every row, and a song without one can't
+            // be played or matched against directory rules
+            String path = cur.getString(dataIndex);
+            if (path == null) {
+                continue;
+            }
+
+            IndexedSong next = new IndexedSong();
+            next.songName = parseUnknown(cur.getString(titleIndex), unknownSong);
+            next.songId = cur.getLong(idIndex);
+            next.artistName = parseUnknown(cur.getString(artistIndex), unknownArtist);
+            next.albumName = parseUnknown(cur.getString(albumIndex), unknownAlbum);
+            next.songDuration = cur.getLong(durationIndex);
+            next.path = path;
+            next.year = cur.getInt(yearIndex);
+            next.dateAdded = cur.getLong(dateIndex);
+            next.dateModified = cur.getLong(modifiedIndex);
+            next.albumId = cur.getLong(albumIdIndex);
+            next.artistId = cur.getLong(artistIdIndex);
+            next.trackNumber = cur.getInt(trackIndex);
+
+            next.sortableName = sortableTitle(next.songName, res);
+            next.sortableArtistName = sortableTitle(next.artistName, res);
+            next.sortableAlbumName = sortableTitle(next.albumName, res);
+
+            songs.add(next);
+        }
+
+        return songs;
+    }
+}
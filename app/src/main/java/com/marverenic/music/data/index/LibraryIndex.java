@@ -0,0 +1,195 @@
+package com.marverenic.music.data.index;
+
+import android.content.Context;
+
+import com.marverenic.music.data.store.MediaStoreUtil;
+import com.marverenic.music.model.Song;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Persistent copy of the songs in the MediaStore. Loading songs from the index avoids rebuilding
+ * the entire library from a MediaStore cursor on every launch, and {@link #sync()} only reloads
+ * songs that were added or modified since the index was last updated.
+ */
+public class LibraryIndex {
+
+    private static final String VERSION = "version";
+
+    // SQLite limits the number of variables in a single statement. See MediaStoreUtil.SQL_MAX_VARS
+    private static final int SQL_MAX_VARS = 999;
+
+    private Context mContext;
+    private LibraryIndexDatabase mDatabase;
+
+    public LibraryIndex(Context context, LibraryIndexDatabase database) {
+        mContext = context;
+        mDatabase = database;
+    }
+
+    /**
+     * @return Whether or not the index has been synchronized with the MediaStore at least once
+     */
+    public boolean isPopulated() {
+        return getVersion() > 0;
+    }
+
+    /**
+     * @return A number that is incremented every time the contents of the index change. A value
+     *         of 0 means that the index has never been populated.
+     */
+    public long getVersion() {
+        IndexMetadataItem version = mDatabase.getLibraryIndexDao().getMetadataItem(VERSION);
+        return (version == null) ? 0 : version.value;
+    }
+
+    /**
+     * @return Every song in the index, sorted by name
+     */
+    public List<Song> getSongs() {
+        List<IndexedSong> rows = mDatabase.getLibraryIndexDao().getSongs();
+        List<Song> songs = new ArrayList<>(rows.size());
+
+        for (IndexedSong row : rows) {
+            songs.add(Song.fromIndexedSong(row));
+        }
+
+        // SQLite and Java collate some characters differently. The rows are already almost in
+        // order, so this is close to linear.
+        Collections.sort(songs);
+        return songs;
+    }
+
+    /**
+     * Brings the index up to date with the MediaStore. Only the id and modification date of each
+     * song are read to find what has changed, and full rows are only loaded for songs that are new
+     * or have been modified.
+     * @return The changes that were applied to the index
+     */
+    public synchronized Delta sync() {
+        LibraryIndexDao dao = mDatabase.getLibraryIndexDao();
+
+        List<SongGeneration> indexed = dao.getSongGenerations();
+        List<SongGeneration> current = MediaStoreUtil.getSongGenerations(mContext);
+
+        Set<Long> previouslyIndexed = new HashSet<>();
+        List<Long> removed = new ArrayList<>();
+        long[] outdated = new long[current.size()];
+        int outdatedCount = 0;
+
+        // Both lists are sorted by id, so they can be compared in a single pass
+        int i = 0;
+        int j = 0;
+        while (i < indexed.size() || j < current.size()) {
+            SongGeneration old = (i < indexed.size()) ? indexed.get(i) : null;
+            SongGeneration now = (j < current.size()) ? current.get(j) : null;
+
+            if (now == null || (old != null && old.songId < now.songId)) {
+                removed.add(old.songId);
+                i++;
+            } else if (old == null || now.songId < old.songId) {
+                outdated[outdatedCount++] = now.songId;
+                j++;
+            } else {
+                if (old.dateModified != now.dateModified) {
+                    outdated[outdatedCount++] = now.songId;
+                    previouslyIndexed.add(now.songId);
+                }
+                i++;
+                j++;
+            }
+        }
+
+        long[] toLoad = new long[outdatedCount];
+        System.arraycopy(outdated, 0, toLoad, 0, outdatedCount);
+        List<IndexedSong> loaded = MediaStoreUtil.getIndexedSongs(mContext, toLoad);
+
+        // Songs that were modified but disappeared before they could be reloaded were deleted
+        Set<Long> loadedIds = new HashSet<>();
+        for (IndexedSong row : loaded) {
+            loadedIds.add(row.songId);
+        }
+        for (long songId : previouslyIndexed) {
+            if (!loadedIds.contains(songId)) {
+                removed.add(songId);
+            }
+        }
+
+        boolean firstSync = !isPopulated();
+        if (loaded.isEmpty() && removed.isEmpty() && !firstSync) {
+            return new Delta(getVersion());
+        }
+
+        long version = getVersion() + 1;
+        mDatabase.runInTransaction(() -> {
+            for (int start = 0; start < removed.size(); start += SQL_MAX_VARS) {
+                int end = Math.min(start + SQL_MAX_VARS, removed.size());
+                dao.deleteSongs(removed.subList(start, end));
+            }
+            dao.putSongs(loaded);
+            dao.putMetadataItem(new IndexMetadataItem(VERSION, version));
+        });
+
+        List<Song> inserted = new ArrayList<>();
+        List<Song> updated = new ArrayList<>();
+        for (IndexedSong row : loaded) {
+            if (previouslyIndexed.contains(row.songId)) {
+                updated.add(Song.fromIndexedSong(row));
+            } else {
+                inserted.add(Song.fromIndexedSong(row));
+            }
+        }
+
+        Timber.i("Library index v%d: %d inserted, %d updated, %d removed",
+                version, inserted.size(), updated.size(), removed.size());
+
+        return new Delta(version, inserted, updated, removed);
+    }
+
+    public static class Delta {
+
+        private long mVersion;
+        private List<Song> mInserted;
+        private List<Song> mUpdated;
+        private List<Long> mRemoved;
+
+        Delta(long version) {
+            this(version, Collections.emptyList(), Collections.emptyList(),
+                    Collections.emptyList());
+        }
+
+        public Delta(long version, List<Song> inserted, List<Song> updated,
+                     List<Long> removed) {
+            mVersion = version;
+            mInserted = Collections.unmodifiableList(inserted);
+            mUpdated = Collections.unmodifiableList(updated);
+            mRemoved = Collections.unmodifiableList(removed);
+        }
+
+        public long getVersion() {
+            return mVersion;
+        }
+
+        public List<Song> getInsertedSongs() {
+            return mInserted;
+        }
+
+        public List<Song> getUpdatedSongs() {
+            return mUpdated;
+        }
+
+        public List<Long> getRemovedSongIds() {
+            return mRemoved;
+        }
+
+        public boolean isEmpty() {
+            return mInserted.isEmpty() && mUpdated.isEmpty() && mRemoved.isEmpty();
+        }
+    }
+}
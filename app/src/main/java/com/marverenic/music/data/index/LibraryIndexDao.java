@@ -0,0 +1,45 @@
+package com.marverenic.music.data.index;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface LibraryIndexDao {
+
+    @Query("SELECT * FROM songs ORDER BY sortable_name ASC")
+    List<IndexedSong> getSongs();
+
+    @Query("SELECT song_id, date_modified FROM songs ORDER BY song_id ASC")
+    List<SongGeneration> getSongGenerations();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void putSongs(List<IndexedSong> songs);
+
+    @Query("DELETE FROM songs WHERE song_id IN (:songIds)")
+    void deleteSongs(List<Long> songIds);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void putMetadataItem(IndexMetadataItem item);
+
+    @Query("SELECT * FROM index_metadata WHERE `key` IS :key LIMIT 1")
+    IndexMetadataItem getMetadataItem(String key);
+
+    // SQLite takes the bare path column from the row that MAX() picked
+    @Query("SELECT album_id, path, MAX(date_modified) AS date_modified FROM songs "
+            + "GROUP BY album_id ORDER BY album_id ASC")
+    List<AlbumGeneration> getAlbumGenerations();
+
+    @Query("SELECT * FROM album_artwork ORDER BY album_id ASC")
+    List<IndexedAlbumArtwork> getAlbumArtwork();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void putAlbumArtwork(IndexedAlbumArtwork artwork);
+
+    @Query("DELETE FROM album_artwork WHERE album_id NOT IN (SELECT album_id FROM songs)")
+    void deleteOrphanedAlbumArtwork();
+
+}
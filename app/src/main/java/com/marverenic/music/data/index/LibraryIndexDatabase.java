@@ -0,0 +1,15 @@
+package com.marverenic.music.data.index;
+
+import androidx.room.Database;
+import androidx.room.RoomDatabase;
+
+@Database(
+        entities = {IndexedSong.class, IndexMetadataItem.class, IndexedAlbumArtwork.class},
+        version = 3,
+        exportSchema = false
+)
+public abstract class LibraryIndexDatabase extends RoomDatabase {
+
+    public abstract LibraryIndexDao getLibraryIndexDao();
+
+}
@@ -0,0 +1,17 @@
+package com.marverenic.music.data.index;
+
+import androidx.room.ColumnInfo;
+
+/**
+ * A lightweight projection of an {@link IndexedSong} used to detect which rows in the index are
+ * out of date with the MediaStore without loading every column.
+ */
+public class SongGeneration {
+
+    @ColumnInfo(name = "song_id")
+    public long songId;
+
+    @ColumnInfo(name = "date_modified")
+    public long dateModified;
+
+}
@@ -1,7 +1,11 @@
 package com.marverenic.music.data.inject;
 
 import android.content.Context;
+import androidx.room.Room;
 
+import com.marverenic.music.data.index.ArtworkIndexer;
+import com.marverenic.music.data.index.LibraryIndex;
+import com.marverenic.music.data.index.LibraryIndexDatabase;
 import com.marverenic.music.data.store.LocalMusicStore;
 import com.marverenic.music.data.store.LocalPlayCountStore;
 import com.marverenic.music.data.store.LocalPlaylistStore;
@@ -20,8 +24,30 @@ public class MediaStoreModule {
 
     @Provides
     @Singleton
-    public MusicStore provideMusicStore(Context context, PreferenceStore preferenceStore) {
-        return new LocalMusicStore(context, preferenceStore);
+    public MusicStore provideMusicStore(Context context, PreferenceStore preferenceStore,
+                                        LibraryIndex libraryIndex, ArtworkIndexer artworkIndexer) {
+        return new LocalMusicStore(context, preferenceStore, libraryIndex, artworkIndexer);
+    }
+
+    @Provides
+    @Singleton
+    public LibraryIndexDatabase provideLibraryIndexDatabase(Context context) {
+        // The index only contains data copied from the MediaStore, so it can always be rebuilt
+        return Room.databaseBuilder(context, LibraryIndexDatabase.class, "libraryIndex")
+                .fallbackToDestructiveMigration()
+                .build();
+    }
+
+    @Provides
+    @Singleton
+    public LibraryIndex provideLibraryIndex(Context context, LibraryIndexDatabase database) {
+        return new LibraryIndex(context, database);
+    }
+
+    @Provides
+    @Singleton
+    public ArtworkIndexer provideArtworkIndexer(Context context, LibraryIndexDatabase database) {
+        return new ArtworkIndexer(context, database);
     }
 
     @Provides
@@ -29,6 +29,8 @@ public class PlayerModule {
     public PlaybackStateDatabase providePlaybackStateDatabase(Context context) {
         return Room.databaseBuilder(context, PlaybackStateDatabase.class, "playerState")
                 .allowMainThreadQueries()
+                .addMigrations(PlaybackStateDatabase.MIGRATION_1_2,
+                        PlaybackStateDatabase.MIGRATION_2_3)
                 .build();
     }
 
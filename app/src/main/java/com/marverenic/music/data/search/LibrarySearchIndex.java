@@ -0,0 +1,537 @@
+package com.marverenic.music.data.search;
+
+import com.marverenic.music.data.store.LibraryChangeSet;
+import com.marverenic.music.model.Album;
+import com.marverenic.music.model.Artist;
+import com.marverenic.music.model.Genre;
+import com.marverenic.music.model.ModelUtil;
+import com.marverenic.music.model.Song;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An in-memory inverted index over the names in the library. Every distinct name (a song title,
+ * an album, an artist or a genre) is stored once as a "term" after its case and accents have been
+ * removed, so songs on the same album or by the same artist share their entries.
+ *
+ * Queries with at least {@link #GRAM_LENGTH} characters are answered by intersecting the trigram
+ * posting lists of the query and checking the surviving terms for a substring match, which gives
+ * the same results as a linear {@code contains()} scan. Shorter queries would match nearly every
+ * term as a substring, so they match the start of any word in a name instead.
+ *
+ * Results are ranked by how closely the name matches the query (exact, prefix, word prefix, then
+ * substring), with matches on a song's title ranked ahead of matches on its album or artist.
+ * Ties keep the natural order of the library, and each section is capped to {@link #MAX_RESULTS}.
+ *
+ * This class is thread safe.
+ */
+public class LibrarySearchIndex {
+
+    public static final int MAX_RESULTS = 100;
+
+    private static final int GRAM_LENGTH = 3;
+
+    // Match quality of a term. Lower values are ranked first.
+    private static final int EXACT = 0;
+    private static final int PREFIX = 1;
+    private static final int WORD_PREFIX = 2;
+    private static final int SUBSTRING = 3;
+
+    // Added to the match quality when a secondary field (like a song's artist) matches
+    private static final int SECONDARY = 4;
+
+    private static final byte SONG_TITLE = 0;
+    private static final byte SONG_ALBUM = 1;
+    private static final byte SONG_ARTIST = 2;
+    private static final byte ALBUM_NAME = 3;
+    private static final byte ALBUM_ARTIST = 4;
+    private static final byte ARTIST_NAME = 5;
+    private static final byte GENRE_NAME = 6;
+
+    // Terms are never removed from the posting lists. Once enough of them are unused, the entire
+    // index is rebuilt to reclaim their memory.
+    private static final int MIN_DEAD_TERMS_FOR_REBUILD = 1024;
+
+    private final Map<String, Term> mTerms = new HashMap<>();
+    private final List<Term> mTermsById = new ArrayList<>();
+    private final Map<Long, IntList> mGrams = new HashMap<>();
+    private final TreeMap<String, IntList> mWords = new TreeMap<>();
+    private int mDeadTerms;
+
+    private final Map<Long, Song> mSongs = new HashMap<>();
+    private List<Album> mAlbums = Collections.emptyList();
+    private List<Artist> mArtists = Collections.emptyList();
+    private List<Genre> mGenres = Collections.emptyList();
+
+    private long mSongVersion = LibraryChangeSet.NO_VERSION;
+
+    /**
+     * Applies a change to the songs in the library. Change sets that don't apply on top of the
+     * last version given to this index replace every indexed song.
+     */
+    public synchronized void applyChanges(LibraryChangeSet changes) {
+        if (changes.appliesTo(mSongVersion)) {
+            for (Song removed : changes.getRemovedSongs()) {
+                removeSong(removed.getSongId());
+            }
+            for (Song updated : changes.getUpdatedSongs()) {
+                removeSong(updated.getSongId());
+                addSong(updated);
+            }
+            for (Song inserted : changes.getInsertedSongs()) {
+                addSong(inserted);
+            }
+        } else {
+            // Removing every song one at a time is quadratic in the number of songs that share a
+            // name, so start over with an empty index instead
+            rebuild(changes.getSongs(), mAlbums, mArtists, mGenres);
+        }
+
+        mSongVersion = changes.getVersion();
+        compactIfNeeded();
+    }
+
+    public synchronized void setAlbums(List<Album> albums) {
+        unreferenceAll((1 << ALBUM_NAME) | (1 << ALBUM_ARTIST));
+        mAlbums = new ArrayList<>(albums);
+        referenceAlbums();
+        compactIfNeeded();
+    }
+
+    public synchronized void setArtists(List<Artist> artists) {
+        unreferenceAll(1 << ARTIST_NAME);
+        mArtists = new ArrayList<>(artists);
+        referenceArtists();
+        compactIfNeeded();
+    }
+
+    public synchronized void setGenres(List<Genre> genres) {
+        unreferenceAll(1 << GENRE_NAME);
+        mGenres = new ArrayList<>(genres);
+        referenceGenres();
+        compactIfNeeded();
+    }
+
+    /**
+     * @return The version of the last {@link LibraryChangeSet} applied to this index
+     */
+    public synchronized long getSongVersion() {
+        return mSongVersion;
+    }
+
+    public synchronized LibrarySearchResult search(String query) {
+        String folded = fold(query).trim();
+        if (folded.isEmpty()) {
+            return LibrarySearchResult.empty(query);
+        }
+
+        Map<Song, Integer> songs = new HashMap<>();
+        Map<Album, Integer> albums = new HashMap<>();
+        Map<Artist, Integer> artists = new HashMap<>();
+        Map<Genre, Integer> genres = new HashMap<>();
+
+        for (Term term : findTerms(folded)) {
+            int quality = getMatchQuality(term.mText, folded);
+
+            for (int i = 0; i < term.mSize; i++) {
+                Object item = term.mItems[i];
+                switch (term.mFields[i]) {
+                    case SONG_TITLE:
+                        rank(songs, (Song) item, quality);
+                        break;
+                    case SONG_ALBUM:
+                    case SONG_ARTIST:
+                        rank(songs, (Song) item, quality + SECONDARY);
+                        break;
+                    case ALBUM_NAME:
+                        rank(albums, (Album) item, quality);
+                        break;
+                    case ALBUM_ARTIST:
+                        rank(albums, (Album) item, quality + SECONDARY);
+                        break;
+                    case ARTIST_NAME:
+                        rank(artists, (Artist) item, quality);
+                        break;
+                    case GENRE_NAME:
+                        rank(genres, (Genre) item, quality);
+                        break;
+                }
+            }
+        }
+
+        return new LibrarySearchResult(query, sortByRank(songs), sortByRank(albums),
+                sortByRank(artists), sortByRank(genres));
+    }
+
+    /**
+     * Removes case and accents from a string so that accented and unaccented letters are
+     * considered equal
+     */
+    static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                folded.append(Character.toLowerCase(c));
+            }
+        }
+
+        return folded.toString();
+    }
+
+    private static int getMatchQuality(String text, String query) {
+        if (text.equals(query)) {
+            return EXACT;
+        } else if (text.startsWith(query)) {
+            return PREFIX;
+        }
+
+        for (int i = text.indexOf(query); i > 0; i = text.indexOf(query, i + 1)) {
+            if (!Character.isLetterOrDigit(text.charAt(i - 1))) {
+                return WORD_PREFIX;
+            }
+        }
+        return SUBSTRING;
+    }
+
+    private static <T> void rank(Map<T, Integer> ranks, T item, int quality) {
+        Integer previous = ranks.get(item);
+        if (previous == null || quality < previous) {
+            ranks.put(item, quality);
+        }
+    }
+
+    private static <T extends Comparable<? super T>> List<T> sortByRank(Map<T, Integer> ranks) {
+        List<Map.Entry<T, Integer>> entries = new ArrayList<>(ranks.entrySet());
+        Collections.sort(entries, (a, b) -> {
+            int comparison = ModelUtil.compareLong(a.getValue(), b.getValue());
+            return (comparison != 0) ? comparison : a.getKey().compareTo(b.getKey());
+        });
+
+        int size = Math.min(entries.size(), MAX_RESULTS);
+        List<T> sorted = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            sorted.add(entries.get(i).getKey());
+        }
+        return sorted;
+    }
+
+    private List<Term> findTerms(String query) {
+        List<Term> matches = new ArrayList<>();
+
+        if (query.length() < GRAM_LENGTH) {
+            BitSet found = new BitSet(mTermsById.size());
+            Collection<IntList> words = mWords.subMap(query, true,
+                    query + Character.MAX_VALUE, false).values();
+
+            for (IntList termIds : words) {
+                for (int i = 0; i < termIds.mSize; i++) {
+                    found.set(termIds.mValues[i]);
+                }
+            }
+
+            for (int id = found.nextSetBit(0); id >= 0; id = found.nextSetBit(id + 1)) {
+                Term term = mTermsById.get(id);
+                if (term.mReferences > 0) {
+                    matches.add(term);
+                }
+            }
+            return matches;
+        }
+
+        Set<Long> grams = getGrams(query);
+        IntList[] postings = new IntList[grams.size()];
+        int count = 0;
+        for (long gram : grams) {
+            IntList posting = mGrams.get(gram);
+            if (posting == null) {
+                return matches;
+            }
+            postings[count++] = posting;
+        }
+
+        // Walk the shortest posting list and look up each of its terms in the others
+        Arrays.sort(postings, (a, b) -> ModelUtil.compareLong(a.mSize, b.mSize));
+        IntList shortest = postings[0];
+
+        for (int i = 0; i < shortest.mSize; i++) {
+            int id = shortest.mValues[i];
+            boolean inAll = true;
+            for (int j = 1; j < postings.length && inAll; j++) {
+                inAll = postings[j].contains(id);
+            }
+
+            Term term = mTermsById.get(id);
+            if (inAll && term.mReferences > 0 && term.mText.contains(query)) {
+                matches.add(term);
+            }
+        }
+        return matches;
+    }
+
+    private void addSong(Song song) {
+        mSongs.put(song.getSongId(), song);
+        reference(song.getSongName(), song, SONG_TITLE);
+        reference(song.getAlbumName(), song, SONG_ALBUM);
+        reference(song.getArtistName(), song, SONG_ARTIST);
+    }
+
+    private void removeSong(long songId) {
+        Song song = mSongs.remove(songId);
+        if (song != null) {
+            unreference(song.getSongName(), song, SONG_TITLE);
+            unreference(song.getAlbumName(), song, SONG_ALBUM);
+            unreference(song.getArtistName(), song, SONG_ARTIST);
+        }
+    }
+
+    private void reference(String name, Object item, byte field) {
+        String text = fold(name);
+        if (text.isEmpty()) {
+            return;
+        }
+
+        Term term = mTerms.get(text);
+        if (term == null) {
+            term = new Term(mTermsById.size(), text);
+            mTerms.put(text, term);
+            mTermsById.add(term);
+            indexTerm(term);
+        } else if (term.mReferences == 0) {
+            mDeadTerms--;
+        }
+
+        term.add(item, field);
+    }
+
+    private void unreference(String name, Object item, byte field) {
+        Term term = mTerms.get(fold(name));
+        if (term != null && term.remove(item, field) && term.mReferences == 0) {
+            mDeadTerms++;
+        }
+    }
+
+    private void referenceAlbums() {
+        for (Album album : mAlbums) {
+            reference(album.getAlbumName(), album, ALBUM_NAME);
+            reference(album.getArtistName(), album, ALBUM_ARTIST);
+        }
+    }
+
+    private void referenceArtists() {
+        for (Artist artist : mArtists) {
+            reference(artist.getArtistName(), artist, ARTIST_NAME);
+        }
+    }
+
+    private void referenceGenres() {
+        for (Genre genre : mGenres) {
+            reference(genre.getGenreName(), genre, GENRE_NAME);
+        }
+    }
+
+    /**
+     * Removes every item in a set of fields in a single pass over the terms. Unreferencing each
+     * item on its own would have to search a term's items once per item, which is quadratic for
+     * names that are shared by many albums or songs.
+     * @param fields A bit mask with {@code 1 << field} set for each field to remove
+     */
+    private void unreferenceAll(int fields) {
+        for (Term term : mTermsById) {
+            if (term.mReferences > 0 && term.removeAll(fields) && term.mReferences == 0) {
+                mDeadTerms++;
+            }
+        }
+    }
+
+    private void indexTerm(Term term) {
+        // Term ids only increase, so every posting list stays sorted and a repeated trigram in
+        // the same term is always at the end of its list
+        String text = term.mText;
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            long gram = getGram(text, i);
+            IntList posting = mGrams.get(gram);
+            if (posting == null) {
+                posting = new IntList();
+                mGrams.put(gram, posting);
+            }
+            if (posting.mSize == 0 || posting.mValues[posting.mSize - 1] != term.mId) {
+                posting.add(term.mId);
+            }
+        }
+
+        Set<String> words = new HashSet<>();
+        int start = -1;
+        for (int i = 0; i <= term.mText.length(); i++) {
+            boolean letter = i < term.mText.length()
+                    && Character.isLetterOrDigit(term.mText.charAt(i));
+
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                words.add(term.mText.substring(start, i));
+                start = -1;
+            }
+        }
+
+        for (String word : words) {
+            IntList posting = mWords.get(word);
+            if (posting == null) {
+                posting = new IntList();
+                mWords.put(word, posting);
+            }
+            posting.add(term.mId);
+        }
+    }
+
+    private static Set<Long> getGrams(String text) {
+        Set<Long> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(getGram(text, i));
+        }
+        return grams;
+    }
+
+    private static long getGram(String text, int start) {
+        long gram = ((long) text.charAt(start) << 32)
+                | ((long) text.charAt(start + 1) << 16)
+                | text.charAt(start + 2);
+
+        // Long.hashCode() folds the high and low halves together, which puts most trigrams in the
+        // same few buckets. Multiplying by an odd constant is reversible, so every key is still
+        // unique but its bits are spread out.
+        return gram * 0x9E3779B97F4A7C15L;
+    }
+
+    private void compactIfNeeded() {
+        if (mDeadTerms < MIN_DEAD_TERMS_FOR_REBUILD || mDeadTerms < mTerms.size() / 2) {
+            return;
+        }
+
+        rebuild(new ArrayList<>(mSongs.values()), mAlbums, mArtists, mGenres);
+    }
+
+    private void rebuild(Collection<Song> songs, List<Album> albums, List<Artist> artists,
+                         List<Genre> genres) {
+        mTerms.clear();
+        mTermsById.clear();
+        mGrams.clear();
+        mWords.clear();
+        mDeadTerms = 0;
+        mSongs.clear();
+        mAlbums = new ArrayList<>(albums);
+        mArtists = new ArrayList<>(artists);
+        mGenres = new ArrayList<>(genres);
+
+        for (Song song : songs) {
+            addSong(song);
+        }
+        referenceAlbums();
+        referenceArtists();
+        referenceGenres();
+    }
+
+    /**
+     * A distinct name in the library, along with every item that has that name in some field
+     */
+    private static final class Term {
+
+        final int mId;
+        final String mText;
+
+        Object[] mItems = new Object[1];
+        byte[] mFields = new byte[1];
+        int mSize;
+        int mReferences;
+
+        Term(int id, String text) {
+            mId = id;
+            mText = text;
+        }
+
+        void add(Object item, byte field) {
+            if (mSize == mItems.length) {
+                mItems = Arrays.copyOf(mItems, mSize * 2);
+                mFields = Arrays.copyOf(mFields, mSize * 2);
+            }
+            mItems[mSize] = item;
+            mFields[mSize] = field;
+            mSize++;
+            mReferences++;
+        }
+
+        boolean remove(Object item, byte field) {
+            for (int i = 0; i < mSize; i++) {
+                if (mFields[i] == field && mItems[i].equals(item)) {
+                    // Order doesn't matter, so move the last item into this slot
+                    mSize--;
+                    mItems[i] = mItems[mSize];
+                    mFields[i] = mFields[mSize];
+                    mItems[mSize] = null;
+                    mReferences--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Removes every item in a set of fields
+         * @param fields A bit mask with {@code 1 << field} set for each field to remove
+         * @return {@code true} if any item was removed
+         */
+        boolean removeAll(int fields) {
+            int kept = 0;
+            for (int i = 0; i < mSize; i++) {
+                if ((fields & (1 << mFields[i])) == 0) {
+                    mItems[kept] = mItems[i];
+                    mFields[kept] = mFields[i];
+                    kept++;
+                }
+            }
+
+            int removed = mSize - kept;
+            Arrays.fill(mItems, kept, mSize, null);
+            mSize = kept;
+            mReferences -= removed;
+            return removed > 0;
+        }
+    }
+
+    /**
+     * A sorted, growable list of term ids
+     */
+    private static final class IntList {
+
+        int[] mValues = new int[4];
+        int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        boolean contains(int value) {
+            return Arrays.binarySearch(mValues, 0, mSize, value) >= 0;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.marverenic.music.data.search;
+
+import com.marverenic.music.model.Album;
+import com.marverenic.music.model.Artist;
+import com.marverenic.music.model.Genre;
+import com.marverenic.music.model.Song;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The songs, albums, artists and genres that match a search query, ordered by relevance
+ */
+public final class LibrarySearchResult {
+
+    private final String mQuery;
+    private final List<Song> mSongs;
+    private final List<Album> mAlbums;
+    private final List<Artist> mArtists;
+    private final List<Genre> mGenres;
+
+    public LibrarySearchResult(String query, List<Song> songs, List<Album> albums,
+                               List<Artist> artists, List<Genre> genres) {
+        mQuery = query;
+        mSongs = Collections.unmodifiableList(songs);
+        mAlbums = Collections.unmodifiableList(albums);
+        mArtists = Collections.unmodifiableList(artists);
+        mGenres = Collections.unmodifiableList(genres);
+    }
+
+    public static LibrarySearchResult empty(String query) {
+        return new LibrarySearchResult(query, Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    public String getQuery() {
+        return mQuery;
+    }
+
+    public List<Song> getSongs() {
+        return mSongs;
+    }
+
+    public List<Album> getAlbums() {
+        return mAlbums;
+    }
+
+    public List<Artist> getArtists() {
+        return mArtists;
+    }
+
+    public List<Genre> getGenres() {
+        return mGenres;
+    }
+
+    public boolean isEmpty() {
+        return mSongs.isEmpty() && mAlbums.isEmpty() && mArtists.isEmpty() && mGenres.isEmpty();
+    }
+}
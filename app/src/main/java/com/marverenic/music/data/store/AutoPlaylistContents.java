@@ -0,0 +1,453 @@
+package com.marverenic.music.data.store;
+
+import androidx.annotation.Nullable;
+
+import com.marverenic.music.model.AutoPlaylist;
+import com.marverenic.music.model.Song;
+import com.marverenic.music.model.playlistrules.AutoPlaylistRule;
+import com.marverenic.music.model.playlistrules.SongPredicate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Incrementally maintains the contents of an {@link AutoPlaylist}. When a song is added, removed,
+ * modified, or played, only that song is evaluated against the playlist's compiled rules and moved
+ * to its new position, instead of filtering and sorting the entire library again.
+ *
+ * Rules over playlists, genres, albums and artists are compiled into sets of ids, which can
+ * change when any song in the library changes. Playlists with these rules have to be recompiled
+ * and fully re-evaluated when the library changes (see {@link #canApplyIncrementally}), but only
+ * the songs that changed are re-evaluated when play counts change.
+ *
+ * Matching songs are kept in a tree keyed by a sparse rank, along with a map from each song's ID
+ * to its rank. A changed song can be found and removed by its ID even after its sort key has
+ * changed, and is put back in place with a binary search over the ranks, so finding where each
+ * change belongs takes logarithmic time instead of filtering and sorting the library again.
+ *
+ * The contents are published as an immutable copy, because observers keep the lists that they
+ * receive. Copying is linear in the size of the playlist (or in its maximum size if it's
+ * truncated), so it's skipped when none of the changed songs were added, removed, modified, or
+ * moved relative to their neighbors.
+ *
+ * This class is thread safe.
+ */
+class AutoPlaylistContents {
+
+    /**
+     * The distance between the ranks of adjacent matches when they're numbered. Songs that are
+     * inserted between two matches take the rank halfway between them, so about 20 songs can be
+     * inserted in the same place before the matches have to be numbered again.
+     */
+    private static final long RANK_SPACING = 1L << 20;
+
+    private final AutoPlaylist mPlaylist;
+    private final PlayCountStore mPlayCountStore;
+    private final boolean mOnlyHasSongRules;
+    private final Random mRandom;
+
+    private SongPredicate mPredicate;
+    private long mLibraryVersion;
+    private final Map<Long, Song> mLibrary;
+
+    /**
+     * Every song that matches this playlist's rules, keyed by rank. If the playlist has a maximum
+     * size, these are in the order used to truncate it. Otherwise, they're in the playlist's final
+     * order.
+     */
+    private final TreeMap<Long, Song> mMatches;
+
+    /**
+     * The rank of each song in {@link #mMatches}, keyed by song ID
+     */
+    private final Map<Long, Long> mMatchRanks;
+    private List<Song> mContents;
+
+    /**
+     * Reused by {@link #keepRandomOrder(List, int)} so that it doesn't allocate a new map every
+     * time the playlist changes
+     */
+    private final Map<Long, Song> mUnorderedContents;
+
+    AutoPlaylistContents(AutoPlaylist playlist, PlayCountStore playCountStore) {
+        mPlaylist = playlist;
+        mPlayCountStore = playCountStore;
+        mRandom = new Random();
+        mLibrary = new HashMap<>();
+        mMatches = new TreeMap<>();
+        mMatchRanks = new HashMap<>();
+        mContents = Collections.emptyList();
+        mUnorderedContents = new HashMap<>();
+
+        boolean onlyHasSongRules = true;
+        for (AutoPlaylistRule rule : playlist.getRules()) {
+            onlyHasSongRules &= rule.getType() == AutoPlaylistRule.SONG;
+        }
+        mOnlyHasSongRules = onlyHasSongRules;
+    }
+
+    public synchronized boolean isInitialized() {
+        return mPredicate != null;
+    }
+
+    public synchronized List<Song> getContents() {
+        return mContents;
+    }
+
+    /**
+     * @return Whether or not a library change set can be applied with
+     *         {@link #applyLibraryChanges(LibraryChangeSet)}. If it can't, the playlist's rules
+     *         have to be recompiled and passed to {@link #reset(SongPredicate, LibraryChangeSet)}.
+     */
+    public synchronized boolean canApplyIncrementally(LibraryChangeSet changes) {
+        return isInitialized() && mOnlyHasSongRules && changes.appliesTo(mLibraryVersion);
+    }
+
+    /**
+     * Re-evaluates every song in the library
+     * @param predicate This playlist's compiled rules
+     * @param library The most recent change to the library
+     */
+    public synchronized void reset(SongPredicate predicate, LibraryChangeSet library) {
+        mPredicate = predicate;
+        mLibraryVersion = library.getVersion();
+
+        mLibrary.clear();
+        List<Song> matches = new ArrayList<>();
+        for (Song song : library.getSongs()) {
+            mLibrary.put(song.getSongId(), song);
+            if (predicate.test(song)) {
+                matches.add(song);
+            }
+        }
+
+        if (getMatchOrder() == null) {
+            Collections.shuffle(matches, mRandom);
+        } else if (isTruncated()) {
+            mPlaylist.sortForTruncation(matches, mPlayCountStore);
+        } else {
+            mPlaylist.sortContents(matches, mPlayCountStore);
+        }
+
+        setMatches(matches);
+        updateContents();
+    }
+
+    /**
+     * Re-evaluates only the songs that were changed in the library
+     * @return Whether or not the contents of the playlist changed
+     */
+    public synchronized boolean applyLibraryChanges(LibraryChangeSet changes) {
+        if (!canApplyIncrementally(changes)) {
+            throw new IllegalStateException("Cannot apply library changes incrementally");
+        }
+
+        Set<Long> removedIds = new HashSet<>();
+        for (Song removed : changes.getRemovedSongs()) {
+            mLibrary.remove(removed.getSongId());
+            removedIds.add(removed.getSongId());
+        }
+
+        List<Song> changed = new ArrayList<>(changes.getUpdatedSongs());
+        changed.addAll(changes.getInsertedSongs());
+        for (Song song : changed) {
+            mLibrary.put(song.getSongId(), song);
+        }
+
+        mLibraryVersion = changes.getVersion();
+        return reevaluate(removedIds, changed);
+    }
+
+    /**
+     * Re-evaluates songs after their play counts, skip counts, or play dates have changed
+     * @return Whether or not the contents of the playlist changed
+     */
+    public synchronized boolean applyPlayCountChanges(Set<Long> songIds) {
+        if (!isInitialized()) {
+            return false;
+        }
+
+        List<Song> changed = new ArrayList<>(songIds.size());
+        for (long songId : songIds) {
+            Song song = mLibrary.get(songId);
+            if (song != null) {
+                changed.add(song);
+            }
+        }
+
+        return reevaluate(songIds, changed);
+    }
+
+    private boolean reevaluate(Collection<Long> removedIds, List<Song> changed) {
+        // Remember where each changed song was, so that songs which end up back in the same place
+        // don't cause the contents to be copied again
+        Map<Long, Placement> placements = new HashMap<>();
+        for (Song song : changed) {
+            Long rank = mMatchRanks.get(song.getSongId());
+            if (rank != null) {
+                placements.put(song.getSongId(), new Placement(rank));
+            }
+        }
+
+        // Remove every affected song before any are inserted again. Their sort keys may have
+        // changed, which would break the binary search used to find where they belong.
+        boolean matchesChanged = false;
+        for (long songId : removedIds) {
+            matchesChanged |= removeMatch(songId) && !placements.containsKey(songId);
+        }
+        for (Song song : changed) {
+            removeMatch(song.getSongId());
+        }
+
+        Comparator<Song> order = getMatchOrder();
+        for (Song song : changed) {
+            if (mPredicate.test(song)) {
+                insertMatch(song, order);
+            }
+        }
+
+        for (Song song : changed) {
+            Placement previous = placements.get(song.getSongId());
+            Long rank = mMatchRanks.get(song.getSongId());
+
+            if (previous == null || rank == null) {
+                matchesChanged |= previous != null || rank != null;
+            } else {
+                matchesChanged |= !previous.isSamePlacement(rank);
+            }
+        }
+
+        return matchesChanged && updateContents();
+    }
+
+    /**
+     * Replaces every match, numbering their ranks in the given order
+     */
+    private void setMatches(List<Song> matches) {
+        mMatches.clear();
+        mMatchRanks.clear();
+
+        long rank = 0;
+        for (Song song : matches) {
+            mMatches.put(rank, song);
+            mMatchRanks.put(song.getSongId(), rank);
+            rank += RANK_SPACING;
+        }
+    }
+
+    private boolean removeMatch(long songId) {
+        Long rank = mMatchRanks.remove(songId);
+        if (rank == null) {
+            return false;
+        }
+
+        mMatches.remove(rank);
+        return true;
+    }
+
+    private void insertMatch(Song song, @Nullable Comparator<Song> order) {
+        Long next = (order == null) ? pickRandomRank() : findRankAfter(song, order);
+        Long previous = (next == null) ? null : mMatches.lowerKey(next);
+
+        long rank;
+        if (mMatches.isEmpty()) {
+            rank = 0;
+        } else if (next == null) {
+            rank = mMatches.lastKey() + RANK_SPACING;
+        } else if (previous == null) {
+            rank = next - RANK_SPACING;
+        } else if (next - previous > 1) {
+            rank = previous + (next - previous) / 2;
+        } else {
+            // There's no room left between these songs, so spread every match out again
+            setMatches(new ArrayList<>(mMatches.values()));
+            insertMatch(song, order);
+            return;
+        }
+
+        mMatches.put(rank, song);
+        mMatchRanks.put(song.getSongId(), rank);
+    }
+
+    /**
+     * Finds the first match that belongs after a song. Every match is already in the right place
+     * relative to the others, so this is a binary search over the range of ranks, which takes
+     * at most one lookup in {@link #mMatches} for each bit of the rank.
+     * @return The rank of the first match that is ordered after {@code song}, or {@code null} if
+     *         the song belongs at the end
+     */
+    @Nullable
+    private Long findRankAfter(Song song, Comparator<Song> order) {
+        if (mMatches.isEmpty()) {
+            return null;
+        }
+
+        Long result = null;
+        long low = mMatches.firstKey();
+        long high = mMatches.lastKey();
+
+        while (low <= high) {
+            long mid = low + (high - low) / 2;
+            Map.Entry<Long, Song> entry = mMatches.ceilingEntry(mid);
+
+            if (entry == null || entry.getKey() > high) {
+                // There aren't any matches between mid and high
+                high = mid - 1;
+            } else if (order.compare(entry.getValue(), song) > 0) {
+                // This is the first match at or after mid, and it comes after the song
+                result = entry.getKey();
+                high = mid - 1;
+            } else {
+                low = entry.getKey() + 1;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Picks a position for a song in a shuffled playlist
+     * @return The rank of the match to insert a song before, or {@code null} to insert it at the
+     *         end. When the ranks are evenly spaced, every position is about equally likely.
+     */
+    @Nullable
+    private Long pickRandomRank() {
+        if (mMatches.isEmpty()) {
+            return null;
+        }
+
+        long first = mMatches.firstKey();
+        long range = mMatches.lastKey() - first + RANK_SPACING;
+        long offset = (long) (mRandom.nextDouble() * range);
+        return mMatches.ceilingKey(first + offset);
+    }
+
+    @Nullable
+    private Comparator<Song> getMatchOrder() {
+        if (isTruncated()) {
+            return mPlaylist.getTruncateOrder(mPlayCountStore);
+        } else {
+            return mPlaylist.getSortOrder(mPlayCountStore);
+        }
+    }
+
+    private boolean isTruncated() {
+        return mPlaylist.getMaximumEntries() >= 0;
+    }
+
+    /**
+     * Rebuilds the visible contents of the playlist from the current matches
+     * @return Whether or not the contents changed
+     */
+    private boolean updateContents() {
+        if (!isTruncated()) {
+            mContents = Collections.unmodifiableList(new ArrayList<>(mMatches.values()));
+            return true;
+        }
+
+        // Only the songs that make the cut are copied
+        int size = Math.min(mPlaylist.getMaximumEntries(), mMatches.size());
+        List<Song> contents;
+
+        if (mPlaylist.getSortOrder(mPlayCountStore) == null) {
+            contents = keepRandomOrder(mContents, size);
+        } else {
+            contents = new ArrayList<>(size);
+            for (Song song : mMatches.values()) {
+                if (contents.size() == size) {
+                    break;
+                }
+                contents.add(song);
+            }
+            mPlaylist.sortContents(contents, mPlayCountStore);
+        }
+
+        // Changes to songs below the cut don't change the contents
+        boolean changed = contents.size() != mContents.size();
+        for (int i = 0; !changed && i < contents.size(); i++) {
+            // Songs are compared by reference so that modified songs are also published
+            changed = contents.get(i) != mContents.get(i);
+        }
+
+        mContents = Collections.unmodifiableList(contents);
+        return changed;
+    }
+
+    /**
+     * Keeps shuffled playlists in the same order when they're updated. Songs that are still in
+     * the playlist keep their relative order, and new songs are put in random positions.
+     * @param previous The previous contents of the playlist
+     * @param size The number of matches that make the cut
+     */
+    private List<Song> keepRandomOrder(List<Song> previous, int size) {
+        Map<Long, Song> remaining = mUnorderedContents;
+        for (Song song : mMatches.values()) {
+            if (remaining.size() == size) {
+                break;
+            }
+            remaining.put(song.getSongId(), song);
+        }
+
+        List<Song> ordered = new ArrayList<>(size);
+        for (Song song : previous) {
+            Song current = remaining.remove(song.getSongId());
+            if (current != null) {
+                ordered.add(current);
+            }
+        }
+
+        for (Song song : mMatches.values()) {
+            if (remaining.isEmpty()) {
+                break;
+            } else if (remaining.remove(song.getSongId()) != null) {
+                ordered.add(mRandom.nextInt(ordered.size() + 1), song);
+            }
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Where a match was before it was re-evaluated
+     */
+    private final class Placement {
+
+        private final Song mSong;
+        @Nullable private final Long mPreviousId;
+        @Nullable private final Long mNextId;
+
+        Placement(long rank) {
+            mSong = mMatches.get(rank);
+            mPreviousId = getSongId(mMatches.lowerEntry(rank));
+            mNextId = getSongId(mMatches.higherEntry(rank));
+        }
+
+        /**
+         * A song is in the same place if it hasn't been modified and it's between the same two
+         * songs. If this is true for every changed song, then the matches are in the same order.
+         */
+        boolean isSamePlacement(long rank) {
+            return mSong == mMatches.get(rank)
+                    && equals(mPreviousId, getSongId(mMatches.lowerEntry(rank)))
+                    && equals(mNextId, getSongId(mMatches.higherEntry(rank)));
+        }
+
+        @Nullable
+        private Long getSongId(@Nullable Map.Entry<Long, Song> entry) {
+            return (entry == null) ? null : entry.getValue().getSongId();
+        }
+
+        private boolean equals(@Nullable Long a, @Nullable Long b) {
+            return (a == null) ? b == null : a.equals(b);
+        }
+    }
+}
@@ -6,6 +6,8 @@ import android.net.Uri;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
+import com.marverenic.music.data.index.IndexedAlbumArtwork;
+import com.marverenic.music.data.search.LibrarySearchResult;
 import com.marverenic.music.model.Album;
 import com.marverenic.music.model.Artist;
 import com.marverenic.music.model.Genre;
@@ -75,6 +77,12 @@ public class DemoMusicStore implements MusicStore {
         return mSongs;
     }
 
+    @Override
+    public Observable<LibraryChangeSet> getSongChanges() {
+        // The demo library never changes, so it only has one version
+        return getSongs().map(songs -> LibraryChangeSet.reset(1, songs));
+    }
+
     @Override
     public Observable<List<Album>> getAlbums() {
         if (mAlbums == null) {
@@ -229,6 +237,11 @@ public class DemoMusicStore implements MusicStore {
                 });
     }
 
+    @Override
+    public Observable<IndexedAlbumArtwork> getAlbumArtwork(Album album) {
+        return Observable.just(null);
+    }
+
     @Override
     public Observable<Artist> findArtistByName(String artistName) {
         return getArtists().flatMap(
@@ -242,6 +255,14 @@ public class DemoMusicStore implements MusicStore {
                 });
     }
 
+    @Override
+    public Observable<LibrarySearchResult> search(String query) {
+        return Observable.combineLatest(searchForSongs(query), searchForAlbums(query),
+                searchForArtists(query), searchForGenres(query),
+                (songs, albums, artists, genres) ->
+                        new LibrarySearchResult(query, songs, albums, artists, genres));
+    }
+
     @Override
     public Observable<List<Song>> searchForSongs(String query) {
         return getSongs().map(
@@ -0,0 +1,129 @@
+package com.marverenic.music.data.store;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A set of directories compiled into a trie of path segments, which can check whether a file is
+ * inside any of the directories in a single walk down its path. The cost of a lookup depends only
+ * on the length of the path, not on how many directories are in the trie.
+ *
+ * Paths are compared without case, and a file is only inside a directory if the directory's path
+ * is followed by a separator. For example, {@code /sdcard/Music} contains
+ * {@code /sdcard/music/song.mp3}, but not {@code /sdcard/Music.mp3}.
+ */
+final class DirectoryTrie {
+
+    private static final char SEPARATOR = File.separatorChar;
+
+    private final Node mRoot;
+    private final boolean mEmpty;
+
+    private DirectoryTrie(Node root, boolean empty) {
+        mRoot = root;
+        mEmpty = empty;
+    }
+
+    /**
+     * @param directories The paths of the directories to put in the trie
+     * @return A trie containing every directory
+     */
+    static DirectoryTrie compile(Collection<String> directories) {
+        Node root = new Node();
+        boolean empty = true;
+
+        for (String directory : directories) {
+            String path = normalize(directory);
+            Node node = root;
+
+            int start = 0;
+            while (start <= path.length()) {
+                int end = path.indexOf(SEPARATOR, start);
+                if (end < 0) {
+                    end = path.length();
+                }
+
+                node = node.getOrCreateChild(path.substring(start, end));
+                start = end + 1;
+            }
+
+            node.mIsDirectory = true;
+            empty = false;
+        }
+
+        return new DirectoryTrie(root, empty);
+    }
+
+    private static String normalize(String directory) {
+        int length = directory.length();
+        while (length > 1 && directory.charAt(length - 1) == SEPARATOR) {
+            length--;
+        }
+        return directory.substring(0, length).toLowerCase(Locale.ROOT);
+    }
+
+    boolean isEmpty() {
+        return mEmpty;
+    }
+
+    /**
+     * @param path The path of a file
+     * @return Whether the file is inside one of the directories in this trie, or in one of their
+     *         subdirectories
+     */
+    boolean contains(String path) {
+        if (mEmpty) {
+            return false;
+        }
+
+        String lowerCasePath = path.toLowerCase(Locale.ROOT);
+        Node node = mRoot;
+
+        int start = 0;
+        while (true) {
+            int end = lowerCasePath.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                // The last segment is the file's name, which can't be one of the directories
+                return false;
+            }
+
+            node = node.getChild(lowerCasePath, start, end);
+            if (node == null) {
+                return false;
+            } else if (node.mIsDirectory) {
+                return true;
+            }
+
+            start = end + 1;
+        }
+    }
+
+    private static final class Node {
+
+        private Map<String, Node> mChildren;
+        boolean mIsDirectory;
+
+        Node getOrCreateChild(String segment) {
+            if (mChildren == null) {
+                mChildren = new HashMap<>();
+            }
+
+            Node child = mChildren.get(segment);
+            if (child == null) {
+                child = new Node();
+                mChildren.put(segment, child);
+            }
+            return child;
+        }
+
+        Node getChild(String path, int start, int end) {
+            if (mChildren == null) {
+                return null;
+            }
+            return mChildren.get(path.substring(start, end));
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.marverenic.music.data.store;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.marverenic.music.model.Song;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes how the songs in a {@link MusicStore} changed between two versions of the library.
+ * Every change set also includes the complete list of songs after the change was applied, so
+ * subscribers that aren't at {@link #getPreviousVersion()} can fall back to replacing their data
+ * entirely.
+ */
+public final class LibraryChangeSet {
+
+    public static final long NO_VERSION = -1;
+
+    private final long mVersion;
+    private final long mPreviousVersion;
+
+    @Nullable
+    private final List<Song> mPreviousSongs;
+    private final List<Song> mSongs;
+
+    private final List<Song> mInserted;
+    private final List<Song> mRemoved;
+    private final List<Song> mUpdated;
+    private final List<Song> mUpdatedPrevious;
+
+    private LibraryChangeSet(long version, long previousVersion,
+                             @Nullable List<Song> previousSongs, List<Song> songs,
+                             List<Song> inserted, List<Song> removed,
+                             List<Song> updated, List<Song> updatedPrevious) {
+        mVersion = version;
+        mPreviousVersion = previousVersion;
+        mPreviousSongs = previousSongs;
+        mSongs = songs;
+        mInserted = Collections.unmodifiableList(inserted);
+        mRemoved = Collections.unmodifiableList(removed);
+        mUpdated = Collections.unmodifiableList(updated);
+        mUpdatedPrevious = Collections.unmodifiableList(updatedPrevious);
+    }
+
+    /**
+     * Creates a change set that replaces the entire library
+     * @param version The version of the library after this change
+     * @param songs Every song in the library, sorted by name
+     */
+    public static LibraryChangeSet reset(long version, List<Song> songs) {
+        return new LibraryChangeSet(version, NO_VERSION, null, songs, Collections.emptyList(),
+                Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Creates a change set that describes an incremental change to the library
+     * @param version The version of the library after this change
+     * @param previousSongs Every song in the library before this change, sorted by name
+     * @param songs Every song in the library after this change, sorted by name
+     * @param inserted The songs that were added to the library
+     * @param removed The previous instances of songs that were removed from the library
+     * @param updated The new instances of songs that were modified
+     * @param updatedPrevious The previous instances of the songs in {@code updated}, in the same
+     *                        order
+     */
+    public static LibraryChangeSet delta(long version, List<Song> previousSongs, List<Song> songs,
+                                         List<Song> inserted, List<Song> removed,
+                                         List<Song> updated, List<Song> updatedPrevious) {
+        if (updated.size() != updatedPrevious.size()) {
+            throw new IllegalArgumentException("Every updated song must have a previous version");
+        }
+
+        return new LibraryChangeSet(version, version - 1, previousSongs, songs,
+                inserted, removed, updated, updatedPrevious);
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return The version of the library that this change set applies to, or {@link #NO_VERSION}
+     *         if this change set replaces the entire library
+     */
+    public long getPreviousVersion() {
+        return mPreviousVersion;
+    }
+
+    public boolean isReset() {
+        return mPreviousVersion == NO_VERSION;
+    }
+
+    /**
+     * @param version The version of the library that a subscriber currently has
+     * @return Whether or not this change set can be applied incrementally on top of that version
+     */
+    public boolean appliesTo(long version) {
+        return !isReset() && mPreviousVersion == version;
+    }
+
+    /**
+     * @return Every song in the library after this change was applied, sorted by name
+     */
+    public List<Song> getSongs() {
+        return mSongs;
+    }
+
+    public List<Song> getInsertedSongs() {
+        return mInserted;
+    }
+
+    public List<Song> getRemovedSongs() {
+        return mRemoved;
+    }
+
+    public List<Song> getUpdatedSongs() {
+        return mUpdated;
+    }
+
+    public long[] getInsertedSongIds() {
+        return getIds(mInserted);
+    }
+
+    public long[] getRemovedSongIds() {
+        return getIds(mRemoved);
+    }
+
+    public long[] getUpdatedSongIds() {
+        return getIds(mUpdated);
+    }
+
+    public boolean isEmpty() {
+        return mInserted.isEmpty() && mRemoved.isEmpty() && mUpdated.isEmpty();
+    }
+
+    private static long[] getIds(List<Song> songs) {
+        long[] ids = new long[songs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = songs.get(i).getSongId();
+        }
+        return ids;
+    }
+
+    /**
+     * Dispatches the position of every change to a {@link ListUpdateCallback}, in the same way
+     * as {@link androidx.recyclerview.widget.DiffUtil.DiffResult#dispatchUpdatesTo}. Positions
+     * are found with a binary search, so this only costs O(changes * log(n)).
+     * @param callback The callback to notify. Its data must match {@link #getVersion()} before
+     *                 this change set is applied, and should be replaced with
+     *                 {@link #getSongs()} before this method is called.
+     */
+    public void dispatchUpdatesTo(ListUpdateCallback callback) {
+        if (isReset() || mPreviousSongs == null) {
+            throw new IllegalStateException("Cannot dispatch updates for a reset");
+        }
+
+        List<Integer> removedPositions = new ArrayList<>();
+        List<Integer> insertedPositions = new ArrayList<>();
+        List<Integer> changedPositions = new ArrayList<>();
+
+        for (Song song : mRemoved) {
+            removedPositions.add(indexOf(mPreviousSongs, song));
+        }
+
+        for (Song song : mInserted) {
+            insertedPositions.add(indexOf(mSongs, song));
+        }
+
+        for (int i = 0; i < mUpdated.size(); i++) {
+            Song updated = mUpdated.get(i);
+            Song previous = mUpdatedPrevious.get(i);
+
+            if (updated.compareTo(previous) == 0) {
+                changedPositions.add(indexOf(mSongs, updated));
+            } else {
+                removedPositions.add(indexOf(mPreviousSongs, previous));
+                insertedPositions.add(indexOf(mSongs, updated));
+            }
+        }
+
+        // Remove items from the end of the list first so that earlier positions remain valid,
+        // then insert items from the start of the list so that later positions become valid
+        Collections.sort(removedPositions, Collections.reverseOrder());
+        for (int position : removedPositions) {
+            callback.onRemoved(position, 1);
+        }
+
+        Collections.sort(insertedPositions);
+        for (int position : insertedPositions) {
+            callback.onInserted(position, 1);
+        }
+
+        for (int position : changedPositions) {
+            callback.onChanged(position, 1, null);
+        }
+    }
+
+    /**
+     * Finds the position of a song in a sorted list. Songs with the same name are compared by id.
+     */
+    private static int indexOf(List<Song> sortedSongs, Song song) {
+        int index = Collections.binarySearch(sortedSongs, song);
+        if (index < 0) {
+            throw new IllegalStateException(song + " is not in the library");
+        }
+
+        for (int i = index; i >= 0 && sortedSongs.get(i).compareTo(song) == 0; i--) {
+            if (sortedSongs.get(i).getSongId() == song.getSongId()) {
+                return i;
+            }
+        }
+
+        for (int i = index + 1; i < sortedSongs.size()
+                && sortedSongs.get(i).compareTo(song) == 0; i++) {
+            if (sortedSongs.get(i).getSongId() == song.getSongId()) {
+                return i;
+            }
+        }
+
+        throw new IllegalStateException(song + " is not in the library");
+    }
+}
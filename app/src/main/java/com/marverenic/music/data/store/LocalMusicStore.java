@@ -4,6 +4,11 @@ import android.content.Context;
 import android.net.Uri;
 import android.provider.MediaStore;
 
+import com.marverenic.music.data.index.ArtworkIndexer;
+import com.marverenic.music.data.index.IndexedAlbumArtwork;
+import com.marverenic.music.data.index.LibraryIndex;
+import com.marverenic.music.data.search.LibrarySearchIndex;
+import com.marverenic.music.data.search.LibrarySearchResult;
 import com.marverenic.music.model.Album;
 import com.marverenic.music.model.Artist;
 import com.marverenic.music.model.Genre;
@@ -11,8 +16,13 @@ import com.marverenic.music.model.Song;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
@@ -24,6 +34,27 @@ public class LocalMusicStore implements MusicStore {
 
     private Context mContext;
     private PreferenceStore mPreferenceStore;
+    private LibraryIndex mLibraryIndex;
+    private ArtworkIndexer mArtworkIndexer;
+
+    /**
+     * Every song in the library index, sorted by name. Directory filters have not been applied to
+     * this list. This list is replaced instead of modified whenever the index changes.
+     */
+    private List<Song> mLibrary;
+
+    /**
+     * The songs that were most recently published to subscribers, with directory filters applied
+     */
+    private List<Song> mVisibleSongs;
+    private DirectoryFilter mDirectoryFilter;
+    private long mLibraryVersion;
+
+    /**
+     * The albums, artists and genres of {@link #mVisibleSongs}. This is rebuilt lazily whenever
+     * the library version changes.
+     */
+    private LibraryMembership mMembership;
 
     private BehaviorSubject<Boolean> mSongLoadingState;
     private BehaviorSubject<Boolean> mArtistLoadingState;
@@ -31,13 +62,19 @@ public class LocalMusicStore implements MusicStore {
     private BehaviorSubject<Boolean> mGenreLoadingState;
 
     private BehaviorSubject<List<Song>> mSongs;
+    private BehaviorSubject<LibraryChangeSet> mSongChanges;
     private BehaviorSubject<List<Album>> mAlbums;
     private BehaviorSubject<List<Artist>> mArtists;
     private BehaviorSubject<List<Genre>> mGenres;
 
-    public LocalMusicStore(Context context, PreferenceStore preferenceStore) {
+    private BehaviorSubject<LibrarySearchIndex> mSearchIndexUpdates;
+
+    public LocalMusicStore(Context context, PreferenceStore preferenceStore,
+                           LibraryIndex libraryIndex, ArtworkIndexer artworkIndexer) {
         mContext = context;
         mPreferenceStore = preferenceStore;
+        mLibraryIndex = libraryIndex;
+        mArtworkIndexer = artworkIndexer;
 
         mSongLoadingState = BehaviorSubject.create(false);
         mAlbumLoadingState = BehaviorSubject.create(false);
@@ -79,7 +116,7 @@ public class LocalMusicStore implements MusicStore {
                 .observeOn(Schedulers.io())
                 .subscribe(granted -> {
                     if (granted && mSongs != null) {
-                        mSongs.onNext(getAllSongs());
+                        publishLibraryChanges();
                     }
                     mSongLoadingState.onNext(false);
                 }, throwable -> {
@@ -154,7 +191,7 @@ public class LocalMusicStore implements MusicStore {
                 .map(granted -> {
                     if (granted) {
                         if (mSongs != null) {
-                            mSongs.onNext(getAllSongs());
+                            publishLibrary();
                         }
                         if (mArtists != null) {
                             mArtists.onNext(getAllArtists());
@@ -191,15 +228,22 @@ public class LocalMusicStore implements MusicStore {
     public Observable<List<Song>> getSongs() {
         if (mSongs == null) {
             mSongs = BehaviorSubject.create();
+            mSongChanges = BehaviorSubject.create();
             mSongLoadingState.onNext(true);
 
             MediaStoreUtil.getPermission(mContext)
                     .observeOn(Schedulers.io())
                     .subscribe(granted -> {
                         if (granted) {
-                            mSongs.onNext(getAllSongs());
+                            boolean wasIndexed = loadLibrary();
+                            publishLibrary();
+
+                            // Pick up any changes made while the index wasn't being observed
+                            if (wasIndexed) {
+                                publishLibraryChanges();
+                            }
                         } else {
-                            mSongs.onNext(Collections.emptyList());
+                            clearLibrary();
                         }
                         mSongLoadingState.onNext(false);
                     }, throwable -> {
@@ -209,67 +253,160 @@ public class LocalMusicStore implements MusicStore {
         return mSongs.asObservable().observeOn(AndroidSchedulers.mainThread());
     }
 
-    private List<Song> getAllSongs() {
-        return MediaStoreUtil.getSongs(mContext, getDirectoryInclusionExclusionSelection(), null);
-    }
+    @Override
+    public Observable<LibraryChangeSet> getSongChanges() {
+        getSongs();
+        return mSongChanges.asObservable().observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * Loads the library from the library index. If the index has never been populated, it is
+     * built from the MediaStore first.
+     * @return Whether or not the index was already populated before this method was called
+     */
+    private synchronized boolean loadLibrary() {
+        boolean wasIndexed = mLibraryIndex.isPopulated();
+        if (!wasIndexed) {
+            mLibraryIndex.sync();
+        }
 
-    private String getDirectoryInclusionExclusionSelection() {
-        String selection;
+        mLibrary = Collections.unmodifiableList(mLibraryIndex.getSongs());
+        mArtworkIndexer.start();
+        return wasIndexed;
+    }
 
-        String includeSelection = getDirectoryInclusionSelection();
-        String excludeSelection = getDirectoryExclusionSelection();
+    private synchronized void clearLibrary() {
+        mLibrary = Collections.emptyList();
+        publishLibrary();
+    }
 
-        if (includeSelection != null && excludeSelection != null) {
-            selection = "(" + includeSelection + ") AND (" + excludeSelection + ")";
-        } else if (includeSelection != null) {
-            selection = includeSelection;
-        } else if (excludeSelection != null) {
-            selection = excludeSelection;
-        } else {
-            return null;
+    /**
+     * Publishes the entire library to subscribers, replacing whatever they had before. This also
+     * applies any changes to the directory filters.
+     */
+    private synchronized void publishLibrary() {
+        if (mLibrary == null) {
+            loadLibrary();
         }
 
-        return "(" + selection + ")";
-    }
+        mDirectoryFilter = new DirectoryFilter(mPreferenceStore);
+        mVisibleSongs = mDirectoryFilter.filter(mLibrary);
+        publish(LibraryChangeSet.reset(++mLibraryVersion, mVisibleSongs));
+    }
+
+    /**
+     * Brings the library index up to date with the MediaStore and publishes only the songs that
+     * changed. The in-memory library is patched instead of being reloaded.
+     */
+    private synchronized void publishLibraryChanges() {
+        if (mLibrary == null || mDirectoryFilter == null
+                || !mDirectoryFilter.equals(new DirectoryFilter(mPreferenceStore))) {
+            mLibraryIndex.sync();
+            mLibrary = null;
+            publishLibrary();
+            return;
+        }
 
-    private String getDirectoryInclusionSelection() {
-        if (mPreferenceStore.getIncludedDirectories().isEmpty()) {
-            return null;
+        LibraryIndex.Delta delta = mLibraryIndex.sync();
+        if (delta.isEmpty()) {
+            return;
+        }
+        mArtworkIndexer.start();
+
+        LibraryPatch patch = patchLibrary(++mLibraryVersion, mLibrary, mVisibleSongs,
+                mDirectoryFilter, delta);
+
+        mLibrary = patch.mLibrary;
+        mVisibleSongs = patch.mChanges.getSongs();
+        publish(patch.mChanges);
+    }
+
+    /**
+     * Applies a {@link LibraryIndex.Delta} to a copy of the in-memory library
+     * @param version The version of the library after the delta is applied
+     * @param library Every song in the library before the delta, sorted by name
+     * @param visibleSongs The songs in {@code library} that pass {@code filter}
+     * @param filter The directory filter that was used to compute {@code visibleSongs}. Songs
+     *               that move in or out of the filter are reported as inserted or removed.
+     * @param delta The changes to apply
+     * @return The patched library, along with the changes to the visible songs
+     */
+    static LibraryPatch patchLibrary(long version, List<Song> library, List<Song> visibleSongs,
+                                     DirectoryFilter filter, LibraryIndex.Delta delta) {
+        Set<Long> removedIds = new HashSet<>(delta.getRemovedSongIds());
+        Map<Long, Song> updatedSongs = new HashMap<>();
+        for (Song updated : delta.getUpdatedSongs()) {
+            updatedSongs.put(updated.getSongId(), updated);
         }
 
-        StringBuilder builder = new StringBuilder();
+        List<Song> inserted = new ArrayList<>();
+        List<Song> removed = new ArrayList<>();
+        List<Song> updated = new ArrayList<>();
+        List<Song> updatedPrevious = new ArrayList<>();
+        List<Song> reordered = new ArrayList<>();
 
-        for (String directory : mPreferenceStore.getIncludedDirectories()) {
-            builder.append(MediaStore.Audio.Media.DATA)
-                    .append(" LIKE \'")
-                    .append(directory).append(File.separatorChar)
-                    .append("%\'");
+        int capacity = library.size() + delta.getInsertedSongs().size();
+        List<Song> patched = new ArrayList<>(capacity);
 
-            builder.append(" OR ");
-        }
+        for (Song song : library) {
+            long songId = song.getSongId();
+            Song replacement = updatedSongs.remove(songId);
 
-        builder.setLength(builder.length() - 4);
-        return builder.toString();
-    }
+            if (removedIds.contains(songId)) {
+                if (filter.contains(song)) {
+                    removed.add(song);
+                }
+            } else if (replacement != null) {
+                boolean wasVisible = filter.contains(song);
+                boolean isVisible = filter.contains(replacement);
+
+                if (wasVisible && isVisible) {
+                    updated.add(replacement);
+                    updatedPrevious.add(song);
+                } else if (wasVisible) {
+                    removed.add(song);
+                } else if (isVisible) {
+                    inserted.add(replacement);
+                }
 
-    private String getDirectoryExclusionSelection() {
-        if (mPreferenceStore.getExcludedDirectories().isEmpty()) {
-            return null;
+                if (replacement.compareTo(song) == 0) {
+                    patched.add(replacement);
+                } else {
+                    reordered.add(replacement);
+                }
+            } else {
+                patched.add(song);
+            }
         }
 
-        StringBuilder builder = new StringBuilder();
+        // Any updated songs that weren't in memory yet are treated as new songs
+        List<Song> newSongs = new ArrayList<>(delta.getInsertedSongs());
+        newSongs.addAll(updatedSongs.values());
+        for (Song song : newSongs) {
+            if (filter.contains(song)) {
+                inserted.add(song);
+            }
+        }
 
-        for (String directory : mPreferenceStore.getExcludedDirectories()) {
-            builder.append(MediaStore.Audio.Media.DATA)
-                    .append(" NOT LIKE \'")
-                    .append(directory).append(File.separatorChar)
-                    .append("%\'");
+        insertSorted(patched, newSongs);
+        insertSorted(patched, reordered);
+        patched = Collections.unmodifiableList(patched);
 
-            builder.append(" AND ");
-        }
+        LibraryChangeSet changes = LibraryChangeSet.delta(version, visibleSongs,
+                filter.filter(patched), inserted, removed, updated, updatedPrevious);
+        return new LibraryPatch(patched, changes);
+    }
 
-        builder.setLength(builder.length() - 5);
-        return builder.toString();
+    private void publish(LibraryChangeSet changes) {
+        mSongChanges.onNext(changes);
+        mSongs.onNext(changes.getSongs());
+    }
+
+    private static void insertSorted(List<Song> sortedSongs, List<Song> toInsert) {
+        for (Song song : toInsert) {
+            int index = Collections.binarySearch(sortedSongs, song);
+            sortedSongs.add((index < 0) ? -index - 1 : index, song);
+        }
     }
 
     @Override
@@ -345,6 +482,13 @@ public class LocalMusicStore implements MusicStore {
             mGenreLoadingState.onNext(true);
 
             MediaStoreUtil.getPermission(mContext)
+                    .flatMap(granted -> {
+                        if (noDirectoryFilters()) {
+                            return Observable.just(granted);
+                        } else {
+                            return getSongs().map((List<Song> songs) -> granted);
+                        }
+                    })
                     .observeOn(Schedulers.io())
                     .subscribe(granted -> {
                         if (granted) {
@@ -371,19 +515,36 @@ public class LocalMusicStore implements MusicStore {
         return notExcludingFolders && notIncludingFolders;
     }
 
+    /**
+     * @return The albums, artists and genres of the songs that pass the directory filters
+     */
+    private synchronized LibraryMembership getLibraryMembership() {
+        if (mVisibleSongs == null) {
+            // Songs haven't been published yet, so filter the library without caching the result
+            if (mLibrary == null) {
+                loadLibrary();
+            }
+            List<Song> songs = new DirectoryFilter(mPreferenceStore).filter(mLibrary);
+            return new LibraryMembership(mLibraryVersion, songs);
+        }
+
+        if (mMembership == null || mMembership.mLibraryVersion != mLibraryVersion) {
+            mMembership = new LibraryMembership(mLibraryVersion, mVisibleSongs);
+        }
+        return mMembership;
+    }
+
     private List<Album> filterAlbums(List<Album> albumsToFilter) {
         if (noDirectoryFilters()) {
             return albumsToFilter;
         }
 
+        LibraryMembership membership = getLibraryMembership();
         List<Album> filteredAlbums = new ArrayList<>();
 
         for (Album album : albumsToFilter) {
-            for (Song song : mSongs.getValue()) {
-                if (album.getAlbumId() == song.getAlbumId()) {
-                    filteredAlbums.add(album);
-                    break;
-                }
+            if (membership.mAlbumIds.contains(album.getAlbumId())) {
+                filteredAlbums.add(album);
             }
         }
 
@@ -395,14 +556,12 @@ public class LocalMusicStore implements MusicStore {
             return artistsToFilter;
         }
 
+        LibraryMembership membership = getLibraryMembership();
         List<Artist> filteredArtists = new ArrayList<>();
 
         for (Artist artist : artistsToFilter) {
-            for (Song song : mSongs.getValue()) {
-                if (artist.getArtistId() == song.getArtistId()) {
-                    filteredArtists.add(artist);
-                    break;
-                }
+            if (membership.mArtistIds.contains(artist.getArtistId())) {
+                filteredArtists.add(artist);
             }
         }
 
@@ -414,14 +573,32 @@ public class LocalMusicStore implements MusicStore {
             return genresToFilter;
         }
 
-        List<Genre> filteredGenres = new ArrayList<>();
-        String directorySelection = getDirectoryInclusionExclusionSelection();
+        Set<Long> genreIds = getLibraryMembership().getGenreIds(mContext);
+        if (genreIds == null) {
+            return filterGenresIndividually(genresToFilter);
+        }
 
+        List<Genre> filteredGenres = new ArrayList<>();
         for (Genre genre : genresToFilter) {
-            boolean hasSongs = !MediaStoreUtil.getGenreSongs(mContext, genre,
-                    directorySelection, null).isEmpty();
+            if (genreIds.contains(genre.getGenreId())) {
+                filteredGenres.add(genre);
+            }
+        }
+
+        return filteredGenres;
+    }
+
+    /**
+     * Filters genres by querying the contents of each genre. This is only used if the MediaStore
+     * can't return the members of every genre at once.
+     */
+    private List<Genre> filterGenresIndividually(List<Genre> genresToFilter) {
+        List<Genre> filteredGenres = new ArrayList<>();
+        DirectoryFilter directoryFilter = getDirectoryFilter();
 
-            if (hasSongs) {
+        for (Genre genre : genresToFilter) {
+            List<Song> songs = MediaStoreUtil.getGenreSongs(mContext, genre, null, null);
+            if (directoryFilter.containsAny(songs)) {
                 filteredGenres.add(genre);
             }
         }
@@ -429,17 +606,25 @@ public class LocalMusicStore implements MusicStore {
         return filteredGenres;
     }
 
+    /**
+     * @return A filter with the current directory preferences. This reuses the filter that was
+     *         used to publish the library if the preferences haven't changed since then.
+     */
+    private synchronized DirectoryFilter getDirectoryFilter() {
+        DirectoryFilter directoryFilter = new DirectoryFilter(mPreferenceStore);
+        if (directoryFilter.equals(mDirectoryFilter)) {
+            return mDirectoryFilter;
+        }
+        return directoryFilter;
+    }
+
     @Override
     public Observable<List<Song>> getSongs(Artist artist) {
         String selection = MediaStore.Audio.Media.ARTIST_ID + " = ?";
         String[] selectionArgs = {Long.toString(artist.getArtistId())};
 
-        String directorySelection = getDirectoryInclusionExclusionSelection();
-        if (directorySelection != null) {
-            selection += " AND " + directorySelection;
-        }
-
-        return Observable.just(MediaStoreUtil.getSongs(mContext, selection, selectionArgs));
+        return Observable.just(getDirectoryFilter().filter(
+                MediaStoreUtil.getSongs(mContext, selection, selectionArgs)));
     }
 
     @Override
@@ -447,18 +632,14 @@ public class LocalMusicStore implements MusicStore {
         String selection = MediaStore.Audio.Media.ALBUM_ID + " = ? ";
         String[] selectionArgs = {Long.toString(album.getAlbumId())};
 
-        String directorySelection = getDirectoryInclusionExclusionSelection();
-        if (directorySelection != null) {
-            selection += " AND " + directorySelection;
-        }
-
-        return Observable.just(MediaStoreUtil.getSongs(mContext, selection, selectionArgs));
+        return Observable.just(getDirectoryFilter().filter(
+                MediaStoreUtil.getSongs(mContext, selection, selectionArgs)));
     }
 
     @Override
     public Observable<List<Song>> getSongs(Genre genre) {
-        return Observable.just(MediaStoreUtil.getGenreSongs(mContext, genre,
-                getDirectoryInclusionExclusionSelection(), null));
+        return Observable.just(getDirectoryFilter().filter(
+                MediaStoreUtil.getGenreSongs(mContext, genre, null, null)));
     }
 
     @Override
@@ -498,92 +679,74 @@ public class LocalMusicStore implements MusicStore {
         return Observable.just(MediaStoreUtil.findAlbumById(mContext, albumId));
     }
 
+    @Override
+    public Observable<IndexedAlbumArtwork> getAlbumArtwork(Album album) {
+        return mArtworkIndexer.getAlbumArtwork(album.getAlbumId());
+    }
+
     @Override
     public Observable<Artist> findArtistByName(String artistName) {
         return Observable.just(MediaStoreUtil.findArtistByName(mContext, artistName));
     }
 
     @Override
-    public Observable<List<Song>> searchForSongs(String query) {
-        if (query == null || query.isEmpty()) {
-            return Observable.just(Collections.emptyList());
+    public Observable<LibrarySearchResult> search(String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return Observable.just(LibrarySearchResult.empty(query));
         }
 
-        return getSongs().map(songs -> {
-            List<Song> filtered = new ArrayList<>();
-            String lowerCaseQuery = query.toLowerCase();
-
-            for (Song song : songs) {
-                if (song.getSongName().toLowerCase().contains(lowerCaseQuery)
-                        || song.getAlbumName().toLowerCase().contains(lowerCaseQuery)
-                        || song.getArtistName().toLowerCase().contains(lowerCaseQuery)) {
-                    filtered.add(song);
-                }
-            }
-
-            return filtered;
-        });
+        return getSearchIndex()
+                .map(index -> index.search(query))
+                .observeOn(AndroidSchedulers.mainThread());
     }
 
-    @Override
-    public Observable<List<Artist>> searchForArtists(String query) {
-        if (query == null || query.isEmpty()) {
-            return Observable.just(Collections.emptyList());
+    /**
+     * Lazily builds the search index the first time it's needed, and keeps it up to date as the
+     * library changes. Song changes are applied incrementally.
+     * @return An observable that emits the search index every time it changes, once it contains
+     *         the songs in the library
+     */
+    private synchronized Observable<LibrarySearchIndex> getSearchIndex() {
+        if (mSearchIndexUpdates == null) {
+            LibrarySearchIndex index = new LibrarySearchIndex();
+            mSearchIndexUpdates = BehaviorSubject.create();
+
+            Observable.<Object>merge(
+                    getSongChanges().observeOn(Schedulers.computation())
+                            .doOnNext(index::applyChanges),
+                    getAlbums().observeOn(Schedulers.computation())
+                            .doOnNext(index::setAlbums),
+                    getArtists().observeOn(Schedulers.computation())
+                            .doOnNext(index::setArtists),
+                    getGenres().observeOn(Schedulers.computation())
+                            .doOnNext(index::setGenres))
+                    .subscribe(ignored -> mSearchIndexUpdates.onNext(index), throwable -> {
+                        Timber.e(throwable, "Failed to update search index");
+                    });
         }
 
-        return getArtists().map(artists -> {
-            List<Artist> filtered = new ArrayList<>();
-            String lowerCaseQuery = query.toLowerCase();
+        return mSearchIndexUpdates.asObservable()
+                .filter(index -> index.getSongVersion() != LibraryChangeSet.NO_VERSION);
+    }
 
-            for (Artist artist : artists) {
-                if (artist.getArtistName().toLowerCase().contains(lowerCaseQuery)) {
-                    filtered.add(artist);
-                }
-            }
+    @Override
+    public Observable<List<Song>> searchForSongs(String query) {
+        return search(query).map(LibrarySearchResult::getSongs);
+    }
 
-            return filtered;
-        });
+    @Override
+    public Observable<List<Artist>> searchForArtists(String query) {
+        return search(query).map(LibrarySearchResult::getArtists);
     }
 
     @Override
     public Observable<List<Album>> searchForAlbums(String query) {
-        if (query == null || query.isEmpty()) {
-            return Observable.just(Collections.emptyList());
-        }
-
-        return getAlbums().map(albums -> {
-            List<Album> filtered = new ArrayList<>();
-            String lowerCaseQuery = query.toLowerCase();
-
-            for (Album album : albums) {
-                if (album.getAlbumName().toLowerCase().contains(lowerCaseQuery)
-                        || album.getArtistName().toLowerCase().contains(lowerCaseQuery)) {
-                    filtered.add(album);
-                }
-            }
-
-            return filtered;
-        });
+        return search(query).map(LibrarySearchResult::getAlbums);
     }
 
     @Override
     public Observable<List<Genre>> searchForGenres(String query) {
-        if (query == null || query.isEmpty()) {
-            return Observable.just(Collections.emptyList());
-        }
-
-        return getGenres().map(genres -> {
-            List<Genre> filtered = new ArrayList<>();
-            String lowerCaseQuery = query.toLowerCase();
-
-            for (Genre genre : genres) {
-                if (genre.getGenreName().toLowerCase().contains(lowerCaseQuery)) {
-                    filtered.add(genre);
-                }
-            }
-
-            return filtered;
-        });
+        return search(query).map(LibrarySearchResult::getGenres);
     }
 
     @Override
@@ -607,4 +770,143 @@ public class LocalMusicStore implements MusicStore {
                     }
                 });
     }
+
+    /**
+     * The IDs of the albums, artists and genres that have at least one song in a list of songs.
+     * Album and artist IDs are collected in one pass over the songs. Genre IDs need the MediaStore,
+     * so they're only looked up the first time that they're needed.
+     */
+    private static final class LibraryMembership {
+
+        final long mLibraryVersion;
+        final Set<Long> mSongIds;
+        final Set<Long> mAlbumIds;
+        final Set<Long> mArtistIds;
+
+        private Set<Long> mGenreIds;
+        private boolean mGenreIdsLoaded;
+
+        LibraryMembership(long libraryVersion, List<Song> songs) {
+            mLibraryVersion = libraryVersion;
+            mSongIds = new HashSet<>(songs.size() * 2);
+            mAlbumIds = new HashSet<>();
+            mArtistIds = new HashSet<>();
+
+            for (Song song : songs) {
+                mSongIds.add(song.getSongId());
+                mAlbumIds.add(song.getAlbumId());
+                mArtistIds.add(song.getArtistId());
+            }
+        }
+
+        /**
+         * @return The IDs of the genres that contain at least one of the songs, or {@code null}
+         *         if they can't be looked up in a single query
+         */
+        synchronized Set<Long> getGenreIds(Context context) {
+            if (!mGenreIdsLoaded) {
+                mGenreIds = MediaStoreUtil.getGenreIdsContainingSongs(context, mSongIds);
+                mGenreIdsLoaded = true;
+            }
+            return mGenreIds;
+        }
+    }
+
+    /**
+     * The result of {@link #patchLibrary}: every song in the patched library, and the changes to
+     * the songs that are visible through the directory filter
+     */
+    static final class LibraryPatch {
+
+        final List<Song> mLibrary;
+        final LibraryChangeSet mChanges;
+
+        LibraryPatch(List<Song> library, LibraryChangeSet changes) {
+            mLibrary = library;
+            mChanges = changes;
+        }
+    }
+
+    /**
+     * Applies the included and excluded folders from a {@link PreferenceStore} to songs in memory.
+     * A song passes the filter if it's inside an included folder (or no folders are included) and
+     * isn't inside an excluded folder. The folders are compiled into {@link DirectoryTrie}s the
+     * first time that a song is checked.
+     */
+    static final class DirectoryFilter {
+
+        private final Set<String> mIncluded;
+        private final Set<String> mExcluded;
+
+        private DirectoryTrie mIncludedTrie;
+        private DirectoryTrie mExcludedTrie;
+
+        DirectoryFilter(PreferenceStore preferenceStore) {
+            this(preferenceStore.getIncludedDirectories(),
+                    preferenceStore.getExcludedDirectories());
+        }
+
+        DirectoryFilter(Collection<String> included, Collection<String> excluded) {
+            mIncluded = new HashSet<>(included);
+            mExcluded = new HashSet<>(excluded);
+        }
+
+        boolean isEmpty() {
+            return mIncluded.isEmpty() && mExcluded.isEmpty();
+        }
+
+        boolean contains(Song song) {
+            if (isEmpty()) {
+                return true;
+            }
+
+            synchronized (this) {
+                if (mIncludedTrie == null) {
+                    mIncludedTrie = DirectoryTrie.compile(mIncluded);
+                    mExcludedTrie = DirectoryTrie.compile(mExcluded);
+                }
+            }
+
+            String path = song.getLocation().getPath();
+            return (mIncludedTrie.isEmpty() || mIncludedTrie.contains(path))
+                    && !mExcludedTrie.contains(path);
+        }
+
+        boolean containsAny(List<Song> songs) {
+            for (Song song : songs) {
+                if (contains(song)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<Song> filter(List<Song> songs) {
+            if (isEmpty()) {
+                return songs;
+            }
+
+            List<Song> filtered = new ArrayList<>();
+            for (Song song : songs) {
+                if (contains(song)) {
+                    filtered.add(song);
+                }
+            }
+            return Collections.unmodifiableList(filtered);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+
+            DirectoryFilter that = (DirectoryFilter) other;
+            return mIncluded.equals(that.mIncluded) && mExcluded.equals(that.mExcluded);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mIncluded.hashCode() + mExcluded.hashCode();
+        }
+    }
 }
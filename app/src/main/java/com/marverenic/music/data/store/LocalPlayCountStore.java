@@ -1,116 +1,172 @@
 package com.marverenic.music.data.store;
 
 import android.content.Context;
-import androidx.collection.LongSparseArray;
+import android.os.FileObserver;
+import androidx.annotation.Nullable;
 
 import com.marverenic.music.model.Song;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Enumeration;
-import java.util.Properties;
+import java.util.Set;
 
 import rx.Observable;
-import rx.android.schedulers.AndroidSchedulers;
 import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
 import timber.log.Timber;
 
 public class LocalPlayCountStore implements PlayCountStore {
 
-    private static final String PLAY_COUNT_FILENAME = ".playcount";
-    private static final String PLAY_COUNT_HEADER = "This file contains play count information for "
-            + "Jockey and should not be edited";
+    private static final String LEGACY_PLAY_COUNT_FILENAME = ".playcount";
+    private static final String PLAY_COUNT_FILENAME = ".playcounts";
+    private static final String PLAY_COUNT_JOURNAL_FILENAME = ".playcounts-journal";
+    private static final String PLAY_HISTORY_FILENAME = ".playhistory";
 
     private Context mContext;
-    private final LongSparseArray<Count> mCounts;
+    private PlayCountFile mPlayCountFile;
+    private boolean mPlayCountFileUnavailable;
+    private PlayHistoryLog mPlayHistory;
+    private final Subject<Set<Long>, Set<Long>> mChanges;
+    private FileObserver mFileObserver;
 
     public LocalPlayCountStore(Context context) {
         mContext = context;
-        mCounts = new LongSparseArray<>();
+        mChanges = PublishSubject.<Set<Long>>create().toSerialized();
     }
 
     @Override
     public Observable<Void> refresh() {
         return Observable.fromCallable(
                 () -> {
-                    mCounts.clear();
-                    Properties playCountMap = getPlayCounts();
-                    Enumeration iterator = playCountMap.propertyNames();
+                    reloadPlayCounts();
+                    return (Void) null;
+                })
+                .subscribeOn(Schedulers.io());
+    }
 
-                    while (iterator.hasMoreElements()) {
-                        String key = (String) iterator.nextElement();
-                        String value = playCountMap.getProperty(key);
+    /**
+     * Play counts are read directly from a memory mapped file, so only the songs that another
+     * process has changed since the last reload need to be looked at
+     */
+    private void reloadPlayCounts() throws IOException {
+        Set<Long> changed = getPlayHistoryLog().readNewEvents(System.currentTimeMillis());
 
-                        Count count = new Count(value);
+        PlayCountFile playCountFile = getPlayCountFile();
+        if (playCountFile != null) {
+            changed.addAll(playCountFile.readChanges());
+        }
 
-                        mCounts.put(Long.parseLong(key), count);
-                    }
+        publishChanges(changed);
+    }
 
-                    return (Void) null;
-                })
-                .observeOn(Schedulers.io())
-                .subscribeOn(AndroidSchedulers.mainThread());
+    private void publishChanges(Set<Long> changed) {
+        if (!changed.isEmpty()) {
+            mChanges.onNext(changed);
+        }
     }
 
-    private File getPlayCountFile() {
-        return new File(mContext.getExternalFilesDir(null), PLAY_COUNT_FILENAME);
+    @Override
+    public synchronized Observable<Set<Long>> getPlayCountChanges() {
+        if (mFileObserver == null) {
+            watchPlayCountFile();
+        }
+        return mChanges.asObservable();
     }
 
-    private Properties getPlayCounts() throws IOException {
-        File file = getPlayCountFile();
+    /**
+     * Play counts are written by the player's process, so the file has to be watched for
+     * changes to find out when a song has been played. Every change is appended to the journal
+     * or the play history, which notifies the observer even though the play count file itself is
+     * memory mapped.
+     */
+    private void watchPlayCountFile() {
+        File directory = mContext.getExternalFilesDir(null);
+        if (directory == null) {
+            Timber.w("External storage is unavailable. Play count changes won't be observed");
+            return;
+        }
+
+        mFileObserver = new FileObserver(directory.getAbsolutePath(), FileObserver.MODIFY) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (PLAY_COUNT_JOURNAL_FILENAME.equals(path)
+                        || PLAY_HISTORY_FILENAME.equals(path)) {
+                    try {
+                        reloadPlayCounts();
+                    } catch (IOException e) {
+                        Timber.e(e, "Failed to reload play counts");
+                    }
+                }
+            }
+        };
+        mFileObserver.startWatching();
+    }
 
-        Properties playCounts = new Properties();
-        if (file.exists()) {
-            InputStream inputStream = null;
+    /**
+     * Opens the play count file, migrating play counts from the legacy file if necessary
+     * @return The play count file, or {@code null} if it couldn't be opened
+     */
+    @Nullable
+    private synchronized PlayCountFile getPlayCountFile() {
+        if (mPlayCountFile == null && !mPlayCountFileUnavailable) {
+            File directory = mContext.getExternalFilesDir(null);
             try {
-                inputStream = new FileInputStream(file);
-                playCounts.load(inputStream);
-            } finally {
-                if (inputStream != null) {
-                    inputStream.close();
+                if (directory == null) {
+                    throw new IOException("External storage is unavailable");
                 }
+
+                mPlayCountFile = new PlayCountFile(
+                        new File(directory, PLAY_COUNT_FILENAME),
+                        new File(directory, PLAY_COUNT_JOURNAL_FILENAME),
+                        new File(directory, LEGACY_PLAY_COUNT_FILENAME));
+            } catch (IOException e) {
+                Timber.e(e, "Failed to open play counts");
+                mPlayCountFileUnavailable = true;
             }
         }
+        return mPlayCountFile;
+    }
 
-        return playCounts;
+    private synchronized PlayHistoryLog getPlayHistoryLog() {
+        if (mPlayHistory == null) {
+            File directory = mContext.getExternalFilesDir(null);
+            if (directory == null) {
+                Timber.w("External storage is unavailable. Play history won't be saved");
+                mPlayHistory = new PlayHistoryLog(null);
+            } else {
+                mPlayHistory = new PlayHistoryLog(new File(directory, PLAY_HISTORY_FILENAME));
+            }
+        }
+        return mPlayHistory;
     }
 
     @Override
     public void save() {
-        Properties properties = new Properties();
-
-        for (int i = 0; i < mCounts.size(); i++) {
-            String key = Long.toString(mCounts.keyAt(i));
-            String value = mCounts.valueAt(i).getCommaSeparatedValues();
-            properties.put(key, value);
+        PlayCountFile playCountFile = getPlayCountFile();
+        if (playCountFile == null) {
+            return;
         }
 
         try {
-            writePlayCounts(properties);
+            publishChanges(playCountFile.sync());
         } catch (IOException ioException) {
             Timber.e(ioException, "save: Failed to write play counts to disk");
         }
     }
 
-    private void writePlayCounts(Properties playCounts) throws IOException {
-        FileWriter fileWriter = null;
-
-        try {
-            fileWriter = new FileWriter(getPlayCountFile());
-            playCounts.store(fileWriter, PLAY_COUNT_HEADER);
-        } finally {
-            if (fileWriter != null) {
-                fileWriter.close();
-            }
+    @Nullable
+    private PlayCountFile.Count getCount(Song song) {
+        PlayCountFile playCountFile = getPlayCountFile();
+        if (playCountFile == null) {
+            return null;
         }
+        return playCountFile.get(song.getSongId());
     }
 
     @Override
     public int getPlayCount(Song song) {
-        Count count = mCounts.get(song.getSongId());
+        PlayCountFile.Count count = getCount(song);
         if (count == null) {
             return 0;
         } else {
@@ -120,7 +176,7 @@ public class LocalPlayCountStore implements PlayCountStore {
 
     @Override
     public int getSkipCount(Song song) {
-        Count count = mCounts.get(song.getSongId());
+        PlayCountFile.Count count = getCount(song);
         if (count == null) {
             return 0;
         } else {
@@ -130,7 +186,7 @@ public class LocalPlayCountStore implements PlayCountStore {
 
     @Override
     public long getPlayDate(Song song) {
-        Count count = mCounts.get(song.getSongId());
+        PlayCountFile.Count count = getCount(song);
         if (count == null) {
             return 0;
         } else {
@@ -140,12 +196,12 @@ public class LocalPlayCountStore implements PlayCountStore {
 
     @Override
     public void incrementPlayCount(Song song) {
-        setPlayCount(song, getPlayCount(song) + 1);
+        updateCount(song, count -> count.mPlays++);
     }
 
     @Override
     public void incrementSkipCount(Song song) {
-        setSkipCount(song, getSkipCount(song) + 1);
+        updateCount(song, count -> count.mSkips++);
     }
 
     @Override
@@ -153,59 +209,52 @@ public class LocalPlayCountStore implements PlayCountStore {
         setPlayDate(song, System.currentTimeMillis() / 1000);
     }
 
-    private Count getOrInitializeCount(Song song) {
-        Count count = mCounts.get(song.getSongId());
-        if (count == null) {
-            count = new Count();
-            mCounts.put(song.getSongId(), count);
-        }
-
-        return count;
-    }
-
     @Override
     public void setPlayCount(Song song, int count) {
-        getOrInitializeCount(song).mPlays = count;
+        updateCount(song, c -> c.mPlays = count);
     }
 
     @Override
     public void setSkipCount(Song song, int count) {
-        getOrInitializeCount(song).mSkips = count;
+        updateCount(song, c -> c.mSkips = count);
     }
 
     @Override
     public void setPlayDate(Song song, long timeInUnixSeconds) {
-        getOrInitializeCount(song).mDate = timeInUnixSeconds;
+        updateCount(song, count -> count.mDate = timeInUnixSeconds);
     }
 
-    private static class Count {
-
-        int mPlays;
-        int mSkips;
-        long mDate;
-
-        Count() {
+    /**
+     * Changes a song's play count, skip count, or play date on disk. Only this song's record is
+     * written, and it's written atomically so that a play can't be lost if another process is
+     * changing the same song.
+     */
+    private void updateCount(Song song, PlayCountFile.Edit edit) {
+        PlayCountFile playCountFile = getPlayCountFile();
+        if (playCountFile == null) {
+            Timber.w("Play counts are unavailable. Dropping change to %s", song);
+            return;
         }
 
-        Count(String commaSeparatedValues) {
-            String[] originalValues = commaSeparatedValues.split(",");
-
-            int playCount = Integer.parseInt(originalValues[0]);
-            int skipCount = Integer.parseInt(originalValues[1]);
-            long playDate = 0;
-
-            if (originalValues.length > 2) {
-                playDate = Long.parseLong(originalValues[2]);
-            }
-
-            mPlays = playCount;
-            mSkips = skipCount;
-            mDate = playDate;
+        try {
+            publishChanges(playCountFile.update(song.getSongId(), edit));
+        } catch (IOException e) {
+            Timber.e(e, "Failed to write play count for %s", song);
         }
+    }
 
-        public String getCommaSeparatedValues() {
-            return mPlays + "," + mSkips + "," + mDate;
+    @Override
+    public void logPlay(Song song, long listenedMillis, boolean skipped) {
+        try {
+            publishChanges(getPlayHistoryLog().append(song.getSongId(),
+                    System.currentTimeMillis(), listenedMillis, skipped));
+        } catch (IOException e) {
+            Timber.e(e, "Failed to write play history for %s", song);
         }
+    }
 
+    @Override
+    public PlayHistory getPlayHistory() {
+        return getPlayHistoryLog();
     }
 }
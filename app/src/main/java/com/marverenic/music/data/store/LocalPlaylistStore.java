@@ -22,10 +22,12 @@ import java.util.List;
 import java.util.Map;
 
 import rx.Observable;
+import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.exceptions.Exceptions;
 import rx.schedulers.Schedulers;
 import rx.subjects.BehaviorSubject;
+import rx.subscriptions.CompositeSubscription;
 import timber.log.Timber;
 
 public class LocalPlaylistStore implements PlaylistStore {
@@ -38,7 +40,14 @@ public class LocalPlaylistStore implements PlaylistStore {
 
     private Context mContext;
     private BehaviorSubject<List<Playlist>> mPlaylists;
+
+    /**
+     * Guards {@link #mPlaylistContents} and {@link #mAutoPlaylistSubscriptions}, which are read
+     * on the main thread and cleared on a background thread when playlists are refreshed
+     */
+    private final Object mContentsLock = new Object();
     private Map<Playlist, BehaviorSubject<List<Song>>> mPlaylistContents;
+    private Map<Playlist, Subscription> mAutoPlaylistSubscriptions;
 
     private BehaviorSubject<Boolean> mLoadingState;
 
@@ -48,6 +57,7 @@ public class LocalPlaylistStore implements PlaylistStore {
         mMusicStore = musicStore;
         mPlayCountStore = playCountStore;
         mPlaylistContents = new ArrayMap<>();
+        mAutoPlaylistSubscriptions = new ArrayMap<>();
         mLoadingState = BehaviorSubject.create(false);
 
         MediaStoreUtil.waitForPermission()
@@ -83,7 +93,7 @@ public class LocalPlaylistStore implements PlaylistStore {
                 .map(granted -> {
                     if (granted && mPlaylists != null) {
                         mPlaylists.onNext(getAllPlaylists());
-                        mPlaylistContents.clear();
+                        clearPlaylistContents();
                     }
                     mLoadingState.onNext(false);
                     return granted;
@@ -137,43 +147,127 @@ public class LocalPlaylistStore implements PlaylistStore {
     private Observable<List<Song>> getPlaylistSongs(Playlist playlist) {
         BehaviorSubject<List<Song>> subject;
 
-        if (mPlaylistContents.containsKey(playlist)) {
+        synchronized (mContentsLock) {
             subject = mPlaylistContents.get(playlist);
-        } else {
+            if (subject != null) {
+                return subject.asObservable();
+            }
+
             subject = BehaviorSubject.create();
             mPlaylistContents.put(playlist, subject);
-
-            Observable.fromCallable(() -> MediaStoreUtil.getPlaylistSongs(mContext, playlist))
-                    .subscribe(subject::onNext, subject::onError);
         }
 
+        Observable.fromCallable(() -> MediaStoreUtil.getPlaylistSongs(mContext, playlist))
+                .subscribe(subject::onNext, subject::onError);
+
         return subject.asObservable();
     }
 
     private Observable<List<Song>> getAutoPlaylistSongs(AutoPlaylist playlist) {
         BehaviorSubject<List<Song>> subject;
 
-        if (mPlaylistContents.containsKey(playlist)) {
+        synchronized (mContentsLock) {
             subject = mPlaylistContents.get(playlist);
-        } else {
+            if (subject != null) {
+                return subject.asObservable();
+            }
+
             subject = BehaviorSubject.create();
             mPlaylistContents.put(playlist, subject);
 
-            playlist.generatePlaylist(mMusicStore, this, mPlayCountStore)
+            Subscription maintenance = maintainAutoPlaylist(playlist)
                     .observeOn(AndroidSchedulers.mainThread())
                     .subscribe(subject::onNext, subject::onError);
 
-            subject.observeOn(Schedulers.io())
+            Subscription persistence = subject.observeOn(Schedulers.io())
                     .subscribe(contents -> {
-                        MediaStoreUtil.editPlaylist(mContext, playlist, contents);
+                        MediaStoreUtil.updatePlaylist(mContext, playlist, contents);
                     }, throwable -> {
                         Timber.e(throwable, "Failed to save playlist contents");
                     });
+
+            mAutoPlaylistSubscriptions.put(playlist,
+                    new CompositeSubscription(maintenance, persistence));
         }
 
         return subject.asObservable();
     }
 
+    /**
+     * Generates the contents of an auto playlist, and updates them as the library and play counts
+     * change. Only the songs that changed are re-evaluated when possible.
+     * @return An observable that emits the contents of the playlist every time they change
+     */
+    private Observable<List<Song>> maintainAutoPlaylist(AutoPlaylist playlist) {
+        if (playlist.getRules().isEmpty()) {
+            return Observable.just(Collections.emptyList());
+        }
+
+        AutoPlaylistContents contents = new AutoPlaylistContents(playlist, mPlayCountStore);
+
+        Observable<Boolean> libraryUpdates = mMusicStore.getSongChanges()
+                .observeOn(Schedulers.computation())
+                .concatMap(changes -> {
+                    if (contents.canApplyIncrementally(changes)) {
+                        return Observable.just(contents.applyLibraryChanges(changes));
+                    }
+
+                    return playlist.compileRules(mMusicStore, this, mPlayCountStore)
+                            .take(1)
+                            .observeOn(Schedulers.computation())
+                            .map(predicate -> {
+                                contents.reset(predicate, changes);
+                                return true;
+                            });
+                });
+
+        Observable<Boolean> playCountUpdates = mPlayCountStore.getPlayCountChanges()
+                .observeOn(Schedulers.computation())
+                .map(contents::applyPlayCountChanges);
+
+        // Perform the filter after play counts are refreshed
+        return mPlayCountStore.refresh()
+                .flatMap(ignored -> Observable.merge(libraryUpdates, playCountUpdates))
+                .filter(changed -> changed)
+                .map(changed -> contents.getContents());
+    }
+
+    /**
+     * Stops updating a playlist's contents and forgets them, so that they're loaded again the
+     * next time that they're requested
+     */
+    private void clearPlaylistContents(Playlist playlist) {
+        Subscription subscription;
+        synchronized (mContentsLock) {
+            subscription = mAutoPlaylistSubscriptions.remove(playlist);
+            mPlaylistContents.remove(playlist);
+        }
+
+        if (subscription != null) {
+            subscription.unsubscribe();
+        }
+    }
+
+    private void clearPlaylistContents() {
+        List<Subscription> subscriptions;
+        synchronized (mContentsLock) {
+            subscriptions = new ArrayList<>(mAutoPlaylistSubscriptions.values());
+            mAutoPlaylistSubscriptions.clear();
+            mPlaylistContents.clear();
+        }
+
+        for (Subscription subscription : subscriptions) {
+            subscription.unsubscribe();
+        }
+    }
+
+    @Nullable
+    private BehaviorSubject<List<Song>> getLoadedContents(Playlist playlist) {
+        synchronized (mContentsLock) {
+            return mPlaylistContents.get(playlist);
+        }
+    }
+
     @Override
     public Observable<List<Playlist>> searchForPlaylists(String query) {
         if (query == null || query.isEmpty()) {
@@ -247,7 +341,7 @@ public class LocalPlaylistStore implements PlaylistStore {
     @Override
     public void removePlaylist(Playlist playlist) {
         MediaStoreUtil.deletePlaylist(mContext, playlist);
-        mPlaylistContents.remove(playlist);
+        clearPlaylistContents(playlist);
 
         if (mPlaylists != null && mPlaylists.getValue() != null) {
             List<Playlist> updated = new ArrayList<>(mPlaylists.getValue());
@@ -260,14 +354,18 @@ public class LocalPlaylistStore implements PlaylistStore {
     @Override
     public void editPlaylist(Playlist playlist, List<Song> newSongs) {
         MediaStoreUtil.editPlaylist(mContext, playlist, newSongs);
-        if (mPlaylistContents.containsKey(playlist)) {
-            mPlaylistContents.get(playlist).onNext(
-                    Collections.unmodifiableList(new ArrayList<>(newSongs)));
+
+        BehaviorSubject<List<Song>> contents = getLoadedContents(playlist);
+        if (contents != null) {
+            contents.onNext(Collections.unmodifiableList(new ArrayList<>(newSongs)));
         }
     }
 
     @Override
     public void editPlaylist(AutoPlaylist replacement) {
+        // The previous contents were generated from the old rules
+        clearPlaylistContents(replacement);
+
         saveAutoPlaylistConfiguration(replacement);
 
         if (mPlaylists != null && mPlaylists.getValue() != null) {
@@ -329,8 +427,8 @@ public class LocalPlaylistStore implements PlaylistStore {
     public void addToPlaylist(Playlist playlist, Song song) {
         MediaStoreUtil.appendToPlaylist(mContext, playlist, song);
 
-        if (mPlaylistContents.containsKey(playlist)) {
-            BehaviorSubject<List<Song>> observableContents = mPlaylistContents.get(playlist);
+        BehaviorSubject<List<Song>> observableContents = getLoadedContents(playlist);
+        if (observableContents != null) {
             List<Song> updatedContents = new ArrayList<>(observableContents.getValue());
             updatedContents.add(song);
             observableContents.onNext(updatedContents);
@@ -341,8 +439,8 @@ public class LocalPlaylistStore implements PlaylistStore {
     public void addToPlaylist(Playlist playlist, List<Song> songs) {
         MediaStoreUtil.appendToPlaylist(mContext, playlist, songs);
 
-        if (mPlaylistContents.containsKey(playlist)) {
-            BehaviorSubject<List<Song>> observableContents = mPlaylistContents.get(playlist);
+        BehaviorSubject<List<Song>> observableContents = getLoadedContents(playlist);
+        if (observableContents != null) {
             List<Song> updatedContents = new ArrayList<>(observableContents.getValue());
             updatedContents.addAll(songs);
             observableContents.onNext(updatedContents);
@@ -14,6 +14,8 @@ import androidx.collection.ArrayMap;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.marverenic.music.data.index.IndexedSong;
+import com.marverenic.music.data.index.SongGeneration;
 import com.marverenic.music.model.Album;
 import com.marverenic.music.model.Artist;
 import com.marverenic.music.model.AutoPlaylist;
@@ -29,8 +31,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import rx.Observable;
 import rx.subjects.BehaviorSubject;
@@ -49,6 +54,14 @@ public final class MediaStoreUtil {
     // https://raw.githubusercontent.com/android/platform_external_sqlite/master/dist/sqlite3.c
     private static final int SQL_MAX_VARS = 999;
 
+    // The number of playlist members that can be moved individually before it's cheaper to
+    // rewrite the entire playlist. See updatePlaylist()
+    private static final int MAX_INCREMENTAL_PLAYLIST_MOVES = 32;
+
+    // The gap between the play orders of adjacent members when a playlist is rewritten by
+    // updatePlaylist(), so that songs can be inserted later without renumbering their neighbors
+    private static final int PLAY_ORDER_SPACING = 1024;
+
     private static final String[] SONG_PROJECTION = new String[]{
             MediaStore.Audio.Media.TITLE,
             MediaStore.Audio.Media._ID,
@@ -63,6 +76,26 @@ public final class MediaStoreUtil {
             MediaStore.Audio.Media.TRACK
     };
 
+    private static final String[] INDEX_PROJECTION = new String[]{
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.YEAR,
+            MediaStore.Audio.Media.DATE_ADDED,
+            MediaStore.Audio.Media.DATE_MODIFIED,
+            MediaStore.Audio.Media.ALBUM_ID,
+            MediaStore.Audio.Media.ARTIST_ID,
+            MediaStore.Audio.Media.TRACK
+    };
+
+    private static final String[] GENERATION_PROJECTION = new String[]{
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.DATE_MODIFIED
+    };
+
     private static final String[] ARTIST_PROJECTION = new String[]{
             MediaStore.Audio.Artists._ID,
             MediaStore.Audio.Artists.ARTIST,
@@ -229,6 +262,77 @@ public final class MediaStoreUtil {
                 selection, selectionArgs);
     }
 
+    /**
+     * Queries the id and modification date of every song in the MediaStore. This is much cheaper
+     * than loading full {@link Song} objects, and is used to determine which entries of the
+     * library index need to be updated.
+     * @param context A {@link Context} used to open a {@link Cursor}
+     * @return The generation of every song in the MediaStore that has a path, sorted by
+     *         ascending song id
+     */
+    public static List<SongGeneration> getSongGenerations(Context context) {
+        Cursor cur = context.getContentResolver().query(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, GENERATION_PROJECTION,
+                MediaStore.Audio.Media.IS_MUSIC + " != 0 AND "
+                        + MediaStore.Audio.Media.DATA + " IS NOT NULL", null,
+                MediaStore.Audio.Media._ID + " ASC");
+
+        if (cur == null) {
+            return Collections.emptyList();
+        }
+
+        List<SongGeneration> generations = new ArrayList<>(cur.getCount());
+        int idIndex = cur.getColumnIndex(MediaStore.Audio.Media._ID);
+        int modifiedIndex = cur.getColumnIndex(MediaStore.Audio.Media.DATE_MODIFIED);
+
+        for (int i = 0; i < cur.getCount(); i++) {
+            cur.moveToPosition(i);
+            SongGeneration next = new SongGeneration();
+            next.songId = cur.getLong(idIndex);
+            next.dateModified = cur.getLong(modifiedIndex);
+            generations.add(next);
+        }
+        cur.close();
+
+        return generations;
+    }
+
+    /**
+     * Loads library index rows for a set of song ids. The request is split into batches of
+     * {@link #SQL_MAX_VARS} ids.
+     * @param context A {@link Context} used to open a {@link Cursor}
+     * @param songIds The ids of the songs to load
+     * @return An unsorted list of index rows for every id that exists in the MediaStore
+     */
+    public static List<IndexedSong> getIndexedSongs(Context context, long[] songIds) {
+        List<IndexedSong> songs = new ArrayList<>(songIds.length);
+
+        for (int start = 0; start < songIds.length; start += SQL_MAX_VARS) {
+            int end = Math.min(start + SQL_MAX_VARS, songIds.length);
+
+            StringBuilder selection = new StringBuilder(MediaStore.Audio.Media._ID + " IN(?");
+            String[] selectionArgs = new String[end - start];
+            selectionArgs[0] = Long.toString(songIds[start]);
+
+            for (int i = 1; i < selectionArgs.length; i++) {
+                selection.append(",?");
+                selectionArgs[i] = Long.toString(songIds[start + i]);
+            }
+            selection.append(")");
+
+            Cursor cur = context.getContentResolver().query(
+                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, INDEX_PROJECTION,
+                    selection.toString(), selectionArgs, null);
+
+            if (cur != null) {
+                songs.addAll(IndexedSong.buildIndexedSongList(cur, context.getResources()));
+                cur.close();
+            }
+        }
+
+        return songs;
+    }
+
     public static List<Album> getAlbums(Context context, @Nullable String selection,
                                         @Nullable String[] selectionArgs) {
         Cursor cur = context.getContentResolver().query(
@@ -398,6 +502,56 @@ public final class MediaStoreUtil {
                 selection, selectionArgs);
     }
 
+    /**
+     * Finds every genre that contains at least one of the given songs. Genre memberships are read
+     * with a single query over the members of every genre instead of one query per genre.
+     * @param songIds The IDs of the songs to find the genres of
+     * @return The IDs of the genres that contain at least one of the songs, or {@code null} if
+     *         the MediaStore doesn't support querying the members of every genre at once
+     */
+    @Nullable
+    public static Set<Long> getGenreIdsContainingSongs(Context context, Set<Long> songIds) {
+        Uri allMembersUri = MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI.buildUpon()
+                .appendPath("all")
+                .appendPath("members")
+                .build();
+
+        String[] projection = {
+                MediaStore.Audio.Genres.Members.GENRE_ID,
+                MediaStore.Audio.Genres.Members.AUDIO_ID
+        };
+
+        Cursor cur;
+        try {
+            cur = context.getContentResolver().query(allMembersUri, projection, null, null, null);
+        } catch (RuntimeException e) {
+            Timber.w(e, "Failed to query the members of every genre");
+            return null;
+        }
+
+        if (cur == null) {
+            return null;
+        }
+
+        Set<Long> genreIds = new HashSet<>();
+        int genreIdIndex = cur.getColumnIndex(MediaStore.Audio.Genres.Members.GENRE_ID);
+        int audioIdIndex = cur.getColumnIndex(MediaStore.Audio.Genres.Members.AUDIO_ID);
+
+        if (genreIdIndex < 0 || audioIdIndex < 0) {
+            cur.close();
+            return null;
+        }
+
+        while (cur.moveToNext()) {
+            if (songIds.contains(cur.getLong(audioIdIndex))) {
+                genreIds.add(cur.getLong(genreIdIndex));
+            }
+        }
+        cur.close();
+
+        return genreIds;
+    }
+
     public static Artist findArtistByName(Context context, String artistName) {
         Cursor cur = context.getContentResolver().query(
                 MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI,
@@ -537,6 +691,15 @@ public final class MediaStoreUtil {
 
     public static void editPlaylist(Context context, Playlist playlist,
                                     @Nullable List<Song> songs) {
+        writePlaylist(context, playlist, songs, 1);
+    }
+
+    /**
+     * Replaces every member of a playlist
+     * @param playOrderSpacing The difference between the play orders of adjacent members
+     */
+    private static void writePlaylist(Context context, Playlist playlist,
+                                      @Nullable List<Song> songs, int playOrderSpacing) {
         ignoreSingleContentUpdate();
 
         // Clear the playlist...
@@ -550,7 +713,8 @@ public final class MediaStoreUtil {
             ContentValues[] values = new ContentValues[songs.size()];
             for (int i = 0; i < songs.size(); i++) {
                 values[i] = new ContentValues();
-                values[i].put(MediaStore.Audio.Playlists.Members.PLAY_ORDER, i + 1);
+                values[i].put(MediaStore.Audio.Playlists.Members.PLAY_ORDER,
+                        (i + 1) * playOrderSpacing);
                 values[i].put(
                         MediaStore.Audio.Playlists.Members.AUDIO_ID,
                         songs.get(i).getSongId());
@@ -564,6 +728,226 @@ public final class MediaStoreUtil {
         }
     }
 
+    /**
+     * Changes the contents of a playlist, but unlike {@link #editPlaylist(Context, Playlist, List)}
+     * this only writes the members that were added, removed or moved. Members that are still in
+     * the same order relative to each other keep their play orders, and other members are given
+     * play orders between their neighbors, so inserting a song doesn't move every song after it.
+     * If most of the playlist has changed, if it has duplicate entries, or if there isn't room
+     * between neighbors, the entire playlist is rewritten with gaps between its play orders.
+     */
+    public static void updatePlaylist(Context context, Playlist playlist, List<Song> songs) {
+        Uri uri = MediaStore.Audio.Playlists.Members
+                .getContentUri("external", playlist.getPlaylistId());
+        ContentResolver resolver = context.getContentResolver();
+
+        Map<Long, Integer> previousOrder = getPlaylistMemberOrder(context, playlist);
+        if (previousOrder == null) {
+            writePlaylist(context, playlist, songs, PLAY_ORDER_SPACING);
+            return;
+        }
+
+        int[] playOrders = assignPlayOrders(songs, previousOrder);
+        if (playOrders == null) {
+            writePlaylist(context, playlist, songs, PLAY_ORDER_SPACING);
+            return;
+        }
+
+        Map<Long, Integer> order = new HashMap<>();
+        for (int i = 0; i < songs.size(); i++) {
+            if (order.put(songs.get(i).getSongId(), playOrders[i]) != null) {
+                writePlaylist(context, playlist, songs, PLAY_ORDER_SPACING);
+                return;
+            }
+        }
+
+        List<Long> removed = new ArrayList<>();
+        for (long songId : previousOrder.keySet()) {
+            if (!order.containsKey(songId)) {
+                removed.add(songId);
+            }
+        }
+
+        List<ContentValues> inserted = new ArrayList<>();
+        List<ContentValues> moved = new ArrayList<>();
+        for (Map.Entry<Long, Integer> member : order.entrySet()) {
+            Integer previousPosition = previousOrder.get(member.getKey());
+            if (previousPosition == null || previousPosition.intValue() != member.getValue()) {
+                ContentValues values = new ContentValues();
+                values.put(MediaStore.Audio.Playlists.Members.PLAY_ORDER, member.getValue());
+                values.put(MediaStore.Audio.Playlists.Members.AUDIO_ID, member.getKey());
+
+                if (previousPosition == null) {
+                    inserted.add(values);
+                } else {
+                    moved.add(values);
+                }
+            }
+        }
+
+        if (removed.isEmpty() && inserted.isEmpty() && moved.isEmpty()) {
+            return;
+        }
+
+        // Every move is its own transaction, so it's faster to rewrite the whole playlist once
+        // most of its members have moved
+        if (moved.size() > MAX_INCREMENTAL_PLAYLIST_MOVES && moved.size() > songs.size() / 2) {
+            writePlaylist(context, playlist, songs, PLAY_ORDER_SPACING);
+            return;
+        }
+
+        for (int start = 0; start < removed.size(); start += SQL_MAX_VARS) {
+            int end = Math.min(start + SQL_MAX_VARS, removed.size());
+
+            StringBuilder selection = new StringBuilder(
+                    MediaStore.Audio.Playlists.Members.AUDIO_ID + " IN(?");
+            String[] selectionArgs = new String[end - start];
+            selectionArgs[0] = Long.toString(removed.get(start));
+
+            for (int i = 1; i < selectionArgs.length; i++) {
+                selection.append(",?");
+                selectionArgs[i] = Long.toString(removed.get(start + i));
+            }
+            selection.append(")");
+
+            ignoreSingleContentUpdate();
+            resolver.delete(uri, selection.toString(), selectionArgs);
+        }
+
+        for (ContentValues values : moved) {
+            ignoreSingleContentUpdate();
+            resolver.update(uri, values, MediaStore.Audio.Playlists.Members.AUDIO_ID + "=?",
+                    new String[]{values.getAsLong(MediaStore.Audio.Playlists.Members.AUDIO_ID)
+                            .toString()});
+        }
+
+        if (!inserted.isEmpty()) {
+            ignoreSingleContentUpdate();
+            resolver.bulkInsert(uri, inserted.toArray(new ContentValues[inserted.size()]));
+        }
+
+        ignoreSingleContentUpdate();
+        resolver.notifyChange(Uri.parse("content://media"), null);
+    }
+
+    /**
+     * Chooses the play order of each member of a playlist. The longest run of members that are
+     * still in the same order relative to each other keep their previous play orders, and every
+     * other song is spread out in the gap between the members around it.
+     * @param songs The new members of the playlist
+     * @param previousOrder The play order of each previous member, keyed by song ID
+     * @return The play order of each song, or {@code null} if there isn't enough room between
+     *         two members and the playlist has to be renumbered
+     */
+    @Nullable
+    static int[] assignPlayOrders(List<Song> songs, Map<Long, Integer> previousOrder) {
+        int size = songs.size();
+        int[] playOrders = new int[size];
+
+        // Find the longest increasing subsequence of previous play orders. tails[k] is the index
+        // of the song that ends the best subsequence of length k + 1 found so far.
+        int[] tails = new int[size];
+        int[] predecessors = new int[size];
+        int length = 0;
+
+        for (int i = 0; i < size; i++) {
+            predecessors[i] = -1;
+            Integer playOrder = previousOrder.get(songs.get(i).getSongId());
+            if (playOrder == null) {
+                continue;
+            }
+
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (previousOrder.get(songs.get(tails[mid]).getSongId()) < playOrder) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            if (low > 0) {
+                predecessors[i] = tails[low - 1];
+            }
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] kept = new boolean[size];
+        for (int i = (length == 0) ? -1 : tails[length - 1]; i >= 0; i = predecessors[i]) {
+            kept[i] = true;
+            playOrders[i] = previousOrder.get(songs.get(i).getSongId());
+        }
+
+        long lower = 0;
+        int i = 0;
+        while (i < size) {
+            if (kept[i]) {
+                lower = playOrders[i];
+                i++;
+                continue;
+            }
+
+            int end = i;
+            while (end < size && !kept[end]) {
+                end++;
+            }
+
+            int count = end - i;
+            long upper = (end < size)
+                    ? playOrders[end]
+                    : lower + (long) (count + 1) * PLAY_ORDER_SPACING;
+
+            if (upper - lower <= count || upper > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            for (int k = 0; k < count; k++) {
+                playOrders[i + k] = (int) (lower + (upper - lower) * (k + 1) / (count + 1));
+            }
+            i = end;
+        }
+
+        return playOrders;
+    }
+
+    /**
+     * @return A map from the id of each song in a playlist to its play order, or {@code null} if
+     *         the playlist has duplicate entries or couldn't be read
+     */
+    @Nullable
+    private static Map<Long, Integer> getPlaylistMemberOrder(Context context, Playlist playlist) {
+        Cursor cur = context.getContentResolver().query(
+                MediaStore.Audio.Playlists.Members
+                        .getContentUri("external", playlist.getPlaylistId()),
+                new String[]{
+                        MediaStore.Audio.Playlists.Members.AUDIO_ID,
+                        MediaStore.Audio.Playlists.Members.PLAY_ORDER
+                },
+                null, null, null);
+
+        if (cur == null) {
+            return null;
+        }
+
+        Map<Long, Integer> order = new HashMap<>();
+        try {
+            while (cur.moveToNext()) {
+                if (order.put(cur.getLong(0), cur.getInt(1)) != null) {
+                    return null;
+                }
+            }
+        } finally {
+            cur.close();
+        }
+
+        return order;
+    }
+
     private static int getPlaylistSize(Context context, long playlistId) {
         Cursor cur = context.getContentResolver().query(
                 MediaStore.Audio.Playlists.Members.getContentUri("external", playlistId),
@@ -688,13 +1072,16 @@ public final class MediaStoreUtil {
                 SQL_MAX_VARS * (songIDs.length / SQL_MAX_VARS), songIDs.length));
 
         // Sort the contents of the list so that it matches the order of the array
-        List<Song> songs = new ArrayList<>();
-        for (long i : songIDs) {
-            for (Song s : contents) {
-                if (s.getSongId() == i) {
-                    songs.add(s);
-                    break;
-                }
+        Map<Long, Song> songsById = new HashMap<>(contents.size());
+        for (Song s : contents) {
+            songsById.put(s.getSongId(), s);
+        }
+
+        List<Song> songs = new ArrayList<>(songIDs.length);
+        for (long id : songIDs) {
+            Song song = songsById.get(id);
+            if (song != null) {
+                songs.add(song);
             }
         }
 
@@ -716,7 +1103,7 @@ public final class MediaStoreUtil {
     private static List<Song> buildSongListFromIds(long[] songIDs, Context context, int lowerBound,
                                                    int upperBound) {
         List<Song> contents = new ArrayList<>();
-        if (songIDs.length == 0) {
+        if (upperBound <= lowerBound) {
             return contents;
         }
 
@@ -767,13 +1154,16 @@ public final class MediaStoreUtil {
                 SQL_MAX_VARS * (uris.size() / SQL_MAX_VARS), uris.size()));
 
         // Sort the contents of the list so that it matches the order of the array
-        List<Song> songs = new ArrayList<>();
+        Map<Uri, Song> songsByUri = new HashMap<>(contents.size());
+        for (Song s : contents) {
+            songsByUri.put(s.getLocation(), s);
+        }
+
+        List<Song> songs = new ArrayList<>(uris.size());
         for (Uri uri : uris) {
-            for (Song s : contents) {
-                if (s.getLocation().equals(uri)) {
-                    songs.add(s);
-                    break;
-                }
+            Song song = songsByUri.get(uri);
+            if (song != null) {
+                songs.add(song);
             }
         }
 
@@ -795,17 +1185,17 @@ public final class MediaStoreUtil {
     private static List<Song> buildSongListFromUris(List<Uri> uris, Context context, int lowerBound,
                                                    int upperBound) {
         List<Song> contents = new ArrayList<>();
-        if (uris.size() == 0) {
+        if (upperBound <= lowerBound) {
             return contents;
         }
 
         String query = MediaStore.Audio.Media.DATA + " IN(?";
         String[] split = new String[upperBound - lowerBound];
-        split[0] = uris.get(0).getPath();
+        split[0] = uris.get(lowerBound).getPath();
 
         for (int i = 1; i < split.length; i++) {
             query += ",?";
-            split[i] = uris.get(i).getPath();
+            split[i] = uris.get(i + lowerBound).getPath();
         }
         query += ")";
 
@@ -1,5 +1,7 @@
 package com.marverenic.music.data.store;
 
+import com.marverenic.music.data.index.IndexedAlbumArtwork;
+import com.marverenic.music.data.search.LibrarySearchResult;
 import com.marverenic.music.model.Album;
 import com.marverenic.music.model.Artist;
 import com.marverenic.music.model.Genre;
@@ -20,6 +22,17 @@ public interface MusicStore {
 
     Observable<List<Song>> getSongs();
 
+    /**
+     * Emits a {@link LibraryChangeSet} every time the list of songs changes. The most recent
+     * change set is replayed to new subscribers. Change sets may be applied incrementally by
+     * subscribers that have already received the previous version of the library.
+     *
+     * Only songs are described by change sets. Albums, artists and genres are read from their
+     * own MediaStore tables, and {@link #getAlbums()}, {@link #getArtists()} and
+     * {@link #getGenres()} still emit complete lists when they change.
+     */
+    Observable<LibraryChangeSet> getSongChanges();
+
     Observable<List<Album>> getAlbums();
 
     Observable<List<Artist>> getArtists();
@@ -38,8 +51,20 @@ public interface MusicStore {
 
     Observable<Album> findAlbumById(long albumId);
 
+    /**
+     * Emits the artwork and colors that were extracted ahead of time for an album, or
+     * {@code null} if they haven't been extracted yet
+     */
+    Observable<IndexedAlbumArtwork> getAlbumArtwork(Album album);
+
     Observable<Artist> findArtistByName(String artistName);
 
+    /**
+     * Searches every song, album, artist and genre for a query in a single lookup. The results
+     * in each section are ranked by relevance, and are emitted again whenever the library changes.
+     */
+    Observable<LibrarySearchResult> search(String query);
+
     Observable<List<Song>> searchForSongs(String query);
 
     Observable<List<Artist>> searchForArtists(String query);
@@ -0,0 +1,474 @@
+package com.marverenic.music.data.store;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import timber.log.Timber;
+
+/**
+ * Stores play counts in a binary file with one fixed-size record per song. The file is memory
+ * mapped, so recording a play only writes that song's record in place instead of rewriting every
+ * play count.
+ *
+ * Every change is appended to a journal before it's written to the mapped file. Journal entries
+ * hold a song's new values instead of the amount they changed by, so replaying them after a crash
+ * is always safe. The journal is also how other processes find out which songs changed: they
+ * read the entries that were appended since they last checked. The journal is cleared by
+ * {@link #sync()} once the mapped file has been flushed to disk. This starts a new
+ * generation of the journal, and processes that didn't read the previous generation have to
+ * assume that every song changed.
+ *
+ * Both files are locked while they're being modified, so they can be used by several processes
+ * at once. Instances of this class are thread safe.
+ */
+class PlayCountFile implements Closeable {
+
+    private static final int MAGIC = 0x4A504331;
+    private static final int VERSION = 1;
+
+    // Header: magic number, version, number of records, reserved
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_COUNT_OFFSET = 8;
+
+    // Record: song id, play count, skip count, play date
+    private static final int RECORD_SIZE = 24;
+    private static final int PLAYS_OFFSET = 8;
+    private static final int SKIPS_OFFSET = 12;
+    private static final int DATE_OFFSET = 16;
+
+    // Journal header: generation. Journal entry: a record followed by its CRC32 checksum.
+    private static final int JOURNAL_HEADER_SIZE = 8;
+    private static final int JOURNAL_ENTRY_SIZE = RECORD_SIZE + 4;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_JOURNAL_ENTRIES = 512;
+
+    private final RandomAccessFile mRecordFile;
+    private final FileChannel mJournal;
+
+    private MappedByteBuffer mRecords;
+    private final Map<Long, Integer> mSlots;
+    private int mRecordCount;
+
+    private long mJournalGeneration;
+    private long mJournalPosition;
+
+    private final ByteBuffer mEntry;
+    private final CRC32 mChecksum;
+
+    /**
+     * Opens a play count file, creating it if it doesn't exist yet
+     * @param file The file that records are stored in
+     * @param journal The file that changes are written to before they're applied
+     * @param legacyFile A play count file in the old Properties format. If {@code file} doesn't
+     *                   exist yet, it's created from these play counts and this file is deleted.
+     */
+    PlayCountFile(File file, File journal, File legacyFile) throws IOException {
+        mSlots = new HashMap<>();
+        mEntry = ByteBuffer.allocate(JOURNAL_ENTRY_SIZE);
+        mChecksum = new CRC32();
+
+        mJournal = new RandomAccessFile(journal, "rw").getChannel();
+        RandomAccessFile recordFile = null;
+
+        FileLock lock = mJournal.lock();
+        try {
+            if (!file.exists() || file.length() < HEADER_SIZE) {
+                migrate(legacyFile, file);
+            }
+
+            recordFile = new RandomAccessFile(file, "rw");
+            mRecordFile = recordFile;
+            mapRecords(recordFile.length());
+
+            if (mRecords.getInt(0) != MAGIC || mRecords.getInt(4) != VERSION) {
+                throw new IOException("Unrecognized play count file " + file);
+            }
+
+            indexNewRecords();
+            if (mJournal.size() < JOURNAL_HEADER_SIZE) {
+                checkpointLocked();
+            } else {
+                // Other processes may still be reading this journal, so it isn't cleared here
+                replayJournal();
+                mJournalGeneration = readJournalGeneration();
+                mJournalPosition = mJournal.size();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (recordFile != null) {
+                recordFile.close();
+            }
+            mJournal.close();
+            throw e;
+        } finally {
+            if (lock.isValid()) {
+                lock.release();
+            }
+        }
+    }
+
+    private static long getRecordOffset(int slot) {
+        return HEADER_SIZE + (long) slot * RECORD_SIZE;
+    }
+
+    /**
+     * Maps the first {@code size} bytes of the record file, growing the file if it's smaller
+     */
+    private void mapRecords(long size) throws IOException {
+        if (mRecordFile.length() < size) {
+            mRecordFile.setLength(size);
+        }
+        mRecords = mRecordFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Adds records that were appended by another process to {@link #mSlots}
+     */
+    private void indexNewRecords() throws IOException {
+        int recordCount = mRecords.getInt(RECORD_COUNT_OFFSET);
+        if (getRecordOffset(recordCount) > mRecords.capacity()) {
+            // Another process grew the file
+            mapRecords(mRecordFile.length());
+        }
+
+        for (int slot = mRecordCount; slot < recordCount; slot++) {
+            mSlots.put(mRecords.getLong((int) getRecordOffset(slot)), slot);
+        }
+        mRecordCount = recordCount;
+    }
+
+    /**
+     * Creates a new play count file from the contents of a legacy play count file. The new file
+     * is written to a temporary file first so that it's never left partially written.
+     */
+    private static void migrate(File legacyFile, File file) throws IOException {
+        Properties legacyCounts = new Properties();
+        if (legacyFile.exists()) {
+            InputStream inputStream = null;
+            try {
+                inputStream = new FileInputStream(legacyFile);
+                legacyCounts.load(inputStream);
+            } finally {
+                if (inputStream != null) {
+                    inputStream.close();
+                }
+            }
+        }
+
+        int capacity = Math.max(INITIAL_CAPACITY, legacyCounts.size());
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileStream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(legacyCounts.size());
+            out.writeInt(0);
+
+            Enumeration keys = legacyCounts.propertyNames();
+            while (keys.hasMoreElements()) {
+                String key = (String) keys.nextElement();
+                Count count = Count.fromCommaSeparatedValues(legacyCounts.getProperty(key));
+
+                out.writeLong(Long.parseLong(key));
+                out.writeInt(count.mPlays);
+                out.writeInt(count.mSkips);
+                out.writeLong(count.mDate);
+            }
+
+            for (int i = legacyCounts.size(); i < capacity; i++) {
+                out.write(new byte[RECORD_SIZE]);
+            }
+
+            out.flush();
+            fileStream.getFD().sync();
+        } finally {
+            fileStream.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to create " + file);
+        }
+
+        if (legacyFile.exists()) {
+            Timber.i("Migrated %d play counts from %s", legacyCounts.size(), legacyFile);
+            if (!legacyFile.delete()) {
+                Timber.w("Failed to delete %s", legacyFile);
+            }
+        }
+    }
+
+    /**
+     * @return The play count, skip count and play date of a song, or {@code null} if they've
+     *         never been set
+     */
+    synchronized Count get(long songId) {
+        Integer slot = mSlots.get(songId);
+        if (slot == null) {
+            return null;
+        }
+
+        int offset = (int) getRecordOffset(slot);
+        return new Count(mRecords.getInt(offset + PLAYS_OFFSET),
+                mRecords.getInt(offset + SKIPS_OFFSET),
+                mRecords.getLong(offset + DATE_OFFSET));
+    }
+
+    /**
+     * Changes the play count, skip count or play date of a song. The change is atomic, even if
+     * another process is changing the same song.
+     * @return The ids of every song that has changed since the last time this process checked,
+     *         including {@code songId}
+     */
+    synchronized Set<Long> update(long songId, Edit edit) throws IOException {
+        FileLock lock = mJournal.lock();
+        try {
+            Set<Long> changes = readChangesLocked();
+
+            Count count = get(songId);
+            if (count == null) {
+                count = new Count(0, 0, 0);
+            }
+            edit.apply(count);
+
+            appendToJournal(songId, count);
+            write(songId, count);
+            changes.add(songId);
+
+            // Nothing else could have been written to the journal while it was locked
+            mJournalPosition = mJournal.size();
+            return changes;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * @return The ids of every song that other processes have changed since the last time this
+     *         process checked
+     */
+    synchronized Set<Long> readChanges() throws IOException {
+        FileLock lock = mJournal.lock();
+        try {
+            return readChangesLocked();
+        } finally {
+            lock.release();
+        }
+    }
+
+    private Set<Long> readChangesLocked() throws IOException {
+        indexNewRecords();
+        Set<Long> changes = new HashSet<>();
+
+        long generation = readJournalGeneration();
+        if (generation != mJournalGeneration) {
+            // Another process started a new journal. The entries that this process didn't read
+            // from the previous journal are lost, so any song may have changed.
+            changes.addAll(mSlots.keySet());
+            mJournalGeneration = generation;
+            mJournalPosition = JOURNAL_HEADER_SIZE;
+        }
+
+        long journalSize = mJournal.size();
+        while (mJournalPosition + JOURNAL_ENTRY_SIZE <= journalSize) {
+            if (!readJournalEntry(mJournalPosition)) {
+                break;
+            }
+            changes.add(mEntry.getLong(0));
+            mJournalPosition += JOURNAL_ENTRY_SIZE;
+        }
+
+        return changes;
+    }
+
+    /**
+     * Applies every complete entry in the journal to the mapped file. This is only necessary if
+     * a process crashed between writing to the journal and writing to the mapped file, or if
+     * the mapped file wasn't written to disk before the device shut down. Otherwise, the
+     * entries have already been applied and writing them again doesn't change anything.
+     */
+    private void replayJournal() throws IOException {
+        long position = JOURNAL_HEADER_SIZE;
+        long journalSize = mJournal.size();
+
+        while (position + JOURNAL_ENTRY_SIZE <= journalSize && readJournalEntry(position)) {
+            write(mEntry.getLong(0), new Count(mEntry.getInt(PLAYS_OFFSET),
+                    mEntry.getInt(SKIPS_OFFSET), mEntry.getLong(DATE_OFFSET)));
+            position += JOURNAL_ENTRY_SIZE;
+        }
+    }
+
+    private long readJournalGeneration() throws IOException {
+        if (mJournal.size() < JOURNAL_HEADER_SIZE) {
+            return 0;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        mJournal.read(header, 0);
+        return header.getLong(0);
+    }
+
+    /**
+     * Reads a journal entry into {@link #mEntry}
+     * @return Whether or not the entry is complete. Entries may be incomplete if a process
+     *         crashed while writing them.
+     */
+    private boolean readJournalEntry(long position) throws IOException {
+        mEntry.clear();
+        while (mEntry.hasRemaining()) {
+            if (mJournal.read(mEntry, position + mEntry.position()) < 0) {
+                return false;
+            }
+        }
+
+        mChecksum.reset();
+        mChecksum.update(mEntry.array(), 0, RECORD_SIZE);
+        return (int) mChecksum.getValue() == mEntry.getInt(RECORD_SIZE);
+    }
+
+    private void appendToJournal(long songId, Count count) throws IOException {
+        mEntry.clear();
+        mEntry.putLong(songId);
+        mEntry.putInt(count.mPlays);
+        mEntry.putInt(count.mSkips);
+        mEntry.putLong(count.mDate);
+
+        mChecksum.reset();
+        mChecksum.update(mEntry.array(), 0, RECORD_SIZE);
+        mEntry.putInt((int) mChecksum.getValue());
+
+        mEntry.flip();
+        long position = mJournal.size();
+        while (mEntry.hasRemaining()) {
+            position += mJournal.write(mEntry, position);
+        }
+    }
+
+    private void write(long songId, Count count) throws IOException {
+        Integer slot = mSlots.get(songId);
+        boolean append = slot == null;
+
+        if (append) {
+            slot = mRecordCount;
+            long size = getRecordOffset(slot + 1);
+            if (size > mRecords.capacity()) {
+                mapRecords(Math.max(size, 2L * mRecords.capacity()));
+            }
+        }
+
+        int offset = (int) getRecordOffset(slot);
+        mRecords.putLong(offset, songId);
+        mRecords.putInt(offset + PLAYS_OFFSET, count.mPlays);
+        mRecords.putInt(offset + SKIPS_OFFSET, count.mSkips);
+        mRecords.putLong(offset + DATE_OFFSET, count.mDate);
+
+        if (append) {
+            // The record count is only updated after the record has been written so that other
+            // processes never read an incomplete record
+            mRecordCount++;
+            mRecords.putInt(RECORD_COUNT_OFFSET, mRecordCount);
+            mSlots.put(songId, slot);
+        }
+    }
+
+    /**
+     * Makes sure that every change has been written to disk. If the journal has grown large
+     * enough, the mapped file is flushed and a new journal is started.
+     * @return The ids of every song that other processes have changed since the last time this
+     *         process checked
+     */
+    synchronized Set<Long> sync() throws IOException {
+        FileLock lock = mJournal.lock();
+        try {
+            // Read the remaining entries before they're cleared so that they aren't lost
+            Set<Long> changes = readChangesLocked();
+
+            long entries = (mJournal.size() - JOURNAL_HEADER_SIZE) / JOURNAL_ENTRY_SIZE;
+            if (entries >= MAX_JOURNAL_ENTRIES) {
+                checkpointLocked();
+            } else {
+                mJournal.force(false);
+            }
+            return changes;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Writes the mapped file to disk and starts a new, empty journal
+     */
+    private void checkpointLocked() throws IOException {
+        mRecords.force();
+
+        mJournalGeneration = readJournalGeneration() + 1;
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        header.putLong(0, mJournalGeneration);
+
+        mJournal.truncate(0);
+        while (header.hasRemaining()) {
+            mJournal.write(header, header.position());
+        }
+        mJournal.force(false);
+        mJournalPosition = JOURNAL_HEADER_SIZE;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mRecords.force();
+        mJournal.close();
+        mRecordFile.close();
+    }
+
+    /**
+     * Changes a song's {@link Count} in {@link #update(long, Edit)}
+     */
+    interface Edit {
+        void apply(Count count);
+    }
+
+    static final class Count {
+
+        int mPlays;
+        int mSkips;
+        long mDate;
+
+        Count(int plays, int skips, long date) {
+            mPlays = plays;
+            mSkips = skips;
+            mDate = date;
+        }
+
+        static Count fromCommaSeparatedValues(String commaSeparatedValues) {
+            String[] originalValues = commaSeparatedValues.split(",");
+
+            int playCount = Integer.parseInt(originalValues[0]);
+            int skipCount = Integer.parseInt(originalValues[1]);
+            long playDate = 0;
+
+            if (originalValues.length > 2) {
+                playDate = Long.parseLong(originalValues[2]);
+            }
+
+            return new Count(playCount, skipCount, playDate);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.marverenic.music.data.store;
 
 import com.marverenic.music.model.Song;
 
+import java.util.Set;
+
 import rx.Observable;
 
 public interface PlayCountStore {
@@ -9,6 +11,12 @@ public interface PlayCountStore {
     Observable<Void> refresh();
     void save();
 
+    /**
+     * Emits the ids of songs whose play count, skip count or play date have changed. This
+     * includes changes made through this store, and changes that another process wrote to disk.
+     */
+    Observable<Set<Long>> getPlayCountChanges();
+
     int getPlayCount(Song song);
     int getSkipCount(Song song);
     long getPlayDate(Song song);
@@ -21,4 +29,16 @@ public interface PlayCountStore {
     void setSkipCount(Song song, int count);
     void setPlayDate(Song song, long timeInUnixSeconds);
 
+    /**
+     * Adds a play or skip to the play history. This doesn't change the song's play count, skip
+     * count, or play date.
+     * @param listenedMillis How much of the song was listened to before it ended or was skipped
+     */
+    void logPlay(Song song, long listenedMillis, boolean skipped);
+
+    /**
+     * @return Statistics about how often songs have been played recently
+     */
+    PlayHistory getPlayHistory();
+
 }
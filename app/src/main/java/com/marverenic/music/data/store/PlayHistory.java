@@ -0,0 +1,54 @@
+package com.marverenic.music.data.store;
+
+import androidx.annotation.IntDef;
+
+import com.marverenic.music.model.Song;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics about how often songs have been played recently. Unlike the totals in
+ * {@link PlayCountStore}, these are computed from a log of every play and skip.
+ *
+ * The statistics only move forward in time when the {@link PlayCountStore} is refreshed, so that
+ * they don't change while a list of songs is being sorted by them. Songs whose statistics change
+ * because a play falls outside of a time window are published in
+ * {@link PlayCountStore#getPlayCountChanges()}.
+ */
+public interface PlayHistory {
+
+    int PAST_WEEK = 0;
+    int PAST_MONTH = 1;
+    int PAST_YEAR = 2;
+
+    @IntDef(value = {PAST_WEEK, PAST_MONTH, PAST_YEAR})
+    @interface Window {
+    }
+
+    int getPlayCount(Song song, @Window int window);
+    int getSkipCount(Song song, @Window int window);
+
+    /**
+     * @return The ids of the songs with the most plays in a time window, from most to least
+     *         played. Songs that haven't been played in this window aren't included.
+     */
+    List<Long> getMostPlayedSongIds(@Window int window, int count);
+
+    /**
+     * Play counts by artist and album are kept up to date as songs are played, as long as they
+     * are requested for the same list of songs. Passing a different list instance (like a new
+     * version of the library) rebuilds them, so the list shouldn't be modified after it's passed.
+     * @param songs The songs to count plays of, usually the entire library
+     * @return The number of times that songs by each artist have been played, keyed by artist id
+     */
+    Map<Long, Integer> getPlayCountsByArtist(@Window int window, List<Song> songs);
+
+    /**
+     * @param songs The songs to count plays of, usually the entire library. See
+     *              {@link #getPlayCountsByArtist(int, List)}.
+     * @return The number of times that songs on each album have been played, keyed by album id
+     */
+    Map<Long, Integer> getPlayCountsByAlbum(@Window int window, List<Song> songs);
+
+}
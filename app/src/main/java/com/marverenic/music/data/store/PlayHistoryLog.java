@@ -0,0 +1,488 @@
+package com.marverenic.music.data.store;
+
+import androidx.annotation.Nullable;
+
+import com.marverenic.music.model.ModelUtil;
+import com.marverenic.music.model.Song;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An append-only log of every time a song was played or skipped, along with rolling totals of
+ * plays and skips for each {@link PlayHistory.Window}.
+ *
+ * Each event is a fixed 16 byte record: the song id, the time it was played in Unix seconds, and
+ * how many seconds of it were listened to with the lowest bit set if it was skipped. Events are
+ * appended in roughly chronological order, so only the events in the longest window are read
+ * when the log is opened, starting from a binary search for the oldest of them.
+ *
+ * The totals are kept in buckets of one day for the past week and month, and of one week for
+ * the past year. Days start at midnight in the local time zone, so that a song played late in the
+ * evening counts towards the same day that the user sees on their clock. Events are stored in
+ * Unix time, so a change of time zone only affects the buckets that they're read into. When a bucket falls outside of its window, its counts are subtracted from the
+ * window's totals, so no query has to look at individual events. Each window also keeps its
+ * songs ranked by play count, and once play counts by artist or album have been requested, their
+ * sums are updated along with the totals instead of being recomputed for every query.
+ *
+ * Events may be appended by several processes. Each process reads the events that other
+ * processes appended with {@link #readNewEvents(long)}. Instances of this class are thread safe.
+ */
+class PlayHistoryLog implements PlayHistory {
+
+    private static final int EVENT_SIZE = 16;
+    private static final int TIME_OFFSET = 8;
+    private static final int DURATION_OFFSET = 12;
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final int READ_BUFFER_EVENTS = 256;
+
+    @Nullable
+    private final File mFile;
+    private final TimeZone mTimeZone;
+    private FileChannel mChannel;
+    private long mPosition;
+
+    private final RollingWindow[] mWindows;
+
+    // The songs that play counts are rolled up by artist and album for
+    private List<Song> mRollupSongs;
+
+    /**
+     * @param file The file to store the log in, or {@code null} to only keep the history in
+     *             memory
+     */
+    PlayHistoryLog(@Nullable File file) {
+        this(file, TimeZone.getDefault());
+    }
+
+    /**
+     * @param file The file to store the log in, or {@code null} to only keep the history in
+     *             memory
+     * @param timeZone The time zone that days are counted in
+     */
+    PlayHistoryLog(@Nullable File file, TimeZone timeZone) {
+        mFile = file;
+        mTimeZone = timeZone;
+        mWindows = new RollingWindow[3];
+        mWindows[PAST_WEEK] = new RollingWindow(1, 7);
+        mWindows[PAST_MONTH] = new RollingWindow(1, 30);
+        mWindows[PAST_YEAR] = new RollingWindow(7, 52);
+    }
+
+    /**
+     * Opens the log if it hasn't been opened yet, and reads the events that other processes have
+     * appended since the last time this process checked. Events that have fallen outside of a
+     * time window are also removed from its totals.
+     * @param now The current time, in milliseconds
+     * @return The ids of every song with statistics that changed
+     */
+    synchronized Set<Long> readNewEvents(long now) throws IOException {
+        Set<Long> changed = new HashSet<>();
+        advanceTo(now / 1000, changed);
+
+        if (openIfNecessary(now)) {
+            FileLock lock = mChannel.lock();
+            try {
+                readEvents(changed);
+            } finally {
+                lock.release();
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Adds a play or skip to the log
+     * @param time The time that the song was played at, in milliseconds
+     * @param listened How much of the song was listened to, in milliseconds
+     * @return The ids of every song with statistics that changed, including {@code songId}
+     */
+    synchronized Set<Long> append(long songId, long time, long listened, boolean skipped)
+            throws IOException {
+        Set<Long> changed = new HashSet<>();
+        advanceTo(time / 1000, changed);
+
+        int timeSeconds = (int) (time / 1000);
+        int duration = (int) Math.min(listened / 1000, Integer.MAX_VALUE >> 1) << 1
+                | (skipped ? 1 : 0);
+
+        if (openIfNecessary(time)) {
+            ByteBuffer event = ByteBuffer.allocate(EVENT_SIZE);
+            event.putLong(songId);
+            event.putInt(timeSeconds);
+            event.putInt(duration);
+            event.flip();
+
+            FileLock lock = mChannel.lock();
+            try {
+                readEvents(changed);
+
+                // If a process crashed while appending an event, it's overwritten
+                long position = mChannel.size() / EVENT_SIZE * EVENT_SIZE;
+                while (event.hasRemaining()) {
+                    position += mChannel.write(event, position);
+                }
+                mPosition = position;
+            } finally {
+                lock.release();
+            }
+        }
+
+        addEvent(songId, timeSeconds & 0xFFFFFFFFL, skipped);
+        changed.add(songId);
+        return changed;
+    }
+
+    /**
+     * @param now The current time, in milliseconds
+     * @return Whether or not this log is stored in a file
+     */
+    private boolean openIfNecessary(long now) throws IOException {
+        if (mFile == null) {
+            return false;
+        }
+
+        if (mChannel == null) {
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+            mPosition = findFirstEvent(now / 1000 - getOldestEventAge());
+        }
+        return true;
+    }
+
+    private long getOldestEventAge() {
+        long oldest = 0;
+        for (RollingWindow window : mWindows) {
+            oldest = Math.max(oldest, window.getLength());
+        }
+        // Local days can start up to a day before the same day in UTC
+        return (oldest + 1) * SECONDS_PER_DAY;
+    }
+
+    /**
+     * @return The position of the first event that happened at or after {@code time}, assuming
+     *         that events are sorted by time
+     */
+    private long findFirstEvent(long time) throws IOException {
+        ByteBuffer event = ByteBuffer.allocate(EVENT_SIZE);
+        long low = 0;
+        long high = mChannel.size() / EVENT_SIZE;
+
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            event.clear();
+            mChannel.read(event, middle * EVENT_SIZE);
+
+            if ((event.getInt(TIME_OFFSET) & 0xFFFFFFFFL) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low * EVENT_SIZE;
+    }
+
+    private void readEvents(Set<Long> changed) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(EVENT_SIZE * READ_BUFFER_EVENTS);
+        long size = mChannel.size();
+
+        while (mPosition + EVENT_SIZE <= size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - mPosition));
+            while (buffer.hasRemaining()) {
+                if (mChannel.read(buffer, mPosition + buffer.position()) < 0) {
+                    break;
+                }
+            }
+
+            int events = buffer.position() / EVENT_SIZE;
+            for (int i = 0; i < events; i++) {
+                int offset = i * EVENT_SIZE;
+                long songId = buffer.getLong(offset);
+                long time = buffer.getInt(offset + TIME_OFFSET) & 0xFFFFFFFFL;
+                boolean skipped = (buffer.getInt(offset + DURATION_OFFSET) & 1) != 0;
+
+                if (addEvent(songId, time, skipped)) {
+                    changed.add(songId);
+                }
+            }
+
+            if (events == 0) {
+                break;
+            }
+            mPosition += events * EVENT_SIZE;
+        }
+    }
+
+    /**
+     * @return Whether or not the event was recent enough to be counted in any time window
+     */
+    private boolean addEvent(long songId, long time, boolean skipped) {
+        long day = getLocalDay(time);
+        boolean added = false;
+        for (RollingWindow window : mWindows) {
+            added |= window.add(songId, day, skipped);
+        }
+        return added;
+    }
+
+    private void advanceTo(long time, Set<Long> changed) {
+        long day = getLocalDay(time);
+        for (RollingWindow window : mWindows) {
+            window.advanceTo(day, changed);
+        }
+    }
+
+    /**
+     * @param time A time in Unix seconds
+     * @return The number of days since the epoch on the local calendar at {@code time}
+     */
+    private long getLocalDay(long time) {
+        long offset = mTimeZone.getOffset(time * 1000) / 1000;
+        return (time + offset) / SECONDS_PER_DAY;
+    }
+
+    @Override
+    public synchronized int getPlayCount(Song song, @Window int window) {
+        Tally tally = mWindows[window].mTotals.get(song.getSongId());
+        return (tally == null) ? 0 : tally.mPlays;
+    }
+
+    @Override
+    public synchronized int getSkipCount(Song song, @Window int window) {
+        Tally tally = mWindows[window].mTotals.get(song.getSongId());
+        return (tally == null) ? 0 : tally.mSkips;
+    }
+
+    @Override
+    public synchronized List<Long> getMostPlayedSongIds(@Window int window, int count) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+
+        List<Long> songIds = new ArrayList<>(Math.min(count, mWindows[window].mRanking.size()));
+        for (Tally tally : mWindows[window].mRanking) {
+            if (songIds.size() == count) {
+                break;
+            }
+            songIds.add(tally.mSongId);
+        }
+        return songIds;
+    }
+
+    @Override
+    public synchronized Map<Long, Integer> getPlayCountsByArtist(@Window int window,
+                                                                 List<Song> songs) {
+        setRollupSongs(songs);
+        return new HashMap<>(mWindows[window].mPlaysByArtist);
+    }
+
+    @Override
+    public synchronized Map<Long, Integer> getPlayCountsByAlbum(@Window int window,
+                                                                List<Song> songs) {
+        setRollupSongs(songs);
+        return new HashMap<>(mWindows[window].mPlaysByAlbum);
+    }
+
+    /**
+     * Rebuilds the play counts by artist and album if they were last built for a different list
+     * of songs. Lists are compared by identity, since comparing their contents would cost as much
+     * as rebuilding the sums.
+     */
+    private void setRollupSongs(List<Song> songs) {
+        if (songs == mRollupSongs) {
+            return;
+        }
+
+        Map<Long, Song> songsById = new HashMap<>(songs.size() * 2);
+        for (Song song : songs) {
+            songsById.put(song.getSongId(), song);
+        }
+
+        mRollupSongs = songs;
+        for (RollingWindow window : mWindows) {
+            window.setRollupSongs(songsById);
+        }
+    }
+
+    private static void addPlayCount(Map<Long, Integer> playCounts, long key, int plays) {
+        Integer previous = playCounts.get(key);
+        int total = (previous == null) ? plays : previous + plays;
+
+        if (total == 0) {
+            playCounts.remove(key);
+        } else {
+            playCounts.put(key, total);
+        }
+    }
+
+    private static final class Tally {
+
+        final long mSongId;
+        int mPlays;
+        int mSkips;
+
+        Tally(long songId) {
+            mSongId = songId;
+        }
+
+        boolean isEmpty() {
+            return mPlays == 0 && mSkips == 0;
+        }
+    }
+
+    /**
+     * Play and skip totals over a window of time that ends today
+     */
+    private static final class RollingWindow {
+
+        private final int mDaysPerBucket;
+        private final int mBucketCount;
+
+        private final SortedMap<Long, Map<Long, Tally>> mBuckets;
+        private final Map<Long, Tally> mTotals;
+        private long mNewestBucket;
+
+        // Every total with at least one play, from most to least played. A total is removed
+        // before its play count changes and added again afterwards, so the set stays sorted.
+        private final TreeSet<Tally> mRanking;
+
+        // These are only kept once they've been requested, since they need every song's metadata
+        private Map<Long, Song> mRollupSongs;
+        private Map<Long, Integer> mPlaysByArtist;
+        private Map<Long, Integer> mPlaysByAlbum;
+
+        RollingWindow(int daysPerBucket, int bucketCount) {
+            mDaysPerBucket = daysPerBucket;
+            mBucketCount = bucketCount;
+            mBuckets = new TreeMap<>();
+            mTotals = new HashMap<>();
+            mNewestBucket = Long.MIN_VALUE;
+            mRanking = new TreeSet<>((t1, t2) -> {
+                int comparison = ModelUtil.compareLong(t2.mPlays, t1.mPlays);
+                return (comparison != 0)
+                        ? comparison
+                        : ModelUtil.compareLong(t1.mSongId, t2.mSongId);
+            });
+        }
+
+        /**
+         * @return The number of days covered by this window
+         */
+        int getLength() {
+            return mDaysPerBucket * mBucketCount;
+        }
+
+        private long getOldestBucket() {
+            return mNewestBucket - mBucketCount + 1;
+        }
+
+        boolean add(long songId, long day, boolean skipped) {
+            long bucketIndex = day / mDaysPerBucket;
+            if (mNewestBucket != Long.MIN_VALUE && bucketIndex < getOldestBucket()) {
+                return false;
+            }
+
+            Map<Long, Tally> bucket = mBuckets.get(bucketIndex);
+            if (bucket == null) {
+                bucket = new HashMap<>();
+                mBuckets.put(bucketIndex, bucket);
+            }
+
+            Tally tally = bucket.get(songId);
+            if (tally == null) {
+                tally = new Tally(songId);
+                bucket.put(songId, tally);
+            }
+
+            if (skipped) {
+                tally.mSkips++;
+                addToTotal(songId, 0, 1);
+            } else {
+                tally.mPlays++;
+                addToTotal(songId, 1, 0);
+            }
+            return true;
+        }
+
+        private void addToTotal(long songId, int plays, int skips) {
+            Tally total = mTotals.get(songId);
+            if (total == null) {
+                total = new Tally(songId);
+                mTotals.put(songId, total);
+            }
+
+            if (plays != 0) {
+                if (total.mPlays > 0) {
+                    mRanking.remove(total);
+                }
+                total.mPlays += plays;
+                if (total.mPlays > 0) {
+                    mRanking.add(total);
+                }
+                addToRollups(songId, plays);
+            }
+
+            total.mSkips += skips;
+            if (total.isEmpty()) {
+                mTotals.remove(songId);
+            }
+        }
+
+        private void addToRollups(long songId, int plays) {
+            Song song = (mRollupSongs == null) ? null : mRollupSongs.get(songId);
+            if (song != null) {
+                addPlayCount(mPlaysByArtist, song.getArtistId(), plays);
+                addPlayCount(mPlaysByAlbum, song.getAlbumId(), plays);
+            }
+        }
+
+        void setRollupSongs(Map<Long, Song> songsById) {
+            mRollupSongs = songsById;
+            mPlaysByArtist = new HashMap<>();
+            mPlaysByAlbum = new HashMap<>();
+
+            for (Tally total : mRanking) {
+                addToRollups(total.mSongId, total.mPlays);
+            }
+        }
+
+        /**
+         * Moves the end of this window to {@code today}, and removes the buckets that are no
+         * longer in it from the totals
+         * @param changed A set to add the ids of songs with totals that changed to
+         */
+        void advanceTo(long today, Set<Long> changed) {
+            long newestBucket = today / mDaysPerBucket;
+            if (newestBucket <= mNewestBucket) {
+                return;
+            }
+            mNewestBucket = newestBucket;
+
+            SortedMap<Long, Map<Long, Tally>> expired = mBuckets.headMap(getOldestBucket());
+            for (Map<Long, Tally> bucket : expired.values()) {
+                for (Tally tally : bucket.values()) {
+                    addToTotal(tally.mSongId, -tally.mPlays, -tally.mSkips);
+                    changed.add(tally.mSongId);
+                }
+            }
+            expired.clear();
+        }
+    }
+}
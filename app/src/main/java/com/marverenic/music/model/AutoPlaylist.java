@@ -5,23 +5,27 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.os.Parcel;
 import android.os.Parcelable;
+import androidx.annotation.Nullable;
 
 import com.google.gson.annotations.SerializedName;
 import com.marverenic.music.data.store.MusicStore;
 import com.marverenic.music.data.store.PlayCountStore;
+import com.marverenic.music.data.store.PlayHistory;
 import com.marverenic.music.data.store.PlaylistStore;
 import com.marverenic.music.model.playlistrules.AutoPlaylistRule;
 import com.marverenic.music.model.playlistrules.AutoPlaylistRule.Field;
+import com.marverenic.music.model.playlistrules.RuleCompiler;
+import com.marverenic.music.model.playlistrules.SongPredicate;
+import com.marverenic.music.model.playlistrules.SongRanking;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import rx.Observable;
+import rx.schedulers.Schedulers;
 
 public class AutoPlaylist extends Playlist implements Parcelable {
 
@@ -72,6 +76,8 @@ public class AutoPlaylist extends Playlist implements Parcelable {
     @SerializedName("sortAscending")
     private final boolean mSortAscending;
 
+    private static final Comparator<Song> NAME_ORDER = (s1, s2) -> s1.compareTo(s2);
+
     public static AutoPlaylist emptyPlaylist(Context context) {
         return new AutoPlaylist.Builder()
                 .setName("")
@@ -122,47 +128,24 @@ public class AutoPlaylist extends Playlist implements Parcelable {
             return Observable.just(Collections.emptyList());
         }
 
-        Observable<List<Song>> filtered = null;
-
-        for (AutoPlaylistRule rule : getRules()) {
-            Observable<List<Song>> ruleEntries;
-            ruleEntries = rule.applyFilter(playlistStore, musicStore, playCountStore);
+        Observable<SongPredicate> predicate = compileRules(musicStore, playlistStore,
+                playCountStore)
+                .observeOn(Schedulers.computation());
 
-            if (filtered == null) {
-                filtered = ruleEntries;
-            } else {
-                filtered = combineRules(filtered, ruleEntries);
-            }
-        }
+        Observable<List<Song>> library = musicStore.getSongs()
+                .take(1)
+                .observeOn(Schedulers.computation());
 
-        // Perform the filter after play counts are refreshed
-        final Observable<List<Song>> finalFiltered = filtered;
+        // Perform the filter after play counts are refreshed. Every rule is evaluated in a single
+        // pass over the library.
         Observable<List<Song>> matchingSongs = playCountStore.refresh()
-                .flatMap(ignored -> finalFiltered);
+                .flatMap(ignored -> Observable.combineLatest(predicate, library,
+                        (compiled, songs) -> RuleCompiler.filter(songs, compiled)));
 
         Observable<List<Song>> truncated = truncateFilteredSongs(matchingSongs, playCountStore);
         return sortFilteredSongs(truncated, playCountStore);
     }
 
-    private Observable<List<Song>> combineRules(Observable<List<Song>> result1,
-                                                Observable<List<Song>> result2) {
-
-        if (isMatchAllRules()) { // AND
-            return Observable.combineLatest(result1, result2, (songs, songs2) -> {
-                List<Song> merged = new ArrayList<>(songs);
-                merged.retainAll(songs2);
-                return merged;
-            });
-        } else { // OR
-            return Observable.combineLatest(result1, result2, (songs, songs2) -> {
-                Set<Song> mergedSet = new HashSet<>(songs);
-                mergedSet.addAll(songs2);
-
-                return new ArrayList<>(mergedSet);
-            });
-        }
-    }
-
     private Observable<List<Song>> truncateFilteredSongs(Observable<List<Song>> filterResult,
                                                          PlayCountStore playCountStore) {
         if (getMaximumEntries() < 0) {
@@ -170,45 +153,74 @@ public class AutoPlaylist extends Playlist implements Parcelable {
         }
 
         return filterResult
-                .map(filteredSongs -> {
-                    sortSongListByField(filteredSongs, getTruncateMethod(), isSortAscending(),
-                            playCountStore);
-
-                    return filteredSongs;
-                }).map(sortedSongs -> {
-                    if (sortedSongs.size() > getMaximumEntries()) {
-                        return sortedSongs.subList(0, getMaximumEntries());
-                    } else {
-                        return sortedSongs;
-                    }
-                });
+                .map(filteredSongs -> SongRanking.select(filteredSongs, getMaximumEntries(),
+                        getTruncateMethod(), isSortAscending(), playCountStore));
     }
 
     private Observable<List<Song>> sortFilteredSongs(Observable<List<Song>> truncateResult,
                                                      PlayCountStore playCountStore) {
         return truncateResult
                 .map(truncatedSongs -> {
-                    sortSongListByField(truncatedSongs, getSortMethod(), isSortAscending(),
-                            playCountStore);
+                    sortContents(truncatedSongs, playCountStore);
                     return truncatedSongs;
                 });
     }
 
-    private static void sortSongListByField(List<Song> songs, @Field int field, boolean ascending,
-                                            PlayCountStore playCountStore) {
+    /**
+     * Compiles this playlist's rules into a single predicate. See {@link RuleCompiler}.
+     * The rules must not be empty.
+     */
+    public Observable<SongPredicate> compileRules(MusicStore musicStore,
+                                                  PlaylistStore playlistStore,
+                                                  PlayCountStore playCountStore) {
+        return RuleCompiler.compile(getRules(), isMatchAllRules(), playlistStore, musicStore,
+                playCountStore);
+    }
+
+    /**
+     * @return The order that matching songs are ranked in before this playlist is truncated to
+     *         {@link #getMaximumEntries()}, or {@code null} if songs are chosen randomly
+     */
+    @Nullable
+    public Comparator<Song> getTruncateOrder(PlayCountStore playCountStore) {
+        return getSongOrder(getTruncateMethod(), isSortAscending(), playCountStore);
+    }
 
+    /**
+     * @return The order of the songs in this playlist, or {@code null} if they're shuffled
+     */
+    @Nullable
+    public Comparator<Song> getSortOrder(PlayCountStore playCountStore) {
+        return getSongOrder(getSortMethod(), isSortAscending(), playCountStore);
+    }
+
+    /**
+     * Sorts songs in the order that they're ranked in before this playlist is truncated.
+     * This is faster than sorting with {@link #getTruncateOrder(PlayCountStore)}.
+     */
+    public void sortForTruncation(List<Song> songs, PlayCountStore playCountStore) {
+        SongRanking.sort(songs, getTruncateMethod(), isSortAscending(), playCountStore);
+    }
+
+    /**
+     * Sorts songs in the order that they appear in this playlist. This is faster than sorting
+     * with {@link #getSortOrder(PlayCountStore)}.
+     */
+    public void sortContents(List<Song> songs, PlayCountStore playCountStore) {
+        SongRanking.sort(songs, getSortMethod(), isSortAscending(), playCountStore);
+    }
+
+    @Nullable
+    private static Comparator<Song> getSongOrder(@Field int field, boolean ascending,
+                                                 PlayCountStore playCountStore) {
         if (field == AutoPlaylistRule.NAME) {
-            Collections.sort(songs);
-            if (!ascending) {
-                Collections.reverse(songs);
-            }
+            return (ascending) ? NAME_ORDER : Collections.reverseOrder(NAME_ORDER);
         } else if (field == AutoPlaylistRule.ID) {
-            Collections.shuffle(songs);
+            return null;
         } else {
-            Collections.sort(songs, getSortComparator(field, playCountStore));
-            if (ascending) {
-                Collections.reverse(songs);
-            }
+            // These comparators sort from largest to smallest
+            Comparator<Song> comparator = getSortComparator(field, playCountStore);
+            return (ascending) ? Collections.reverseOrder(comparator) : comparator;
         }
     }
 
@@ -226,6 +238,12 @@ public class AutoPlaylist extends Playlist implements Parcelable {
                 return Song.playCountComparator(playCountStore);
             case AutoPlaylistRule.SKIP_COUNT:
                 return Song.skipCountComparator(playCountStore);
+            case AutoPlaylistRule.PLAYS_PAST_WEEK:
+                return Song.recentPlayCountComparator(playCountStore.getPlayHistory(),
+                        PlayHistory.PAST_WEEK);
+            case AutoPlaylistRule.PLAYS_PAST_MONTH:
+                return Song.recentPlayCountComparator(playCountStore.getPlayHistory(),
+                        PlayHistory.PAST_MONTH);
         }
         return null;
     }
@@ -11,8 +11,11 @@ import android.provider.MediaStore;
 import androidx.annotation.NonNull;
 
 import com.marverenic.music.R;
+import com.marverenic.music.data.index.IndexedSong;
 import com.marverenic.music.data.store.MediaStoreUtil;
 import com.marverenic.music.data.store.PlayCountStore;
+import com.marverenic.music.data.store.PlayHistory;
+import com.marverenic.music.player.persistence.PlaybackItem;
 import com.marverenic.music.utils.UriUtils;
 
 import java.io.File;
@@ -194,6 +197,61 @@ public class Song implements Parcelable, Comparable<Song> {
         return song;
     }
 
+    /**
+     * Builds a Song from a row of the on-device library index
+     * @param row The index row to read values from
+     * @return A Song with the same values as the index row
+     */
+    public static Song fromIndexedSong(IndexedSong row) {
+        Song song = new Song();
+        song.songName = row.songName;
+        song.songId = row.songId;
+        song.artistName = row.artistName;
+        song.albumName = row.albumName;
+        song.songDuration = row.songDuration;
+        song.location = Uri.fromFile(new File(row.path));
+        song.year = row.year;
+        song.dateAdded = row.dateAdded;
+        song.albumId = row.albumId;
+        song.artistId = row.artistId;
+        song.trackNumber = row.trackNumber;
+
+        song.isInLibrary = true;
+        song.sortableName = row.sortableName;
+        song.sortableArtistName = row.sortableArtistName;
+        song.sortableAlbumName = row.sortableAlbumName;
+
+        return song;
+    }
+
+    /**
+     * Builds a Song from an item of a persisted queue
+     * @param item The queue item to read values from. This item must have song metadata.
+     * @return A Song with the same values as the song that the queue item was saved from
+     * @see PlaybackItem#hasSongMetadata()
+     */
+    public static Song fromPlaybackItem(PlaybackItem item) {
+        Song song = new Song();
+        song.songName = item.songName;
+        song.songId = item.songId;
+        song.artistName = item.artistName;
+        song.albumName = item.albumName;
+        song.songDuration = item.songDuration;
+        song.location = Uri.parse(item.songUri);
+        song.year = item.year;
+        song.dateAdded = item.dateAdded;
+        song.albumId = item.albumId;
+        song.artistId = item.artistId;
+        song.trackNumber = item.trackNumber;
+
+        song.isInLibrary = item.inLibrary;
+        song.sortableName = item.sortableName;
+        song.sortableArtistName = item.sortableArtistName;
+        song.sortableAlbumName = item.sortableAlbumName;
+
+        return song;
+    }
+
     private void loadInfoFromMetadata(Context context) {
         MediaMetadataRetriever mmr = new MediaMetadataRetriever();
         mmr.setDataSource(context, location);
@@ -256,6 +314,18 @@ public class Song implements Parcelable, Comparable<Song> {
         return isInLibrary;
     }
 
+    public String getSortableName() {
+        return sortableName;
+    }
+
+    public String getSortableArtistName() {
+        return sortableArtistName;
+    }
+
+    public String getSortableAlbumName() {
+        return sortableAlbumName;
+    }
+
     @Override
     public int hashCode() {
         return hashLong(songId);
@@ -314,6 +384,12 @@ public class Song implements Parcelable, Comparable<Song> {
         return (s1, s2) -> countStore.getSkipCount(s2) - countStore.getSkipCount(s1);
     }
 
+    public static Comparator<Song> recentPlayCountComparator(PlayHistory playHistory,
+                                                             @PlayHistory.Window int window) {
+        return (s1, s2) ->
+                playHistory.getPlayCount(s2, window) - playHistory.getPlayCount(s1, window);
+    }
+
     public static final Comparator<Song> DATE_ADDED_COMPARATOR = (s1, s2) ->
             compareLong(s2.getDateAdded(), s1.getDateAdded());
 
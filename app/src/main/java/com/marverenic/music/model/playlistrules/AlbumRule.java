@@ -8,11 +8,8 @@ import com.marverenic.music.data.store.MusicStore;
 import com.marverenic.music.data.store.PlayCountStore;
 import com.marverenic.music.data.store.PlaylistStore;
 import com.marverenic.music.model.Album;
-import com.marverenic.music.model.Song;
 
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import rx.Observable;
@@ -29,40 +26,24 @@ public class AlbumRule extends AutoPlaylistRule implements Parcelable {
     }
 
     @Override
-    public Observable<List<Song>> applyFilter(PlaylistStore playlistStore, MusicStore musicStore,
-                                              PlayCountStore playCountStore) {
+    public Observable<SongPredicate> compile(PlaylistStore playlistStore, MusicStore musicStore,
+                                             PlayCountStore playCountStore) {
+        if (getField() == AutoPlaylistRule.ID) {
+            return Observable.just(song -> checkId(song.getAlbumId()));
+        }
+
         return musicStore.getAlbums()
                 .observeOn(Schedulers.computation())
                 .take(1)
                 .map(library -> {
-                    List<Album> filtered = new ArrayList<>();
+                    Set<Long> albumIds = new HashSet<>();
                     for (Album album : library) {
                         if (includeAlbum(album)) {
-                            filtered.add(album);
-                        }
-                    }
-
-                    return filtered;
-                })
-                .map(albums -> {
-                    Set<Long> albumIds = new HashSet<>();
-
-                    for (Album album : albums) {
-                        albumIds.add(album.getAlbumId());
-                    }
-
-                    return albumIds;
-                })
-                .zipWith(musicStore.getSongs(), (albumIds, songs) -> {
-                    List<Song> filtered = new ArrayList<>();
-
-                    for (Song song : songs) {
-                        if (albumIds.contains(song.getAlbumId())) {
-                            filtered.add(song);
+                            albumIds.add(album.getAlbumId());
                         }
                     }
 
-                    return filtered;
+                    return song -> albumIds.contains(song.getAlbumId());
                 });
     }
 
@@ -8,11 +8,8 @@ import com.marverenic.music.data.store.MusicStore;
 import com.marverenic.music.data.store.PlayCountStore;
 import com.marverenic.music.data.store.PlaylistStore;
 import com.marverenic.music.model.Artist;
-import com.marverenic.music.model.Song;
 
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import rx.Observable;
@@ -29,40 +26,24 @@ public class ArtistRule extends AutoPlaylistRule implements Parcelable {
     }
 
     @Override
-    public Observable<List<Song>> applyFilter(PlaylistStore playlistStore, MusicStore musicStore,
-                                              PlayCountStore playCountStore) {
+    public Observable<SongPredicate> compile(PlaylistStore playlistStore, MusicStore musicStore,
+                                             PlayCountStore playCountStore) {
+        if (getField() == AutoPlaylistRule.ID) {
+            return Observable.just(song -> checkId(song.getArtistId()));
+        }
+
         return musicStore.getArtists()
                 .observeOn(Schedulers.computation())
                 .take(1)
                 .map(library -> {
-                    List<Artist> filtered = new ArrayList<>();
+                    Set<Long> artistIds = new HashSet<>();
                     for (Artist artist : library) {
                         if (includeArtist(artist)) {
-                            filtered.add(artist);
-                        }
-                    }
-
-                    return filtered;
-                })
-                .map(artists -> {
-                    Set<Long> artistIds = new HashSet<>();
-
-                    for (Artist artist : artists) {
-                        artistIds.add((long) artist.getArtistId());
-                    }
-
-                    return artistIds;
-                })
-                .zipWith(musicStore.getSongs(), (artistIds, songs) -> {
-                    List<Song> filtered = new ArrayList<>();
-
-                    for (Song song : songs) {
-                        if (artistIds.contains(song.getArtistId())) {
-                            filtered.add(song);
+                            artistIds.add((long) artist.getArtistId());
                         }
                     }
 
-                    return filtered;
+                    return song -> artistIds.contains(song.getArtistId());
                 });
     }
 
@@ -12,10 +12,8 @@ import com.google.gson.stream.JsonWriter;
 import com.marverenic.music.data.store.MusicStore;
 import com.marverenic.music.data.store.PlayCountStore;
 import com.marverenic.music.data.store.PlaylistStore;
-import com.marverenic.music.model.Song;
 
 import java.io.IOException;
-import java.util.List;
 
 import rx.Observable;
 
@@ -42,11 +40,16 @@ public abstract class AutoPlaylistRule implements Parcelable {
     public static final int LESS_THAN = 16;
     public static final int GREATER_THAN = 17;
 
+    // Rules are saved with these values, so fields that were added later come after the matches
+    public static final int PLAYS_PAST_WEEK = 18;
+    public static final int PLAYS_PAST_MONTH = 19;
+
     @IntDef(value = {PLAYLIST, SONG, ARTIST, ALBUM, GENRE})
     public @interface Type {
     }
 
-    @IntDef(value = {ID, NAME, PLAY_COUNT, SKIP_COUNT, YEAR, DATE_ADDED, DATE_PLAYED})
+    @IntDef(value = {ID, NAME, PLAY_COUNT, SKIP_COUNT, YEAR, DATE_ADDED, DATE_PLAYED,
+            PLAYS_PAST_WEEK, PLAYS_PAST_MONTH})
     public @interface Field {
     }
 
@@ -70,6 +73,7 @@ public abstract class AutoPlaylistRule implements Parcelable {
     private final String mValue;
 
     private final long mNumericValue;
+    private final String mLowerCaseValue;
 
     public static AutoPlaylistRule emptyRule() {
         return new AutoPlaylistRule.Factory()
@@ -86,6 +90,7 @@ public abstract class AutoPlaylistRule implements Parcelable {
         mMatch = match;
         mValue = value;
         mNumericValue = parseNumericValue();
+        mLowerCaseValue = parseLowerCaseValue();
     }
 
     @SuppressWarnings("WrongConstant")
@@ -95,6 +100,7 @@ public abstract class AutoPlaylistRule implements Parcelable {
         mMatch = in.readInt();
         mValue = in.readString();
         mNumericValue = parseNumericValue();
+        mLowerCaseValue = parseLowerCaseValue();
     }
 
     private long parseNumericValue() {
@@ -105,6 +111,10 @@ public abstract class AutoPlaylistRule implements Parcelable {
         }
     }
 
+    private String parseLowerCaseValue() {
+        return (getValue() == null) ? "" : getValue().toLowerCase();
+    }
+
     @Type
     public int getType() {
         return mType;
@@ -135,17 +145,31 @@ public abstract class AutoPlaylistRule implements Parcelable {
     protected boolean checkString(String actual) {
         switch (getMatch()) {
             case EQUALS:
-                return actual.equalsIgnoreCase(getValue());
+                return actual.equalsIgnoreCase(mLowerCaseValue);
             case NOT_EQUALS:
-                return !actual.equalsIgnoreCase(getValue());
+                return !actual.equalsIgnoreCase(mLowerCaseValue);
             case CONTAINS:
-                return actual.toLowerCase().contains(getValue().toLowerCase());
+                return containsIgnoreCase(actual, mLowerCaseValue);
             case NOT_CONTAINS:
-                return !actual.toLowerCase().contains(getValue().toLowerCase());
+                return !containsIgnoreCase(actual, mLowerCaseValue);
         }
         throw new IllegalArgumentException("Cannot compare Strings with match type " + getMatch());
     }
 
+    /**
+     * Checks if a string contains another string without allocating a lower-case copy of it,
+     * since this is called once for every song in the library
+     */
+    private static boolean containsIgnoreCase(String actual, String lowerCaseValue) {
+        int length = lowerCaseValue.length();
+        for (int i = 0; i + length <= actual.length(); i++) {
+            if (actual.regionMatches(true, i, lowerCaseValue, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @SuppressLint("SwitchIntDef")
     protected boolean checkInt(long actual) {
         switch (getMatch()) {
@@ -165,9 +189,14 @@ public abstract class AutoPlaylistRule implements Parcelable {
         return mValue;
     }
 
-    public abstract Observable<List<Song>> applyFilter(PlaylistStore playlistStore,
-                                                       MusicStore musicStore,
-                                                       PlayCountStore playCountStore);
+    /**
+     * Resolves any data this rule depends on and turns it into a predicate that can be evaluated
+     * against each song in the library. See {@link RuleCompiler}.
+     * @return An observable that emits the compiled predicate
+     */
+    public abstract Observable<SongPredicate> compile(PlaylistStore playlistStore,
+                                                      MusicStore musicStore,
+                                                      PlayCountStore playCountStore);
 
     @SuppressWarnings("SimplifiableIfStatement")
     @Override
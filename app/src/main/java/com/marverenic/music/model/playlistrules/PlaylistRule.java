@@ -10,8 +10,7 @@ import com.marverenic.music.data.store.PlaylistStore;
 import com.marverenic.music.model.Playlist;
 import com.marverenic.music.model.Song;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
 
 import rx.Observable;
 import rx.schedulers.Schedulers;
@@ -27,28 +26,20 @@ public class PlaylistRule extends AutoPlaylistRule implements Parcelable {
     }
 
     @Override
-    public Observable<List<Song>> applyFilter(PlaylistStore playlistStore, MusicStore musicStore,
-                                              PlayCountStore playCountStore) {
+    public Observable<SongPredicate> compile(PlaylistStore playlistStore, MusicStore musicStore,
+                                             PlayCountStore playCountStore) {
         return playlistStore.getPlaylists()
                 .observeOn(Schedulers.computation())
                 .take(1)
-                .map(library -> {
-                    List<Playlist> filtered = new ArrayList<>();
-                    for (Playlist playlist : library) {
-                        if (includePlaylist(playlist)) {
-                            filtered.add(playlist);
-                        }
+                .flatMap(Observable::from)
+                .filter(this::includePlaylist)
+                .concatMap(playlist -> playlistStore.getSongs(playlist).take(1))
+                .collect(HashSet<Long>::new, (songIds, songs) -> {
+                    for (Song song : songs) {
+                        songIds.add(song.getSongId());
                     }
-
-                    return filtered;
                 })
-                .flatMap(Observable::from)
-                .concatMap(playlistStore::getSongs)
-                .reduce((songs, songs2) -> {
-                    List<Song> merged = new ArrayList<>(songs);
-                    merged.addAll(songs2);
-                    return merged;
-                });
+                .map(songIds -> song -> songIds.contains(song.getSongId()));
     }
 
     @SuppressLint("SwitchIntDef")
@@ -0,0 +1,149 @@
+package com.marverenic.music.model.playlistrules;
+
+import android.annotation.SuppressLint;
+
+import com.marverenic.music.data.store.MusicStore;
+import com.marverenic.music.data.store.PlayCountStore;
+import com.marverenic.music.data.store.PlaylistStore;
+import com.marverenic.music.model.ModelUtil;
+import com.marverenic.music.model.Song;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import rx.Observable;
+
+/**
+ * Compiles the rules of an {@link com.marverenic.music.model.AutoPlaylist} into a single
+ * {@link SongPredicate}, so that the playlist can be generated with one scan of the library
+ * instead of filtering the library once per rule and merging the results.
+ */
+public final class RuleCompiler {
+
+    // Relative costs of evaluating a rule against a single song. Cheap rules are evaluated first
+    // so that AND and OR can short-circuit before the expensive ones run.
+    private static final int COST_FIELD = 0;
+    private static final int COST_LOOKUP = 1;
+    private static final int COST_PLAY_COUNT = 2;
+    private static final int COST_STRING = 3;
+
+    private static final Comparator<AutoPlaylistRule> COST_COMPARATOR =
+            (r1, r2) -> ModelUtil.compareLong(getCost(r1), getCost(r2));
+
+    /**
+     * This class is never instantiated
+     */
+    private RuleCompiler() {
+
+    }
+
+    /**
+     * @param rules The rules to compile. Must not be empty.
+     * @param matchAllRules Whether a song has to match every rule (AND), or any rule (OR)
+     * @return An observable that emits the compiled predicate once every rule has been compiled
+     */
+    public static Observable<SongPredicate> compile(List<AutoPlaylistRule> rules,
+                                                    boolean matchAllRules,
+                                                    PlaylistStore playlistStore,
+                                                    MusicStore musicStore,
+                                                    PlayCountStore playCountStore) {
+
+        if (rules.isEmpty()) {
+            throw new IllegalArgumentException("Cannot compile an empty list of rules");
+        }
+
+        List<AutoPlaylistRule> sortedRules = new ArrayList<>(rules);
+        Collections.sort(sortedRules, COST_COMPARATOR);
+
+        List<Observable<SongPredicate>> compiled = new ArrayList<>(sortedRules.size());
+        for (AutoPlaylistRule rule : sortedRules) {
+            compiled.add(rule.compile(playlistStore, musicStore, playCountStore).take(1));
+        }
+
+        return Observable.combineLatest(compiled, predicates -> {
+            if (predicates.length == 1) {
+                return (SongPredicate) predicates[0];
+            }
+
+            SongPredicate[] terms = new SongPredicate[predicates.length];
+            System.arraycopy(predicates, 0, terms, 0, terms.length);
+
+            return (matchAllRules) ? new And(terms) : new Or(terms);
+        });
+    }
+
+    /**
+     * Filters a list of songs with a compiled predicate
+     * @return The songs that match the predicate, in the same order as {@code songs}
+     */
+    public static List<Song> filter(List<Song> songs, SongPredicate predicate) {
+        List<Song> filtered = new ArrayList<>();
+        for (Song song : songs) {
+            if (predicate.test(song)) {
+                filtered.add(song);
+            }
+        }
+        return filtered;
+    }
+
+    @SuppressLint("SwitchIntDef")
+    private static int getCost(AutoPlaylistRule rule) {
+        if (rule.getType() != AutoPlaylistRule.SONG) {
+            // Playlist, genre, album and artist rules are resolved into a set of ids
+            return COST_LOOKUP;
+        }
+
+        switch (rule.getField()) {
+            case AutoPlaylistRule.NAME:
+                return COST_STRING;
+            case AutoPlaylistRule.PLAY_COUNT:
+            case AutoPlaylistRule.SKIP_COUNT:
+            case AutoPlaylistRule.DATE_PLAYED:
+            case AutoPlaylistRule.PLAYS_PAST_WEEK:
+            case AutoPlaylistRule.PLAYS_PAST_MONTH:
+                return COST_PLAY_COUNT;
+            default:
+                return COST_FIELD;
+        }
+    }
+
+    private static final class And implements SongPredicate {
+
+        private final SongPredicate[] mTerms;
+
+        And(SongPredicate[] terms) {
+            mTerms = terms;
+        }
+
+        @Override
+        public boolean test(Song song) {
+            for (SongPredicate term : mTerms) {
+                if (!term.test(song)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Or implements SongPredicate {
+
+        private final SongPredicate[] mTerms;
+
+        Or(SongPredicate[] terms) {
+            mTerms = terms;
+        }
+
+        @Override
+        public boolean test(Song song) {
+            for (SongPredicate term : mTerms) {
+                if (term.test(song)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -19,6 +19,8 @@ import static com.marverenic.music.model.playlistrules.AutoPlaylistRule.ID;
 import static com.marverenic.music.model.playlistrules.AutoPlaylistRule.LESS_THAN;
 import static com.marverenic.music.model.playlistrules.AutoPlaylistRule.NAME;
 import static com.marverenic.music.model.playlistrules.AutoPlaylistRule.NOT_EQUALS;
+import static com.marverenic.music.model.playlistrules.AutoPlaylistRule.PLAYS_PAST_MONTH;
+import static com.marverenic.music.model.playlistrules.AutoPlaylistRule.PLAYS_PAST_WEEK;
 import static com.marverenic.music.model.playlistrules.AutoPlaylistRule.PLAY_COUNT;
 import static com.marverenic.music.model.playlistrules.AutoPlaylistRule.SKIP_COUNT;
 
@@ -41,7 +43,12 @@ public enum RuleEnumeration {
     ADDED_AFTER(R.string.rule_added_after, DATE_ADDED, GREATER_THAN),
     PLAYED_BEFORE(R.string.rule_played_before, DATE_PLAYED, LESS_THAN),
     PLAYED_ON(R.string.rule_played_on, DATE_PLAYED, EQUALS),
-    PLAYER_AFTER(R.string.rule_played_after, DATE_PLAYED, GREATER_THAN);
+    PLAYER_AFTER(R.string.rule_played_after, DATE_PLAYED, GREATER_THAN),
+    PLAYS_PAST_WEEK_LESS_THAN(R.string.rule_plays_past_week_lt, PLAYS_PAST_WEEK, LESS_THAN),
+    PLAYS_PAST_WEEK_GREATER_THAN(R.string.rule_plays_past_week_gt, PLAYS_PAST_WEEK, GREATER_THAN),
+    PLAYS_PAST_MONTH_LESS_THAN(R.string.rule_plays_past_month_lt, PLAYS_PAST_MONTH, LESS_THAN),
+    PLAYS_PAST_MONTH_GREATER_THAN(R.string.rule_plays_past_month_gt, PLAYS_PAST_MONTH,
+            GREATER_THAN);
 
     private static final int NO_INPUT_TYPE = InputType.TYPE_NULL;
     private static final int TEXT_INPUT_TYPE = InputType.TYPE_CLASS_TEXT
@@ -74,6 +81,10 @@ public enum RuleEnumeration {
         PLAYED_BEFORE.mInputType = DATE_INPUT_TYPE;
         PLAYED_ON.mInputType = DATE_INPUT_TYPE;
         PLAYER_AFTER.mInputType = DATE_INPUT_TYPE;
+        PLAYS_PAST_WEEK_LESS_THAN.mInputType = NUMBER_INPUT_TYPE;
+        PLAYS_PAST_WEEK_GREATER_THAN.mInputType = NUMBER_INPUT_TYPE;
+        PLAYS_PAST_MONTH_LESS_THAN.mInputType = NUMBER_INPUT_TYPE;
+        PLAYS_PAST_MONTH_GREATER_THAN.mInputType = NUMBER_INPUT_TYPE;
     }
 
     RuleEnumeration(@StringRes int nameRes, @Field int field, @Match int match) {
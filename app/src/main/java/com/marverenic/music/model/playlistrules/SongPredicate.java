@@ -0,0 +1,15 @@
+package com.marverenic.music.model.playlistrules;
+
+import com.marverenic.music.model.Song;
+
+/**
+ * A compiled {@link AutoPlaylistRule} (or a combination of rules) that decides whether a single
+ * song belongs in an {@link com.marverenic.music.model.AutoPlaylist}. Any data that a rule depends
+ * on, like the contents of another playlist, is resolved before the predicate is created so that
+ * it can be evaluated once per song in a single pass over the library.
+ */
+public interface SongPredicate {
+
+    boolean test(Song song);
+
+}
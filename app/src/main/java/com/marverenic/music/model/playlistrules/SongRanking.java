@@ -0,0 +1,246 @@
+package com.marverenic.music.model.playlistrules;
+
+import android.annotation.SuppressLint;
+
+import com.marverenic.music.data.store.PlayCountStore;
+import com.marverenic.music.data.store.PlayHistory;
+import com.marverenic.music.model.Song;
+import com.marverenic.music.model.playlistrules.AutoPlaylistRule.Field;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sorts and truncates the contents of an {@link com.marverenic.music.model.AutoPlaylist}.
+ *
+ * The value of the sort field is read once per song before any comparisons are made, so sorting
+ * by play count, skip count or play date doesn't look up every song in the {@link PlayCountStore}
+ * O(n log n) times. Truncated playlists only keep the top k songs in a bounded heap, which takes
+ * O(n log k) time instead of sorting every matching song.
+ *
+ * Numeric fields are ranked from largest to smallest unless {@code ascending} is set, and names
+ * are ranked alphabetically unless it isn't. {@link AutoPlaylistRule#ID} ranks songs randomly.
+ * Songs with equal values keep their original relative order.
+ */
+public final class SongRanking {
+
+    private static final Random sRandom = new Random();
+
+    /**
+     * This class is never instantiated
+     */
+    private SongRanking() {
+
+    }
+
+    /**
+     * Sorts a list of songs in place
+     */
+    public static void sort(List<Song> songs, @Field int field, boolean ascending,
+                            PlayCountStore playCountStore) {
+        if (field == AutoPlaylistRule.ID) {
+            Collections.shuffle(songs, sRandom);
+            return;
+        }
+
+        Ranking ranking = new Ranking(songs, field, ascending, playCountStore);
+        Integer[] order = new Integer[songs.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, ranking::compare);
+
+        List<Song> sorted = new ArrayList<>(songs.size());
+        for (int index : order) {
+            sorted.add(songs.get(index));
+        }
+
+        for (int i = 0; i < sorted.size(); i++) {
+            songs.set(i, sorted.get(i));
+        }
+    }
+
+    /**
+     * Finds the first songs in a list as if it were sorted with
+     * {@link #sort(List, int, boolean, PlayCountStore)}, without sorting the entire list
+     * @param songs The songs to select from. This list isn't modified.
+     * @param count The maximum number of songs to select
+     * @return A new list with the first {@code count} songs, in order
+     */
+    public static List<Song> select(List<Song> songs, int count, @Field int field,
+                                    boolean ascending, PlayCountStore playCountStore) {
+        if (count >= songs.size()) {
+            List<Song> sorted = new ArrayList<>(songs);
+            sort(sorted, field, ascending, playCountStore);
+            return sorted;
+        } else if (count <= 0) {
+            return new ArrayList<>();
+        } else if (field == AutoPlaylistRule.ID) {
+            return sample(songs, count);
+        }
+
+        Ranking ranking = new Ranking(songs, field, ascending, playCountStore);
+
+        // A max-heap of the best songs found so far. The root is the worst of them, so it's the
+        // one to replace when a better song is found.
+        int[] heap = new int[count];
+        int size = 0;
+
+        for (int i = 0; i < songs.size(); i++) {
+            if (size < count) {
+                heap[size] = i;
+                siftUp(heap, size, ranking);
+                size++;
+            } else if (ranking.compare(i, heap[0]) < 0) {
+                heap[0] = i;
+                siftDown(heap, size, ranking);
+            }
+        }
+
+        // Pop the worst song off of the heap until it's empty to put the selection in order
+        Song[] selected = new Song[size];
+        while (size > 0) {
+            selected[size - 1] = songs.get(heap[0]);
+            size--;
+            heap[0] = heap[size];
+            siftDown(heap, size, ranking);
+        }
+
+        return new ArrayList<>(Arrays.asList(selected));
+    }
+
+    /**
+     * Picks random songs from a list with reservoir sampling
+     */
+    private static List<Song> sample(List<Song> songs, int count) {
+        List<Song> sample = new ArrayList<>(songs.subList(0, count));
+        for (int i = count; i < songs.size(); i++) {
+            int replace = sRandom.nextInt(i + 1);
+            if (replace < count) {
+                sample.set(replace, songs.get(i));
+            }
+        }
+
+        Collections.shuffle(sample, sRandom);
+        return sample;
+    }
+
+    private static void siftUp(int[] heap, int index, Ranking ranking) {
+        int item = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (ranking.compare(heap[parent], item) >= 0) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = item;
+    }
+
+    private static void siftDown(int[] heap, int size, Ranking ranking) {
+        if (size == 0) {
+            return;
+        }
+
+        int index = 0;
+        int item = heap[0];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && ranking.compare(heap[child + 1], heap[child]) > 0) {
+                child++;
+            }
+            if (ranking.compare(item, heap[child]) >= 0) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = item;
+    }
+
+    /**
+     * Compares songs by their index in a list, using sort keys that are computed up front
+     */
+    private static final class Ranking {
+
+        private final List<Song> mSongs;
+        private final boolean mByName;
+        private final boolean mAscending;
+        private final long[] mKeys;
+
+        Ranking(List<Song> songs, @Field int field, boolean ascending,
+                PlayCountStore playCountStore) {
+            mSongs = songs;
+            mByName = field == AutoPlaylistRule.NAME;
+            mAscending = ascending;
+            mKeys = (mByName) ? null : getKeys(songs, field, playCountStore);
+        }
+
+        @SuppressLint("SwitchIntDef")
+        private static long[] getKeys(List<Song> songs, @Field int field,
+                                      PlayCountStore playCountStore) {
+            long[] keys = new long[songs.size()];
+            PlayHistory playHistory = playCountStore.getPlayHistory();
+            for (int i = 0; i < keys.length; i++) {
+                Song song = songs.get(i);
+                switch (field) {
+                    case AutoPlaylistRule.PLAY_COUNT:
+                        keys[i] = playCountStore.getPlayCount(song);
+                        break;
+                    case AutoPlaylistRule.SKIP_COUNT:
+                        keys[i] = playCountStore.getSkipCount(song);
+                        break;
+                    case AutoPlaylistRule.DATE_PLAYED:
+                        keys[i] = playCountStore.getPlayDate(song);
+                        break;
+                    case AutoPlaylistRule.DATE_ADDED:
+                        keys[i] = song.getDateAdded();
+                        break;
+                    case AutoPlaylistRule.YEAR:
+                        keys[i] = song.getYear();
+                        break;
+                    case AutoPlaylistRule.PLAYS_PAST_WEEK:
+                        keys[i] = playHistory.getPlayCount(song, PlayHistory.PAST_WEEK);
+                        break;
+                    case AutoPlaylistRule.PLAYS_PAST_MONTH:
+                        keys[i] = playHistory.getPlayCount(song, PlayHistory.PAST_MONTH);
+                        break;
+                    default:
+                        // Songs can't be ranked by this field, so they stay in their original order
+                        keys[i] = 0;
+                }
+            }
+            return keys;
+        }
+
+        /**
+         * @return A negative number if the song at {@code i} comes before the song at {@code j}
+         */
+        int compare(int i, int j) {
+            int comparison;
+            if (mByName) {
+                comparison = mSongs.get(i).compareTo(mSongs.get(j));
+                if (!mAscending) {
+                    comparison = -comparison;
+                }
+            } else if (mAscending) {
+                comparison = compareLong(mKeys[i], mKeys[j]);
+            } else {
+                comparison = compareLong(mKeys[j], mKeys[i]);
+            }
+
+            return (comparison != 0) ? comparison : compareLong(i, j);
+        }
+
+        private static int compareLong(long a, long b) {
+            return (a < b) ? -1 : ((a == b) ? 0 : 1);
+        }
+    }
+}
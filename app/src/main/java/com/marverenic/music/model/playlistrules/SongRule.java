@@ -5,14 +5,11 @@ import android.os.Parcelable;
 
 import com.marverenic.music.data.store.MusicStore;
 import com.marverenic.music.data.store.PlayCountStore;
+import com.marverenic.music.data.store.PlayHistory;
 import com.marverenic.music.data.store.PlaylistStore;
 import com.marverenic.music.model.Song;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import rx.Observable;
-import rx.schedulers.Schedulers;
 
 public class SongRule extends AutoPlaylistRule implements Parcelable {
 
@@ -25,23 +22,14 @@ public class SongRule extends AutoPlaylistRule implements Parcelable {
     }
 
     @Override
-    public Observable<List<Song>> applyFilter(PlaylistStore playlistStore, MusicStore musicStore,
-                                              PlayCountStore playCountStore) {
-        return musicStore.getSongs()
-                .observeOn(Schedulers.computation())
-                .take(1)
-                .map(library -> {
-                    List<Song> filtered = new ArrayList<>();
-                    for (Song song : library) {
-                        if (includeSong(song, playCountStore)) {
-                            filtered.add(song);
-                        }
-                    }
-                    return filtered;
-                });
+    public Observable<SongPredicate> compile(PlaylistStore playlistStore, MusicStore musicStore,
+                                             PlayCountStore playCountStore) {
+        PlayHistory playHistory = playCountStore.getPlayHistory();
+        return Observable.just(song -> includeSong(song, playCountStore, playHistory));
     }
 
-    private boolean includeSong(Song song, PlayCountStore playCountStore) {
+    private boolean includeSong(Song song, PlayCountStore playCountStore,
+                                PlayHistory playHistory) {
         switch (getField()) {
             case ID:
                 return checkId(song.getSongId());
@@ -50,13 +38,17 @@ public class SongRule extends AutoPlaylistRule implements Parcelable {
             case PLAY_COUNT:
                 return checkInt(playCountStore.getPlayCount(song));
             case SKIP_COUNT:
-                return checkInt(playCountStore.getPlayCount(song));
+                return checkInt(playCountStore.getSkipCount(song));
             case YEAR:
                 return checkInt(song.getYear());
             case DATE_ADDED:
                 return checkInt(song.getDateAdded());
             case DATE_PLAYED:
                 return checkInt(playCountStore.getPlayDate(song));
+            case PLAYS_PAST_WEEK:
+                return checkInt(playHistory.getPlayCount(song, PlayHistory.PAST_WEEK));
+            case PLAYS_PAST_MONTH:
+                return checkInt(playHistory.getPlayCount(song, PlayHistory.PAST_MONTH));
         }
         throw new IllegalArgumentException("Cannot compare against field " + getField());
     }
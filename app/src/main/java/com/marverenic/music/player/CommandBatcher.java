@@ -0,0 +1,206 @@
+package com.marverenic.music.player;
+
+import android.os.SystemClock;
+
+import com.marverenic.music.player.transaction.ChunkHeader;
+import com.marverenic.music.utils.ObservableQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Groups commands for the remote player service into batches so that bursts of commands (like
+ * reordering the queue or queueing several selections) are sent in one binder transaction instead
+ * of one transaction each.
+ *
+ * Batches are added to a request queue like any other request. Commands are added to the last
+ * batch in the queue until it starts being sent, or until another request is enqueued after it.
+ * Because the request queue runs one request at a time and every batch is sent with a
+ * synchronous binder call, the service runs requests in the order they were enqueued. Adjacent
+ * commands are merged with {@link PlayerCommand#mergeWith(PlayerCommand)} when possible, and
+ * commands with more songs than fit in one transaction are split with
+ * {@link PlayerCommand#split(int)}.
+ */
+class CommandBatcher {
+
+    private final Object mLock = new Object();
+
+    private final ObservableQueue<Runnable> mRequestQueue;
+    private final Sender mSender;
+
+    /**
+     * The batch at the end of the request queue that commands can still be added to, or
+     * {@code null} if a new batch needs to be enqueued for the next command
+     */
+    private Batch mOpenBatch;
+
+    private final AtomicLong mEnqueuedCount = new AtomicLong();
+    private final AtomicLong mMergedCount = new AtomicLong();
+    private final AtomicLong mSentCount = new AtomicLong();
+    private final AtomicLong mBatchCount = new AtomicLong();
+    private final AtomicLong mTotalQueueWaitMs = new AtomicLong();
+    private final AtomicLong mMaxQueueWaitMs = new AtomicLong();
+
+    CommandBatcher(ObservableQueue<Runnable> requestQueue, Sender sender) {
+        mRequestQueue = requestQueue;
+        mSender = sender;
+    }
+
+    /**
+     * Adds a command to the request queue, merging it with the previous command if possible
+     */
+    void enqueue(PlayerCommand command) {
+        mEnqueuedCount.incrementAndGet();
+
+        synchronized (mLock) {
+            for (PlayerCommand part : command.split(ChunkHeader.MAX_ENTRIES)) {
+                if (mOpenBatch == null || !mOpenBatch.add(part)) {
+                    mOpenBatch = new Batch();
+                    mOpenBatch.add(part);
+                    mRequestQueue.enqueue(mOpenBatch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a request that can't be batched to the request queue. Commands that are enqueued
+     * after this request will be run after it.
+     */
+    void enqueue(Runnable request) {
+        synchronized (mLock) {
+            mOpenBatch = null;
+            mRequestQueue.enqueue(request);
+        }
+    }
+
+    /**
+     * @return The number of commands passed to {@link #enqueue(PlayerCommand)}
+     */
+    long getEnqueuedCount() {
+        return mEnqueuedCount.get();
+    }
+
+    /**
+     * @return The number of commands that were merged into the command before them
+     */
+    long getMergedCount() {
+        return mMergedCount.get();
+    }
+
+    /**
+     * @return The number of commands that have been sent to the remote service, after merging
+     */
+    long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * @return The number of binder transactions used to send commands
+     */
+    long getBatchCount() {
+        return mBatchCount.get();
+    }
+
+    /**
+     * @return The average time, in milliseconds, that a batch waited in the request queue
+     *         before being sent
+     */
+    long getAverageQueueWaitMs() {
+        long batches = mBatchCount.get();
+        return (batches == 0) ? 0 : mTotalQueueWaitMs.get() / batches;
+    }
+
+    /**
+     * @return The longest time, in milliseconds, that a batch waited in the request queue before
+     *         being sent
+     */
+    long getMaxQueueWaitMs() {
+        return mMaxQueueWaitMs.get();
+    }
+
+    private void recordQueueWait(long waitMs) {
+        mTotalQueueWaitMs.addAndGet(waitMs);
+
+        long max;
+        do {
+            max = mMaxQueueWaitMs.get();
+        } while (waitMs > max && !mMaxQueueWaitMs.compareAndSet(max, waitMs));
+    }
+
+    interface Sender {
+        void send(List<PlayerCommand> commands);
+    }
+
+    private final class Batch implements Runnable {
+
+        private final long mCreatedAt = SystemClock.elapsedRealtime();
+        private final List<PlayerCommand> mCommands = new ArrayList<>();
+        private int mSongCount;
+
+        /**
+         * Must be called while holding {@link #mLock}. Commands must already be split so that
+         * they fit in a batch on their own.
+         * @return Whether the command was added to this batch
+         */
+        boolean add(PlayerCommand command) {
+            if (mCommands.isEmpty()) {
+                mCommands.add(command);
+                mSongCount = command.getSongs().size();
+                return true;
+            }
+
+            int lastIndex = mCommands.size() - 1;
+            PlayerCommand last = mCommands.get(lastIndex);
+            PlayerCommand merged = last.mergeWith(command);
+
+            if (merged != null) {
+                int addedSongs = merged.getSongs().size() - last.getSongs().size();
+                if (fits(addedSongs)) {
+                    mCommands.set(lastIndex, merged);
+                    mSongCount += addedSongs;
+                    mMergedCount.incrementAndGet();
+                    return true;
+                }
+            } else if (fits(command.getSongs().size())) {
+                mCommands.add(command);
+                mSongCount += command.getSongs().size();
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Keeps batches small enough to be sent in a single binder transaction
+         */
+        private boolean fits(int addedSongs) {
+            return mSongCount + addedSongs <= ChunkHeader.MAX_ENTRIES;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                if (mOpenBatch == this) {
+                    mOpenBatch = null;
+                }
+            }
+
+            long waitMs = SystemClock.elapsedRealtime() - mCreatedAt;
+            recordQueueWait(waitMs);
+            mBatchCount.incrementAndGet();
+            mSentCount.addAndGet(mCommands.size());
+
+            Timber.v("Sending %d commands after %d ms (%d enqueued, %d merged, %d sent in %d "
+                            + "batches, waited %d ms on average and %d ms at most)",
+                    mCommands.size(), waitMs, getEnqueuedCount(), getMergedCount(),
+                    getSentCount(), getBatchCount(), getAverageQueueWaitMs(),
+                    getMaxQueueWaitMs());
+
+            mSender.send(mCommands);
+        }
+    }
+}
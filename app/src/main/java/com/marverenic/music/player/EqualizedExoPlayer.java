@@ -31,12 +31,19 @@ public class EqualizedExoPlayer implements ExoPlayer {
     private boolean mEqualizerEnabled;
     private Equalizer.Settings mEqualizerSettings;
 
+    @Nullable
+    private PlaybackMetrics mPlaybackMetrics;
+
     public EqualizedExoPlayer(Context context, SimpleExoPlayer delegate) {
         mContext = context;
         mExoPlayer = delegate;
         mExoPlayer.addAudioDebugListener(new EqualizerEventListener());
     }
 
+    void setPlaybackMetrics(@Nullable PlaybackMetrics metrics) {
+        mPlaybackMetrics = metrics;
+    }
+
     public void setEqualizerSettings(boolean enabled, Equalizer.Settings settings) {
         boolean invalidate = mEqualizerEnabled != enabled || mEqualizerEnabled;
         boolean wasSystem = isUsingSystemEqualizer();
@@ -158,6 +165,10 @@ public class EqualizedExoPlayer implements ExoPlayer {
         @Override
         public void onAudioSinkUnderrun(int bufferSize, long bufferSizeMs,
                                         long elapsedSinceLastFeedMs) {
+            if (mPlaybackMetrics != null) {
+                mPlaybackMetrics.onAudioSinkUnderrun(bufferSize, bufferSizeMs,
+                        elapsedSinceLastFeedMs);
+            }
         }
     }
 
@@ -166,6 +166,11 @@ public class MockPlayerController implements PlayerController {
         throw new UnsupportedOperationException("Stub!");
     }
 
+    @Override
+    public Observable<Integer> getCurrentPosition(int resolution) {
+        throw new UnsupportedOperationException("Stub!");
+    }
+
     @Override
     public Observable<Integer> getDuration() {
         return getNowPlaying().map(Song::getSongDuration).cast(Integer.class);
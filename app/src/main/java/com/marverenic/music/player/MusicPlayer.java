@@ -41,9 +41,7 @@ import com.marverenic.music.utils.compat.AudioManagerCompat;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
 
 import javax.inject.Inject;
 
@@ -180,9 +178,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
     private final List<MusicPlayerExtension> mExtensions;
 
     @NonNull
-    private List<Song> mQueue;
-    @NonNull
-    private List<Song> mQueueShuffled;
+    private PlayerQueue mQueue;
 
     private boolean mShuffle;
     private int mRepeat;
@@ -212,6 +208,12 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
 
     private final Runnable mSleepTimerRunnable = this::onSleepTimerEnd;
 
+    /**
+     * The last state that was sent to {@link OnPlaybackChangeListener#onStateChanged}
+     * @see #publishState()
+     */
+    private PlayerStateDelta mPublishedState;
+
     /**
      * Creates a new MusicPlayer with an empty queue. The backing {@link android.media.MediaPlayer}
      * will create a wakelock (specified by {@link PowerManager#PARTIAL_WAKE_LOCK}), and all
@@ -239,8 +241,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
         mMediaPlayer = new QueuedExoPlayer(context);
         mMediaPlayer.setPlaybackEventListener(this);
 
-        mQueue = new ArrayList<>();
-        mQueueShuffled = new ArrayList<>();
+        mQueue = PlayerQueue.empty();
 
         // Attach a HeadsetListener to respond to headphone events
         mHeadphoneListener = new HeadsetListener(this);
@@ -442,6 +443,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
         }
 
         mMediaSession.setPlaybackState(state.build());
+        publishState();
 
         Timber.i("Sending minor broadcast to update UI process");
         Intent broadcast = new Intent(UPDATE_BROADCAST)
@@ -555,6 +557,8 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
      * on its own (Like when a song finishes)
      */
     protected void updateUi() {
+        publishState();
+
         Timber.i("Sending broadcast to update UI process");
         Intent broadcast = new Intent(UPDATE_BROADCAST)
                 .putExtra(UPDATE_EXTRA_MINOR, false);
@@ -562,6 +566,40 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
         mContext.sendBroadcast(broadcast, BROADCAST_PERMISSION);
     }
 
+    /**
+     * Sends the fields of the player state that have changed since the last time this method was
+     * called to the attached {@link OnPlaybackChangeListener}. Nothing is sent if the state hasn't
+     * changed, so this method is cheap to call after any command.
+     */
+    public synchronized void publishState() {
+        if (mCallback == null || isReleased()) {
+            return;
+        }
+
+        long version = (mPublishedState == null) ? 1 : mPublishedState.getVersion() + 1;
+        PlayerStateDelta state = PlayerStateDelta.capture(this, version);
+        int changes = state.diff(mPublishedState);
+
+        if (changes != 0) {
+            PlayerStateDelta previous = mPublishedState;
+            mPublishedState = state;
+            mCallback.onStateChanged(state.withChanges(version, changes, previous));
+        }
+    }
+
+    /**
+     * @return The entire state of the player as of the last call to {@link #publishState()},
+     *         with every field marked as changed. This should be sent to listeners when they're
+     *         first attached so they can apply later deltas to it.
+     */
+    public synchronized PlayerStateDelta getPublishedState() {
+        requireNotReleased();
+        if (mPublishedState == null) {
+            mPublishedState = PlayerStateDelta.capture(this, 0);
+        }
+        return mPublishedState.withChanges(mPublishedState.getVersion(), PlayerStateDelta.ALL);
+    }
+
     /**
      * Called to notify the UI thread that an error has occurred. The typical listener will show the
      * message passed in to the user.
@@ -598,49 +636,19 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
     }
 
     /**
-     * Generates a new random permutation of the queue, and sets it as the backing
-     * {@link QueuedMediaPlayer}'s queue
+     * Generates a new random permutation of the queue. The backing {@link QueuedMediaPlayer} is
+     * not updated.
      * @param currentIndex The index of the current song which will be moved to the top of the
      *                     shuffled queue
      * @param seed The seed to use when shuffling the queue
      */
     private void shuffleQueue(int currentIndex, long seed) {
         Timber.i("Shuffling queue...");
-        mQueueShuffled = Collections.unmodifiableList(generateShuffledQueue(mQueue, currentIndex, seed));
+        mQueue = mQueue.shuffle(currentIndex, seed);
     }
 
     static List<Song> generateShuffledQueue(List<Song> queue, int startingIndex, long seed) {
-        List<Song> shuffled = new ArrayList<>(queue);
-
-        if (!shuffled.isEmpty()) {
-            Song first = shuffled.remove(startingIndex);
-
-            Collections.shuffle(shuffled, new Random(seed));
-            shuffled.add(0, first);
-        }
-
-        return shuffled;
-    }
-
-    /**
-     * Called when disabling shuffle to ensure that any modifications made to the shuffled queue
-     * are applied to the unshuffled queue. Currently, the only such modification is song deletions
-     * since they are implemented on the client side.
-     */
-    private void unshuffleQueue() {
-        List<Song> unshuffled = new ArrayList<>(mQueue);
-        List<Song> songs = new ArrayList<>(mQueueShuffled);
-
-        Iterator<Song> unshuffledIterator = unshuffled.iterator();
-        while (unshuffledIterator.hasNext()) {
-            Song song = unshuffledIterator.next();
-
-            if (!songs.remove(song)) {
-                unshuffledIterator.remove();
-            }
-        }
-
-        mQueue = Collections.unmodifiableList(unshuffled);
+        return PlayerQueue.of(queue).shuffle(startingIndex, seed).getCurrentQueue();
     }
 
     /**
@@ -730,11 +738,11 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
                 // Log a play if we're passed a certain threshold or more than 50% in a song
                 // (whichever is smaller)
                 Timber.i("Marking song as played");
-                logPlayCount(getNowPlaying(), false);
+                logPlayCount(getNowPlaying(), false, getCurrentPosition());
             } else if (getCurrentPosition() < SKIP_COUNT_THRESHOLD) {
                 // If we're not very far into this song, log a skip
                 Timber.i("Marking song as skipped");
-                logPlayCount(getNowPlaying(), true);
+                logPlayCount(getNowPlaying(), true, getCurrentPosition());
             } else {
                 Timber.i("Not writing play count. Song was neither played nor skipped.");
             }
@@ -745,8 +753,9 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
      * Record a play or skip for a certain song
      * @param song the song to change the play count of
      * @param skip Whether the song was skipped (true if skipped, false if played)
+     * @param listenedMillis How much of the song was played before it ended or was skipped
      */
-    private void logPlayCount(Song song, boolean skip) {
+    private void logPlayCount(Song song, boolean skip, long listenedMillis) {
         Timber.i("Logging %s count to PlayCountStore for %s...", (skip) ? "skip" : "play", song.toString());
         if (skip) {
             mPlayCountStore.incrementSkipCount(song);
@@ -754,6 +763,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
             mPlayCountStore.incrementPlayCount(song);
             mPlayCountStore.setPlayDateToNow(song);
         }
+        mPlayCountStore.logPlay(song, listenedMillis, skip);
         Timber.i("Writing PlayCountStore to disk...");
         mPlayCountStore.save();
     }
@@ -853,6 +863,14 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
         return mMediaPlayer.getQueueSize();
     }
 
+    /**
+     * @return Whether playback is stalled while more of the current song is loaded
+     */
+    public boolean isBuffering() {
+        requireNotReleased();
+        return mMediaPlayer.isBuffering();
+    }
+
     /**
      * @return The current seek position of the song that is playing
      * @see MediaPlayer#getCurrentPosition()
@@ -893,10 +911,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
     public void setQueue(@NonNull List<Song> queue, int index, long seed) {
         requireNotReleased();
         Timber.i("setQueue called (%d songs)", queue.size());
-        // If you're using this method on the UI thread, consider replacing the first line in this
-        // method with "mQueue = new ArrayList<>(queue);"
-        // to prevent components from accidentally changing the backing queue
-        mQueue = Collections.unmodifiableList(queue);
+        mQueue = PlayerQueue.of(queue);
         if (mShuffle) {
             Timber.i("Shuffling new queue and starting from beginning");
             shuffleQueue(index, seed);
@@ -917,11 +932,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
     public void editQueue(@NonNull List<Song> queue, int index) {
         requireNotReleased();
         Timber.i("editQueue called (index = %d)", index);
-        if (mShuffle) {
-            mQueueShuffled = Collections.unmodifiableList(queue);
-        } else {
-            mQueue = Collections.unmodifiableList(queue);
-        }
+        mQueue = mQueue.edit(queue);
         setBackingQueue(index, false);
     }
 
@@ -942,11 +953,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
      */
     private void setBackingQueue(int index, boolean resetSeekPosition) {
         Timber.i("setBackingQueue() called (index = %d)", index);
-        if (mShuffle) {
-            mMediaPlayer.setQueue(mQueueShuffled, index, resetSeekPosition);
-        } else {
-            mMediaPlayer.setQueue(mQueue, index, resetSeekPosition);
-        }
+        mMediaPlayer.setQueue(mQueue.getCurrentQueue(), index, resetSeekPosition);
 
         for (MusicPlayerExtension ext : mExtensions) {
             ext.onQueueChanged(this);
@@ -1096,8 +1103,9 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
             setBackingQueue(0, false);
         } else {
             Timber.i("Disabling shuffle...");
-            unshuffleQueue();
-            setBackingQueue(mQueue.indexOf(getNowPlaying()), false);
+            int index = mQueue.isEmpty() ? 0 : mQueue.getUnshuffledIndex(getQueuePosition());
+            mQueue = mQueue.unshuffle();
+            setBackingQueue(index, false);
         }
         updateUi();
         updateMediaSession();
@@ -1116,20 +1124,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
         requireNotReleased();
         Timber.i("queueNext(Song) called");
         int index = mQueue.isEmpty() ? 0 : mMediaPlayer.getQueueIndex() + 1;
-
-        List<Song> shuffledQueue = new ArrayList<>(mQueueShuffled);
-        List<Song> queue = new ArrayList<>(mQueue);
-
-        if (mShuffle) {
-            shuffledQueue.add(index, song);
-            queue.add(song);
-        } else {
-            queue.add(index, song);
-        }
-
-        mQueueShuffled = Collections.unmodifiableList(shuffledQueue);
-        mQueue = Collections.unmodifiableList(queue);
-
+        mQueue = mQueue.insert(index, Collections.singletonList(song));
         setBackingQueue(false);
     }
 
@@ -1141,68 +1136,31 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
         requireNotReleased();
         Timber.i("queueNext(List<Song>) called");
         int index = mQueue.isEmpty() ? 0 : mMediaPlayer.getQueueIndex() + 1;
-
-        List<Song> shuffledQueue = new ArrayList<>(mQueueShuffled);
-        List<Song> queue = new ArrayList<>(mQueue);
-
-        if (mShuffle) {
-            shuffledQueue.addAll(index, songs);
-            queue.addAll(songs);
-        } else {
-            queue.addAll(index, songs);
-        }
-
-        mQueueShuffled = Collections.unmodifiableList(shuffledQueue);
-        mQueue = Collections.unmodifiableList(queue);
-
+        mQueue = mQueue.insert(index, songs);
         setBackingQueue(false);
     }
 
     /**
-     * Adds a {@link Song} to the end of the queue
+     * Adds a {@link Song} to the end of the queue. If shuffle is enabled, the song is shuffled
+     * into the songs that haven't been played yet.
      * @param song The song to enqueue
      */
     public void queueLast(Song song) {
         requireNotReleased();
         Timber.i("queueLast(Song) called");
-
-        List<Song> shuffledQueue = new ArrayList<>(mQueueShuffled);
-        List<Song> queue = new ArrayList<>(mQueue);
-
-        if (mShuffle) {
-            shuffledQueue.add(song);
-            queue.add(song);
-        } else {
-            queue.add(song);
-        }
-
-        mQueueShuffled = Collections.unmodifiableList(shuffledQueue);
-        mQueue = Collections.unmodifiableList(queue);
-
+        mQueue = mQueue.append(Collections.singletonList(song), mMediaPlayer.getQueueIndex());
         setBackingQueue(false);
     }
 
     /**
-     * Adds a {@link List} of {@link Song}s to the end of the queue
+     * Adds a {@link List} of {@link Song}s to the end of the queue. If shuffle is enabled, the
+     * songs are shuffled into the songs that haven't been played yet.
      * @param songs The songs to enqueue
      */
     public void queueLast(List<Song> songs) {
         requireNotReleased();
         Timber.i("queueLast(List<Song>)");
-
-        List<Song> shuffledQueue = new ArrayList<>(mQueueShuffled);
-        List<Song> queue = new ArrayList<>(mQueue);
-
-        if (mShuffle) {
-            shuffledQueue.addAll(songs);
-            queue.addAll(songs);
-        } else {
-            queue.addAll(songs);
-        }
-
-        mQueueShuffled = Collections.unmodifiableList(shuffledQueue);
-        mQueue = Collections.unmodifiableList(queue);
-
+        mQueue = mQueue.append(songs, mMediaPlayer.getQueueIndex());
         setBackingQueue(false);
     }
 
@@ -1241,7 +1199,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
     @Override
     public void onCompletion(Song completed) {
         Timber.i("onCompletion called");
-        logPlayCount(completed, false);
+        logPlayCount(completed, false, completed.getSongDuration());
         for (MusicPlayerExtension ext : mExtensions) {
             ext.onSongCompleted(this, completed);
         }
@@ -1265,7 +1223,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
         for (MusicPlayerExtension ext : mExtensions) {
             ext.onSongStarted(this);
         }
-        Util.fetchArtwork(mContext, getNowPlaying().getLocation())
+        Util.fetchArtwork(mContext, getNowPlaying())
                 .subscribeOn(Schedulers.io())
                 .subscribe(artwork -> {
                     mArtwork = artwork;
@@ -1295,6 +1253,12 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
         return true;
     }
 
+    @Override
+    public void onBufferingChanged(boolean buffering) {
+        // The UI process extrapolates the seek position, so it has to know when it stops moving
+        publishState();
+    }
+
     /**
      * Creates a snapshot of the current player state including the state of the queue,
      * seek position, playing status, etc. This is useful for undoing modifications to the state.
@@ -1305,8 +1269,8 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
         return new PlayerState.Builder()
                 .setPlaying(isPlaying())
                 .setQueuePosition(getQueuePosition())
-                .setQueue(mQueue)
-                .setShuffledQueue(mQueueShuffled)
+                .setQueue(mQueue.getQueue())
+                .setShuffledQueue(mQueue.getShuffledQueue())
                 .setSeekPosition(getCurrentPosition())
                 .build();
     }
@@ -1317,8 +1281,7 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
      *              status will immediately be applied.
      */
     public void restorePlayerState(PlayerState state) {
-        mQueue = Collections.unmodifiableList(state.getQueue());
-        mQueueShuffled = Collections.unmodifiableList(state.getShuffledQueue());
+        mQueue = PlayerQueue.restore(state.getQueue(), state.getShuffledQueue(), mShuffle);
 
         setBackingQueue(state.getQueuePosition(), false);
         seekTo(state.getSeekPosition());
@@ -1356,6 +1319,14 @@ public class MusicPlayer implements AudioManager.OnAudioFocusChangeListener,
          * from other components of the system.
          */
         void onPlaybackStop();
+
+        /**
+         * Called when any part of the player state changes, including the play state, queue and
+         * seek position. Listeners can forward these deltas to other processes so that they don't
+         * have to poll the player for its state.
+         * @param delta The fields of the player state that changed
+         */
+        void onStateChanged(PlayerStateDelta delta);
     }
 
     private static class MediaSessionCallback extends MediaSessionCompat.Callback {
@@ -0,0 +1,112 @@
+package com.marverenic.music.player;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.Player;
+
+import timber.log.Timber;
+
+/**
+ * Measures how smoothly ExoPlayer moves from one song to the next.
+ *
+ * A transition's gap is the time that ExoPlayer spent buffering around the point where it moved
+ * on to the next song, so a gapless transition has a gap of 0. ExoPlayer may start buffering
+ * before it reports the transition, so buffering that ended just before a transition is counted
+ * as part of it. Audio sink underruns are counted separately, since they can happen in the middle
+ * of a song as well as at a transition.
+ *
+ * The totals are reported by {@link #toString()}, which is logged when the player is released.
+ *
+ * All methods should be called from the thread that ExoPlayer sends its events on.
+ */
+final class PlaybackMetrics {
+
+    /**
+     * How long before a transition buffering can end and still be counted as part of the
+     * transition
+     */
+    private static final long TRANSITION_TOLERANCE_MS = 100;
+
+    private int mTransitionCount;
+    private int mGappedTransitionCount;
+    private long mTotalGapMs;
+    private long mLongestGapMs;
+
+    private int mUnderrunCount;
+
+    private int mPlaybackState = Player.STATE_IDLE;
+    private boolean mInTransition;
+    private long mBufferingStartMs;
+    private long mLastBufferingDurationMs;
+    private long mLastBufferingEndMs = -1;
+
+    /**
+     * Called when ExoPlayer moves from one song to the next without being asked to
+     */
+    void onTransition() {
+        mTransitionCount++;
+
+        if (mPlaybackState == Player.STATE_BUFFERING) {
+            // The gap will be recorded when ExoPlayer is ready again
+            mInTransition = true;
+        } else if (mLastBufferingEndMs >= 0
+                && SystemClock.elapsedRealtime() - mLastBufferingEndMs <= TRANSITION_TOLERANCE_MS) {
+            recordGap(mLastBufferingDurationMs);
+        }
+    }
+
+    /**
+     * Called whenever ExoPlayer's playback state changes
+     * @param playbackState The new state, as one of the {@code Player.STATE_} constants
+     */
+    void onPlaybackStateChanged(int playbackState) {
+        if (playbackState == mPlaybackState) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (playbackState == Player.STATE_BUFFERING) {
+            mBufferingStartMs = now;
+        } else if (mPlaybackState == Player.STATE_BUFFERING) {
+            mLastBufferingDurationMs = now - mBufferingStartMs;
+            mLastBufferingEndMs = now;
+
+            if (mInTransition && playbackState == Player.STATE_READY) {
+                recordGap(mLastBufferingDurationMs);
+            }
+            mInTransition = false;
+        }
+
+        mPlaybackState = playbackState;
+    }
+
+    private void recordGap(long gapMs) {
+        mGappedTransitionCount++;
+        mTotalGapMs += gapMs;
+        mLongestGapMs = Math.max(mLongestGapMs, gapMs);
+        mLastBufferingEndMs = -1;
+        Timber.w("Transition between songs stalled for %dms", gapMs);
+    }
+
+    /**
+     * Called when the audio sink runs out of data to play
+     */
+    void onAudioSinkUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+        mUnderrunCount++;
+        Timber.w("Audio sink underrun (buffer size %d bytes, %dms, %dms since last feed)",
+                bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PlaybackMetrics{"
+                + "transitions=" + mTransitionCount
+                + ", gappedTransitions=" + mGappedTransitionCount
+                + ", totalGapMs=" + mTotalGapMs
+                + ", longestGapMs=" + mLongestGapMs
+                + ", underruns=" + mUnderrunCount
+                + "}";
+    }
+}
@@ -0,0 +1,216 @@
+package com.marverenic.music.player;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
+
+import com.marverenic.music.model.Song;
+import com.marverenic.music.player.transaction.ChunkHeader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A command for the remote player service that can be sent in a batch with
+ * {@link com.marverenic.music.IPlayerService#executeCommands(List)}. Each command corresponds to
+ * one of the single-purpose methods in {@link com.marverenic.music.IPlayerService}.
+ */
+public final class PlayerCommand implements Parcelable {
+
+    public static final int STOP = 0;
+    public static final int SKIP = 1;
+    public static final int PREVIOUS = 2;
+    public static final int TOGGLE_PLAY = 3;
+    public static final int PLAY = 4;
+    public static final int PAUSE = 5;
+    public static final int CHANGE_SONG = 6;
+    public static final int QUEUE_NEXT = 7;
+    public static final int QUEUE_LAST = 8;
+    public static final int SEEK = 9;
+
+    @IntDef(value = {STOP, SKIP, PREVIOUS, TOGGLE_PLAY, PLAY, PAUSE, CHANGE_SONG, QUEUE_NEXT,
+            QUEUE_LAST, SEEK})
+    public @interface Type {
+    }
+
+    @Type
+    private final int mType;
+    private final int mArgument;
+    private final List<Song> mSongs;
+
+    private PlayerCommand(@Type int type, int argument, List<Song> songs) {
+        mType = type;
+        mArgument = argument;
+        mSongs = songs;
+    }
+
+    private static PlayerCommand of(@Type int type) {
+        return new PlayerCommand(type, 0, Collections.emptyList());
+    }
+
+    public static PlayerCommand stop() {
+        return of(STOP);
+    }
+
+    public static PlayerCommand skip() {
+        return of(SKIP);
+    }
+
+    public static PlayerCommand previous() {
+        return of(PREVIOUS);
+    }
+
+    public static PlayerCommand togglePlay() {
+        return of(TOGGLE_PLAY);
+    }
+
+    public static PlayerCommand play() {
+        return of(PLAY);
+    }
+
+    public static PlayerCommand pause() {
+        return of(PAUSE);
+    }
+
+    public static PlayerCommand changeSong(int position) {
+        return new PlayerCommand(CHANGE_SONG, position, Collections.emptyList());
+    }
+
+    public static PlayerCommand queueNext(List<Song> songs) {
+        return new PlayerCommand(QUEUE_NEXT, 0, songs);
+    }
+
+    public static PlayerCommand queueLast(List<Song> songs) {
+        return new PlayerCommand(QUEUE_LAST, 0, songs);
+    }
+
+    public static PlayerCommand seek(int position) {
+        return new PlayerCommand(SEEK, position, Collections.emptyList());
+    }
+
+    @Type
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return The queue index of a {@link #CHANGE_SONG} command, or the seek position of a
+     *         {@link #SEEK} command
+     */
+    public int getArgument() {
+        return mArgument;
+    }
+
+    /**
+     * @return The songs of a {@link #QUEUE_NEXT} or {@link #QUEUE_LAST} command
+     */
+    public List<Song> getSongs() {
+        return mSongs;
+    }
+
+    /**
+     * Combines this command with the command that immediately follows it into a single command
+     * with the same effect as running both of them
+     * @param next The command that will run after this one
+     * @return The merged command, or {@code null} if these commands can't be merged
+     */
+    @Nullable
+    public PlayerCommand mergeWith(PlayerCommand next) {
+        if (mType != next.mType) {
+            return null;
+        }
+
+        switch (mType) {
+            case SEEK:
+            case CHANGE_SONG:
+                // Only the last seek or song change has any effect
+                return next;
+            case QUEUE_NEXT:
+                // Each set of songs is inserted directly after the current song, so the songs
+                // that are queued later will play first
+                return mergeSongs(next.mSongs, mSongs);
+            case QUEUE_LAST:
+                return mergeSongs(mSongs, next.mSongs);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Splits a command with more songs than can be sent in one binder call into several smaller
+     * commands that have the same effect when they're run in order
+     * @param maxSongs The most songs that any of the returned commands may have
+     * @return The commands to run in place of this one
+     */
+    public List<PlayerCommand> split(int maxSongs) {
+        if (mSongs.size() <= maxSongs) {
+            return Collections.singletonList(this);
+        }
+
+        List<PlayerCommand> commands = new ArrayList<>();
+        for (int start = 0; start < mSongs.size(); start += maxSongs) {
+            int end = Math.min(start + maxSongs, mSongs.size());
+            commands.add(new PlayerCommand(mType, 0, new ArrayList<>(mSongs.subList(start, end))));
+        }
+
+        if (mType == QUEUE_NEXT) {
+            // Each part is inserted directly after the current song, so the last part has to
+            // be queued first for the songs to end up in their original order
+            Collections.reverse(commands);
+        }
+        return commands;
+    }
+
+    @Nullable
+    private PlayerCommand mergeSongs(List<Song> first, List<Song> second) {
+        if (first.size() + second.size() > ChunkHeader.MAX_ENTRIES) {
+            // Keep each transaction small enough to be sent in one binder call
+            return null;
+        }
+
+        List<Song> songs = new ArrayList<>(first.size() + second.size());
+        songs.addAll(first);
+        songs.addAll(second);
+        return new PlayerCommand(mType, 0, songs);
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerCommand{type=" + mType + ", argument=" + mArgument
+                + ", songs=" + mSongs.size() + "}";
+    }
+
+    @SuppressWarnings("WrongConstant")
+    protected PlayerCommand(Parcel in) {
+        mType = in.readInt();
+        mArgument = in.readInt();
+        mSongs = in.createTypedArrayList(Song.CREATOR);
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mType);
+        dest.writeInt(mArgument);
+        dest.writeTypedList(mSongs);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<PlayerCommand> CREATOR = new Creator<PlayerCommand>() {
+        @Override
+        public PlayerCommand createFromParcel(Parcel in) {
+            return new PlayerCommand(in);
+        }
+
+        @Override
+        public PlayerCommand[] newArray(int size) {
+            return new PlayerCommand[size];
+        }
+    };
+
+}
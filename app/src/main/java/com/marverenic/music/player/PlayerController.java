@@ -256,6 +256,16 @@ public interface PlayerController {
      */
     Observable<Integer> getCurrentPosition();
 
+    /**
+     * @param resolution How often, in milliseconds of playback, the seek position needs to be
+     *                   updated. Subscribers that don't show fine-grained progress should pass a
+     *                   larger resolution so the player doesn't have to update as often.
+     * @return The current seek position in the current song as an observable stream. This value
+     *         will only be emitted when the position moves by at least {@code resolution} ms,
+     *         unless the song is seeked or changed.
+     */
+    Observable<Integer> getCurrentPosition(int resolution);
+
     /**
      * @return The duration of the currently playing song as an observable stream.
      */
@@ -0,0 +1,390 @@
+package com.marverenic.music.player;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.marverenic.music.model.Song;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The queue of a {@link MusicPlayer} in both its original and shuffled order.
+ *
+ * Songs are only stored once, in their original order. The shuffled order is kept as a
+ * {@link ShuffleOrder} of indices into the original order instead of as a second list of songs,
+ * so toggling shuffle doesn't need to copy or search the queue. Shuffled orders are generated as
+ * they're read, so turning shuffle on is O(1) and only the songs that are actually reached are
+ * ever shuffled. The lists returned by this class are read-only views of this data, so getting
+ * the queue doesn't copy anything either.
+ *
+ * PlayerQueues are immutable, so they can be shared between threads and compared by reference.
+ * Every edit returns a new PlayerQueue. New queues share their backing arrays with the queue that
+ * they were created from whenever possible, which makes appending songs O(1) amortized. Inserting
+ * songs into the middle of the queue is a single array copy, and replacing the shuffled order
+ * with {@link #edit(List)} is O(n).
+ */
+final class PlayerQueue {
+
+    private static final PlayerQueue EMPTY = of(Collections.emptyList());
+
+    /**
+     * The songs in this queue in their original order. Only the first {@link #mSize} entries
+     * belong to this queue.
+     */
+    private final SongArray mSongs;
+    private final int mSize;
+
+    /**
+     * The shuffled order of this queue, or {@code null} if this queue isn't shuffled. Each entry
+     * is an index into {@link #mSongs}.
+     */
+    @Nullable
+    private final ShuffleOrder mOrder;
+
+    private final List<Song> mQueue;
+    private final List<Song> mShuffledQueue;
+
+    private PlayerQueue(SongArray songs, int size, @Nullable ShuffleOrder order) {
+        mSongs = songs;
+        mSize = size;
+        mOrder = order;
+
+        mQueue = new QueueView();
+        mShuffledQueue = (order == null) ? Collections.emptyList() : new ShuffledQueueView();
+    }
+
+    static PlayerQueue empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param songs The songs in the queue, in their original order
+     * @return An unshuffled queue with the given songs
+     */
+    static PlayerQueue of(List<Song> songs) {
+        Song[] array = songs.toArray(new Song[songs.size()]);
+        return new PlayerQueue(new SongArray(array, array.length), array.length, null);
+    }
+
+    /**
+     * Rebuilds a queue from the lists returned by {@link #getQueue()} and
+     * {@link #getShuffledQueue()}. The shuffle seed isn't saved with the queue, so it's derived
+     * from the shuffled order instead. Songs that are appended to the rebuilt queue are still
+     * placed at random, and in the same way every time the same queue is restored.
+     * @param queue The songs in their original order
+     * @param shuffledQueue The songs in their shuffled order
+     * @param shuffled Whether the rebuilt queue should be shuffled
+     */
+    static PlayerQueue restore(List<Song> queue, List<Song> shuffledQueue, boolean shuffled) {
+        PlayerQueue restored = of(queue);
+        if (!shuffled) {
+            return restored;
+        }
+
+        int[] identity = new int[restored.mSize];
+        for (int i = 0; i < identity.length; i++) {
+            identity[i] = i;
+        }
+
+        long seed = QueueEdit.hash(shuffledQueue.isEmpty() ? queue : shuffledQueue);
+        restored = new PlayerQueue(restored.mSongs, restored.mSize,
+                ShuffleOrder.of(identity, seed));
+
+        if (shuffledQueue.isEmpty()) {
+            return restored;
+        } else {
+            return restored.edit(shuffledQueue);
+        }
+    }
+
+    /**
+     * @return The songs in this queue in the order that they will be played
+     */
+    List<Song> getCurrentQueue() {
+        return (mOrder == null) ? mQueue : mShuffledQueue;
+    }
+
+    /**
+     * @return The songs in this queue in their original order
+     */
+    List<Song> getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * @return The songs in this queue in their shuffled order, or an empty list if this queue
+     *         isn't shuffled
+     */
+    List<Song> getShuffledQueue() {
+        return mShuffledQueue;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    boolean isShuffled() {
+        return mOrder != null;
+    }
+
+    /**
+     * @param index The index of a song in the order that songs will be played
+     * @return The index of the same song in the original order of this queue
+     */
+    int getUnshuffledIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in the queue");
+        }
+        return (mOrder == null) ? index : mOrder.get(index);
+    }
+
+    /**
+     * @param startingIndex The index of the song in the original order that should be played
+     *                      first in the shuffled order
+     * @param seed The seed to generate the shuffled order from
+     * @return A shuffled copy of this queue
+     * @see ShuffleOrder#create(int, int, long)
+     */
+    PlayerQueue shuffle(int startingIndex, long seed) {
+        return new PlayerQueue(mSongs, mSize, ShuffleOrder.create(mSize, startingIndex, seed));
+    }
+
+    /**
+     * @return A copy of this queue that is in its original order. Any edits that were made to
+     *         the shuffled order are kept.
+     */
+    PlayerQueue unshuffle() {
+        return (mOrder == null) ? this : new PlayerQueue(mSongs, mSize, null);
+    }
+
+    /**
+     * Inserts songs into the order that songs will be played. If this queue is shuffled, the
+     * songs are added to the end of the original order.
+     * @param index The index to insert the songs at
+     * @param songs The songs to insert
+     * @return A copy of this queue with the inserted songs
+     */
+    PlayerQueue insert(int index, List<Song> songs) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in the queue");
+        }
+
+        if (index == mSize) {
+            return append(songs);
+        } else if (songs.isEmpty()) {
+            return this;
+        }
+
+        int count = songs.size();
+        if (mOrder == null) {
+            Song[] array = new Song[mSize + count];
+            System.arraycopy(mSongs.mArray, 0, array, 0, index);
+            for (int i = 0; i < count; i++) {
+                array[index + i] = songs.get(i);
+            }
+            System.arraycopy(mSongs.mArray, index, array, index + count, mSize - index);
+
+            return new PlayerQueue(new SongArray(array, array.length), array.length, null);
+        }
+
+        return new PlayerQueue(mSongs.append(mSize, songs), mSize + count,
+                mOrder.insert(index, mSize, count));
+    }
+
+    /**
+     * Adds songs to the end of the queue. If this queue is shuffled, the songs are added to the
+     * end of both the original and shuffled order.
+     * @param songs The songs to add
+     * @return A copy of this queue with the added songs
+     */
+    PlayerQueue append(List<Song> songs) {
+        if (songs.isEmpty()) {
+            return this;
+        }
+
+        SongArray appendedSongs = mSongs.append(mSize, songs);
+        ShuffleOrder appendedOrder = null;
+        if (mOrder != null) {
+            appendedOrder = mOrder.insert(mSize, mSize, songs.size());
+        }
+
+        return new PlayerQueue(appendedSongs, mSize + songs.size(), appendedOrder);
+    }
+
+    /**
+     * Adds songs to the end of the queue. If this queue is shuffled, the songs are shuffled into
+     * the part of the shuffled order that hasn't been played yet, and the songs up to and
+     * including the current song keep their positions.
+     * @param songs The songs to add
+     * @param currentIndex The index of the song that is currently playing
+     * @return A copy of this queue with the added songs
+     * @see ShuffleOrder#append(int, int, int)
+     */
+    PlayerQueue append(List<Song> songs, int currentIndex) {
+        if (mOrder == null || songs.isEmpty()) {
+            return append(songs);
+        }
+
+        return new PlayerQueue(mSongs.append(mSize, songs), mSize + songs.size(),
+                mOrder.append(currentIndex, mSize, songs.size()));
+    }
+
+    /**
+     * Replaces the order that songs will be played in. If this queue is shuffled, songs that
+     * were removed from the shuffled order are also removed from the original order, and songs
+     * that were added are added to the end of the original order.
+     * @param songs The songs in the order that they should be played
+     * @return A copy of this queue with the new order
+     */
+    PlayerQueue edit(List<Song> songs) {
+        if (mOrder == null) {
+            return of(songs);
+        }
+
+        // Match each song in the new order with the original index of the same song
+        Map<Song, Queue<Integer>> originalIndices = new HashMap<>();
+        for (int i = 0; i < mSize; i++) {
+            int originalIndex = mOrder.get(i);
+            Song song = mSongs.mArray[originalIndex];
+
+            Queue<Integer> indices = originalIndices.get(song);
+            if (indices == null) {
+                indices = new ArrayDeque<>();
+                originalIndices.put(song, indices);
+            }
+            indices.add(originalIndex);
+        }
+
+        int[] matches = new int[songs.size()];
+        boolean[] kept = new boolean[mSize];
+        for (int i = 0; i < matches.length; i++) {
+            Queue<Integer> indices = originalIndices.get(songs.get(i));
+            Integer match = (indices == null) ? null : indices.poll();
+
+            matches[i] = (match == null) ? -1 : match;
+            if (match != null) {
+                kept[match] = true;
+            }
+        }
+
+        // Rebuild the original order without the removed songs
+        Song[] original = new Song[songs.size()];
+        int[] newIndices = new int[mSize];
+        int originalSize = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (kept[i]) {
+                newIndices[i] = originalSize;
+                original[originalSize++] = mSongs.mArray[i];
+            }
+        }
+
+        int[] order = new int[songs.size()];
+        for (int i = 0; i < order.length; i++) {
+            if (matches[i] >= 0) {
+                order[i] = newIndices[matches[i]];
+            } else {
+                order[i] = originalSize;
+                original[originalSize++] = songs.get(i);
+            }
+        }
+
+        return new PlayerQueue(new SongArray(original, original.length), original.length,
+                mOrder.reorder(order));
+    }
+
+    /**
+     * A backing array of songs that can be shared by several queues. Queues only use the start
+     * of the array up to their size, so an array can be extended in place by a queue that ends
+     * where the array's used entries end, without affecting the queues that already use it.
+     */
+    private static final class SongArray {
+
+        final Song[] mArray;
+
+        /**
+         * The number of entries at the start of the array that are in use by some queue
+         */
+        private final AtomicInteger mUsed;
+
+        SongArray(Song[] array, int used) {
+            mArray = array;
+            mUsed = new AtomicInteger(used);
+        }
+
+        /**
+         * @param size The number of entries that the caller is using
+         * @param songs The songs to add after the caller's entries
+         * @return An array with the caller's entries followed by {@code songs}
+         */
+        SongArray append(int size, List<Song> songs) {
+            int count = songs.size();
+            if (size + count <= mArray.length && mUsed.compareAndSet(size, size + count)) {
+                for (int i = 0; i < count; i++) {
+                    mArray[size + i] = songs.get(i);
+                }
+                return this;
+            }
+
+            Song[] array = Arrays.copyOf(mArray, grow(size, count));
+            for (int i = 0; i < count; i++) {
+                array[size + i] = songs.get(i);
+            }
+            return new SongArray(array, size + count);
+        }
+    }
+
+    private static int grow(int size, int count) {
+        return Math.max(size + count, size + (size >> 1));
+    }
+
+    private final class QueueView extends AbstractList<Song> implements RandomAccess {
+
+        @Override
+        public Song get(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+            }
+            return mSongs.mArray[index];
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+
+    private final class ShuffledQueueView extends AbstractList<Song> implements RandomAccess {
+
+        @Override
+        public Song get(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+            }
+            return mSongs.mArray[mOrder.get(index)];
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PlayerQueue{size=" + mSize + ", shuffled=" + isShuffled() + "}";
+    }
+}
@@ -11,6 +11,9 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
 import androidx.annotation.DrawableRes;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
@@ -22,8 +25,10 @@ import android.support.v4.media.session.PlaybackStateCompat;
 import android.support.v4.media.session.PlaybackStateCompat.MediaKeyAction;
 
 import com.marverenic.music.BuildConfig;
+import com.marverenic.music.IPlayerCallback;
 import com.marverenic.music.IPlayerService;
 import com.marverenic.music.JockeyApplication;
+import com.marverenic.music.PlayerServiceTransactions;
 import com.marverenic.music.R;
 import com.marverenic.music.data.store.ImmutablePreferenceStore;
 import com.marverenic.music.data.store.MediaStoreUtil;
@@ -34,10 +39,12 @@ import com.marverenic.music.player.persistence.PlaybackPersistenceManager;
 import com.marverenic.music.player.transaction.ChunkHeader;
 import com.marverenic.music.player.transaction.IncomingTransaction;
 import com.marverenic.music.player.transaction.ListTransaction;
+import com.marverenic.music.player.transaction.SharedMemoryList;
 import com.marverenic.music.player.transaction.TransactionToken;
 import com.marverenic.music.utils.Internal;
 import com.marverenic.music.utils.MediaStyleHelper;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -61,6 +68,11 @@ public class PlayerService extends Service implements MusicPlayer.OnPlaybackChan
 
     @Inject PlaybackPersistenceManager mPlaybackPersistenceManager;
 
+    /**
+     * Callbacks registered by UI processes to be notified when the player state changes
+     */
+    private final RemoteCallbackList<IPlayerCallback> mStateCallbacks = new RemoteCallbackList<>();
+
     /**
      * Used to to prevent errors caused by freeing resources twice
      */
@@ -137,6 +149,7 @@ public class PlayerService extends Service implements MusicPlayer.OnPlaybackChan
     public void onDestroy() {
         Timber.i("Called onDestroy");
         finish();
+        mStateCallbacks.kill();
     }
 
     @Override
@@ -358,6 +371,22 @@ public class PlayerService extends Service implements MusicPlayer.OnPlaybackChan
         stop();
     }
 
+    @Override
+    public synchronized void onStateChanged(PlayerStateDelta delta) {
+        int callbackCount = mStateCallbacks.beginBroadcast();
+        try {
+            for (int i = 0; i < callbackCount; i++) {
+                try {
+                    mStateCallbacks.getBroadcastItem(i).onStateChanged(delta);
+                } catch (RemoteException exception) {
+                    Timber.w(exception, "Failed to send player state to callback");
+                }
+            }
+        } finally {
+            mStateCallbacks.finishBroadcast();
+        }
+    }
+
     public static class PlayerServiceBinder extends IPlayerService.Stub {
 
         private PlayerService mService;
@@ -371,6 +400,18 @@ public class PlayerService extends Service implements MusicPlayer.OnPlaybackChan
             return mService != null && mService.musicPlayer != null;
         }
 
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+                throws RemoteException {
+            boolean result = super.onTransact(code, data, reply, flags);
+
+            // Push whatever this call changed to registered callbacks
+            if (!PlayerServiceTransactions.isReadOnly(code) && isMusicPlayerReady()) {
+                mService.musicPlayer.publishState();
+            }
+            return result;
+        }
+
         @Override
         public void stop() {
             try {
@@ -528,6 +569,32 @@ public class PlayerService extends Service implements MusicPlayer.OnPlaybackChan
             mQueueTransaction = null;
         }
 
+        @Override
+        @TargetApi(Build.VERSION_CODES.O_MR1)
+        public void setSharedQueue(SharedMemoryList newQueue, int newPosition, long seed) {
+            try {
+                setQueue(newQueue.read(Song.CREATOR), newPosition, seed);
+            } catch (IOException exception) {
+                Timber.e(exception, "Failed to read shared queue");
+                throw new IllegalStateException("Failed to read shared queue", exception);
+            } finally {
+                newQueue.close();
+            }
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.O_MR1)
+        public void editSharedQueue(SharedMemoryList newQueue, int newPosition) {
+            try {
+                editQueue(newQueue.read(Song.CREATOR), newPosition);
+            } catch (IOException exception) {
+                Timber.e(exception, "Failed to read shared queue");
+                throw new IllegalStateException("Failed to read shared queue", exception);
+            } finally {
+                newQueue.close();
+            }
+        }
+
         @Override
         public void changeSong(int position) {
             if (!isMusicPlayerReady()) {
@@ -633,6 +700,56 @@ public class PlayerService extends Service implements MusicPlayer.OnPlaybackChan
             }
         }
 
+        @Override
+        public void executeCommands(List<PlayerCommand> commands) {
+            for (PlayerCommand command : commands) {
+                try {
+                    executeCommand(command);
+                } catch (RuntimeException exception) {
+                    // Keep running the rest of the batch so that one failed command doesn't drop
+                    // the commands that were queued after it
+                    Timber.e(exception, "Failed to execute %s", command);
+                }
+            }
+        }
+
+        private void executeCommand(PlayerCommand command) {
+            switch (command.getType()) {
+                case PlayerCommand.STOP:
+                    stop();
+                    break;
+                case PlayerCommand.SKIP:
+                    skip();
+                    break;
+                case PlayerCommand.PREVIOUS:
+                    previous();
+                    break;
+                case PlayerCommand.TOGGLE_PLAY:
+                    togglePlay();
+                    break;
+                case PlayerCommand.PLAY:
+                    play();
+                    break;
+                case PlayerCommand.PAUSE:
+                    pause();
+                    break;
+                case PlayerCommand.CHANGE_SONG:
+                    changeSong(command.getArgument());
+                    break;
+                case PlayerCommand.QUEUE_NEXT:
+                    queueNextList(command.getSongs());
+                    break;
+                case PlayerCommand.QUEUE_LAST:
+                    queueLastList(command.getSongs());
+                    break;
+                case PlayerCommand.SEEK:
+                    seekTo(command.getArgument());
+                    break;
+                default:
+                    Timber.w("Ignoring unknown command %s", command);
+            }
+        }
+
         @Override
         public boolean isPlaying() {
             if (!isMusicPlayerReady()) {
@@ -723,6 +840,21 @@ public class PlayerService extends Service implements MusicPlayer.OnPlaybackChan
             }
         }
 
+        @Override
+        @TargetApi(Build.VERSION_CODES.O_MR1)
+        public SharedMemoryList getSharedQueue() {
+            try {
+                return SharedMemoryList.write(getQueue());
+            } catch (IOException exception) {
+                // The client will fall back to reading the queue in chunks
+                Timber.e(exception, "Failed to write shared queue");
+                return null;
+            } catch (RuntimeException exception) {
+                Timber.e(exception, "Remote call to PlayerService.getSharedQueue() failed");
+                throw exception;
+            }
+        }
+
         @Override
         public int getCurrentPosition() {
             if (!isMusicPlayerReady()) {
@@ -868,6 +1000,29 @@ public class PlayerService extends Service implements MusicPlayer.OnPlaybackChan
                 throw exception;
             }
         }
+
+        @Override
+        public void registerCallback(IPlayerCallback callback) {
+            mService.mStateCallbacks.register(callback);
+            if (!isMusicPlayerReady()) {
+                return;
+            }
+
+            try {
+                // Send the entire state so that the callback has something to apply deltas to
+                callback.onStateChanged(mService.musicPlayer.getPublishedState());
+            } catch (RemoteException exception) {
+                Timber.w(exception, "Failed to send initial player state to callback");
+            } catch (RuntimeException exception) {
+                Timber.e(exception, "Remote call to PlayerService.registerCallback() failed");
+                throw exception;
+            }
+        }
+
+        @Override
+        public void unregisterCallback(IPlayerCallback callback) {
+            mService.mStateCallbacks.unregister(callback);
+        }
     }
 }
 
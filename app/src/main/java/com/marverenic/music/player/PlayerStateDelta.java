@@ -0,0 +1,352 @@
+package com.marverenic.music.player;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+import com.marverenic.music.model.Song;
+import com.marverenic.music.player.transaction.ChunkHeader;
+
+import java.util.List;
+
+/**
+ * A change in the state of a {@link MusicPlayer} that is pushed from the player service to the UI
+ * process through {@link com.marverenic.music.IPlayerCallback}. Each delta holds a snapshot of the
+ * entire player state, but only the fields listed in {@link #getChanges()} are sent.
+ *
+ * Deltas are numbered in the order that they're published. A receiver that sees a gap in the
+ * version numbers has missed an update and needs to reload the entire state.
+ */
+public final class PlayerStateDelta implements Parcelable {
+
+    public static final int PLAYING = 1;
+    public static final int NOW_PLAYING = 1 << 1;
+    public static final int QUEUE = 1 << 2;
+    public static final int QUEUE_POSITION = 1 << 3;
+    public static final int SEEK_POSITION = 1 << 4;
+    public static final int DURATION = 1 << 5;
+    public static final int SHUFFLE_MODE = 1 << 6;
+    public static final int REPEAT_MODE = 1 << 7;
+    public static final int MULTI_REPEAT_COUNT = 1 << 8;
+    public static final int SLEEP_TIMER = 1 << 9;
+
+    public static final int ALL = (1 << 10) - 1;
+
+    /**
+     * How far the seek position may drift from where it's expected to be before it's considered
+     * to have changed. Small drifts happen naturally from the time it takes to capture the state.
+     */
+    private static final int SEEK_TOLERANCE_MS = 250;
+
+    /*
+     * How a changed queue is written to a parcel
+     */
+    private static final byte QUEUE_NONE = 0;
+    private static final byte QUEUE_FULL = 1;
+    private static final byte QUEUE_EDIT = 2;
+
+    private final long mVersion;
+    private final int mChanges;
+
+    private final boolean mPlaying;
+    private final Song mNowPlaying;
+    private final List<Song> mQueue;
+    private final QueueEdit mQueueEdit;
+    private final int mQueuePosition;
+    private final int mSeekPosition;
+    private final long mSeekAnchor;
+    private final boolean mBuffering;
+    private final int mDuration;
+    private final boolean mShuffleMode;
+    private final int mRepeatMode;
+    private final int mMultiRepeatCount;
+    private final long mSleepTimerEndTime;
+
+    private PlayerStateDelta(long version, int changes, QueueEdit queueEdit,
+                             PlayerStateDelta state) {
+        this(version, changes, state.mPlaying, state.mNowPlaying, state.mQueue, queueEdit,
+                state.mQueuePosition, state.mSeekPosition, state.mSeekAnchor, state.mBuffering,
+                state.mDuration, state.mShuffleMode, state.mRepeatMode, state.mMultiRepeatCount,
+                state.mSleepTimerEndTime);
+    }
+
+    private PlayerStateDelta(long version, int changes, boolean playing, Song nowPlaying,
+                             List<Song> queue, QueueEdit queueEdit, int queuePosition,
+                             int seekPosition, long seekAnchor, boolean buffering, int duration,
+                             boolean shuffleMode, int repeatMode, int multiRepeatCount,
+                             long sleepTimerEndTime) {
+        mVersion = version;
+        mChanges = changes;
+        mPlaying = playing;
+        mNowPlaying = nowPlaying;
+        mQueue = queue;
+        mQueueEdit = queueEdit;
+        mQueuePosition = queuePosition;
+        mSeekPosition = seekPosition;
+        mSeekAnchor = seekAnchor;
+        mBuffering = buffering;
+        mDuration = duration;
+        mShuffleMode = shuffleMode;
+        mRepeatMode = repeatMode;
+        mMultiRepeatCount = multiRepeatCount;
+        mSleepTimerEndTime = sleepTimerEndTime;
+    }
+
+    /**
+     * Captures the current state of a MusicPlayer
+     * @return A snapshot in which every field is marked as changed
+     */
+    static PlayerStateDelta capture(MusicPlayer player, long version) {
+        return new PlayerStateDelta(version, ALL, player.isPlaying(), player.getNowPlaying(),
+                player.getQueue(), null, player.getQueuePosition(), player.getCurrentPosition(),
+                SystemClock.elapsedRealtime(), player.isBuffering(), player.getDuration(),
+                player.isShuffled(),
+                player.getRepeatMode(), player.getMultiRepeatCount(),
+                player.getSleepTimerEndTime());
+    }
+
+    /**
+     * @param previous The state that was last published, or {@code null} if nothing has been
+     *                 published yet
+     * @return The fields that are different in this state
+     */
+    int diff(PlayerStateDelta previous) {
+        if (previous == null) {
+            return ALL;
+        }
+
+        int changes = 0;
+        if (mPlaying != previous.mPlaying) changes |= PLAYING;
+        if (!equals(mNowPlaying, previous.mNowPlaying)) changes |= NOW_PLAYING;
+        // MusicPlayer replaces its queue with a new immutable list whenever it's modified
+        if (mQueue != previous.mQueue) changes |= QUEUE;
+        if (mQueuePosition != previous.mQueuePosition) changes |= QUEUE_POSITION;
+        if (mDuration != previous.mDuration) changes |= DURATION;
+        if (mShuffleMode != previous.mShuffleMode) changes |= SHUFFLE_MODE;
+        if (mRepeatMode != previous.mRepeatMode) changes |= REPEAT_MODE;
+        if (mMultiRepeatCount != previous.mMultiRepeatCount) changes |= MULTI_REPEAT_COUNT;
+        if (mSleepTimerEndTime != previous.mSleepTimerEndTime) changes |= SLEEP_TIMER;
+
+        // The position stops advancing while the player buffers, so the receiver has to move its
+        // anchor when buffering starts or stops instead of extrapolating through the stall
+        long expectedPosition = previous.getSeekPositionAt(mSeekAnchor);
+        if ((changes & (PLAYING | NOW_PLAYING)) != 0 || mBuffering != previous.mBuffering
+                || Math.abs(mSeekPosition - expectedPosition) > SEEK_TOLERANCE_MS) {
+            changes |= SEEK_POSITION;
+        }
+
+        return changes;
+    }
+
+    /**
+     * @return A copy of this state to publish with a new version number
+     */
+    PlayerStateDelta withChanges(long version, int changes) {
+        return new PlayerStateDelta(version, changes, null, this);
+    }
+
+    /**
+     * @param previous The state that was last published, which the receiver is expected to have
+     * @return A copy of this state to publish with a new version number. If the queue is too
+     *         large to send, the copy holds an edit from the previous queue instead when possible.
+     */
+    PlayerStateDelta withChanges(long version, int changes, PlayerStateDelta previous) {
+        QueueEdit queueEdit = null;
+        if ((changes & QUEUE) != 0 && !isSmallQueue(mQueue) && previous != null) {
+            queueEdit = QueueEdit.between(previous.mQueue, mQueue, ChunkHeader.MAX_ENTRIES);
+        }
+        return new PlayerStateDelta(version, changes, queueEdit, this);
+    }
+
+    /**
+     * @return Whether a queue is small enough to send in its entirety. Large queues would
+     *         overflow the binder transaction.
+     */
+    private static boolean isSmallQueue(List<Song> queue) {
+        return queue.size() <= ChunkHeader.MAX_ENTRIES;
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return A bitmask of the fields in this delta that have changed. Other fields have
+     *         undefined values.
+     */
+    public int getChanges() {
+        return mChanges;
+    }
+
+    public boolean hasChanged(int field) {
+        return (mChanges & field) != 0;
+    }
+
+    public boolean isPlaying() {
+        return mPlaying;
+    }
+
+    public Song getNowPlaying() {
+        return mNowPlaying;
+    }
+
+    /**
+     * @return The new queue, or {@code null} if it was too large to send with this delta. In
+     *         that case, it can either be built from {@link #getQueueEdit()} or needs to be read
+     *         from the service.
+     */
+    public List<Song> getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * @return The changes from the previously published queue to the new one if the new queue
+     *         was too large to send with this delta, or {@code null} if there were too many
+     *         changes to send
+     */
+    public QueueEdit getQueueEdit() {
+        return mQueueEdit;
+    }
+
+    public int getQueuePosition() {
+        return mQueuePosition;
+    }
+
+    public int getSeekPosition() {
+        return mSeekPosition;
+    }
+
+    /**
+     * @return The time, in {@link SystemClock#elapsedRealtime()}, when the seek position was read
+     */
+    public long getSeekAnchor() {
+        return mSeekAnchor;
+    }
+
+    /**
+     * @return Whether or not the seek position is moving forward. This is {@code false} while the
+     *         player is paused, and while it's playing but waiting for more data to buffer.
+     */
+    public boolean isSeekPositionAdvancing() {
+        return mPlaying && !mBuffering;
+    }
+
+    /**
+     * @param elapsedRealtime A time in {@link SystemClock#elapsedRealtime()}
+     * @return The seek position that the player is expected to be at at the given time
+     */
+    public long getSeekPositionAt(long elapsedRealtime) {
+        if (!isSeekPositionAdvancing()) {
+            return mSeekPosition;
+        }
+        return mSeekPosition + Math.max(0, elapsedRealtime - mSeekAnchor);
+    }
+
+    public int getDuration() {
+        return mDuration;
+    }
+
+    public boolean getShuffleMode() {
+        return mShuffleMode;
+    }
+
+    public int getRepeatMode() {
+        return mRepeatMode;
+    }
+
+    public int getMultiRepeatCount() {
+        return mMultiRepeatCount;
+    }
+
+    public long getSleepTimerEndTime() {
+        return mSleepTimerEndTime;
+    }
+
+    protected PlayerStateDelta(Parcel in) {
+        mVersion = in.readLong();
+        mChanges = in.readInt();
+        mPlaying = in.readByte() != 0;
+
+        if (hasChanged(NOW_PLAYING)) {
+            mNowPlaying = in.readParcelable(Song.class.getClassLoader());
+        } else {
+            mNowPlaying = null;
+        }
+
+        byte queueType = hasChanged(QUEUE) ? in.readByte() : QUEUE_NONE;
+        if (queueType == QUEUE_FULL) {
+            mQueue = in.createTypedArrayList(Song.CREATOR);
+        } else {
+            mQueue = null;
+        }
+        if (queueType == QUEUE_EDIT) {
+            mQueueEdit = QueueEdit.CREATOR.createFromParcel(in);
+        } else {
+            mQueueEdit = null;
+        }
+
+        mQueuePosition = in.readInt();
+        mSeekPosition = in.readInt();
+        mSeekAnchor = in.readLong();
+        mBuffering = in.readByte() != 0;
+        mDuration = in.readInt();
+        mShuffleMode = in.readByte() != 0;
+        mRepeatMode = in.readInt();
+        mMultiRepeatCount = in.readInt();
+        mSleepTimerEndTime = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(mVersion);
+        dest.writeInt(mChanges);
+        dest.writeByte((byte) (mPlaying ? 1 : 0));
+        if (hasChanged(NOW_PLAYING)) {
+            dest.writeParcelable(mNowPlaying, flags);
+        }
+        if (hasChanged(QUEUE)) {
+            // Large queues are sent as an edit to the previous queue when possible. Otherwise
+            // the receiver reads them separately.
+            if (isSmallQueue(mQueue)) {
+                dest.writeByte(QUEUE_FULL);
+                dest.writeTypedList(mQueue);
+            } else if (mQueueEdit != null) {
+                dest.writeByte(QUEUE_EDIT);
+                mQueueEdit.writeToParcel(dest, flags);
+            } else {
+                dest.writeByte(QUEUE_NONE);
+            }
+        }
+        dest.writeInt(mQueuePosition);
+        dest.writeInt(mSeekPosition);
+        dest.writeLong(mSeekAnchor);
+        dest.writeByte((byte) (mBuffering ? 1 : 0));
+        dest.writeInt(mDuration);
+        dest.writeByte((byte) (mShuffleMode ? 1 : 0));
+        dest.writeInt(mRepeatMode);
+        dest.writeInt(mMultiRepeatCount);
+        dest.writeLong(mSleepTimerEndTime);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<PlayerStateDelta> CREATOR = new Creator<PlayerStateDelta>() {
+        @Override
+        public PlayerStateDelta createFromParcel(Parcel in) {
+            return new PlayerStateDelta(in);
+        }
+
+        @Override
+        public PlayerStateDelta[] newArray(int size) {
+            return new PlayerStateDelta[size];
+        }
+    };
+
+}
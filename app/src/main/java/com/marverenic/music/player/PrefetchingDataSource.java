@@ -0,0 +1,130 @@
+package com.marverenic.music.player;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+
+/**
+ * A {@link DataSource} that reads the start of a song from the data prefetched by a
+ * {@link TrackPrefetcher}. Once the prefetched data runs out, or if the song hasn't been
+ * prefetched, reads are passed through to an upstream data source.
+ */
+final class PrefetchingDataSource implements DataSource {
+
+    private final DataSource mUpstream;
+    private final TrackPrefetcher mPrefetcher;
+
+    @Nullable
+    private DataSpec mDataSpec;
+    @Nullable
+    private TrackPrefetcher.Prefetch mPrefetch;
+    private int mPrefetchPosition;
+    private long mBytesRemaining;
+    private boolean mUpstreamOpened;
+
+    private PrefetchingDataSource(DataSource upstream, TrackPrefetcher prefetcher) {
+        mUpstream = upstream;
+        mPrefetcher = prefetcher;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mDataSpec = dataSpec;
+        TrackPrefetcher.Prefetch prefetch = mPrefetcher.get(dataSpec.uri);
+
+        if (prefetch == null || dataSpec.absoluteStreamPosition >= prefetch.mLength) {
+            mUpstreamOpened = true;
+            return mUpstream.open(dataSpec);
+        }
+
+        mPrefetch = prefetch;
+        mPrefetchPosition = (int) dataSpec.absoluteStreamPosition;
+        mBytesRemaining = dataSpec.length;
+
+        if (dataSpec.length != C.LENGTH_UNSET) {
+            return dataSpec.length;
+        } else if (prefetch.mContentLength != C.LENGTH_UNSET) {
+            return prefetch.mContentLength - dataSpec.absoluteStreamPosition;
+        } else {
+            return C.LENGTH_UNSET;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (readLength == 0) {
+            return 0;
+        } else if (mPrefetch == null) {
+            return mUpstream.read(buffer, offset, readLength);
+        } else if (mBytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        int read;
+        if (mPrefetchPosition < mPrefetch.mLength) {
+            read = Math.min(readLength, mPrefetch.mLength - mPrefetchPosition);
+            if (mBytesRemaining != C.LENGTH_UNSET) {
+                read = (int) Math.min(read, mBytesRemaining);
+            }
+
+            System.arraycopy(mPrefetch.mData, mPrefetchPosition, buffer, offset, read);
+            mPrefetchPosition += read;
+        } else if (mPrefetch.mComplete) {
+            return C.RESULT_END_OF_INPUT;
+        } else {
+            if (!mUpstreamOpened) {
+                // Continue reading from storage where the prefetched data ends
+                mUpstream.open(new DataSpec(mDataSpec.uri, mPrefetchPosition, mBytesRemaining,
+                        mDataSpec.key, mDataSpec.flags));
+                mUpstreamOpened = true;
+            }
+
+            read = mUpstream.read(buffer, offset, readLength);
+            if (read == C.RESULT_END_OF_INPUT) {
+                return read;
+            }
+        }
+
+        if (mBytesRemaining != C.LENGTH_UNSET) {
+            mBytesRemaining -= read;
+        }
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return (mDataSpec == null) ? null : mDataSpec.uri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDataSpec = null;
+        mPrefetch = null;
+
+        if (mUpstreamOpened) {
+            mUpstreamOpened = false;
+            mUpstream.close();
+        }
+    }
+
+    static final class Factory implements DataSource.Factory {
+
+        private final DataSource.Factory mUpstreamFactory;
+        private final TrackPrefetcher mPrefetcher;
+
+        Factory(DataSource.Factory upstreamFactory, TrackPrefetcher prefetcher) {
+            mUpstreamFactory = upstreamFactory;
+            mPrefetcher = prefetcher;
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            return new PrefetchingDataSource(mUpstreamFactory.createDataSource(), mPrefetcher);
+        }
+    }
+}
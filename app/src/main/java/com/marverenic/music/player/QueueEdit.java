@@ -0,0 +1,128 @@
+package com.marverenic.music.player;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import androidx.annotation.Nullable;
+
+import com.marverenic.music.model.Song;
+import com.marverenic.music.utils.ListDiff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of removals and insertions that turn one queue into another. Queues that are too large to
+ * send in a single binder transaction are sent to the UI process as edits to the last queue that
+ * it received, so that it doesn't have to reload the entire queue when a few songs change.
+ *
+ * Each edit holds a hash of the queue it was computed from, so that it's never applied to a
+ * queue that has since diverged on the receiving end.
+ */
+public final class QueueEdit implements Parcelable {
+
+    private final long mBaseHash;
+    private final long mHash;
+    private final int[] mRemovedIndices;
+    private final int[] mInsertedIndices;
+    private final List<Song> mInsertedSongs;
+
+    private QueueEdit(long baseHash, long hash, int[] removedIndices, int[] insertedIndices,
+                      List<Song> insertedSongs) {
+        mBaseHash = baseHash;
+        mHash = hash;
+        mRemovedIndices = removedIndices;
+        mInsertedIndices = insertedIndices;
+        mInsertedSongs = insertedSongs;
+    }
+
+    /**
+     * @param base The queue that the receiver already has
+     * @param queue The new queue
+     * @param maxEdits The largest number of removed and inserted songs to include in the edit
+     * @return The edit that turns {@code base} into {@code queue}, or {@code null} if it would
+     *         need more than {@code maxEdits} changes
+     */
+    @Nullable
+    static QueueEdit between(List<Song> base, List<Song> queue, int maxEdits) {
+        ListDiff diff = ListDiff.compute(base, queue);
+        if (diff.getEditCount() > maxEdits) {
+            return null;
+        }
+
+        int[] insertedIndices = diff.getInsertedIndices();
+        List<Song> insertedSongs = new ArrayList<>(insertedIndices.length);
+        for (int index : insertedIndices) {
+            insertedSongs.add(queue.get(index));
+        }
+
+        return new QueueEdit(hash(base), hash(queue), diff.getRemovedIndices(), insertedIndices,
+                insertedSongs);
+    }
+
+    /**
+     * Computes a 64-bit hash of the songs in a queue. {@link List#hashCode()} is too likely to
+     * collide for queues of this size.
+     */
+    static long hash(List<Song> queue) {
+        long hash = 1;
+        for (Song song : queue) {
+            hash = 31 * hash + song.getSongId();
+        }
+        return hash;
+    }
+
+    /**
+     * @param queue The queue that the receiver currently has
+     * @return The queue after this edit, or {@code null} if this edit doesn't apply to the given
+     *         queue and the new queue has to be reloaded
+     */
+    @Nullable
+    List<Song> applyTo(List<Song> queue) {
+        long hash = hash(queue);
+        if (hash == mHash) {
+            // The receiver already made this change to its own copy of the queue
+            return queue;
+        } else if (hash != mBaseHash) {
+            return null;
+        }
+
+        return Collections.unmodifiableList(
+                ListDiff.apply(queue, mRemovedIndices, mInsertedIndices, mInsertedSongs));
+    }
+
+    protected QueueEdit(Parcel in) {
+        mBaseHash = in.readLong();
+        mHash = in.readLong();
+        mRemovedIndices = in.createIntArray();
+        mInsertedIndices = in.createIntArray();
+        mInsertedSongs = in.createTypedArrayList(Song.CREATOR);
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(mBaseHash);
+        dest.writeLong(mHash);
+        dest.writeIntArray(mRemovedIndices);
+        dest.writeIntArray(mInsertedIndices);
+        dest.writeTypedList(mInsertedSongs);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<QueueEdit> CREATOR = new Creator<QueueEdit>() {
+        @Override
+        public QueueEdit createFromParcel(Parcel in) {
+            return new QueueEdit(in);
+        }
+
+        @Override
+        public QueueEdit[] newArray(int size) {
+            return new QueueEdit[size];
+        }
+    };
+
+}
@@ -0,0 +1,127 @@
+package com.marverenic.music.player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the window of the queue that {@link QueuedExoPlayer} gives to ExoPlayer, and the edits
+ * that move ExoPlayer's queue from one window to the next.
+ *
+ * The window holds {@link #PREVIOUS_SOURCE_COUNT} songs before the current song and
+ * {@link #NEXT_SOURCE_COUNT} songs after it. When repeat all is enabled, it wraps around the end
+ * of the queue. Queues that are no longer than the window are given to ExoPlayer in full.
+ */
+final class QueueWindow {
+
+    /**
+     * The number of songs before the current song that have a media source in ExoPlayer's queue
+     */
+    static final int PREVIOUS_SOURCE_COUNT = 1;
+
+    /**
+     * The number of songs after the current song that have a media source in ExoPlayer's queue
+     */
+    static final int NEXT_SOURCE_COUNT = 2;
+
+    private static final int CAPACITY = PREVIOUS_SOURCE_COUNT + 1 + NEXT_SOURCE_COUNT;
+
+    /**
+     * This class is never instantiated
+     */
+    private QueueWindow() {
+    }
+
+    /**
+     * @param queueSize The size of the queue
+     * @param queueIndex The index of the current song
+     * @param repeatAll Whether the window wraps around the end of the queue
+     * @return The index in the queue of the first song in the window
+     */
+    static int getStart(int queueSize, int queueIndex, boolean repeatAll) {
+        if (queueSize <= CAPACITY) {
+            return 0;
+        } else if (repeatAll) {
+            return (queueIndex - PREVIOUS_SOURCE_COUNT + queueSize) % queueSize;
+        } else {
+            return Math.max(0, queueIndex - PREVIOUS_SOURCE_COUNT);
+        }
+    }
+
+    /**
+     * @param queueSize The size of the queue
+     * @param queueIndex The index of the current song
+     * @param windowStart The index in the queue of the first song in the window
+     * @param repeatAll Whether the window wraps around the end of the queue
+     * @return The number of songs in the window
+     */
+    static int getLength(int queueSize, int queueIndex, int windowStart, boolean repeatAll) {
+        if (queueSize <= CAPACITY) {
+            return queueSize;
+        } else if (repeatAll) {
+            return CAPACITY;
+        } else {
+            return Math.min(queueSize, queueIndex + NEXT_SOURCE_COUNT + 1) - windowStart;
+        }
+    }
+
+    static <T> List<T> get(List<T> queue, int windowStart, int windowLength) {
+        List<T> window = new ArrayList<>(windowLength);
+        for (int i = 0; i < windowLength; i++) {
+            window.add(queue.get((windowStart + i) % queue.size()));
+        }
+        return window;
+    }
+
+    /**
+     * Sends the edits that turn one window into another to an {@link Editor}. The longest run of
+     * items that both windows share is kept, and everything around it is removed and inserted.
+     * Edits are sent in the order that they should be applied, and every position is an index
+     * into the list as it is after all of the previous edits have been applied.
+     */
+    static <T> void diff(List<T> oldWindow, List<T> newWindow, Editor<T> editor) {
+        int oldStart = 0;
+        int newStart = 0;
+        int length = 0;
+
+        for (int i = 0; i < oldWindow.size(); i++) {
+            for (int j = 0; j < newWindow.size(); j++) {
+                int k = 0;
+                while (i + k < oldWindow.size() && j + k < newWindow.size()
+                        && oldWindow.get(i + k).equals(newWindow.get(j + k))) {
+                    k++;
+                }
+
+                if (k > length) {
+                    oldStart = i;
+                    newStart = j;
+                    length = k;
+                }
+            }
+        }
+
+        // Trim the old window down to the shared run, starting from the end
+        for (int i = oldWindow.size() - 1; i >= oldStart + length; i--) {
+            editor.remove(i);
+        }
+        for (int i = oldStart - 1; i >= 0; i--) {
+            editor.remove(i);
+        }
+
+        // Then grow it out into the new window
+        if (newStart > 0) {
+            editor.insert(0, newWindow.subList(0, newStart));
+        }
+        if (newStart + length < newWindow.size()) {
+            editor.insert(newStart + length,
+                    newWindow.subList(newStart + length, newWindow.size()));
+        }
+    }
+
+    interface Editor<T> {
+
+        void insert(int position, List<T> items);
+
+        void remove(int position);
+
+    }
+}
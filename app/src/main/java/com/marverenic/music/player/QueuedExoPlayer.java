@@ -4,8 +4,6 @@ import android.content.Context;
 import android.media.audiofx.Equalizer;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.recyclerview.widget.DiffUtil;
-import androidx.recyclerview.widget.ListUpdateCallback;
 
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.DefaultLoadControl;
@@ -41,10 +39,31 @@ import java.util.List;
 
 import timber.log.Timber;
 
+/**
+ * A {@link QueuedMediaPlayer} backed by ExoPlayer.
+ *
+ * Only a small window of the queue around the current song is given to ExoPlayer. The window
+ * holds {@link QueueWindow#PREVIOUS_SOURCE_COUNT} songs before the current song and
+ * {@link QueueWindow#NEXT_SOURCE_COUNT} songs after it, and slides forward as playback
+ * advances. Starting a long queue only builds a handful of media sources, and edits to the queue
+ * that don't affect the window don't touch ExoPlayer at all. When repeat all is enabled, the
+ * window wraps around the end of the queue so that the first song is ready to play after the
+ * last one.
+ */
 public class QueuedExoPlayer implements QueuedMediaPlayer {
 
     private static final String USER_AGENT = "Jockey/" + BuildConfig.VERSION_NAME;
 
+    /**
+     * The length of audio to read into memory from the start of the next song
+     */
+    private static final long PREFETCH_DURATION_MS = 10000;
+
+    /**
+     * The maximum number of bytes to read into memory from the start of the next song
+     */
+    private static final int MAX_PREFETCH_BYTES = 2 * 1024 * 1024;
+
     private Context mContext;
     private EqualizedExoPlayer mExoPlayer;
     private ExoPlayerState mState;
@@ -57,8 +76,24 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
 
     private DataSource.Factory mSourceFactory;
     private ExtractorsFactory mExtractorsFactory;
+    private TrackPrefetcher mPrefetcher;
+    private PlaybackMetrics mPlaybackMetrics;
     private DynamicConcatenatingMediaSource mExoPlayerQueue;
 
+    /**
+     * The songs that have a media source in {@link #mExoPlayerQueue}, in the same order. The
+     * first song is at index {@link #mWindowStart} in {@link #mQueue}, and the window wraps
+     * around to the start of the queue if it runs past the end.
+     */
+    private List<Song> mWindow;
+    private int mWindowStart;
+
+    /**
+     * Tracks the edits to {@link #mExoPlayerQueue} that ExoPlayer hasn't applied yet. Until they
+     * have been applied, ExoPlayer's window indices don't match {@link #mWindow}.
+     */
+    private volatile WaitingCallback mPendingEdits;
+
     private boolean mWaitingForDuration = false;
     private boolean mHasError;
     private List<Song> mQueue;
@@ -73,9 +108,15 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
         mContext = context;
         mState = ExoPlayerState.IDLE;
         mQueue = Collections.emptyList();
+        mWindow = Collections.emptyList();
+        mPendingEdits = new WaitingCallback();
 
-        mSourceFactory = new DefaultDataSourceFactory(mContext, USER_AGENT);
+        DataSource.Factory upstreamFactory = new DefaultDataSourceFactory(mContext, USER_AGENT);
+        mPrefetcher = new TrackPrefetcher(upstreamFactory, PREFETCH_DURATION_MS,
+                MAX_PREFETCH_BYTES);
+        mSourceFactory = new PrefetchingDataSource.Factory(upstreamFactory, mPrefetcher);
         mExtractorsFactory = new DefaultExtractorsFactory();
+        mPlaybackMetrics = new PlaybackMetrics();
 
         RenderersFactory renderersFactory = new DefaultRenderersFactory(mContext);
         TrackSelector trackSelector = new DefaultTrackSelector(new FixedTrackSelection.Factory());
@@ -83,6 +124,7 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
         SimpleExoPlayer baseInstance = ExoPlayerFactory.newSimpleInstance(
                 renderersFactory, trackSelector, loadControl);
         mExoPlayer = new EqualizedExoPlayer(context, baseInstance);
+        mExoPlayer.setPlaybackMetrics(mPlaybackMetrics);
 
         mExoPlayer.addListener(new Player.EventListener() {
             @Override
@@ -144,15 +186,21 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
 
     @Internal void onPlayerStateChanged(int playbackState) {
         boolean stateDiff = mState != ExoPlayerState.fromInt(playbackState);
+        boolean wasBuffering = isBuffering();
         mState = ExoPlayerState.fromInt(playbackState);
         mHasError = mHasError && (mState == ExoPlayerState.IDLE);
         mWaitingForDuration = mExoPlayer.getDuration() == C.TIME_UNSET;
+        mPlaybackMetrics.onPlaybackStateChanged(playbackState);
 
         if (stateDiff && playbackState == Player.STATE_ENDED) {
             onCompletion();
             pause();
             setQueueIndex(0);
         }
+
+        if (wasBuffering != isBuffering() && mEventListener != null) {
+            mEventListener.onBufferingChanged(isBuffering());
+        }
     }
 
     private void onCompletion() {
@@ -174,11 +222,21 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
         }
 
         if (reason == Player.DISCONTINUITY_REASON_PERIOD_TRANSITION) {
+            mPlaybackMetrics.onTransition();
             onCompletion();
         }
 
-        mQueueIndex = mExoPlayer.getCurrentWindowIndex() % mQueue.size();
-        onStart();
+        // ExoPlayer's window index can only be mapped back to the queue once it has caught up
+        // with the window
+        mPendingEdits.whenComplete(() -> {
+            if (mQueue.isEmpty()) {
+                return;
+            }
+
+            mQueueIndex = getQueueIndex(mExoPlayer.getCurrentWindowIndex());
+            updateWindow();
+            onStart();
+        });
     }
 
     @Internal void onPlayerError(ExoPlaybackException error) {
@@ -239,77 +297,141 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
             reset();
         } else if (mExoPlayerQueue == null || !mQueue.get(mQueueIndex).equals(queue.get(index))
                 || resetSeekPosition) {
-            mQueue = Collections.unmodifiableList(new ArrayList<>(queue));
+            mQueue = Collections.unmodifiableList(queue);
             mQueueIndex = index;
+            prepareWindow(true);
+        } else {
+            mQueue = Collections.unmodifiableList(queue);
+            mQueueIndex = index;
+            updateWindow();
+        }
+    }
+
+    /**
+     * Replaces ExoPlayer's queue with a new window around the current song, and starts playing
+     * the current song from the beginning
+     * @param dispatchStart Whether to notify the event listener that the current song has started
+     */
+    private void prepareWindow(boolean dispatchStart) {
+        mWindowStart = QueueWindow.getStart(mQueue.size(), mQueueIndex, mRepeatAll);
+        mWindow = QueueWindow.get(mQueue, mWindowStart,
+                QueueWindow.getLength(mQueue.size(), mQueueIndex, mWindowStart, mRepeatAll));
 
-            mExoPlayerQueue = new DynamicConcatenatingMediaSource();
-            List<MediaSource> mediaSources = new ArrayList<>(queue.size());
-            for (Song song : queue) {
-                mediaSources.add(buildMediaSource(song));
+        // Edits to the previous queue no longer matter once it's replaced
+        mPendingEdits = new WaitingCallback();
+
+        DynamicConcatenatingMediaSource exoPlayerQueue = new DynamicConcatenatingMediaSource();
+        mExoPlayerQueue = exoPlayerQueue;
+
+        int windowIndex = getWindowIndex(mQueueIndex);
+        exoPlayerQueue.addMediaSources(buildMediaSources(mWindow), () -> {
+            if (mExoPlayerQueue != exoPlayerQueue) {
+                return;
             }
 
-            mExoPlayerQueue.addMediaSources(mediaSources, () -> {
-                mExoPlayer.prepare(mExoPlayerQueue);
-                mExoPlayer.seekToDefaultPosition(index);
+            mExoPlayer.prepare(exoPlayerQueue);
+            mExoPlayer.seekToDefaultPosition(windowIndex);
+            if (dispatchStart) {
                 onStart();
-            });
-        } else {
-            WaitingCallback waiter = new WaitingCallback();
+            }
+        });
 
-            DiffUtil.calculateDiff(new DiffUtil.Callback() {
-                @Override
-                public int getOldListSize() {
-                    return mQueue.size();
-                }
+        prefetchNextSong();
+    }
 
-                @Override
-                public int getNewListSize() {
-                    return queue.size();
-                }
+    /**
+     * Moves the window to the current position in the queue. Media sources that are already in
+     * ExoPlayer's queue are kept, so this only adds and removes sources at the edges of the
+     * window unless the songs in the window were changed.
+     */
+    private void updateWindow() {
+        if (mExoPlayerQueue == null || mQueue.isEmpty()) {
+            return;
+        }
 
-                @Override
-                public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                    Song oldItem = mQueue.get(oldItemPosition);
-                    Song newItem = queue.get(newItemPosition);
-                    return oldItem.getLocation().equals(newItem.getLocation());
-                }
+        int windowStart = QueueWindow.getStart(mQueue.size(), mQueueIndex, mRepeatAll);
+        List<Song> window = QueueWindow.get(mQueue, windowStart,
+                QueueWindow.getLength(mQueue.size(), mQueueIndex, windowStart, mRepeatAll));
+        List<Song> oldWindow = mWindow;
 
-                @Override
-                public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                    return areItemsTheSame(oldItemPosition, newItemPosition);
-                }
-            }).dispatchUpdatesTo(new ListUpdateCallback() {
-                @Override
-                public void onInserted(int position, int count) {
-                    List<MediaSource> mediaSources = new ArrayList<>(count);
-                    for (int i = position; i < position + count; i++) {
-                        mediaSources.add(buildMediaSource(queue.get(i)));
-                    }
-
-                    mExoPlayerQueue.addMediaSources(position, mediaSources, waiter.await());
-                }
+        mWindow = window;
+        mWindowStart = windowStart;
+        prefetchNextSong();
 
-                @Override
-                public void onRemoved(int position, int count) {
-                    for (int i = position + count - 1; i >= position; i--) {
-                        mExoPlayerQueue.removeMediaSource(i, waiter.await());
-                    }
-                }
+        DynamicConcatenatingMediaSource exoPlayerQueue = mExoPlayerQueue;
+        WaitingCallback pendingEdits = mPendingEdits;
 
-                @Override
-                public void onMoved(int fromPosition, int toPosition) {
-                    mExoPlayerQueue.moveMediaSource(fromPosition, toPosition, waiter.await());
-                }
+        QueueWindow.diff(oldWindow, window, new QueueWindow.Editor<Song>() {
+            @Override
+            public void insert(int position, List<Song> songs) {
+                exoPlayerQueue.addMediaSources(position, buildMediaSources(songs),
+                        pendingEdits.await());
+            }
 
-                @Override
-                public void onChanged(int position, int count, Object payload) {
-                    throw new UnsupportedOperationException("This callback should never occur");
-                }
-            });
+            @Override
+            public void remove(int position) {
+                exoPlayerQueue.removeMediaSource(position, pendingEdits.await());
+            }
+        });
+    }
 
-            mQueue = Collections.unmodifiableList(new ArrayList<>(queue));
-            mQueueIndex = index;
+    /**
+     * Starts reading the song that will play after the current song into memory, so that
+     * ExoPlayer doesn't have to wait for storage when it moves on to it
+     */
+    private void prefetchNextSong() {
+        int nextIndex = mQueueIndex + 1;
+        if (mRepeatOne) {
+            return;
+        } else if (nextIndex >= mQueue.size()) {
+            if (!mRepeatAll || mQueue.size() <= 1) {
+                return;
+            }
+            nextIndex = 0;
         }
+
+        Song next = mQueue.get(nextIndex);
+        mPrefetcher.prefetch(next.getLocation(), next.getSongDuration());
+    }
+
+    /**
+     * @param queueIndex An index in the queue
+     * @return The index of the same song in ExoPlayer's queue, or {@code -1} if the song isn't
+     *         in the window
+     */
+    private int getWindowIndex(int queueIndex) {
+        int queueSize = mQueue.size();
+        int offset = ((queueIndex - mWindowStart) % queueSize + queueSize) % queueSize;
+        return (offset < mWindow.size()) ? offset : -1;
+    }
+
+    /**
+     * @param windowIndex An index in ExoPlayer's queue
+     * @return The index of the same song in the queue
+     */
+    private int getQueueIndex(int windowIndex) {
+        return (mWindowStart + windowIndex) % mQueue.size();
+    }
+
+    /**
+     * Starts playing the song at an index in the queue from the beginning. If the song isn't in
+     * the window, the window is rebuilt around it.
+     */
+    private void seekToQueueIndex(int queueIndex) {
+        mQueueIndex = queueIndex;
+
+        if (getWindowIndex(queueIndex) < 0) {
+            prepareWindow(false);
+            return;
+        }
+
+        mPendingEdits.whenComplete(() -> {
+            int windowIndex = getWindowIndex(queueIndex);
+            if (windowIndex >= 0) {
+                mExoPlayer.seekTo(windowIndex, 0);
+            }
+        });
+        updateWindow();
     }
 
     @Override
@@ -317,7 +439,7 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
         if (index == mQueueIndex) {
             seekTo(0);
         } else {
-            mExoPlayer.seekTo(index, 0);
+            seekToQueueIndex(index);
         }
     }
 
@@ -332,30 +454,45 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
                 .createMediaSource(song.getLocation());
     }
 
+    private List<MediaSource> buildMediaSources(List<Song> songs) {
+        List<MediaSource> mediaSources = new ArrayList<>(songs.size());
+        for (Song song : songs) {
+            mediaSources.add(buildMediaSource(song));
+        }
+        return mediaSources;
+    }
+
     @Override
     public void skip() {
-        mQueueIndex++;
-        mQueueIndex %= mQueue.size();
-
-        mExoPlayer.seekTo(mQueueIndex, 0);
+        seekToQueueIndex((mQueueIndex + 1) % mQueue.size());
         mExoPlayer.setPlayWhenReady(true);
     }
 
     @Override
     public void skipPrevious() {
-        mQueueIndex--;
-        mQueueIndex %= mQueue.size();
-        if (mQueueIndex < 0) {
-            mQueueIndex += mQueue.size();
+        int previousIndex = (mQueueIndex - 1) % mQueue.size();
+        if (previousIndex < 0) {
+            previousIndex += mQueue.size();
         }
 
-        mExoPlayer.seekTo(mQueueIndex, 0);
+        seekToQueueIndex(previousIndex);
         mExoPlayer.setPlayWhenReady(true);
     }
 
     @Override
     public void seekTo(int mSec) {
-        mExoPlayer.seekTo(mQueueIndex, mSec);
+        if (mQueue.isEmpty()) {
+            mExoPlayer.seekTo(mSec);
+            return;
+        }
+
+        int queueIndex = mQueueIndex;
+        mPendingEdits.whenComplete(() -> {
+            int windowIndex = getWindowIndex(queueIndex);
+            if (windowIndex >= 0) {
+                mExoPlayer.seekTo(windowIndex, mSec);
+            }
+        });
     }
 
     @Override
@@ -396,6 +533,11 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
         return mState == ExoPlayerState.ENDED;
     }
 
+    @Override
+    public boolean isBuffering() {
+        return mState == ExoPlayerState.BUFFERING;
+    }
+
     @Override
     public boolean isPaused() {
         return !mExoPlayer.getPlayWhenReady();
@@ -427,6 +569,7 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
             mRepeatAll = true;
             mRepeatOne = false;
             mExoPlayer.setRepeatMode(getExoPlayerRepeatMode());
+            updateWindow();
         }
     }
 
@@ -436,6 +579,7 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
             mRepeatOne = true;
             mRepeatAll = false;
             mExoPlayer.setRepeatMode(getExoPlayerRepeatMode());
+            updateWindow();
         }
     }
 
@@ -445,6 +589,7 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
             mRepeatOne = false;
             mRepeatAll = false;
             mExoPlayer.setRepeatMode(getExoPlayerRepeatMode());
+            updateWindow();
         }
     }
 
@@ -468,41 +613,66 @@ public class QueuedExoPlayer implements QueuedMediaPlayer {
         mQueue = Collections.emptyList();
         mQueueIndex = 0;
 
+        mWindow = Collections.emptyList();
+        mWindowStart = 0;
+        mPendingEdits = new WaitingCallback();
+
         mExoPlayerQueue = null;
+        mPrefetcher.cancel();
         mExoPlayer.stop();
     }
 
     @Override
     public void release() {
+        mPrefetcher.cancel();
+        Timber.i("Releasing player. %s", mPlaybackMetrics);
         mExoPlayer.release();
         mExoPlayer = null;
         mContext = null;
     }
 
+    /**
+     * Counts edits to ExoPlayer's queue that haven't been applied yet. Edits are made on the
+     * threads that call into this player, but they're completed on ExoPlayer's thread, so the
+     * count is only changed while holding this object's lock. Actions are run outside of the
+     * lock.
+     */
     private static class WaitingCallback {
 
         private int mInFlightCount = 0;
 
-        @Nullable
-        private Runnable mOnComplete;
+        private final List<Runnable> mOnComplete = new ArrayList<>();
 
-        public Runnable await() {
+        public synchronized Runnable await() {
             mInFlightCount++;
-            return () -> {
+            return this::onEditComplete;
+        }
+
+        private void onEditComplete() {
+            List<Runnable> actions;
+            synchronized (this) {
                 mInFlightCount--;
-                if (mOnComplete != null) {
-                    mOnComplete.run();
-                    mOnComplete = null;
+                if (mInFlightCount > 0 || mOnComplete.isEmpty()) {
+                    return;
                 }
-            };
+
+                actions = new ArrayList<>(mOnComplete);
+                mOnComplete.clear();
+            }
+
+            for (Runnable action : actions) {
+                action.run();
+            }
         }
 
         public void whenComplete(Runnable action) {
-            if (mInFlightCount == 0) {
-                action.run();
-            } else {
-                mOnComplete = action;
+            synchronized (this) {
+                if (mInFlightCount > 0) {
+                    mOnComplete.add(action);
+                    return;
+                }
             }
+            action.run();
         }
 
     }
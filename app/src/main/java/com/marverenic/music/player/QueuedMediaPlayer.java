@@ -46,6 +46,7 @@ public interface QueuedMediaPlayer {
      * in {@code queue}.
      * @param queue The replacement queue. Cannot be {@code null}. To clear the queue, pass in an
      *              empty list like {@link Collections#emptyList()}.
+     *              The list is not copied, so it must not be modified after it's passed in.
      * @param index The starting index to play music from. Must be between {@code 0}
      *              and {@code queue.size() - 1}. This value is ignored if {@code queue} is empty.
      * @param resetSeekPosition Whether the {@code index}-th track will be started from the
@@ -120,6 +121,13 @@ public interface QueuedMediaPlayer {
      */
     boolean isComplete();
 
+    /**
+     * Returns whether playback is stalled while more of the current song is loaded. The seek
+     * position doesn't advance while this is {@code true}, even if {@link #isPlaying()} is.
+     * @return {@code true} if the player is buffering, {@code false} otherwise
+     */
+    boolean isBuffering();
+
     /**
      * Returns whether or not playback is paused. A return value of false does not necessarily mean
      * that music is currently playing.
@@ -227,5 +235,12 @@ public interface QueuedMediaPlayer {
          * @return {@code true} if the error was handled, {@code false} otherwise
          */
         boolean onError(Throwable error);
+
+        /**
+         * Invoked when the player starts or stops buffering
+         * @param buffering Whether or not the player is now buffering
+         * @see #isBuffering()
+         */
+        void onBufferingChanged(boolean buffering);
     }
 }
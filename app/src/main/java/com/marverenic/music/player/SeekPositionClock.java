@@ -0,0 +1,70 @@
+package com.marverenic.music.player;
+
+import android.os.SystemClock;
+
+/**
+ * Extrapolates the seek position of the player between the updates that are pushed from the
+ * service. The last known position is kept as an anchor along with the time that it was read at,
+ * and while the player is advancing, the current position is the anchor plus the time that has
+ * passed since then.
+ *
+ * Every time the anchor is moved, the clock starts a new anchor generation. Positions from
+ * different generations are never treated as equivalent by {@link #getKey(int, int)}, even if
+ * they're close together, so a seek is always reported to subscribers.
+ *
+ * This class isn't thread safe, and should only be used on the main thread.
+ */
+final class SeekPositionClock {
+
+    private int mPosition;
+    private long mTime;
+    private boolean mAdvancing;
+    private int mGeneration;
+
+    /**
+     * @param position The seek position, in milliseconds
+     * @param elapsedRealtime The time that the position was read at, in
+     *                        {@link SystemClock#elapsedRealtime()}
+     * @param advancing Whether or not the position is moving forward. This is {@code false} when
+     *                  the player is paused or is buffering.
+     */
+    void setAnchor(int position, long elapsedRealtime, boolean advancing) {
+        mPosition = position;
+        mTime = elapsedRealtime;
+        mAdvancing = advancing;
+        mGeneration++;
+    }
+
+    boolean isAdvancing() {
+        return mAdvancing;
+    }
+
+    /**
+     * @param elapsedRealtime The current time in {@link SystemClock#elapsedRealtime()}
+     * @param duration The duration of the current song, or a value that isn't positive if it's
+     *                 unknown
+     * @return The expected seek position at the given time, which is never past the end of the
+     *         song
+     */
+    int getPosition(long elapsedRealtime, int duration) {
+        long position = mPosition;
+        if (mAdvancing) {
+            position += Math.max(elapsedRealtime - mTime, 0);
+        }
+
+        if (duration > 0) {
+            position = Math.min(position, duration);
+        }
+        return (int) position;
+    }
+
+    /**
+     * @param position A position reported by this clock
+     * @param resolution The resolution that the position is observed at, in milliseconds
+     * @return A key that is equal for two positions only if they're in the same multiple of the
+     *         resolution and were reported without the anchor moving in between
+     */
+    long getKey(int position, int resolution) {
+        return ((long) mGeneration << 32) | (position / resolution);
+    }
+}
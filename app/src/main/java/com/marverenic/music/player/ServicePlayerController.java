@@ -15,6 +15,7 @@ import android.os.RemoteException;
 import android.os.SystemClock;
 import android.support.v4.media.session.MediaSessionCompat;
 
+import com.marverenic.music.IPlayerCallback;
 import com.marverenic.music.IPlayerService;
 import com.marverenic.music.JockeyApplication;
 import com.marverenic.music.R;
@@ -25,10 +26,12 @@ import com.marverenic.music.data.store.ReadOnlyPreferenceStore;
 import com.marverenic.music.model.Song;
 import com.marverenic.music.player.persistence.PlaybackPersistenceManager;
 import com.marverenic.music.player.transaction.ListTransaction;
+import com.marverenic.music.player.transaction.SharedMemoryList;
 import com.marverenic.music.utils.ObservableQueue;
 import com.marverenic.music.utils.RxProperty;
 import com.marverenic.music.utils.Util;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -36,7 +39,6 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
@@ -53,14 +55,22 @@ import timber.log.Timber;
  * An implementation of {@link PlayerController} used in release builds to communicate with the
  * media player throughout the application. This implementation uses AIDL to send commands through
  * IPC to the remote player service, and gets information with a combination of AIDL to fetch data
- * and BroadcastReceivers to be notified of automatic changes to the player state.
+ * and an {@link IPlayerCallback} that the service pushes changes to the player state through.
  *
  * This class is responsible for all communication to the remote service, including starting,
  * binding, unbinding and restarting the service if it crashes.
  */
 public class ServicePlayerController implements PlayerController {
 
+    /**
+     * The default resolution of {@link #getCurrentPosition()}
+     */
     private static final int POSITION_TICK_MS = 200;
+    /**
+     * The shortest amount of time between updates to the current position, so that the position
+     * isn't updated more often than the UI can be drawn
+     */
+    private static final int MIN_POSITION_TICK_MS = 16;
     private static final int SERVICE_RESTART_THRESHOLD_MS = 500;
 
     private Context mContext;
@@ -87,16 +97,35 @@ public class ServicePlayerController implements PlayerController {
     private BehaviorSubject<MediaSessionCompat.Token> mMediaSessionToken;
 
     private BehaviorSubject<Bitmap> mArtwork;
-    private Subscription mCurrentPositionClock;
+
+    /**
+     * The resolutions that {@link #getCurrentPosition(int)} has been subscribed to with. The
+     * position clock ticks as often as the finest of these. Only accessed on the main thread.
+     */
+    private final List<Integer> mPositionResolutions = new ArrayList<>();
+    private final Runnable mPositionTick = this::onPositionTick;
+    private boolean mPositionClockRunning;
+
+    /**
+     * Extrapolates the current position from the last seek position that was pushed from the
+     * service, instead of reading it from the service on every tick. Only accessed on the main
+     * thread.
+     */
+    private final SeekPositionClock mSeekPositionClock = new SeekPositionClock();
 
     private Random mShuffleSeedGenerator;
     private Handler mMainHandler;
     private HandlerThread mRequestThread;
     private ObservableQueue<Runnable> mRequestQueue;
+    private CommandBatcher mCommandBatcher;
     private Subscription mRequestQueueSubscription;
 
     private Set<ServiceBinding> mActiveBindings;
 
+    private final PlayerCallback mStateCallback = new PlayerCallback();
+    private volatile boolean mReceivingStateUpdates;
+    private long mStateVersion;
+
     public ServicePlayerController(Context context, PreferenceStore preferenceStore,
                 PlaybackPersistenceManager persistenceManager) {
         mContext = context;
@@ -106,6 +135,7 @@ public class ServicePlayerController implements PlayerController {
         mRequestThread = new HandlerThread("ServiceExecutor");
         mMediaSessionToken = BehaviorSubject.create();
         mRequestQueue = new ObservableQueue<>();
+        mCommandBatcher = new CommandBatcher(mRequestQueue, this::sendCommands);
         mActiveBindings = new HashSet<>();
 
         mShuffleMode.setValue(preferenceStore.isShuffled());
@@ -200,6 +230,7 @@ public class ServicePlayerController implements PlayerController {
     }
 
     private void disconnectService() {
+        unregisterStateCallback();
         releaseAllProperties();
         mBinding = null;
         mServiceStartRequestTime = 0;
@@ -209,6 +240,29 @@ public class ServicePlayerController implements PlayerController {
         }
     }
 
+    private void registerStateCallback() {
+        mStateVersion = -1;
+        execute(() -> {
+            try {
+                mBinding.registerCallback(mStateCallback);
+                mReceivingStateUpdates = true;
+            } catch (RemoteException exception) {
+                Timber.e(exception, "Failed to register player state callback");
+            }
+        });
+    }
+
+    private void unregisterStateCallback() {
+        if (mBinding != null && mReceivingStateUpdates) {
+            try {
+                mBinding.unregisterCallback(mStateCallback);
+            } catch (RemoteException exception) {
+                Timber.i(exception, "Failed to unregister player state callback");
+            }
+        }
+        mReceivingStateUpdates = false;
+    }
+
     private void bindRequestQueue() {
         mRequestQueueSubscription = mRequestQueue.toObservable()
                 .observeOn(AndroidSchedulers.from(mRequestThread.getLooper()))
@@ -223,32 +277,71 @@ public class ServicePlayerController implements PlayerController {
     // region RxProperty management
 
     private void execute(Runnable command) {
-        mRequestQueue.enqueue(command);
+        mCommandBatcher.enqueue(command);
     }
 
-    private void startCurrentPositionClock() {
-        if (mCurrentPositionClock != null && !mCurrentPositionClock.isUnsubscribed()) {
-            return;
+    /**
+     * Sends a command to the service in a batch with any other commands that are sent before the
+     * request queue gets to it
+     */
+    private void execute(PlayerCommand command) {
+        mCommandBatcher.enqueue(command);
+    }
+
+    private void sendCommands(List<PlayerCommand> commands) {
+        // executeCommands is synchronous, so the service has run every command by the time that
+        // it returns and the properties can be refreshed
+        try {
+            mBinding.executeCommands(commands);
+        } catch (RemoteException exception) {
+            Timber.e(exception, "Failed to send %d commands", commands.size());
         }
+        invalidateAfterCommand();
+    }
 
-        mCurrentPositionClock = Observable.interval(POSITION_TICK_MS, TimeUnit.MILLISECONDS)
-                .observeOn(Schedulers.computation())
-                .subscribe(tick -> {
-                    if (!mCurrentPosition.isSubscribedTo()) {
-                        stopCurrentPositionClock();
-                    } else {
-                        mCurrentPosition.invalidate();
-                    }
-                }, throwable -> {
-                    Timber.e(throwable, "Failed to perform position tick");
-                });
+    private void startCurrentPositionClock() {
+        runOnMainThread(() -> {
+            if (!mPositionClockRunning) {
+                mPositionClockRunning = true;
+                mMainHandler.post(mPositionTick);
+            }
+        });
     }
 
     private void stopCurrentPositionClock() {
-        if (mCurrentPositionClock != null) {
-            mCurrentPositionClock.unsubscribe();
-            mCurrentPositionClock = null;
+        runOnMainThread(() -> {
+            mPositionClockRunning = false;
+            mMainHandler.removeCallbacks(mPositionTick);
+        });
+    }
+
+    private void onPositionTick() {
+        if (!mPositionClockRunning || mPositionResolutions.isEmpty()) {
+            stopCurrentPositionClock();
+            return;
         }
+
+        int resolution = Collections.min(mPositionResolutions);
+        int delay;
+
+        if (mReceivingStateUpdates) {
+            int position = extrapolateCurrentPosition();
+            mCurrentPosition.setValue(position);
+
+            // Tick when the position reaches the next multiple of the resolution so that
+            // subscribers see it change on time
+            delay = resolution - (position % resolution);
+        } else {
+            mCurrentPosition.invalidate();
+            delay = resolution;
+        }
+
+        mMainHandler.postDelayed(mPositionTick, Math.max(delay, MIN_POSITION_TICK_MS));
+    }
+
+    private int extrapolateCurrentPosition() {
+        int duration = mDuration.hasValue() ? mDuration.lastValue() : 0;
+        return mSeekPositionClock.getPosition(SystemClock.elapsedRealtime(), duration);
     }
 
     private void releaseAllProperties() {
@@ -305,6 +398,81 @@ public class ServicePlayerController implements PlayerController {
         });
     }
 
+    /**
+     * Refreshes every property after a command has been sent to the service, unless the service
+     * will push the changes to {@link #mStateCallback} on its own
+     */
+    private void invalidateAfterCommand() {
+        if (!mReceivingStateUpdates) {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Applies a state change that was pushed from the service. Must be called on the main thread.
+     */
+    private void applyStateDelta(PlayerStateDelta delta) {
+        if (delta.getVersion() <= mStateVersion) {
+            // This delta was sent before one that has already been applied
+            return;
+        }
+
+        boolean complete = delta.getChanges() == PlayerStateDelta.ALL;
+        boolean missedUpdate = !complete && delta.getVersion() != mStateVersion + 1;
+        mStateVersion = delta.getVersion();
+
+        if (delta.hasChanged(PlayerStateDelta.PLAYING)) {
+            mPlaying.setValue(delta.isPlaying());
+        }
+        if (delta.hasChanged(PlayerStateDelta.NOW_PLAYING)) {
+            mNowPlaying.setValue(delta.getNowPlaying());
+        }
+        if (delta.hasChanged(PlayerStateDelta.QUEUE)) {
+            List<Song> queue = delta.getQueue();
+            if (queue == null && delta.getQueueEdit() != null && mQueue.hasValue()) {
+                queue = delta.getQueueEdit().applyTo(mQueue.lastValue());
+            }
+
+            if (queue == null) {
+                mQueue.invalidate();
+            } else if (!mQueue.hasValue() || queue != mQueue.lastValue()) {
+                // An edit that was already made locally returns the current queue
+                mQueue.setValue(queue);
+            }
+        }
+        if (delta.hasChanged(PlayerStateDelta.QUEUE_POSITION)) {
+            mQueuePosition.setValue(delta.getQueuePosition());
+        }
+        if (delta.hasChanged(PlayerStateDelta.SEEK_POSITION)) {
+            mSeekPositionClock.setAnchor(delta.getSeekPosition(), delta.getSeekAnchor(),
+                    delta.isSeekPositionAdvancing());
+            long now = SystemClock.elapsedRealtime();
+            mCurrentPosition.setValue((int) delta.getSeekPositionAt(now));
+        }
+        if (delta.hasChanged(PlayerStateDelta.DURATION)) {
+            mDuration.setValue(delta.getDuration());
+        }
+        if (delta.hasChanged(PlayerStateDelta.SHUFFLE_MODE)) {
+            mShuffleMode.setValue(delta.getShuffleMode());
+        }
+        if (delta.hasChanged(PlayerStateDelta.REPEAT_MODE)) {
+            mRepeatMode.setValue(delta.getRepeatMode());
+        }
+        if (delta.hasChanged(PlayerStateDelta.MULTI_REPEAT_COUNT)) {
+            mMultiRepeatCount.setValue(delta.getMultiRepeatCount());
+        }
+        if (delta.hasChanged(PlayerStateDelta.SLEEP_TIMER)) {
+            mSleepTimerEndTime.setValue(delta.getSleepTimerEndTime());
+        }
+
+        if (missedUpdate) {
+            Timber.i("Missed a player state update. Reloading all properties");
+            invalidateAll();
+        } else if (complete) {
+            fetchMediaSessionToken();
+        }
+    }
+
     private boolean getCurrentShuffleMode() {
         if (!mShuffleMode.hasValue()) {
             return mPreferenceStore.isShuffled();
@@ -360,7 +528,7 @@ public class ServicePlayerController implements PlayerController {
             } catch (RemoteException exception) {
                 Timber.e(exception, "Failed to restore player state");
             }
-            invalidateAll();
+            invalidateAfterCommand();
         });
     }
 
@@ -368,38 +536,17 @@ public class ServicePlayerController implements PlayerController {
     public void stop() {
         mPlaying.setValue(false);
 
-        execute(() -> {
-            try {
-                mBinding.stop();
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to stop service");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.stop());
     }
 
     @Override
     public void skip() {
-        execute(() -> {
-            try {
-                mBinding.skip();
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to skip current track");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.skip());
     }
 
     @Override
     public void previous() {
-        execute(() -> {
-            try {
-                mBinding.previous();
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to skip backward");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.previous());
     }
 
     @Override
@@ -408,42 +555,21 @@ public class ServicePlayerController implements PlayerController {
             mPlaying.setValue(!mPlaying.lastValue());
         }
 
-        execute(() -> {
-            try {
-                mBinding.togglePlay();
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to toggle playback");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.togglePlay());
     }
 
     @Override
     public void play() {
         mPlaying.setValue(true);
 
-        execute(() -> {
-            try {
-                mBinding.play();
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to resume playback");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.play());
     }
 
     @Override
     public void pause() {
         mPlaying.setValue(false);
 
-        execute(() -> {
-            try {
-                mBinding.pause();
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to pause playback");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.pause());
     }
 
     @Override
@@ -458,7 +584,7 @@ public class ServicePlayerController implements PlayerController {
             } catch (RemoteException exception) {
                 Timber.e(exception, "Failed to update remote player preferences");
             }
-            invalidateAll();
+            invalidateAfterCommand();
         });
     }
 
@@ -482,7 +608,8 @@ public class ServicePlayerController implements PlayerController {
 
         execute(() -> {
             try {
-                if (newQueue.size() > MAXIMUM_CHUNK_ENTRIES) {
+                if (newQueue.size() > MAXIMUM_CHUNK_ENTRIES && !sendSharedQueue(newQueue,
+                        queue -> mBinding.setSharedQueue(queue, newPosition, seed))) {
                     ListTransaction.<Song, RemoteException>send(newQueue).transmit(
                             token -> mBinding.beginLargeQueueTransaction(token),
                             (header, data) -> mBinding.sendQueueChunk(header, data),
@@ -493,14 +620,44 @@ public class ServicePlayerController implements PlayerController {
             } catch (RemoteException exception) {
                 Timber.e(exception, "Failed to set queue");
             }
-            invalidateAll();
+            invalidateAfterCommand();
         });
     }
 
+    /**
+     * Sends a large queue to the remote service in shared memory, if it's supported
+     * @param queue The queue to send
+     * @param call The remote method to pass the shared queue to
+     * @return Whether the queue was sent. If it wasn't, it needs to be sent with a
+     *         {@link ListTransaction} instead.
+     */
+    private boolean sendSharedQueue(List<Song> queue, SharedQueueCall call)
+            throws RemoteException {
+        if (!SharedMemoryList.isSupported()) {
+            return false;
+        }
+
+        SharedMemoryList sharedQueue;
+        try {
+            sharedQueue = SharedMemoryList.write(queue);
+        } catch (IOException exception) {
+            Timber.w(exception, "Failed to write shared queue. Falling back to chunks");
+            return false;
+        }
+
+        try {
+            call.send(sharedQueue);
+        } finally {
+            sharedQueue.close();
+        }
+        return true;
+    }
+
     /**
      * This method allow read queue from remote service by chunks, but if the queue size is less
      * than {@link #MAXIMUM_CHUNK_ENTRIES}, this method will return {@link IPlayerService#getQueue()}
-     * directly.
+     * directly. On devices that support shared memory, large queues are read in a single call
+     * with {@link IPlayerService#getSharedQueue()} instead.
      *
      * @return Now playing queue.
      */
@@ -508,20 +665,33 @@ public class ServicePlayerController implements PlayerController {
         int queueSize = mBinding.getQueueSize();
         if (queueSize <= MAXIMUM_CHUNK_ENTRIES) {
             return mBinding.getQueue();
-        } else {
-            List<Song> queue = new ArrayList<>();
-            try {
-                int offset;
-                for (offset = 0; offset + MAXIMUM_CHUNK_ENTRIES <= queueSize; offset += MAXIMUM_CHUNK_ENTRIES) {
-                    queue.addAll(mBinding.getQueueChunk(offset, MAXIMUM_CHUNK_ENTRIES));
+        }
+
+        if (SharedMemoryList.isSupported()) {
+            SharedMemoryList sharedQueue = mBinding.getSharedQueue();
+            if (sharedQueue != null) {
+                try {
+                    return sharedQueue.read(Song.CREATOR);
+                } catch (IOException exception) {
+                    Timber.w(exception, "Failed to read shared queue. Falling back to chunks");
+                } finally {
+                    sharedQueue.close();
                 }
-                if (offset < queueSize) queue.addAll(mBinding.getQueueChunk(offset, queueSize - offset));
-            } catch (IllegalArgumentException ex) {
-                // maybe queue is modified --> just return what was read
-                Timber.d(ex, "Can't get queue chunk, return current queue with size: %d", queue.size());
             }
-            return queue;
         }
+
+        List<Song> queue = new ArrayList<>();
+        try {
+            int offset;
+            for (offset = 0; offset + MAXIMUM_CHUNK_ENTRIES <= queueSize; offset += MAXIMUM_CHUNK_ENTRIES) {
+                queue.addAll(mBinding.getQueueChunk(offset, MAXIMUM_CHUNK_ENTRIES));
+            }
+            if (offset < queueSize) queue.addAll(mBinding.getQueueChunk(offset, queueSize - offset));
+        } catch (IllegalArgumentException ex) {
+            // maybe queue is modified --> just return what was read
+            Timber.d(ex, "Can't get queue chunk, return current queue with size: %d", queue.size());
+        }
+        return queue;
     }
 
     @Override
@@ -531,21 +701,15 @@ public class ServicePlayerController implements PlayerController {
 
     @Override
     public void changeSong(int newPosition) {
-        execute(() -> {
-            try {
-                mBinding.changeSong(newPosition);
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to change song");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.changeSong(newPosition));
     }
 
     @Override
     public void editQueue(List<Song> queue, int newPosition) {
         execute(() -> {
             try {
-                if (queue.size() > MAXIMUM_CHUNK_ENTRIES) {
+                if (queue.size() > MAXIMUM_CHUNK_ENTRIES && !sendSharedQueue(queue,
+                        sharedQueue -> mBinding.editSharedQueue(sharedQueue, newPosition))) {
                     ListTransaction.<Song, RemoteException>send(queue).transmit(
                             token -> mBinding.beginLargeQueueTransaction(token),
                             (header, data) -> mBinding.sendQueueChunk(header, data),
@@ -556,70 +720,38 @@ public class ServicePlayerController implements PlayerController {
             } catch (RemoteException exception) {
                 Timber.e(exception, "Failed to edit queue");
             }
-            invalidateAll();
+            invalidateAfterCommand();
         });
     }
 
     @Override
     public void queueNext(Song song) {
-        execute(() -> {
-            try {
-                mBinding.queueNext(song);
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to queue next song");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.queueNext(Collections.singletonList(song)));
     }
 
     @Override
     public void queueNext(List<Song> songs) {
-        execute(() -> {
-            try {
-                mBinding.queueNextList(songs);
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to queue next songs");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.queueNext(songs));
     }
 
     @Override
     public void queueLast(Song song) {
-        execute(() -> {
-            try {
-                mBinding.queueLast(song);
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to queue last song");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.queueLast(Collections.singletonList(song)));
     }
 
     @Override
     public void queueLast(List<Song> songs) {
-        execute(() -> {
-            try {
-                mBinding.queueLastList(songs);
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to queue last songs");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.queueLast(songs));
     }
 
     @Override
     public void seek(int position) {
+        // The anchor has to move first so that subscribers see the new position
+        mSeekPositionClock.setAnchor(position, SystemClock.elapsedRealtime(),
+                mSeekPositionClock.isAdvancing());
         mCurrentPosition.setValue(position);
 
-        execute(() -> {
-            try {
-                mBinding.seekTo(position);
-            } catch (RemoteException exception) {
-                Timber.e(exception, "Failed to seek");
-            }
-            invalidateAll();
-        });
+        execute(PlayerCommand.seek(position));
     }
 
     @Override
@@ -645,8 +777,31 @@ public class ServicePlayerController implements PlayerController {
 
     @Override
     public Observable<Integer> getCurrentPosition() {
-        startCurrentPositionClock();
-        return mCurrentPosition.getObservable();
+        return getCurrentPosition(POSITION_TICK_MS);
+    }
+
+    @Override
+    public Observable<Integer> getCurrentPosition(int resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive");
+        }
+
+        return mCurrentPosition.getObservable()
+                // A seek moves the clock's anchor, so it's emitted even if it lands in the same
+                // multiple of the resolution as the previous position
+                .distinctUntilChanged(position -> mSeekPositionClock.getKey(position, resolution))
+                .doOnSubscribe(() -> runOnMainThread(() -> {
+                    mPositionResolutions.add(resolution);
+                    if (mPlaying.hasValue() && mPlaying.lastValue()) {
+                        // Tick right away in case this subscriber needs a finer resolution
+                        mMainHandler.removeCallbacks(mPositionTick);
+                        mPositionClockRunning = true;
+                        mMainHandler.post(mPositionTick);
+                    }
+                }))
+                .doOnUnsubscribe(() -> runOnMainThread(() -> {
+                    mPositionResolutions.remove(Integer.valueOf(resolution));
+                }));
     }
 
     @Override
@@ -740,6 +895,10 @@ public class ServicePlayerController implements PlayerController {
 
     // endregion Binder delegates
 
+    private interface SharedQueueCall {
+        void send(SharedMemoryList queue) throws RemoteException;
+    }
+
     private class PlayerServiceConnection implements ServiceConnection {
 
         @Override
@@ -748,6 +907,7 @@ public class ServicePlayerController implements PlayerController {
             mBinding = IPlayerService.Stub.asInterface(service);
             initAllProperties();
             bindRequestQueue();
+            registerStateCallback();
         }
 
         @Override
@@ -757,6 +917,17 @@ public class ServicePlayerController implements PlayerController {
         }
     }
 
+    /**
+     * Receives changes to the player state that are pushed from the remote service
+     */
+    private class PlayerCallback extends IPlayerCallback.Stub {
+
+        @Override
+        public void onStateChanged(PlayerStateDelta delta) {
+            runOnMainThread(() -> applyStateDelta(delta));
+        }
+    }
+
     private class ServiceBinding implements Binding {
         private final UUID uid = UUID.randomUUID();
 
@@ -801,7 +972,11 @@ public class ServicePlayerController implements PlayerController {
                 ServicePlayerController playerController = (ServicePlayerController) mController;
 
                 if (intent.getAction().equals(MusicPlayer.UPDATE_BROADCAST)) {
-                    playerController.invalidateAll();
+                    // Changes are pushed directly to the controller once its callback is
+                    // registered, so this broadcast is only needed until then
+                    if (!playerController.mReceivingStateUpdates) {
+                        playerController.invalidateAll();
+                    }
                 } else if (intent.getAction().equals(MusicPlayer.INFO_BROADCAST)) {
                     String error = intent.getExtras().getString(MusicPlayer.INFO_EXTRA_MESSAGE);
                     playerController.mInfoStream.onNext(error);
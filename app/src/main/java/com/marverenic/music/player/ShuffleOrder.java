@@ -0,0 +1,309 @@
+package com.marverenic.music.player;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The shuffled order of a {@link PlayerQueue}. Each entry is an index into the queue's original
+ * order.
+ *
+ * The order is generated lazily with a Fisher-Yates shuffle. Songs that haven't been given a
+ * position yet are kept in a pool, and a song is drawn from the pool at random whenever the next
+ * position in the order is needed. Creating a ShuffleOrder is O(1) regardless of the length of
+ * the queue, and reading the first few positions only draws that many songs. The pool starts out
+ * as an implicit list of every index, and only the entries that have been moved by a draw are
+ * stored until enough draws have been made that a plain array is cheaper.
+ *
+ * The random numbers are generated from the seed in the same way as {@link java.util.Random},
+ * but the generator's state is kept in this class so that it can be copied. An order that hasn't
+ * been edited only depends on its size, starting index and seed, no matter how it's read.
+ *
+ * ShuffleOrders behave as if they're immutable. Drawing songs from the pool changes how much of
+ * the order has been generated, but never what the order is. Edits return a new ShuffleOrder.
+ */
+final class ShuffleOrder {
+
+    /**
+     * The number of moved pool entries to keep in a map before switching to an array
+     */
+    private static final int SPARSE_POOL_LIMIT = 256;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    /**
+     * The positions of the order that have been generated. Only the first {@link #mOrderSize}
+     * entries are used.
+     */
+    private int[] mOrder;
+    private int mOrderSize;
+
+    /**
+     * The number of indices in the pool that haven't been given a position in the order
+     */
+    private int mPoolSize;
+    /**
+     * The entries of the pool that don't hold their own position. Every other entry {@code i}
+     * holds the index {@code i}. This is {@code null} once the pool has been moved to
+     * {@link #mDensePool}.
+     */
+    private Map<Integer, Integer> mSparsePool;
+    private int[] mDensePool;
+
+    private long mRandomState;
+
+    private ShuffleOrder(int[] order, int orderSize, int poolSize,
+                         Map<Integer, Integer> sparsePool, int[] densePool, long randomState) {
+        mOrder = order;
+        mOrderSize = orderSize;
+        mPoolSize = poolSize;
+        mSparsePool = sparsePool;
+        mDensePool = densePool;
+        mRandomState = randomState;
+    }
+
+    /**
+     * @param size The number of songs in the queue
+     * @param startingIndex The index of the song that will be first in the shuffled order
+     * @param seed The seed to generate the order from
+     * @return A new shuffled order, which is generated as it is read
+     */
+    static ShuffleOrder create(int size, int startingIndex, long seed) {
+        long randomState = scramble(seed);
+        if (size == 0) {
+            return new ShuffleOrder(new int[0], 0, 0, new HashMap<>(), null, randomState);
+        }
+
+        if (startingIndex < 0 || startingIndex >= size) {
+            throw new IndexOutOfBoundsException("Index " + startingIndex + ", size " + size);
+        }
+
+        // Take the starting index out of the pool by moving the last entry into its place
+        Map<Integer, Integer> pool = new HashMap<>();
+        if (startingIndex != size - 1) {
+            pool.put(startingIndex, size - 1);
+        }
+
+        int[] order = new int[Math.min(size, 16)];
+        order[0] = startingIndex;
+        return new ShuffleOrder(order, 1, size - 1, pool, null, randomState);
+    }
+
+    /**
+     * @param order Every position of the order
+     * @param seed The seed to generate the positions of songs that are appended to the order
+     * @return A shuffled order with the given positions
+     */
+    static ShuffleOrder of(int[] order, long seed) {
+        return new ShuffleOrder(order, order.length, 0, new HashMap<>(), null, scramble(seed));
+    }
+
+    /**
+     * Equivalent to {@link java.util.Random#setSeed(long)}
+     */
+    private static long scramble(long seed) {
+        return (seed ^ MULTIPLIER) & MASK;
+    }
+
+    /**
+     * @param order Every position of the new order
+     * @return A shuffled order with the given positions that keeps drawing random numbers where
+     *         this order left off, so that edits don't reset where appended songs are placed
+     */
+    synchronized ShuffleOrder reorder(int[] order) {
+        return new ShuffleOrder(order, order.length, 0, new HashMap<>(), null, mRandomState);
+    }
+
+    synchronized int size() {
+        return mOrderSize + mPoolSize;
+    }
+
+    /**
+     * @param position A position in the shuffled order
+     * @return The index in the original order of the song at this position
+     */
+    synchronized int get(int position) {
+        if (position < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size());
+        }
+
+        generateThrough(position);
+        return mOrder[position];
+    }
+
+    /**
+     * @return The number of positions that have been generated so far
+     */
+    synchronized int getGeneratedSize() {
+        return mOrderSize;
+    }
+
+    /**
+     * Inserts new indices into the order at a specific position
+     * @param position The position to insert at
+     * @param firstIndex The first index to insert
+     * @param count The number of consecutive indices to insert, starting at {@code firstIndex}
+     * @return A copy of this order with the inserted indices
+     */
+    synchronized ShuffleOrder insert(int position, int firstIndex, int count) {
+        if (position < 0 || position > size()) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size());
+        }
+
+        generateThrough(position - 1);
+        ShuffleOrder copy = copy(count);
+        copy.insertIntoOrder(position, firstIndex, count);
+        return copy;
+    }
+
+    /**
+     * Adds new indices at random positions after the current position. The positions up to and
+     * including the current position are kept as they are.
+     * @param currentPosition The position of the song that is currently playing
+     * @param firstIndex The first index to add
+     * @param count The number of consecutive indices to add, starting at {@code firstIndex}
+     * @return A copy of this order with the added indices
+     */
+    synchronized ShuffleOrder append(int currentPosition, int firstIndex, int count) {
+        generateThrough(Math.min(currentPosition, size() - 1));
+        ShuffleOrder copy = copy(count);
+
+        for (int i = 0; i < count; i++) {
+            int size = copy.size();
+            int first = Math.min(Math.max(currentPosition + 1, 0), size);
+            int position = first + copy.nextInt(size - first + 1);
+
+            if (position < copy.mOrderSize) {
+                copy.insertIntoOrder(position, firstIndex + i, 1);
+            } else {
+                // The rest of the order hasn't been generated yet, so any position after the
+                // generated part is equally likely once the index is added to the pool
+                copy.setPoolEntry(copy.mPoolSize, firstIndex + i);
+                copy.mPoolSize++;
+            }
+        }
+
+        return copy;
+    }
+
+    private void generateThrough(int position) {
+        if (position < mOrderSize) {
+            return;
+        }
+
+        if (mOrder.length <= position) {
+            mOrder = Arrays.copyOf(mOrder, Math.max(position + 1,
+                    Math.min(size(), mOrder.length * 2)));
+        }
+
+        while (mOrderSize <= position) {
+            // Draw a random entry from the pool, and move the last entry into its place
+            int drawn = nextInt(mPoolSize);
+            int last = mPoolSize - 1;
+
+            mOrder[mOrderSize++] = getPoolEntry(drawn);
+            setPoolEntry(drawn, getPoolEntry(last));
+            clearPoolEntry(last);
+            mPoolSize--;
+        }
+    }
+
+    private void insertIntoOrder(int position, int firstIndex, int count) {
+        if (mOrder.length < mOrderSize + count) {
+            mOrder = Arrays.copyOf(mOrder, Math.max(mOrderSize + count, mOrder.length * 2));
+        }
+
+        System.arraycopy(mOrder, position, mOrder, position + count, mOrderSize - position);
+        for (int i = 0; i < count; i++) {
+            mOrder[position + i] = firstIndex + i;
+        }
+        mOrderSize += count;
+    }
+
+    private int getPoolEntry(int entry) {
+        if (mDensePool != null) {
+            return mDensePool[entry];
+        }
+
+        Integer index = mSparsePool.get(entry);
+        return (index == null) ? entry : index;
+    }
+
+    private void setPoolEntry(int entry, int index) {
+        if (mDensePool == null && entry != index && mSparsePool.size() >= SPARSE_POOL_LIMIT) {
+            makePoolDense();
+        }
+
+        if (mDensePool != null) {
+            if (entry >= mDensePool.length) {
+                mDensePool = Arrays.copyOf(mDensePool, Math.max(entry + 1, mDensePool.length * 2));
+            }
+            mDensePool[entry] = index;
+        } else if (entry == index) {
+            mSparsePool.remove(entry);
+        } else {
+            mSparsePool.put(entry, index);
+        }
+    }
+
+    private void clearPoolEntry(int entry) {
+        if (mSparsePool != null) {
+            mSparsePool.remove(entry);
+        }
+    }
+
+    private void makePoolDense() {
+        int[] pool = new int[mPoolSize + 1];
+        for (int i = 0; i < mPoolSize; i++) {
+            pool[i] = getPoolEntry(i);
+        }
+
+        mDensePool = pool;
+        mSparsePool = null;
+    }
+
+    /**
+     * @param extraCapacity The number of positions that are about to be added to the copy
+     * @return A copy of this order that can be edited without affecting this order
+     */
+    private ShuffleOrder copy(int extraCapacity) {
+        int[] order = Arrays.copyOf(mOrder, Math.max(mOrder.length, mOrderSize + extraCapacity));
+        Map<Integer, Integer> sparsePool = null;
+        if (mSparsePool != null) {
+            sparsePool = new HashMap<>(mSparsePool);
+        }
+
+        int[] densePool = null;
+        if (mDensePool != null) {
+            densePool = Arrays.copyOf(mDensePool, Math.max(mDensePool.length,
+                    mPoolSize + extraCapacity));
+        }
+
+        return new ShuffleOrder(order, mOrderSize, mPoolSize, sparsePool, densePool,
+                mRandomState);
+    }
+
+    /**
+     * Equivalent to {@link java.util.Random#nextInt(int)}
+     */
+    private int nextInt(int bound) {
+        if ((bound & -bound) == bound) {
+            return (int) ((bound * (long) next(31)) >> 31);
+        }
+
+        int bits;
+        int value;
+        do {
+            bits = next(31);
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    private int next(int bits) {
+        mRandomState = (mRandomState * MULTIPLIER + ADDEND) & MASK;
+        return (int) (mRandomState >>> (48 - bits));
+    }
+}
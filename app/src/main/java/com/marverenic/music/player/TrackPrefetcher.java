@@ -0,0 +1,176 @@
+package com.marverenic.music.player;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Reads the start of the next song in the queue into memory while the current song is playing.
+ *
+ * On slow storage, opening a file and sniffing its container can take long enough to leave an
+ * audible gap between songs. Reading the song's headers and first few seconds ahead of time means
+ * that ExoPlayer's extractor can start on data that's already in memory. Only one song is
+ * prefetched at a time, and the prefetched data is capped at a fixed number of bytes, so the
+ * memory used by this class is bounded.
+ *
+ * Prefetched data is read back through a {@link PrefetchingDataSource}.
+ */
+final class TrackPrefetcher {
+
+    private final DataSource.Factory mUpstreamFactory;
+    private final long mPrefetchDurationMs;
+    private final int mMaxPrefetchBytes;
+    private final Scheduler mScheduler;
+
+    @Nullable
+    private volatile Prefetch mPrefetch;
+    @Nullable
+    private Subscription mPrefetchSubscription;
+    /**
+     * The song that was last requested, whether or not it has finished reading
+     */
+    @Nullable
+    private Uri mPrefetchUri;
+
+    /**
+     * @param upstreamFactory The factory to create data sources that read songs from storage
+     * @param prefetchDurationMs The length of audio to prefetch from the start of each song
+     * @param maxPrefetchBytes The maximum number of bytes to prefetch from a single song
+     */
+    TrackPrefetcher(DataSource.Factory upstreamFactory, long prefetchDurationMs,
+                    int maxPrefetchBytes) {
+        this(upstreamFactory, prefetchDurationMs, maxPrefetchBytes, Schedulers.io());
+    }
+
+    /**
+     * @param scheduler The scheduler to read songs on
+     * @see #TrackPrefetcher(DataSource.Factory, long, int)
+     */
+    TrackPrefetcher(DataSource.Factory upstreamFactory, long prefetchDurationMs,
+                    int maxPrefetchBytes, Scheduler scheduler) {
+        mUpstreamFactory = upstreamFactory;
+        mPrefetchDurationMs = prefetchDurationMs;
+        mMaxPrefetchBytes = maxPrefetchBytes;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Starts reading the beginning of a song in the background. Any song that was previously
+     * prefetched is discarded. Nothing happens if the same song is being read or has already
+     * been read, including when the previous read failed.
+     * @param uri The location of the song to prefetch
+     * @param durationMs The length of the song, which is used to estimate how many bytes hold
+     *                   the first {@code prefetchDurationMs} of audio. Use {@code 0} if the
+     *                   length is unknown.
+     */
+    void prefetch(Uri uri, long durationMs) {
+        if (uri.equals(mPrefetchUri)) {
+            return;
+        }
+
+        cancel();
+        mPrefetchUri = uri;
+        mPrefetchSubscription = Observable.fromCallable(() -> read(uri, durationMs))
+                .subscribeOn(mScheduler)
+                .subscribe(prefetch -> {
+                    mPrefetch = prefetch;
+                    Timber.i("Prefetched %d bytes of %s", prefetch.mLength, uri);
+                }, throwable -> {
+                    Timber.w(throwable, "Failed to prefetch %s", uri);
+                });
+    }
+
+    /**
+     * Stops any prefetch that is in progress and discards the prefetched data
+     */
+    void cancel() {
+        if (mPrefetchSubscription != null) {
+            mPrefetchSubscription.unsubscribe();
+            mPrefetchSubscription = null;
+        }
+        mPrefetchUri = null;
+        mPrefetch = null;
+    }
+
+    /**
+     * @param uri The location of a song
+     * @return The prefetched data for this song, or {@code null} if it hasn't been prefetched
+     */
+    @Nullable
+    Prefetch get(Uri uri) {
+        Prefetch prefetch = mPrefetch;
+        return (prefetch != null && prefetch.mUri.equals(uri)) ? prefetch : null;
+    }
+
+    private Prefetch read(Uri uri, long durationMs) throws IOException {
+        DataSource dataSource = mUpstreamFactory.createDataSource();
+        try {
+            long contentLength = dataSource.open(new DataSpec(uri));
+
+            int limit = mMaxPrefetchBytes;
+            if (contentLength != C.LENGTH_UNSET && durationMs > 0) {
+                long estimate = contentLength * mPrefetchDurationMs / durationMs;
+                limit = (int) Math.min(limit, Math.max(estimate, 0));
+            }
+
+            byte[] data = new byte[limit];
+            int length = 0;
+            boolean complete = false;
+            while (length < limit) {
+                int read = dataSource.read(data, length, limit - length);
+                if (read == C.RESULT_END_OF_INPUT) {
+                    complete = true;
+                    break;
+                }
+                length += read;
+            }
+
+            if (length < data.length) {
+                data = Arrays.copyOf(data, length);
+            }
+            return new Prefetch(uri, data, contentLength, complete);
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * The first bytes of a song
+     */
+    static final class Prefetch {
+
+        final Uri mUri;
+        final byte[] mData;
+        final int mLength;
+
+        /**
+         * The length of the entire song in bytes, or {@link C#LENGTH_UNSET} if it isn't known
+         */
+        final long mContentLength;
+
+        /**
+         * Whether {@link #mData} holds the entire song
+         */
+        final boolean mComplete;
+
+        Prefetch(Uri uri, byte[] data, long contentLength, boolean complete) {
+            mUri = uri;
+            mData = data;
+            mLength = data.length;
+            mContentLength = contentLength;
+            mComplete = complete;
+        }
+    }
+}
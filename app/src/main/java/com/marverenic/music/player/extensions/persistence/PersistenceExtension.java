@@ -1,7 +1,6 @@
 package com.marverenic.music.player.extensions.persistence;
 
 import android.content.Context;
-import android.net.Uri;
 
 import com.marverenic.music.data.store.ReadOnlyPreferenceStore;
 import com.marverenic.music.model.Song;
@@ -10,14 +9,13 @@ import com.marverenic.music.player.PlayerState;
 import com.marverenic.music.player.extensions.MusicPlayerExtension;
 import com.marverenic.music.player.persistence.PlaybackPersistenceManager;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import rx.Observable;
+import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
-import static com.marverenic.music.data.store.MediaStoreUtil.buildSongListFromUris;
-
 public class PersistenceExtension extends MusicPlayerExtension {
 
     private PlaybackPersistenceManager mPlaybackPersistenceManager;
@@ -30,9 +28,10 @@ public class PersistenceExtension extends MusicPlayerExtension {
 
     @Override
     public void onCreateMusicPlayer(MusicPlayer musicPlayer, ReadOnlyPreferenceStore preferences) {
-        PlaybackPersistenceManager.State state = mPlaybackPersistenceManager.getStateBlocking();
-        List<Song> queue = buildSongListFromUris(state.getQueue(), mContext);
-        List<Song> shuffledQueue = buildSongListFromUris(state.getShuffledQueue(), mContext);
+        PlaybackPersistenceManager.State state =
+                mPlaybackPersistenceManager.getStateBlocking(mContext);
+        List<Song> queue = state.getQueue();
+        List<Song> shuffledQueue = state.getShuffledQueue();
 
         int queuePosition;
         if (musicPlayer.isShuffled()) {
@@ -60,6 +59,21 @@ public class PersistenceExtension extends MusicPlayerExtension {
             Timber.e(e, "Failed to restore queue. The player will be reset.");
             musicPlayer.setQueue(Collections.emptyList(), 0, 0);
         }
+
+        validateSongMetadata();
+    }
+
+    /**
+     * Songs are restored from the metadata that was saved with the queue, which may be out of
+     * date if the library has changed since then. This updates the saved metadata in the
+     * background so that it's correct the next time the queue is restored.
+     */
+    private void validateSongMetadata() {
+        Observable.fromCallable(() -> mPlaybackPersistenceManager.validateSongMetadata(mContext))
+                .subscribeOn(Schedulers.io())
+                .subscribe(
+                        updated -> Timber.i("Updated metadata of %d queue items", updated),
+                        throwable -> Timber.e(throwable, "Failed to validate queue metadata"));
     }
 
     @Override
@@ -92,21 +106,13 @@ public class PersistenceExtension extends MusicPlayerExtension {
         return new PlaybackPersistenceManager.State(
                 state.getSeekPosition(),
                 state.getQueuePosition(),
-                convertSongsToUris(state.getQueue()),
-                convertSongsToUris(state.getShuffledQueue())
+                nonNull(state.getQueue()),
+                nonNull(state.getShuffledQueue())
         );
     }
 
-    private List<Uri> convertSongsToUris(List<Song> songs) {
-        if (songs == null) {
-            return Collections.emptyList();
-        }
-
-        List<Uri> uris = new ArrayList<>(songs.size());
-        for (Song song : songs) {
-            uris.add(song.getLocation());
-        }
-        return uris;
+    private List<Song> nonNull(List<Song> songs) {
+        return (songs == null) ? Collections.emptyList() : songs;
     }
 
 }
@@ -1,12 +1,22 @@
 package com.marverenic.music.player.persistence;
 
+import android.text.TextUtils;
+
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Ignore;
 import androidx.annotation.NonNull;
 
+import com.marverenic.music.model.Song;
+
+/**
+ * A song in a persisted queue. Along with its location, each item keeps a copy of the song's
+ * metadata so that the queue can be restored without querying the MediaStore. Items that were
+ * saved before this metadata was stored have a {@code null} {@link #songName}.
+ */
 @Entity(
         tableName = "queue_items",
-        primaryKeys = { "list_name", "idx" }
+        primaryKeys = { "list_name", "sort_key" }
 )
 public class PlaybackItem {
 
@@ -14,16 +24,115 @@ public class PlaybackItem {
     @ColumnInfo(name = "list_name")
     public String listName;
 
-    @ColumnInfo(name = "idx")
-    public int index;
+    /**
+     * The position of this item in its list, relative to the other items' keys. Keys are spaced
+     * apart so that items can be inserted between them without changing the keys of other items.
+     */
+    @ColumnInfo(name = "sort_key")
+    public long sortKey;
 
     @NonNull
     @ColumnInfo(name = "uri")
     public String songUri;
 
-    PlaybackItem(@NonNull String listName, int index, @NonNull String songUri) {
+    @ColumnInfo(name = "song_id")
+    public long songId;
+
+    @ColumnInfo(name = "name")
+    public String songName;
+
+    @ColumnInfo(name = "artist_name")
+    public String artistName;
+
+    @ColumnInfo(name = "album_name")
+    public String albumName;
+
+    @ColumnInfo(name = "duration")
+    public long songDuration;
+
+    @ColumnInfo(name = "year")
+    public int year;
+
+    @ColumnInfo(name = "date_added")
+    public long dateAdded;
+
+    @ColumnInfo(name = "album_id")
+    public long albumId;
+
+    @ColumnInfo(name = "artist_id")
+    public long artistId;
+
+    @ColumnInfo(name = "track")
+    public int trackNumber;
+
+    @ColumnInfo(name = "in_library")
+    public boolean inLibrary;
+
+    @ColumnInfo(name = "sortable_name")
+    public String sortableName;
+
+    @ColumnInfo(name = "sortable_artist_name")
+    public String sortableArtistName;
+
+    @ColumnInfo(name = "sortable_album_name")
+    public String sortableAlbumName;
+
+    PlaybackItem(@NonNull String listName, long sortKey, @NonNull String songUri) {
         this.listName = listName;
-        this.index = index;
+        this.sortKey = sortKey;
         this.songUri = songUri;
     }
+
+    @Ignore
+    PlaybackItem(@NonNull String listName, long sortKey, @NonNull Song song) {
+        this(listName, sortKey, song.getLocation().toString());
+        setSong(song);
+    }
+
+    void setSong(Song song) {
+        songId = song.getSongId();
+        songName = song.getSongName();
+        artistName = song.getArtistName();
+        albumName = song.getAlbumName();
+        songDuration = song.getSongDuration();
+        year = song.getYear();
+        dateAdded = song.getDateAdded();
+        albumId = song.getAlbumId();
+        artistId = song.getArtistId();
+        trackNumber = song.getTrackNumber();
+        inLibrary = song.isInLibrary();
+        sortableName = song.getSortableName();
+        sortableArtistName = song.getSortableArtistName();
+        sortableAlbumName = song.getSortableAlbumName();
+    }
+
+    /**
+     * @return Whether the metadata saved with this item is the same as the metadata of
+     *         {@code song}
+     */
+    boolean hasSameSong(Song song) {
+        return hasSongMetadata()
+                && songId == song.getSongId()
+                && songName.equals(song.getSongName())
+                && TextUtils.equals(artistName, song.getArtistName())
+                && TextUtils.equals(albumName, song.getAlbumName())
+                && songDuration == song.getSongDuration()
+                && year == song.getYear()
+                && dateAdded == song.getDateAdded()
+                && albumId == song.getAlbumId()
+                && artistId == song.getArtistId()
+                && trackNumber == song.getTrackNumber()
+                && inLibrary == song.isInLibrary()
+                && TextUtils.equals(sortableName, song.getSortableName())
+                && TextUtils.equals(sortableArtistName, song.getSortableArtistName())
+                && TextUtils.equals(sortableAlbumName, song.getSortableAlbumName());
+    }
+
+    /**
+     * @return Whether this item has enough information to be converted into a {@link Song} with
+     *         {@link Song#fromPlaybackItem(PlaybackItem)}
+     */
+    public boolean hasSongMetadata() {
+        return songName != null;
+    }
 }
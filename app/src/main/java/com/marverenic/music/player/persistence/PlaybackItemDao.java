@@ -1,9 +1,11 @@
 package com.marverenic.music.player.persistence;
 
 import androidx.room.Dao;
+import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Update;
 
 import java.util.List;
 
@@ -16,10 +18,11 @@ public interface PlaybackItemDao {
     @Query("SELECT COUNT(*) FROM playback_metadata")
     int getMetadataItemCount();
 
-    @Query("SELECT * FROM queue_items where list_name IS :listName ORDER BY idx ASC")
+    @Query("SELECT * FROM queue_items where list_name IS :listName ORDER BY sort_key ASC")
     List<PlaybackItem> getPlaybackItems(String listName);
 
-    @Query("SELECT * FROM queue_items where list_name is :listName AND idx is :index LIMIT 1")
+    @Query("SELECT * FROM queue_items where list_name is :listName ORDER BY sort_key ASC "
+            + "LIMIT 1 OFFSET :index")
     PlaybackItem getPlaybackItemAtIndex(String listName, int index);
 
     @Query("DELETE FROM queue_items where list_name IS :listName")
@@ -28,6 +31,12 @@ public interface PlaybackItemDao {
     @Insert
     void setPlaybackItems(List<PlaybackItem> playbackItems);
 
+    @Delete
+    void deletePlaybackItems(List<PlaybackItem> playbackItems);
+
+    @Update
+    void updatePlaybackItems(List<PlaybackItem> playbackItems);
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void putMetadataItem(PlaybackMetadataItem item);
 
@@ -9,7 +9,11 @@ import com.marverenic.music.model.Song;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
@@ -25,6 +29,15 @@ public class PlaybackPersistenceManager {
 
     private PlaybackStateDatabase mDatabase;
 
+    /**
+     * Copies of the lists in the database, which are diffed against when the state changes.
+     * These are loaded lazily, and are {@code null} until they are first read or written.
+     */
+    @Nullable
+    private StoredList mStoredQueue;
+    @Nullable
+    private StoredList mStoredShuffledQueue;
+
     public PlaybackPersistenceManager(PlaybackStateDatabase database) {
         mDatabase = database;
     }
@@ -34,19 +47,72 @@ public class PlaybackPersistenceManager {
         return dao.getMetadataItemCount() > 0 && dao.getPlaybackItemCount() > 0;
     }
 
-    public void setState(State state) {
-        mDatabase.runInTransaction(() -> {
-            PlaybackItemDao dao = mDatabase.getPlaybackItemDao();
+    /**
+     * Saves a new playback state. Only the rows of queue items that were added, removed or moved
+     * since the last call are written, so small edits to a long queue stay cheap.
+     * @see QueueDiff
+     */
+    public synchronized void setState(State state) {
+        List<Song> queue = state.getQueue();
+        List<Song> shuffledQueue = state.getShuffledQueue();
+
+        try {
+            mDatabase.runInTransaction(() -> {
+                PlaybackItemDao dao = mDatabase.getPlaybackItemDao();
+
+                mStoredQueue = updatePlaybackItems(dao, QUEUE, mStoredQueue, queue);
+                mStoredShuffledQueue = updatePlaybackItems(dao, SHUFFLED_QUEUE,
+                        mStoredShuffledQueue, shuffledQueue);
+
+                dao.putMetadataItem(
+                        new PlaybackMetadataItem(SEEK_POSITION, state.getSeekPosition()));
+                dao.putMetadataItem(
+                        new PlaybackMetadataItem(QUEUE_INDEX, state.getQueuePosition()));
+            });
+        } catch (RuntimeException e) {
+            // The transaction was rolled back, so the cached lists may not match the database
+            mStoredQueue = null;
+            mStoredShuffledQueue = null;
+            throw e;
+        }
+    }
 
-            dao.clearPlaybackItems(QUEUE);
-            dao.clearPlaybackItems(SHUFFLED_QUEUE);
+    private StoredList updatePlaybackItems(PlaybackItemDao dao, String listName,
+                                           @Nullable StoredList stored, List<Song> songs) {
+        if (stored == null) {
+            stored = new StoredList(dao.getPlaybackItems(listName));
+        }
 
-            dao.setPlaybackItems(convertUrisToDbRow(QUEUE, state.getQueue()));
-            dao.setPlaybackItems(convertUrisToDbRow(SHUFFLED_QUEUE, state.getShuffledQueue()));
+        List<String> uris = convertSongsToStrings(songs);
+        QueueDiff diff = QueueDiff.compute(stored.mKeys, stored.mUris, uris);
+        if (diff == null) {
+            // There's no room left between some of the keys, so respace the entire list
+            long[] keys = QueueDiff.spacedKeys(songs.size());
+            dao.clearPlaybackItems(listName);
+            dao.setPlaybackItems(convertSongsToDbRow(listName, songs, keys));
+            return new StoredList(uris, keys);
+        }
 
-            dao.putMetadataItem(new PlaybackMetadataItem(SEEK_POSITION, state.getSeekPosition()));
-            dao.putMetadataItem(new PlaybackMetadataItem(QUEUE_INDEX, state.getQueuePosition()));
-        });
+        int[] removedIndices = diff.getRemovedIndices();
+        if (removedIndices.length > 0) {
+            List<PlaybackItem> removed = new ArrayList<>(removedIndices.length);
+            for (int index : removedIndices) {
+                removed.add(new PlaybackItem(listName, stored.mKeys[index],
+                        stored.mUris.get(index)));
+            }
+            dao.deletePlaybackItems(removed);
+        }
+
+        int[] insertedIndices = diff.getInsertedIndices();
+        if (insertedIndices.length > 0) {
+            List<PlaybackItem> inserted = new ArrayList<>(insertedIndices.length);
+            for (int index : insertedIndices) {
+                inserted.add(new PlaybackItem(listName, diff.getKeys()[index], songs.get(index)));
+            }
+            dao.setPlaybackItems(inserted);
+        }
+
+        return new StoredList(uris, diff.getKeys());
     }
 
     public void setPosition(int seekPosition, int queueIndex) {
@@ -57,8 +123,8 @@ public class PlaybackPersistenceManager {
         });
     }
 
-    public Observable<State> getState() {
-        return Observable.fromCallable(this::getStateBlocking)
+    public Observable<State> getState(Context context) {
+        return Observable.fromCallable(() -> getStateBlocking(context))
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread());
     }
@@ -70,7 +136,7 @@ public class PlaybackPersistenceManager {
 
         PlaybackItemDao dao = mDatabase.getPlaybackItemDao();
         List<PlaybackItem> items = dao.getPlaybackItems(shuffle ? SHUFFLED_QUEUE : QUEUE);
-        return MediaStoreUtil.buildSongListFromUris(convertDbRowsToUri(items), context);
+        return convertDbRowsToSongs(items, context, false);
     }
 
     public int getQueueIndex() {
@@ -91,7 +157,14 @@ public class PlaybackPersistenceManager {
                 (shuffle) ? SHUFFLED_QUEUE : QUEUE,
                 getQueueIndex()
         );
-        return MediaStoreUtil.buildSongFromUri(Uri.parse(item.songUri), context);
+
+        if (item == null) {
+            return null;
+        } else if (item.hasSongMetadata()) {
+            return Song.fromPlaybackItem(item);
+        } else {
+            return MediaStoreUtil.buildSongFromUri(Uri.parse(item.songUri), context);
+        }
     }
 
     public int getSeekPosition() {
@@ -102,20 +175,34 @@ public class PlaybackPersistenceManager {
         }
     }
 
-    public State getStateBlocking() {
+    /**
+     * Loads the saved playback state. Songs are built from the metadata saved with each queue
+     * item, so this doesn't need to query the MediaStore unless the queue was saved before
+     * metadata was stored with it.
+     * @param context A Context used to look up songs that are missing metadata
+     */
+    public synchronized State getStateBlocking(Context context) {
         PlaybackItemDao dao = mDatabase.getPlaybackItemDao();
 
         long seekPosition;
         int queuePosition;
-        List<Uri> queue;
-        List<Uri> shuffledQueue;
+        List<Song> queue;
+        List<Song> shuffledQueue;
 
         if (hasState()) {
             seekPosition = dao.getMetadataItem(SEEK_POSITION).value;
             queuePosition = (int) dao.getMetadataItem(QUEUE_INDEX).value;
 
-            queue = convertDbRowsToUri(dao.getPlaybackItems(QUEUE));
-            shuffledQueue = convertDbRowsToUri(dao.getPlaybackItems(SHUFFLED_QUEUE));
+            List<PlaybackItem> queueRows = dao.getPlaybackItems(QUEUE);
+            List<PlaybackItem> shuffledQueueRows = dao.getPlaybackItems(SHUFFLED_QUEUE);
+
+            // Restoring the state is usually followed by saving it again, so keep these rows
+            // around to diff against
+            mStoredQueue = new StoredList(queueRows);
+            mStoredShuffledQueue = new StoredList(shuffledQueueRows);
+
+            queue = convertDbRowsToSongs(queueRows, context, true);
+            shuffledQueue = convertDbRowsToSongs(shuffledQueueRows, context, true);
         } else {
             seekPosition = 0;
             queuePosition = 0;
@@ -126,31 +213,158 @@ public class PlaybackPersistenceManager {
         return new State(seekPosition, queuePosition, queue, shuffledQueue);
     }
 
-    private List<PlaybackItem> convertUrisToDbRow(String listName, List<Uri> uris) {
-        List<PlaybackItem> playbackItems = new ArrayList<>();
-        for (int i = 0; i < uris.size(); i++) {
-            playbackItems.add(new PlaybackItem(listName, i, uris.get(i).toString()));
+    /**
+     * Compares the metadata saved with each queue item against the MediaStore, and updates any
+     * items that are out of date. Songs that aren't in the MediaStore are left as they are. This
+     * queries the MediaStore, so it should be called on a background thread after the queue has
+     * been restored.
+     * @param context A Context used to query the MediaStore
+     * @return The number of queue items that were updated
+     */
+    public int validateSongMetadata(Context context) {
+        List<PlaybackItem> rows;
+        synchronized (this) {
+            PlaybackItemDao dao = mDatabase.getPlaybackItemDao();
+            rows = new ArrayList<>(dao.getPlaybackItems(QUEUE));
+            rows.addAll(dao.getPlaybackItems(SHUFFLED_QUEUE));
         }
-        return playbackItems;
+
+        Set<Uri> uris = new LinkedHashSet<>();
+        for (PlaybackItem row : rows) {
+            if (row.inLibrary || !row.hasSongMetadata()) {
+                uris.add(Uri.parse(row.songUri));
+            }
+        }
+
+        if (uris.isEmpty()) {
+            return 0;
+        }
+
+        List<Song> songs = MediaStoreUtil.buildSongListFromUris(new ArrayList<>(uris), context);
+        Map<String, Song> songsByUri = new HashMap<>(songs.size());
+        for (Song song : songs) {
+            songsByUri.put(song.getLocation().toString(), song);
+        }
+
+        synchronized (this) {
+            // Read the rows again, since the queue may have changed while the MediaStore was
+            // being queried
+            List<PlaybackItem> updated = new ArrayList<>();
+            mDatabase.runInTransaction(() -> {
+                PlaybackItemDao dao = mDatabase.getPlaybackItemDao();
+                updated.addAll(findOutdatedRows(dao.getPlaybackItems(QUEUE), songsByUri));
+                updated.addAll(findOutdatedRows(dao.getPlaybackItems(SHUFFLED_QUEUE), songsByUri));
+                dao.updatePlaybackItems(updated);
+            });
+            return updated.size();
+        }
+    }
+
+    private List<PlaybackItem> findOutdatedRows(List<PlaybackItem> rows,
+                                                Map<String, Song> songsByUri) {
+        List<PlaybackItem> outdated = new ArrayList<>();
+        for (PlaybackItem row : rows) {
+            Song song = songsByUri.get(row.songUri);
+            if (song != null && !row.hasSameSong(song)) {
+                row.setSong(song);
+                outdated.add(row);
+            }
+        }
+        return outdated;
     }
 
-    private List<Uri> convertDbRowsToUri(List<PlaybackItem> rows) {
-        List<Uri> uris = new ArrayList<>();
+    /**
+     * @param rows The rows to convert into songs
+     * @param context A Context used to look up rows that are missing song metadata. Rows that
+     *                can't be found in the MediaStore are left out of the returned list.
+     * @param backfill Whether to save the metadata of songs that had to be looked up
+     */
+    private List<Song> convertDbRowsToSongs(List<PlaybackItem> rows, Context context,
+                                            boolean backfill) {
+        List<Uri> missingUris = new ArrayList<>();
         for (PlaybackItem row : rows) {
-            uris.add(Uri.parse(row.songUri));
+            if (!row.hasSongMetadata()) {
+                missingUris.add(Uri.parse(row.songUri));
+            }
+        }
+
+        Map<String, Song> foundSongs = Collections.emptyMap();
+        if (!missingUris.isEmpty()) {
+            List<Song> found = MediaStoreUtil.buildSongListFromUris(missingUris, context);
+            foundSongs = new HashMap<>(found.size());
+            for (Song song : found) {
+                foundSongs.put(song.getLocation().toString(), song);
+            }
+        }
+
+        List<Song> songs = new ArrayList<>(rows.size());
+        List<PlaybackItem> filledRows = new ArrayList<>();
+        for (PlaybackItem row : rows) {
+            if (row.hasSongMetadata()) {
+                songs.add(Song.fromPlaybackItem(row));
+            } else {
+                Song song = foundSongs.get(row.songUri);
+                if (song != null) {
+                    songs.add(song);
+                    row.setSong(song);
+                    filledRows.add(row);
+                }
+            }
+        }
+
+        if (backfill && !filledRows.isEmpty()) {
+            mDatabase.getPlaybackItemDao().updatePlaybackItems(filledRows);
+        }
+
+        return songs;
+    }
+
+    private List<PlaybackItem> convertSongsToDbRow(String listName, List<Song> songs,
+                                                   long[] keys) {
+        List<PlaybackItem> playbackItems = new ArrayList<>(songs.size());
+        for (int i = 0; i < songs.size(); i++) {
+            playbackItems.add(new PlaybackItem(listName, keys[i], songs.get(i)));
+        }
+        return playbackItems;
+    }
+
+    private List<String> convertSongsToStrings(List<Song> songs) {
+        List<String> strings = new ArrayList<>(songs.size());
+        for (Song song : songs) {
+            strings.add(song.getLocation().toString());
+        }
+        return strings;
+    }
+
+    private static class StoredList {
+
+        private final List<String> mUris;
+        private final long[] mKeys;
+
+        StoredList(List<String> uris, long[] keys) {
+            mUris = uris;
+            mKeys = keys;
+        }
+
+        StoredList(List<PlaybackItem> rows) {
+            mUris = new ArrayList<>(rows.size());
+            mKeys = new long[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                mUris.add(rows.get(i).songUri);
+                mKeys[i] = rows.get(i).sortKey;
+            }
         }
-        return uris;
     }
 
     public static class State {
 
         private long mSeekPosition;
         private int mQueuePosition;
-        private List<Uri> mQueue;
-        private List<Uri> mShuffledQueue;
+        private List<Song> mQueue;
+        private List<Song> mShuffledQueue;
 
         public State(long seekPosition, int queuePosition,
-                     List<Uri> queue, List<Uri> shuffledQueue) {
+                     List<Song> queue, List<Song> shuffledQueue) {
             mSeekPosition = seekPosition;
             mQueuePosition = queuePosition;
             mQueue = queue;
@@ -165,11 +379,11 @@ public class PlaybackPersistenceManager {
             return mQueuePosition;
         }
 
-        public List<Uri> getQueue() {
+        public List<Song> getQueue() {
             return mQueue;
         }
 
-        public List<Uri> getShuffledQueue() {
+        public List<Song> getShuffledQueue() {
             return mShuffledQueue;
         }
     }
@@ -1,15 +1,67 @@
 package com.marverenic.music.player.persistence;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 @Database(
         entities = {PlaybackItem.class, PlaybackMetadataItem.class},
-        version = 1,
+        version = 3,
         exportSchema = false
 )
 public abstract class PlaybackStateDatabase extends RoomDatabase {
 
+    /**
+     * Replaces the contiguous indices of queue items with spaced sort keys
+     */
+    public static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE `queue_items_new` ("
+                    + "`list_name` TEXT NOT NULL, "
+                    + "`sort_key` INTEGER NOT NULL, "
+                    + "`uri` TEXT NOT NULL, "
+                    + "PRIMARY KEY(`list_name`, `sort_key`))");
+            database.execSQL("INSERT INTO `queue_items_new` (`list_name`, `sort_key`, `uri`) "
+                    + "SELECT `list_name`, `idx` * " + QueueDiff.KEY_SPACING + ", `uri` "
+                    + "FROM `queue_items`");
+            database.execSQL("DROP TABLE `queue_items`");
+            database.execSQL("ALTER TABLE `queue_items_new` RENAME TO `queue_items`");
+        }
+    };
+
+    /**
+     * Adds song metadata to queue items. Existing items are left without metadata, and are
+     * filled in the next time that the queue is restored.
+     */
+    public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            String[] columns = {
+                    "`song_id` INTEGER NOT NULL DEFAULT 0",
+                    "`name` TEXT",
+                    "`artist_name` TEXT",
+                    "`album_name` TEXT",
+                    "`duration` INTEGER NOT NULL DEFAULT 0",
+                    "`year` INTEGER NOT NULL DEFAULT 0",
+                    "`date_added` INTEGER NOT NULL DEFAULT 0",
+                    "`album_id` INTEGER NOT NULL DEFAULT 0",
+                    "`artist_id` INTEGER NOT NULL DEFAULT 0",
+                    "`track` INTEGER NOT NULL DEFAULT 0",
+                    "`in_library` INTEGER NOT NULL DEFAULT 0",
+                    "`sortable_name` TEXT",
+                    "`sortable_artist_name` TEXT",
+                    "`sortable_album_name` TEXT"
+            };
+
+            for (String column : columns) {
+                database.execSQL("ALTER TABLE `queue_items` ADD COLUMN " + column);
+            }
+        }
+    };
+
     public abstract PlaybackItemDao getPlaybackItemDao();
 
 }
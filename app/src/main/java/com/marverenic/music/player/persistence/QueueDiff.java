@@ -0,0 +1,174 @@
+package com.marverenic.music.player.persistence;
+
+import androidx.annotation.Nullable;
+
+import com.marverenic.music.utils.ListDiff;
+
+import java.util.List;
+
+/**
+ * Computes the smallest set of row changes needed to turn a stored list of queue items into a new
+ * list. Each stored row has a sort key, and rows are read back in the order of their keys. Keys
+ * are spaced {@link #KEY_SPACING} apart when a list is written from scratch, so that items can be
+ * inserted between two existing rows without having to renumber any other rows.
+ *
+ * Items that are kept are found with {@link ListDiff}. Every other stored item is removed, and
+ * every other new item is inserted with a key between its neighbors. This means that inserting,
+ * removing or moving a single song only changes one or two rows, regardless of the length of the
+ * queue.
+ */
+final class QueueDiff {
+
+    static final long KEY_SPACING = 1L << 32;
+
+    private final long[] mKeys;
+    private final int[] mRemovedIndices;
+    private final int[] mInsertedIndices;
+
+    private QueueDiff(long[] keys, int[] removedIndices, int[] insertedIndices) {
+        mKeys = keys;
+        mRemovedIndices = removedIndices;
+        mInsertedIndices = insertedIndices;
+    }
+
+    /**
+     * @return The sort keys for every item in the new list
+     */
+    long[] getKeys() {
+        return mKeys;
+    }
+
+    /**
+     * @return The indices of the items in the stored list whose rows need to be deleted
+     */
+    int[] getRemovedIndices() {
+        return mRemovedIndices;
+    }
+
+    /**
+     * @return The indices of the items in the new list that need new rows
+     */
+    int[] getInsertedIndices() {
+        return mInsertedIndices;
+    }
+
+    /**
+     * @param count The number of items in the list
+     * @return Evenly spaced sort keys for a list that is being written from scratch
+     */
+    static long[] spacedKeys(int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = i * KEY_SPACING;
+        }
+        return keys;
+    }
+
+    /**
+     * @param storedKeys The sort keys of the stored list, in ascending order
+     * @param storedItems The items of the stored list
+     * @param newItems The list that should be stored
+     * @return The changes that need to be made to the stored list, or {@code null} if there
+     *         isn't enough space between the stored keys and the whole list has to be rewritten
+     */
+    @Nullable
+    static <T> QueueDiff compute(long[] storedKeys, List<T> storedItems, List<T> newItems) {
+        ListDiff diff = ListDiff.compute(storedItems, newItems);
+
+        long[] keys = new long[newItems.size()];
+        for (int i = 0; i < keys.length; i++) {
+            int storedIndex = diff.getOldIndex(i);
+            if (storedIndex >= 0) {
+                keys[i] = storedKeys[storedIndex];
+            }
+        }
+
+        int[] inserted = diff.getInsertedIndices();
+        if (!assignInsertedKeys(keys, inserted)) {
+            return null;
+        }
+
+        return new QueueDiff(keys, diff.getRemovedIndices(), inserted);
+    }
+
+    /**
+     * Fills in the keys of inserted items so that they fall between the keys of their neighbors
+     * @param keys The keys of the new list, which are already set for every item that was kept
+     * @param inserted The indices of inserted items in ascending order
+     * @return Whether there was enough space to assign every key
+     */
+    private static boolean assignInsertedKeys(long[] keys, int[] inserted) {
+        int i = 0;
+        try {
+            while (i < inserted.length) {
+                // Find the run of consecutive inserted items starting at this index
+                int start = inserted[i];
+                int end = start;
+                while (i < inserted.length && inserted[i] == end) {
+                    i++;
+                    end++;
+                }
+
+                int count = end - start;
+                boolean hasLower = start > 0;
+                boolean hasUpper = end < keys.length;
+
+                long lower;
+                long step;
+                if (hasLower && hasUpper) {
+                    lower = keys[start - 1];
+                    step = subtractExact(keys[end], lower) / (count + 1);
+                    if (step == 0) {
+                        return false;
+                    }
+                } else if (hasLower) {
+                    lower = keys[start - 1];
+                    step = KEY_SPACING;
+                } else if (hasUpper) {
+                    lower = subtractExact(keys[end],
+                            multiplyExact(KEY_SPACING, count + 1));
+                    step = KEY_SPACING;
+                } else {
+                    lower = -KEY_SPACING;
+                    step = KEY_SPACING;
+                }
+
+                for (int k = 0; k < count; k++) {
+                    keys[start + k] = addExact(lower, multiplyExact(step, k + 1));
+                }
+            }
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Math.addExact() and friends need API 24, so overflow is checked by hand. Each of these
+     * throws an ArithmeticException when the result doesn't fit in a long.
+     */
+
+    private static long addExact(long x, long y) {
+        long result = x + y;
+        if (((x ^ result) & (y ^ result)) < 0) {
+            throw new ArithmeticException("long overflow");
+        }
+        return result;
+    }
+
+    private static long subtractExact(long x, long y) {
+        long result = x - y;
+        if (((x ^ y) & (x ^ result)) < 0) {
+            throw new ArithmeticException("long overflow");
+        }
+        return result;
+    }
+
+    private static long multiplyExact(long x, long y) {
+        long result = x * y;
+        if (y != 0 && (result / y != x || (x == Long.MIN_VALUE && y == -1))) {
+            throw new ArithmeticException("long overflow");
+        }
+        return result;
+    }
+}
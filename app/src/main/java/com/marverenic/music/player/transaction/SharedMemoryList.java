@@ -0,0 +1,149 @@
+package com.marverenic.music.player.transaction;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A list of Parcelables that is sent to another process in a shared memory region instead of in
+ * the binder transaction itself. Binder transactions are limited to about 1MB, so lists that are
+ * sent directly have to be split into chunks with {@link ListTransaction}, each of which costs a
+ * round trip. A SharedMemoryList only sends a file descriptor, so an entire list can be sent with
+ * one call regardless of its size.
+ *
+ * The sender and the receiver are both responsible for closing their instances of this class.
+ * When it's returned from a remote method, the sender's copy is closed automatically after it has
+ * been written into the reply.
+ *
+ * Shared memory is only available on Android 8.1 and above. Callers should check
+ * {@link #isSupported()} and fall back to a {@link ListTransaction} otherwise.
+ */
+@TargetApi(Build.VERSION_CODES.O_MR1)
+public final class SharedMemoryList implements Parcelable, Closeable {
+
+    private static final String MEMORY_NAME = "SharedMemoryList";
+
+    private final SharedMemory mMemory;
+
+    private SharedMemoryList(SharedMemory memory) {
+        mMemory = memory;
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1;
+    }
+
+    /**
+     * Copies a list into a new shared memory region
+     * @param data The list to send. These items must not contain file descriptors or binders.
+     * @return A SharedMemoryList which can be sent to another process
+     * @throws IOException If the shared memory region could not be allocated
+     */
+    public static <T extends Parcelable> SharedMemoryList write(List<T> data)
+            throws IOException {
+        byte[] bytes;
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeTypedList(data);
+            bytes = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+
+        SharedMemory memory;
+        try {
+            memory = SharedMemory.create(MEMORY_NAME, Math.max(bytes.length, 1));
+        } catch (ErrnoException exception) {
+            throw exception.rethrowAsIOException();
+        }
+
+        try {
+            ByteBuffer buffer = memory.mapReadWrite();
+            buffer.put(bytes);
+            SharedMemory.unmap(buffer);
+            memory.setProtect(OsConstants.PROT_READ);
+        } catch (ErrnoException exception) {
+            memory.close();
+            throw exception.rethrowAsIOException();
+        } catch (RuntimeException exception) {
+            memory.close();
+            throw exception;
+        }
+
+        return new SharedMemoryList(memory);
+    }
+
+    /**
+     * Copies the list out of shared memory
+     * @param creator The creator of the items that were written into this list
+     * @throws IOException If the shared memory region could not be mapped
+     */
+    public <T extends Parcelable> List<T> read(Parcelable.Creator<T> creator)
+            throws IOException {
+        ByteBuffer buffer;
+        try {
+            buffer = mMemory.mapReadOnly();
+        } catch (ErrnoException exception) {
+            throw exception.rethrowAsIOException();
+        }
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        SharedMemory.unmap(buffer);
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            return parcel.createTypedArrayList(creator);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Override
+    public void close() {
+        mMemory.close();
+    }
+
+    private SharedMemoryList(Parcel in) {
+        mMemory = in.readParcelable(SharedMemory.class.getClassLoader());
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        // The file descriptor is duplicated into the parcel, so this copy can be closed if no one
+        // else will use it
+        dest.writeParcelable(mMemory, flags);
+        if ((flags & PARCELABLE_WRITE_RETURN_VALUE) != 0) {
+            close();
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return CONTENTS_FILE_DESCRIPTOR;
+    }
+
+    public static final Creator<SharedMemoryList> CREATOR = new Creator<SharedMemoryList>() {
+        @Override
+        public SharedMemoryList createFromParcel(Parcel in) {
+            return new SharedMemoryList(in);
+        }
+
+        @Override
+        public SharedMemoryList[] newArray(int size) {
+            return new SharedMemoryList[size];
+        }
+    };
+
+}
@@ -25,6 +25,12 @@ public class FileViewModel extends BaseViewModel {
 
     private File mFile;
     private Drawable mThumbnail;
+
+    /**
+     * The previous file, whose thumbnail may still be shown until the view is bound again
+     */
+    @Nullable
+    private File mDisplayedFile;
     private Drawable mDefaultThumbnail;
 
     private boolean mUsingDefaultArtwork;
@@ -52,14 +58,26 @@ public class FileViewModel extends BaseViewModel {
     }
 
     public void setFile(File file) {
-        mFile = file;
-        mThumbnail = null;
-        mUsingDefaultArtwork = false;
-
         if (mArtworkSubscription != null) {
             mArtworkSubscription.unsubscribe();
         }
 
+        // A released thumbnail's bitmap can be decoded into, so it can't be released while the
+        // view is still drawing it. It's released once the view is bound to the new thumbnail.
+        if (mFile != null) {
+            if (mDisplayedFile == null) {
+                mDisplayedFile = mFile;
+            } else {
+                // The view hasn't been bound since the last file was set, so it never showed
+                // this file's thumbnail
+                mThumbnailLoader.releaseThumbnail(mFile);
+            }
+        }
+
+        mFile = file;
+        mThumbnail = null;
+        mUsingDefaultArtwork = false;
+
         mArtworkSubscription = mThumbnailLoader.getThumbnail(mFile)
                 .map(this::makeCircular)
                 .subscribe(artwork -> {
@@ -80,6 +98,12 @@ public class FileViewModel extends BaseViewModel {
 
     @Bindable
     public Drawable getThumbnail() {
+        // The view replaces the previous file's thumbnail with the one returned here
+        if (mDisplayedFile != null) {
+            mThumbnailLoader.releaseThumbnail(mDisplayedFile);
+            mDisplayedFile = null;
+        }
+
         if (mThumbnail == null) {
             mUsingDefaultArtwork = true;
             return mDefaultThumbnail;
@@ -1,5 +1,7 @@
 package com.marverenic.music.ui.browse;
 
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
 import androidx.databinding.DataBindingUtil;
 import android.os.Bundle;
 import android.os.Environment;
@@ -50,6 +52,25 @@ public class MusicBrowserFragment extends BaseFragment {
     private boolean mExitConfirmed;
     private boolean mDisableExitConfirmation;
 
+    private final ComponentCallbacks2 mMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (mViewModel != null) {
+                mViewModel.onTrimMemory(level);
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            // Configuration changes are handled by the fragment itself
+        }
+    };
+
     public static MusicBrowserFragment newInstance() {
         return new MusicBrowserFragment();
     }
@@ -67,6 +88,7 @@ public class MusicBrowserFragment extends BaseFragment {
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         JockeyApplication.getComponent(this).inject(this);
+        getContext().registerComponentCallbacks(mMemoryCallbacks);
     }
 
     @Nullable
@@ -127,9 +149,9 @@ public class MusicBrowserFragment extends BaseFragment {
     }
 
     @Override
-    public void onLowMemory() {
-        super.onLowMemory();
-        mViewModel.onLowMemory();
+    public void onDestroy() {
+        super.onDestroy();
+        getContext().unregisterComponentCallbacks(mMemoryCallbacks);
     }
 
     @Override
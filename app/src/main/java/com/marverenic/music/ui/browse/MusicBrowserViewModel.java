@@ -61,8 +61,8 @@ public class MusicBrowserViewModel extends BaseViewModel {
         setDirectory(startingDirectory);
     }
 
-    public void onLowMemory() {
-        mThumbnailLoader.clearCache();
+    public void onTrimMemory(int level) {
+        mThumbnailLoader.trimMemory(level);
     }
 
     public String[] getHistory() {
@@ -1,155 +1,354 @@
 package com.marverenic.music.ui.browse;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
-import androidx.collection.ArrayMap;
+import android.os.Build;
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
 
 import com.marverenic.music.R;
-import com.marverenic.music.utils.Util;
+import com.marverenic.music.utils.ArtworkCache;
 
 import java.io.File;
-import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import rx.Observable;
+import rx.Scheduler;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.schedulers.Schedulers;
+import timber.log.Timber;
 
 /**
  * A utility class that is shared among a list of file views in a recycler view, and is responsible
  * for caching and managing requests to load song thumbnails. Ideally, we'd just use Glide's
- * implementation, but we use {@link com.marverenic.music.utils.Util#fetchArtwork(Context, Uri)},
- * There's no way for Glide to skip the read step – the metadata is used as the primary source,
- * which can't be read from Glide.
+ * implementation, but thumbnails are loaded through the {@link ArtworkCache}, since the metadata
+ * of each file is the primary source of its artwork, which can't be read from Glide.
  *
- * Other than delegating to the {@code fetchArtwork()} method, this class implements an LRU cache
- * using a timestamp. In addition, this class also keeps a weak reference to all the bitmaps it
- * returns. This means that if a bitmap is evicted from the cache but still in use somewhere else
- * (i.e. is still visible on screen), then the bitmap can be reused if it is requested before it
- * gets garbage collected.
+ * Thumbnails are kept in an LRU cache that is bounded by the number of bytes in its bitmaps, and
+ * that is keyed by each file's path and modification time so that edited files are reloaded.
+ * Looking up, inserting and evicting a thumbnail all take constant time. At most, this cache will
+ * use approximately 10% of the heap.
  *
- * Because only thumbnails are loaded here, the cache size is fairly modest. At most, this cache
- * will use approximately 10% of the heap.
+ * Bitmaps that are evicted from the cache are kept in a small pool and reused to decode the next
+ * thumbnails that are loaded, which avoids allocating a new bitmap for every file while the list
+ * is scrolled. Because a bitmap in the pool will be overwritten, a thumbnail is only returned to
+ * the pool once none of the views that requested it are using it anymore. Views release their
+ * thumbnails with {@link #releaseThumbnail(File)}.
  */
 class ThumbnailLoader {
 
+    /**
+     * The number of bytes that a cached file without any artwork is counted as
+     */
+    private static final int NO_ARTWORK_BYTES = 64;
+
+    /**
+     * The maximum number of evicted bitmaps that are kept to be reused
+     */
+    private static final int MAX_POOL_SIZE = 8;
+
     private final Object mLock = new Object();
 
     private Context mContext;
     private int mThumbnailResolution;
-    private int mMaxCacheElements;
-    private int mCurrentTimestamp = 0;
+    private Scheduler mLoadScheduler;
+    private Scheduler mResultScheduler;
 
-    private ArrayMap<File, ThumbnailCacheEntry> mCache;
-    private ArrayMap<File, WeakReference<Bitmap>> mWeakCache;
+    private ThumbnailCache mCache;
+    private Map<String, Observable<Thumbnail>> mPendingRequests;
+    private Map<String, Integer> mUseCounts;
+    private BitmapPool mPool;
 
     ThumbnailLoader(Context context) {
+        this(context, (int) (Runtime.getRuntime().maxMemory() / 10), Schedulers.io(),
+                AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * @param maxBytes The number of bytes that cached thumbnails can use
+     * @param loadScheduler The scheduler to load thumbnails on
+     * @param resultScheduler The scheduler to deliver loaded thumbnails on
+     */
+    ThumbnailLoader(Context context, int maxBytes, Scheduler loadScheduler,
+                    Scheduler resultScheduler) {
         mContext = context;
         mThumbnailResolution = context.getResources().getDimensionPixelSize(R.dimen.list_thumbnail_size);
+        mLoadScheduler = loadScheduler;
+        mResultScheduler = resultScheduler;
 
-        long maxMemoryBytes = Runtime.getRuntime().maxMemory();
-        // estimate 4 bytes per pixel
-        long estimatedImageSizeBytes = mThumbnailResolution * mThumbnailResolution * 4;
-        mMaxCacheElements = (int) (maxMemoryBytes / estimatedImageSizeBytes) / 10;
-
-        mCache = new ArrayMap<>();
-        mWeakCache = new ArrayMap<>();
+        mCache = new ThumbnailCache(maxBytes);
+        mPendingRequests = new HashMap<>();
+        mUseCounts = new HashMap<>();
+        mPool = new BitmapPool();
     }
 
-    void clearCache() {
+    /**
+     * Frees some of the memory used by this cache in response to memory pressure. Thumbnails are
+     * evicted in least recently used order until the cache is trimmed to a size proportional to
+     * how much memory the system needs.
+     * @param level The trim level given to {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    void trimMemory(int level) {
+        float retained;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            retained = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            retained = 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            retained = 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            retained = 0.75f;
+        } else {
+            return;
+        }
+
         synchronized (mLock) {
-            mCache.clear();
-            mWeakCache.clear();
+            mCache.trimToSize((int) (mCache.size() * retained));
+            mPool.clear();
         }
+
+        Timber.i("Trimmed thumbnail cache to %d bytes (%s)", getSize(), this);
     }
 
     Observable<Bitmap> getThumbnail(File file) {
+        String key = file.getAbsolutePath() + ":" + file.lastModified();
+        Observable<Thumbnail> thumbnail;
+
         synchronized (mLock) {
-            if (mCache.containsKey(file)) {
-                // Bitmap is in cache. Return it and update its timestamp.
-                ThumbnailCacheEntry cacheEntry = mCache.get(file);
-                cacheEntry.timestamp = mCurrentTimestamp++;
-                return cacheEntry.image;
-            } else if (mWeakCache.containsKey(file)) {
-                // Bitmap was evicted, but may still be in memory.
-                WeakReference<Bitmap> reference = mWeakCache.get(file);
-                if (reference != null) {
-                    Bitmap restored = reference.get();
-                    if (restored != null){
-                        // Bitmap hasn't been GC'd. Restore it.
-                        Observable<Bitmap> img = Observable.just(restored);
-                        mCache.put(file, new ThumbnailCacheEntry(img, mCurrentTimestamp++));
-                        evictOldestIfNecessary();
-                        return img;
-                    }
+            acquire(file);
+
+            Thumbnail cached = mCache.get(key);
+            if (cached != null) {
+                thumbnail = Observable.just(cached);
+            } else {
+                thumbnail = mPendingRequests.get(key);
+                if (thumbnail == null) {
+                    thumbnail = loadThumbnail(file, key);
+                    mPendingRequests.put(key, thumbnail);
                 }
             }
+        }
+
+        return thumbnail
+                .filter(loaded -> loaded.mBitmap != null)
+                .map(loaded -> loaded.mBitmap);
+    }
 
-            Observable<Bitmap> bitmap = loadBitmap(file);
-            evictOldestIfNecessary();
-            return bitmap;
+    /**
+     * Called when a view is no longer showing the thumbnail of a file. Once no views are showing
+     * a thumbnail, its bitmap may be reused after it's evicted.
+     * @param file The file that was passed to {@link #getThumbnail(File)}
+     */
+    void releaseThumbnail(File file) {
+        String path = file.getAbsolutePath();
+        synchronized (mLock) {
+            Integer useCount = mUseCounts.get(path);
+            if (useCount == null || useCount <= 1) {
+                mUseCounts.remove(path);
+            } else {
+                mUseCounts.put(path, useCount - 1);
+            }
         }
     }
 
-    private Observable<Bitmap> loadBitmap(File file) {
+    private void acquire(File file) {
+        String path = file.getAbsolutePath();
+        Integer useCount = mUseCounts.get(path);
+        mUseCounts.put(path, (useCount == null) ? 1 : useCount + 1);
+    }
+
+    private Observable<Thumbnail> loadThumbnail(File file, String key) {
+        String path = file.getAbsolutePath();
         Uri fileUri = Uri.fromFile(file);
-        Observable<Bitmap> image = Util.fetchArtwork(mContext, fileUri, mThumbnailResolution, false)
-                .subscribeOn(Schedulers.io())
-                .doOnNext(bitmap -> {
+
+        return Observable.fromCallable(() -> new Thumbnail(path, loadBitmap(fileUri, mPool)))
+                .subscribeOn(mLoadScheduler)
+                .doOnNext(thumbnail -> {
                     synchronized (mLock) {
-                        mWeakCache.put(file, new WeakReference<>(bitmap));
+                        if (mPendingRequests.remove(key) != null) {
+                            mCache.put(key, thumbnail);
+                        }
                     }
                 })
                 .doOnError(throwable -> {
                     synchronized (mLock) {
-                        mCache.remove(file);
-                        mWeakCache.remove(file);
+                        mPendingRequests.remove(key);
                     }
                 })
-                .observeOn(AndroidSchedulers.mainThread())
+                .observeOn(mResultScheduler)
                 .cache();
+    }
 
-        mCache.put(file, new ThumbnailCacheEntry(image, mCurrentTimestamp++));
-        return image;
+    /**
+     * Decodes the thumbnail of a file. This is called on the load scheduler.
+     * @param fileUri The location of the file
+     * @param pool The bitmaps that can be decoded into instead of allocating a new bitmap
+     * @return The file's artwork, or {@code null} if it doesn't have any
+     */
+    @Nullable
+    Bitmap loadBitmap(Uri fileUri, ArtworkCache.BitmapPool pool) {
+        return ArtworkCache.getInstance(mContext)
+                .getArtwork(fileUri, -1, mThumbnailResolution, false, pool);
     }
 
-    private void evictOldestIfNecessary() {
-        if (mCache.size() <= mMaxCacheElements) {
-            return;
+    /**
+     * @return The number of bytes used by the thumbnails in the cache
+     */
+    int getSize() {
+        return mCache.size();
+    }
+
+    /**
+     * @return The number of times that a thumbnail was found in the cache
+     */
+    int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    /**
+     * @return The number of times that a thumbnail had to be loaded because it wasn't cached
+     */
+    int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /**
+     * @return The number of thumbnails that have been evicted from the cache
+     */
+    int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * @return The number of thumbnails that were decoded into a bitmap from the reuse pool
+     */
+    int getReuseCount() {
+        return mPool.mReuseCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ThumbnailLoader{"
+                + "size=" + getSize()
+                + ", maxSize=" + mCache.maxSize()
+                + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount()
+                + ", reused=" + getReuseCount()
+                + "}";
+    }
+
+    private static int getBitmapBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        } else {
+            return bitmap.getByteCount();
+        }
+    }
+
+    private static final class Thumbnail {
+
+        final String mPath;
+
+        /**
+         * The file's artwork, or {@code null} if it doesn't have any
+         */
+        @Nullable
+        final Bitmap mBitmap;
+
+        Thumbnail(String path, @Nullable Bitmap bitmap) {
+            mPath = path;
+            mBitmap = bitmap;
+        }
+    }
+
+    private class ThumbnailCache extends LruCache<String, Thumbnail> {
+
+        ThumbnailCache(int maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(String key, Thumbnail value) {
+            return (value.mBitmap == null) ? NO_ARTWORK_BYTES : getBitmapBytes(value.mBitmap);
         }
 
-        for (int i = 0; i < mWeakCache.size(); i++) {
-            WeakReference<Bitmap> ref = mWeakCache.valueAt(i);
-            if (ref == null || ref.get() == null) {
-                mWeakCache.removeAt(i);
-                i--;
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Thumbnail oldValue,
+                                    @Nullable Thumbnail newValue) {
+            if (!evicted || oldValue.mBitmap == null) {
+                return;
+            }
+
+            synchronized (mLock) {
+                if (!mUseCounts.containsKey(oldValue.mPath)) {
+                    mPool.put(oldValue.mBitmap);
+                }
             }
         }
+    }
+
+    /**
+     * Holds bitmaps that were evicted from the cache until they can be decoded into again
+     */
+    private static class BitmapPool implements ArtworkCache.BitmapPool {
 
-        File lru = null;
-        int lruTimestamp = Integer.MIN_VALUE;
+        private final List<Bitmap> mBitmaps = new ArrayList<>(MAX_POOL_SIZE);
+        private volatile int mReuseCount;
 
-        for (int i = 0; i < mCache.size(); i++) {
-            File file = mCache.keyAt(i);
-            ThumbnailCacheEntry cacheEntry = mCache.valueAt(i);
-            if (cacheEntry.timestamp > lruTimestamp) {
-                lruTimestamp = cacheEntry.timestamp;
-                lru = file;
+        synchronized void put(Bitmap bitmap) {
+            if (!bitmap.isMutable() || bitmap.isRecycled()) {
+                return;
             }
+
+            if (mBitmaps.size() >= MAX_POOL_SIZE) {
+                mBitmaps.remove(0);
+            }
+            mBitmaps.add(bitmap);
         }
 
-        if (lru != null) {
-            mCache.remove(lru);
+        @Nullable
+        @Override
+        public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+            for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+                Bitmap bitmap = mBitmaps.get(i);
+                if (canDecodeInto(bitmap, width, height, config)) {
+                    mBitmaps.remove(i);
+                    mReuseCount++;
+                    return bitmap;
+                }
+            }
+            return null;
+        }
+
+        synchronized void clear() {
+            mBitmaps.clear();
         }
-    }
 
-    private class ThumbnailCacheEntry {
-        Observable<Bitmap> image;
-        int timestamp;
+        private static boolean canDecodeInto(Bitmap bitmap, int width, int height,
+                                             Bitmap.Config config) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                return getBitmapBytes(bitmap) >= width * height * getBytesPerPixel(config);
+            }
 
-        ThumbnailCacheEntry(Observable<Bitmap> image, int timestamp) {
-            this.image = image;
-            this.timestamp = timestamp;
+            // Before KitKat, bitmaps could only be reused for images of exactly the same size
+            return bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && bitmap.getConfig() == config;
+        }
+
+        private static int getBytesPerPixel(Bitmap.Config config) {
+            if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+                return 2;
+            } else if (config == Bitmap.Config.ALPHA_8) {
+                return 1;
+            } else {
+                return 4;
+            }
         }
     }
 
@@ -4,12 +4,15 @@ import android.animation.ArgbEvaluator;
 import android.animation.ObjectAnimator;
 import android.content.Context;
 import android.content.res.Resources;
+import android.net.Uri;
 import androidx.databinding.BaseObservable;
 import androidx.databinding.ObservableField;
 import androidx.databinding.ObservableInt;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
 import androidx.annotation.ColorInt;
+import androidx.annotation.Nullable;
 import androidx.fragment.app.FragmentManager;
 import androidx.core.content.res.ResourcesCompat;
 import androidx.palette.graphics.Palette;
@@ -17,6 +20,7 @@ import androidx.appcompat.widget.PopupMenu;
 import android.view.Gravity;
 import android.view.View;
 
+import com.bumptech.glide.DrawableRequestBuilder;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.resource.drawable.GlideDrawable;
 import com.bumptech.glide.request.RequestListener;
@@ -24,6 +28,8 @@ import com.bumptech.glide.request.animation.GlideAnimation;
 import com.bumptech.glide.request.target.SimpleTarget;
 import com.bumptech.glide.request.target.Target;
 import com.marverenic.music.R;
+import com.marverenic.music.data.index.ArtworkIndexer;
+import com.marverenic.music.data.index.IndexedAlbumArtwork;
 import com.marverenic.music.data.store.MusicStore;
 import com.marverenic.music.data.store.PlaylistStore;
 import com.marverenic.music.model.Album;
@@ -31,12 +37,16 @@ import com.marverenic.music.player.PlayerController;
 import com.marverenic.music.ui.common.playlist.AppendPlaylistDialogFragment;
 import com.marverenic.music.ui.library.album.contents.AlbumActivity;
 import com.marverenic.music.ui.library.artist.contents.ArtistActivity;
+import com.marverenic.music.utils.ArtworkCache;
 import com.marverenic.music.view.ViewUtils;
 
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
+import rx.Observable;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
 public class AlbumItemViewModel extends BaseObservable {
@@ -76,24 +86,101 @@ public class AlbumItemViewModel extends BaseObservable {
 
         defaultColors();
 
-        if (mAlbum.getArtUri() != null) {
-            int imageSize = mContext.getResources().getDimensionPixelSize(R.dimen.grid_width);
+        mMusicStore.getAlbumArtwork(album)
+                .subscribe(artwork -> {
+                    if (mAlbum == album) {
+                        loadArtwork(artwork);
+                    }
+                }, throwable -> {
+                    Timber.e(throwable, "Failed to get indexed album artwork");
+                    if (mAlbum == album) {
+                        loadArtwork(null);
+                    }
+                });
 
-            Glide.with(mContext)
-                    .load(new File(mAlbum.getArtUri()))
-                    .placeholder(R.drawable.art_default)
-                    .error(R.drawable.art_default)
-                    .listener(new PaletteListener(mTitleTextColor, mArtistTextColor,
-                            mBackgroundColor))
-                    .into(new ObservableTarget(imageSize, mArtistImage));
+        notifyChange();
+    }
+
+    /**
+     * Loads the album's artwork. Albums that have been indexed are shown with the thumbnail that
+     * the {@link ArtworkIndexer} wrote to the {@link ArtworkCache}, and are colored with the
+     * swatch that was picked from that same thumbnail. Albums that haven't been indexed yet are
+     * shown with their MediaStore artwork, and are colored with a palette generated from it.
+     * @param artwork The album's indexed artwork, or {@code null} if it hasn't been indexed yet
+     */
+    private void loadArtwork(@Nullable IndexedAlbumArtwork artwork) {
+        if (artwork == null || artwork.path == null) {
+            loadMediaStoreArtwork();
+        } else if (artwork.hasArtwork) {
+            loadIndexedArtwork(artwork);
         } else {
-            Drawable fallback = ResourcesCompat.getDrawable(mContext.getResources(),
-                    R.drawable.art_default, mContext.getTheme());
+            mArtistImage.set(getDefaultArtwork());
+        }
+    }
 
-            mArtistImage.set(fallback);
+    private void loadIndexedArtwork(IndexedAlbumArtwork artwork) {
+        if (artwork.hasSwatch) {
+            mBackgroundColor.set(artwork.backgroundColor);
+            mTitleTextColor.set(artwork.titleTextColor);
+            mArtistTextColor.set(artwork.bodyTextColor);
         }
 
-        notifyChange();
+        Album album = mAlbum;
+        Uri location = Uri.fromFile(new File(artwork.path));
+        int imageSize = mContext.getResources().getDimensionPixelSize(R.dimen.grid_width);
+        mArtistImage.set(getDefaultArtwork());
+
+        Observable.fromCallable(() -> ArtworkCache.getInstance(mContext)
+                        .getArtwork(location, album.getAlbumId(), imageSize, true))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(bitmap -> {
+                    if (mAlbum != album || bitmap == null) {
+                        return;
+                    }
+
+                    Drawable image = new BitmapDrawable(mContext.getResources(), bitmap);
+                    setDrawableWithFade(mArtistImage, image);
+                }, throwable -> {
+                    Timber.e(throwable, "Failed to load indexed album artwork");
+                });
+    }
+
+    private void loadMediaStoreArtwork() {
+        if (mAlbum.getArtUri() == null) {
+            mArtistImage.set(getDefaultArtwork());
+            return;
+        }
+
+        int imageSize = mContext.getResources().getDimensionPixelSize(R.dimen.grid_width);
+
+        DrawableRequestBuilder<File> request = Glide.with(mContext)
+                .load(new File(mAlbum.getArtUri()))
+                .placeholder(R.drawable.art_default)
+                .error(R.drawable.art_default)
+                .listener(new PaletteListener(mTitleTextColor, mArtistTextColor,
+                        mBackgroundColor));
+
+        request.into(new ObservableTarget(imageSize, mArtistImage));
+    }
+
+    private Drawable getDefaultArtwork() {
+        return ResourcesCompat.getDrawable(mContext.getResources(), R.drawable.art_default,
+                mContext.getTheme());
+    }
+
+    private static void setDrawableWithFade(ObservableField<Drawable> target, Drawable end) {
+        Drawable start = target.get();
+        if (start == null) {
+            target.set(end);
+            return;
+        }
+
+        TransitionDrawable transition = new TransitionDrawable(new Drawable[]{start, end});
+        transition.setCrossFadeEnabled(true);
+        transition.startTransition(300);
+
+        target.set(transition);
     }
 
     private void defaultColors() {
@@ -216,26 +303,7 @@ public class AlbumItemViewModel extends BaseObservable {
         @Override
         public void onResourceReady(GlideDrawable resource,
                                     GlideAnimation<? super GlideDrawable> glideAnimation) {
-
-            Drawable start = mTarget.get();
-
-            if (start != null) {
-                setDrawableWithFade(start, resource);
-            } else {
-                setDrawable(resource);
-            }
-        }
-
-        private void setDrawableWithFade(Drawable start, Drawable end) {
-            TransitionDrawable transition = new TransitionDrawable(new Drawable[]{start, end});
-            transition.setCrossFadeEnabled(true);
-            transition.startTransition(300);
-
-            setDrawable(transition);
-        }
-
-        private void setDrawable(Drawable resource) {
-            mTarget.set(resource);
+            setDrawableWithFade(mTarget, resource);
         }
     }
 
@@ -285,7 +353,7 @@ public class AlbumItemViewModel extends BaseObservable {
 
         private void generateSwatch(File source, Drawable image) {
             Palette.from(ViewUtils.drawableToBitmap(image)).generate(palette -> {
-                Palette.Swatch swatch = pickSwatch(palette);
+                Palette.Swatch swatch = ArtworkIndexer.pickSwatch(palette);
 
                 sColorMap.put(source, swatch);
                 animateSwatch(swatch);
@@ -317,24 +385,5 @@ public class AlbumItemViewModel extends BaseObservable {
                     .setDuration(300)
                     .start();
         }
-
-        private Palette.Swatch pickSwatch(Palette palette) {
-            if (palette.getVibrantSwatch() != null) {
-                return palette.getVibrantSwatch();
-            }
-            if (palette.getLightVibrantSwatch() != null) {
-                return palette.getLightVibrantSwatch();
-            }
-            if (palette.getDarkVibrantSwatch() != null) {
-                return palette.getDarkVibrantSwatch();
-            }
-            if (palette.getLightMutedSwatch() != null) {
-                return palette.getLightMutedSwatch();
-            }
-            if (palette.getDarkMutedSwatch() != null) {
-                return palette.getDarkMutedSwatch();
-            }
-            return null;
-        }
     }
 }
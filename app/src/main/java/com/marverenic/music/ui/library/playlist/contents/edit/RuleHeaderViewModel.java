@@ -25,7 +25,9 @@ public class RuleHeaderViewModel extends BaseObservable {
             AutoPlaylistRule.DATE_ADDED,
             AutoPlaylistRule.DATE_ADDED,
             AutoPlaylistRule.DATE_PLAYED,
-            AutoPlaylistRule.DATE_PLAYED
+            AutoPlaylistRule.DATE_PLAYED,
+            AutoPlaylistRule.PLAYS_PAST_WEEK,
+            AutoPlaylistRule.PLAYS_PAST_MONTH
     };
 
     private static final boolean[] TRUNCATE_ORDER_ASCENDING = new boolean[] {
@@ -38,7 +40,9 @@ public class RuleHeaderViewModel extends BaseObservable {
             false,
             true,
             false,
-            true
+            true,
+            false,
+            false
     };
 
     private PlaylistStore mPlaylistStore;
@@ -4,6 +4,7 @@ import android.os.Bundle;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,6 +12,7 @@ import android.view.ViewGroup;
 import com.marverenic.adapter.HeterogeneousAdapter;
 import com.marverenic.music.JockeyApplication;
 import com.marverenic.music.R;
+import com.marverenic.music.data.store.LibraryChangeSet;
 import com.marverenic.music.data.store.MusicStore;
 import com.marverenic.music.data.store.PlaylistStore;
 import com.marverenic.music.data.store.PreferenceStore;
@@ -44,21 +46,57 @@ public class SongFragment extends BaseFragment {
     private ShuffleAllSection mShuffleAllSection;
     private SongSection mSongSection;
     private List<Song> mSongs;
+    private long mSongsVersion = LibraryChangeSet.NO_VERSION;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         JockeyApplication.getComponent(this).inject(this);
-        mMusicStore.getSongs()
+        mMusicStore.getSongChanges()
                 .compose(bindToLifecycle())
-                .subscribe(
-                        songs -> {
-                            mSongs = songs;
-                            setupAdapter();
-                        },
+                .subscribe(this::onLibraryChanged,
                         throwable -> Timber.e(throwable, "Failed to get new songs"));
     }
 
+    private void onLibraryChanged(LibraryChangeSet changes) {
+        boolean incremental = changes.appliesTo(mSongsVersion) && mAdapter != null
+                && !mSongs.isEmpty() && !changes.getSongs().isEmpty();
+
+        mSongs = changes.getSongs();
+        mSongsVersion = changes.getVersion();
+
+        if (incremental) {
+            mSongSection.setData(mSongs);
+            mShuffleAllSection.setData(mSongs);
+            mAdapter.notifyItemChanged(0);
+
+            // Songs are shown below the shuffle all button
+            changes.dispatchUpdatesTo(new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    mAdapter.notifyItemRangeInserted(position + 1, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    mAdapter.notifyItemRangeRemoved(position + 1, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    mAdapter.notifyItemMoved(fromPosition + 1, toPosition + 1);
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    mAdapter.notifyItemRangeChanged(position + 1, count, payload);
+                }
+            });
+        } else {
+            setupAdapter();
+        }
+    }
+
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
                              @Nullable Bundle savedInstanceState) {
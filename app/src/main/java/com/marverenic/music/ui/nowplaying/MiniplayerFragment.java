@@ -27,6 +27,8 @@ import timber.log.Timber;
 
 public class MiniplayerFragment extends BaseFragment {
 
+    private static final int DEFAULT_PROGRESS_RESOLUTION_MS = 200;
+
     @Inject PlayerController mPlayerController;
     @Inject ThemeStore mThemeStore;
 
@@ -60,7 +62,10 @@ public class MiniplayerFragment extends BaseFragment {
                     Timber.e(throwable, "Failed to set playing state");
                 });
 
-        mPlayerController.getCurrentPosition()
+        ProgressBar progressBar = mBinding.miniplayerProgress;
+        mPlayerController.getDuration()
+                .switchMap(duration -> mPlayerController.getCurrentPosition(
+                        getProgressResolution(progressBar, duration)))
                 .compose(bindToLifecycle())
                 .subscribe(viewModel::setCurrentPosition, throwable -> {
                     Timber.e(throwable, "Failed to set progress");
@@ -89,7 +94,6 @@ public class MiniplayerFragment extends BaseFragment {
         mBinding.setViewModel(viewModel);
 
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-            ProgressBar progressBar = mBinding.miniplayerProgress;
             LayerDrawable progressBarDrawable = (LayerDrawable) progressBar.getProgressDrawable();
 
             Drawable progress = progressBarDrawable.findDrawableByLayerId(android.R.id.progress);
@@ -99,4 +103,15 @@ public class MiniplayerFragment extends BaseFragment {
         return mBinding.getRoot();
     }
 
+    /**
+     * @return How many milliseconds of a song one pixel of the progress bar represents, so that
+     *         the seek position isn't updated more often than the progress bar can show
+     */
+    private static int getProgressResolution(ProgressBar progressBar, int duration) {
+        int width = progressBar.getWidth();
+        if (width <= 0 || duration <= 0) {
+            return DEFAULT_PROGRESS_RESOLUTION_MS;
+        }
+        return Math.max(duration / width, 1);
+    }
 }
@@ -1,16 +1,25 @@
 package com.marverenic.music.ui.search;
 
 import android.content.Context;
+import android.os.SystemClock;
 import androidx.databinding.Bindable;
 import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
 import androidx.fragment.app.FragmentManager;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.marverenic.adapter.HeterogeneousAdapter;
+import com.marverenic.music.BuildConfig;
 import com.marverenic.music.R;
+import com.marverenic.music.data.search.LibrarySearchResult;
 import com.marverenic.music.data.store.MusicStore;
 import com.marverenic.music.data.store.PlaylistStore;
+import com.marverenic.music.model.Album;
+import com.marverenic.music.model.Artist;
+import com.marverenic.music.model.Genre;
+import com.marverenic.music.model.Playlist;
 import com.marverenic.music.model.Song;
 import com.marverenic.music.player.PlayerController;
 import com.marverenic.music.ui.BaseViewModel;
@@ -22,13 +31,18 @@ import com.marverenic.music.ui.library.artist.ArtistSection;
 import com.marverenic.music.ui.library.genre.GenreSection;
 import com.marverenic.music.ui.library.playlist.PlaylistSection;
 import com.marverenic.music.ui.library.song.SongSection;
+import com.marverenic.music.utils.LatencyStats;
 import com.marverenic.music.utils.StringUtils;
 import com.marverenic.music.view.BackgroundDecoration;
 import com.marverenic.music.view.DividerDecoration;
 import com.marverenic.music.view.GridSpacingDecoration;
 import com.marverenic.music.view.ViewUtils;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
@@ -40,6 +54,8 @@ import static android.R.attr.numColumns;
 
 public class SearchViewModel extends BaseViewModel {
 
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
     private FragmentManager mFragmentManager;
 
     private PlayerController mPlayerController;
@@ -48,6 +64,13 @@ public class SearchViewModel extends BaseViewModel {
 
     private BehaviorSubject<String> mQuerySubject;
 
+    /**
+     * Timings of each search and of diffing its results, or {@code null} if they aren't being
+     * measured. These are only measured in debug builds.
+     */
+    @Nullable
+    private LatencyStats mLatencyStats;
+
     private HeterogeneousAdapter mAdapter;
     private int mColumnCount;
 
@@ -70,6 +93,7 @@ public class SearchViewModel extends BaseViewModel {
         mPlaylistStore = playlistStore;
 
         mQuerySubject = BehaviorSubject.create(initialQuery);
+        mLatencyStats = BuildConfig.DEBUG ? new LatencyStats() : null;
 
         createAdapter(songSelectedListener);
         observeSearchQuery();
@@ -112,65 +136,86 @@ public class SearchViewModel extends BaseViewModel {
         });
     }
 
-    private Observable<String> getQueryObservable() {
-        return mQuerySubject.distinctUntilChanged();
-    }
-
     private void observeSearchQuery() {
-        getQueryObservable()
-                .subscribeOn(Schedulers.io())
-                .flatMap(query -> mPlaylistStore.searchForPlaylists(query))
+        mQuerySubject
+                .publish(queries -> Observable.merge(
+                        queries.take(1),
+                        queries.skip(1).debounce(this::getDebounceTimer)))
+                .distinctUntilChanged()
+                .switchMap(this::search)
+                .observeOn(Schedulers.computation())
+                .scan(this::diff)
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(playlists -> {
-                    mPlaylistSection.setData(playlists);
-                    mAdapter.notifyDataSetChanged();
-                }, throwable -> {
-                    Timber.e(throwable, "Failed to search for playlists");
+                .subscribe(this::onSearchResult, throwable -> {
+                    Timber.e(throwable, "Failed to search library");
                 });
+    }
 
-        getQueryObservable()
-                .subscribeOn(Schedulers.io())
-                .flatMap(query -> mMusicStore.searchForSongs(query))
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(songs -> {
-                    mSongSection.setData(songs);
-                    mAdapter.notifyDataSetChanged();
-                }, throwable -> {
-                    Timber.e(throwable, "Failed to search for songs");
-                });
+    /**
+     * Waits for typing to pause before running a search. Clearing the query doesn't start a
+     * search, so there's no reason to delay it.
+     */
+    private Observable<Long> getDebounceTimer(String query) {
+        long delay = StringUtils.isEmpty(query) ? 0 : SEARCH_DEBOUNCE_MS;
+        return Observable.timer(delay, TimeUnit.MILLISECONDS);
+    }
 
-        getQueryObservable()
-                .subscribeOn(Schedulers.io())
-                .flatMap(query -> mMusicStore.searchForAlbums(query))
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(albums -> {
-                    mAlbumSection.setData(albums);
-                    mAdapter.notifyDataSetChanged();
-                }, throwable -> {
-                    Timber.e(throwable, "Failed to search for albums");
+    /**
+     * Searches every section for a query. Unsubscribing from the returned observable cancels the
+     * search if it hasn't finished yet, which happens when it's superseded by a newer query.
+     */
+    private Observable<SearchResult> search(String query) {
+        Observable<SearchResult> search = Observable.combineLatest(
+                mPlaylistStore.searchForPlaylists(query),
+                mMusicStore.search(query),
+                (playlists, library) -> new SearchResult(playlists, library))
+                .subscribeOn(Schedulers.computation());
+
+        if (mLatencyStats == null) {
+            return search;
+        }
+
+        LatencyStats stats = mLatencyStats;
+        long startTime = SystemClock.elapsedRealtime();
+        AtomicBoolean finished = new AtomicBoolean(false);
+
+        return search
+                .doOnNext(result -> {
+                    if (!finished.getAndSet(true)) {
+                        stats.record("search", SystemClock.elapsedRealtime() - startTime);
+                        Timber.d("Search latency: %s", stats);
+                    }
+                })
+                .doOnUnsubscribe(() -> {
+                    if (!finished.get()) {
+                        stats.recordCancellation("search");
+                    }
                 });
+    }
 
-        getQueryObservable()
-                .subscribeOn(Schedulers.io())
-                .flatMap(query -> mMusicStore.searchForArtists(query))
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(artists -> {
-                    mArtistSection.setData(artists);
-                    mAdapter.notifyDataSetChanged();
-                }, throwable -> {
-                    Timber.e(throwable, "Failed to search for artists");
-                });
+    private SearchResult diff(SearchResult previous, SearchResult next) {
+        if (mLatencyStats == null) {
+            return next.diffAgainst(previous);
+        }
 
-        getQueryObservable()
-                .subscribeOn(Schedulers.io())
-                .flatMap(query -> mMusicStore.searchForGenres(query))
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(genres -> {
-                    mGenreSection.setData(genres);
-                    mAdapter.notifyDataSetChanged();
-                }, throwable -> {
-                    Timber.e(throwable, "Failed to search for genres");
-                });
+        long startTime = SystemClock.elapsedRealtime();
+        SearchResult result = next.diffAgainst(previous);
+        mLatencyStats.record("diff", SystemClock.elapsedRealtime() - startTime);
+        return result;
+    }
+
+    private void onSearchResult(SearchResult result) {
+        mPlaylistSection.setData(result.mPlaylists);
+        mSongSection.setData(result.mSongs);
+        mAlbumSection.setData(result.mAlbums);
+        mArtistSection.setData(result.mArtists);
+        mGenreSection.setData(result.mGenres);
+
+        if (result.mDiff == null) {
+            mAdapter.notifyDataSetChanged();
+        } else {
+            result.mDiff.dispatchUpdatesTo(mAdapter);
+        }
     }
 
     public void setCurrentSong(Song nowPlaying) {
@@ -220,4 +265,80 @@ public class SearchViewModel extends BaseViewModel {
         };
     }
 
+    /**
+     * The results of a search in every section, in the same order that they're shown in the
+     * adapter. Each result also holds the changes from the result that was shown before it.
+     */
+    private static final class SearchResult {
+
+        private final List<Playlist> mPlaylists;
+        private final List<Song> mSongs;
+        private final List<Album> mAlbums;
+        private final List<Artist> mArtists;
+        private final List<Genre> mGenres;
+
+        // Every row in the adapter. Headers are represented by their string resource.
+        private final List<Object> mRows;
+
+        @Nullable
+        private DiffUtil.DiffResult mDiff;
+
+        SearchResult(List<Playlist> playlists, LibrarySearchResult library) {
+            mPlaylists = playlists;
+            mSongs = library.getSongs();
+            mAlbums = library.getAlbums();
+            mArtists = library.getArtists();
+            mGenres = library.getGenres();
+
+            mRows = new ArrayList<>();
+            addSection(R.string.header_playlists, mPlaylists);
+            addSection(R.string.header_songs, mSongs);
+            addSection(R.string.header_albums, mAlbums);
+            addSection(R.string.header_artists, mArtists);
+            addSection(R.string.header_genres, mGenres);
+        }
+
+        private void addSection(@StringRes int header, List<?> items) {
+            // Matches HeaderSection, which is only shown above non-empty sections
+            if (!items.isEmpty()) {
+                mRows.add(header);
+                mRows.addAll(items);
+            }
+        }
+
+        SearchResult diffAgainst(SearchResult previous) {
+            // The adapter shows an empty state instead of rows when there are no results, so it
+            // has to be reset if the empty state will be added or removed
+            if (previous.mRows.isEmpty() || mRows.isEmpty()) {
+                mDiff = null;
+                return this;
+            }
+
+            List<Object> oldRows = previous.mRows;
+            mDiff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return oldRows.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return mRows.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                    return oldRows.get(oldItemPosition).equals(mRows.get(newItemPosition));
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                    // Model objects are replaced whenever the library reloads them
+                    return oldRows.get(oldItemPosition) == mRows.get(newItemPosition);
+                }
+            });
+            return this;
+        }
+    }
+
 }
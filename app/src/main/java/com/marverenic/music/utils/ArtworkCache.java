@@ -0,0 +1,730 @@
+package com.marverenic.music.utils;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.provider.MediaStore;
+import androidx.annotation.Nullable;
+import android.util.LruCache;
+
+import com.marverenic.music.model.ModelUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Resolves and caches the artwork of songs.
+ *
+ * Finding a song's artwork means extracting its embedded picture, looking for a cover image in
+ * its folder, and finally asking the MediaStore for its album's artwork. This class only does
+ * that once for each version of a song file, and remembers the result in two tiers:
+ *
+ * The first tier maps a song to the artwork that it resolved to. Songs are keyed by their path
+ * and modification time, so editing a file invalidates its entry. Artwork is identified
+ * by a hash of its encoded image, which means that every song in an album with the same cover
+ * shares a single set of thumbnails. Songs without any artwork are remembered too, so they don't
+ * have to be resolved again. These entries are kept in memory and on disk. On disk, each song
+ * has a single entry that is replaced when the song's file changes.
+ *
+ * The second tier holds thumbnails of each piece of artwork that have been scaled down to one of
+ * {@link #THUMBNAIL_SIZES} on disk. Once a song's artwork has been resolved, loading it again is
+ * a single decode of a small image. Thumbnails are stored as JPEGs, unless the artwork has
+ * transparent pixels, in which case they're stored as PNGs so that the transparency is kept.
+ *
+ * Entries and thumbnails on disk share a budget of {@link #MAX_DISK_BYTES}. Files are touched
+ * whenever they're read, and the least recently used files are deleted once the budget is
+ * exceeded.
+ */
+public final class ArtworkCache {
+
+    private static final String DIRECTORY_NAME = "artwork";
+    private static final String INDEX_DIRECTORY_NAME = "index";
+    private static final String THUMBNAIL_DIRECTORY_NAME = "thumbnails";
+
+    private static final int[] THUMBNAIL_SIZES = {256, 512, 1024, 2048};
+    private static final int THUMBNAIL_QUALITY = 90;
+
+    private static final int MEMORY_ENTRY_COUNT = 1024;
+    private static final long MAX_DISK_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * The value stored for songs that don't have any artwork
+     */
+    private static final String NO_ARTWORK = "";
+
+    private static final List<String> COVER_IMAGE_NAMES = Arrays.asList(
+            "cover.jpg",
+            "folder.jpg"
+    );
+
+    /**
+     * The image formats that can have transparent pixels
+     */
+    private static final List<String> ALPHA_MIME_TYPES = Arrays.asList(
+            "image/png",
+            "image/webp",
+            "image/gif"
+    );
+
+    private static ArtworkCache sInstance;
+
+    private final Context mContext;
+    private final File mIndexDirectory;
+    private final File mThumbnailDirectory;
+    private final long mMaxDiskBytes;
+
+    /**
+     * Maps song keys to the hash of their artwork, or {@link #NO_ARTWORK}
+     */
+    private final LruCache<String, String> mResolvedArtwork;
+
+    private final Object mTrimLock = new Object();
+    private long mDiskBytes = -1;
+
+    /**
+     * @param directory The directory to store index entries and thumbnails in
+     * @param maxDiskBytes The number of bytes that index entries and thumbnails can use on disk
+     */
+    ArtworkCache(Context context, File directory, long maxDiskBytes) {
+        mContext = context.getApplicationContext();
+        mIndexDirectory = new File(directory, INDEX_DIRECTORY_NAME);
+        mThumbnailDirectory = new File(directory, THUMBNAIL_DIRECTORY_NAME);
+        mMaxDiskBytes = maxDiskBytes;
+        mResolvedArtwork = new LruCache<>(MEMORY_ENTRY_COUNT);
+    }
+
+    public static synchronized ArtworkCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getCacheDir(), DIRECTORY_NAME);
+            sInstance = new ArtworkCache(context, directory, MAX_DISK_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Loads the artwork of a song. This method blocks, and should not be called on the main
+     * thread.
+     * @param songLocation The location of the song
+     * @param albumId The ID of the song's album, or {@code -1} if it isn't known. This is only
+     *                used to skip a MediaStore query when falling back to the album's artwork.
+     * @param size The maximum width and height of the loaded artwork
+     * @param highQuality Whether to decode the artwork with a full 32 bits per pixel
+     * @return The song's artwork, or {@code null} if the song doesn't have any artwork
+     */
+    @Nullable
+    public Bitmap getArtwork(Uri songLocation, long albumId, int size, boolean highQuality) {
+        return getArtwork(songLocation, albumId, size, highQuality, null);
+    }
+
+    /**
+     * Loads the artwork of a song, decoding it into a bitmap from a pool if possible. This method
+     * blocks, and should not be called on the main thread.
+     * @param songLocation The location of the song
+     * @param albumId The ID of the song's album, or {@code -1} if it isn't known
+     * @param size The maximum width and height of the loaded artwork
+     * @param highQuality Whether to decode the artwork with a full 32 bits per pixel
+     * @param pool A pool of bitmaps to decode cached thumbnails into, or {@code null} to always
+     *             allocate a new bitmap. Thumbnails that are decoded with a pool are mutable, so
+     *             that they can be returned to the pool later. Artwork that is resolved for the
+     *             first time may be immutable, so check {@link Bitmap#isMutable()} before putting
+     *             a returned bitmap in the pool.
+     * @return The song's artwork, or {@code null} if the song doesn't have any artwork
+     */
+    @Nullable
+    public Bitmap getArtwork(Uri songLocation, long albumId, int size, boolean highQuality,
+                             @Nullable BitmapPool pool) {
+        Bitmap.Config config = (highQuality) ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+        int thumbnailSize = getThumbnailSize(size);
+
+        String key = getKey(songLocation);
+        String hash = (key == null) ? null : getResolvedArtwork(key);
+
+        if (NO_ARTWORK.equals(hash)) {
+            return null;
+        } else if (hash != null) {
+            Bitmap thumbnail = decodeThumbnail(hash, thumbnailSize, config, pool);
+            if (thumbnail != null) {
+                return thumbnail;
+            }
+        }
+
+        // The song hasn't been resolved before, or its thumbnail was evicted
+        byte[] artwork = resolveArtwork(songLocation, albumId);
+        return createThumbnail(songLocation, key, artwork, thumbnailSize, config);
+    }
+
+    /**
+     * Resolves a song's artwork and writes a thumbnail for each of the given sizes, so that later
+     * calls to {@link #getArtwork(Uri, long, int, boolean)} with these sizes only need to decode
+     * a thumbnail. The artwork is only resolved once, no matter how many sizes are missing.
+     * This method blocks, and should not be called on the main thread.
+     * @param songLocation The location of the song
+     * @param albumId The ID of the song's album, or {@code -1} if it isn't known
+     * @param sizes The maximum widths and heights of the thumbnails to write
+     * @return The song's artwork with a maximum size of {@code sizes[0]}, or {@code null} if the
+     *         song doesn't have any artwork
+     */
+    @Nullable
+    public Bitmap preload(Uri songLocation, long albumId, int[] sizes) {
+        Bitmap.Config config = Bitmap.Config.ARGB_8888;
+        String key = getKey(songLocation);
+
+        byte[] artwork = null;
+        Bitmap result = null;
+
+        for (int i = 0; i < sizes.length; i++) {
+            int thumbnailSize = getThumbnailSize(sizes[i]);
+            String hash = (key == null) ? null : getResolvedArtwork(key);
+
+            if (NO_ARTWORK.equals(hash)) {
+                return null;
+            } else if (hash != null && getThumbnailFile(hash, thumbnailSize).exists()) {
+                if (i > 0) {
+                    continue;
+                }
+
+                result = decodeThumbnail(hash, thumbnailSize, config, null);
+                if (result != null) {
+                    continue;
+                }
+            }
+
+            if (artwork == null) {
+                artwork = resolveArtwork(songLocation, albumId);
+            }
+
+            Bitmap thumbnail = createThumbnail(songLocation, key, artwork, thumbnailSize, config);
+            if (thumbnail == null) {
+                return null;
+            } else if (i == 0) {
+                result = thumbnail;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Scales down a song's artwork, writes it to disk as a thumbnail, and remembers what the
+     * song's artwork resolved to
+     * @param artwork The encoded artwork, or {@code null} if the song doesn't have any artwork
+     * @return The thumbnail, or {@code null} if the song doesn't have any artwork that can be
+     *         decoded
+     */
+    @Nullable
+    private Bitmap createThumbnail(Uri songLocation, @Nullable String key,
+                                  @Nullable byte[] artwork, int thumbnailSize,
+                                  Bitmap.Config config) {
+        if (artwork == null) {
+            putResolvedArtwork(key, NO_ARTWORK);
+            return null;
+        }
+
+        Bitmap thumbnail = decodeScaled(artwork, thumbnailSize, config);
+        if (thumbnail == null) {
+            Timber.w("Artwork for %s could not be decoded", songLocation);
+            putResolvedArtwork(key, NO_ARTWORK);
+            return null;
+        }
+
+        String hash = hash(artwork);
+        writeThumbnail(hash, thumbnailSize, thumbnail);
+        putResolvedArtwork(key, hash);
+        return thumbnail;
+    }
+
+    private static int getThumbnailSize(int size) {
+        for (int thumbnailSize : THUMBNAIL_SIZES) {
+            if (thumbnailSize >= size) {
+                return thumbnailSize;
+            }
+        }
+        return THUMBNAIL_SIZES[THUMBNAIL_SIZES.length - 1];
+    }
+
+    /**
+     * @return The key of the current version of a song, or {@code null} if the song isn't a
+     *         local file that can be cached. Keys are the song's modification time followed by a
+     *         hash of its path.
+     */
+    @Nullable
+    private String getKey(Uri songLocation) {
+        String path = UriUtils.getPathFromUri(mContext, songLocation);
+        if (path == null) {
+            return null;
+        }
+
+        long lastModified = new File(path).lastModified();
+        if (lastModified == 0) {
+            return null;
+        }
+
+        return Long.toHexString(lastModified) + "-" + hash(path.getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * @return The file that holds the index entry of a song. The file is only named after the
+     *         song's path, so that the entry for an older version of the song is replaced instead
+     *         of being left behind. The full key is written into the file to tell versions apart.
+     */
+    private File getIndexFile(String key) {
+        return new File(mIndexDirectory, key.substring(key.indexOf('-') + 1));
+    }
+
+    @Nullable
+    private String getResolvedArtwork(String key) {
+        String hash = mResolvedArtwork.get(key);
+        if (hash != null) {
+            return hash;
+        }
+
+        File indexFile = getIndexFile(key);
+        if (!indexFile.exists()) {
+            return null;
+        }
+
+        String entry;
+        try {
+            entry = new String(readFile(indexFile), Charset.forName("UTF-8"));
+        } catch (IOException e) {
+            Timber.w(e, "Failed to read artwork index entry");
+            return null;
+        }
+
+        int separator = entry.indexOf('\n');
+        if (separator < 0 || !key.equals(entry.substring(0, separator))) {
+            // This entry is for an older version of the song
+            return null;
+        }
+
+        touch(indexFile);
+        hash = entry.substring(separator + 1);
+        mResolvedArtwork.put(key, hash);
+        return hash;
+    }
+
+    private void putResolvedArtwork(@Nullable String key, String hash) {
+        if (key == null) {
+            return;
+        }
+
+        mResolvedArtwork.put(key, hash);
+
+        File indexFile = getIndexFile(key);
+        long previousLength = indexFile.length();
+        try {
+            writeFile(indexFile, (key + "\n" + hash).getBytes(Charset.forName("UTF-8")));
+        } catch (IOException e) {
+            Timber.w(e, "Failed to write artwork index entry");
+            return;
+        }
+
+        trimDiskCache(indexFile.length() - previousLength);
+    }
+
+    @Nullable
+    private Bitmap decodeThumbnail(String hash, int thumbnailSize, Bitmap.Config config,
+                                   @Nullable BitmapPool pool) {
+        File thumbnail = getThumbnailFile(hash, thumbnailSize);
+        if (!thumbnail.exists()) {
+            return null;
+        }
+        touch(thumbnail);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+
+        if (pool != null) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(thumbnail.getPath(), options);
+            options.inJustDecodeBounds = false;
+            options.inMutable = true;
+
+            if (options.outWidth > 0 && options.outHeight > 0) {
+                options.inBitmap = pool.get(options.outWidth, options.outHeight, config);
+            }
+
+            if (options.inBitmap != null) {
+                try {
+                    return BitmapFactory.decodeFile(thumbnail.getPath(), options);
+                } catch (IllegalArgumentException e) {
+                    // The pooled bitmap couldn't be reused after all
+                    options.inBitmap = null;
+                }
+            }
+        }
+
+        return BitmapFactory.decodeFile(thumbnail.getPath(), options);
+    }
+
+    private void writeThumbnail(String hash, int thumbnailSize, Bitmap thumbnail) {
+        File file = getThumbnailFile(hash, thumbnailSize);
+        long previousLength = file.length();
+
+        try {
+            File temp = createTempFile(file);
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                Bitmap.CompressFormat format = (thumbnail.hasAlpha())
+                        ? Bitmap.CompressFormat.PNG
+                        : Bitmap.CompressFormat.JPEG;
+                thumbnail.compress(format, THUMBNAIL_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            replaceFile(temp, file);
+        } catch (IOException e) {
+            Timber.w(e, "Failed to write artwork thumbnail");
+            return;
+        }
+
+        trimDiskCache(file.length() - previousLength);
+    }
+
+    /**
+     * @return The file that holds a thumbnail. Thumbnails don't have a file extension, since they
+     *         can be either JPEGs or PNGs.
+     */
+    private File getThumbnailFile(String hash, int thumbnailSize) {
+        return new File(mThumbnailDirectory, hash + "-" + thumbnailSize);
+    }
+
+    /**
+     * Marks a file as recently used, so that it's one of the last files to be deleted when the
+     * cache is trimmed
+     */
+    private static void touch(File file) {
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Deletes the least recently used index entries and thumbnails if the files on disk take up
+     * more than the cache's budget
+     * @param addedBytes The number of bytes that were just written, less the size of any file
+     *                   that was replaced
+     */
+    private void trimDiskCache(long addedBytes) {
+        synchronized (mTrimLock) {
+            File[] files = null;
+            if (mDiskBytes < 0) {
+                files = listCacheFiles();
+                mDiskBytes = 0;
+                for (File file : files) {
+                    mDiskBytes += file.length();
+                }
+            } else {
+                mDiskBytes += addedBytes;
+            }
+
+            if (mDiskBytes <= mMaxDiskBytes) {
+                return;
+            }
+
+            if (files == null) {
+                files = listCacheFiles();
+            }
+
+            // Read each modification time once, since it may change while sorting
+            long[] lastUsed = new long[files.length];
+            Integer[] order = new Integer[files.length];
+            for (int i = 0; i < files.length; i++) {
+                lastUsed[i] = files[i].lastModified();
+                order[i] = i;
+            }
+
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return ModelUtil.compareLong(lastUsed[lhs], lastUsed[rhs]);
+                }
+            });
+
+            // Trim to three quarters of the limit so that this doesn't happen on every write
+            for (int i : order) {
+                if (mDiskBytes <= mMaxDiskBytes * 3 / 4) {
+                    break;
+                }
+
+                long length = files[i].length();
+                if (files[i].delete()) {
+                    mDiskBytes -= length;
+                }
+            }
+        }
+    }
+
+    private File[] listCacheFiles() {
+        File[] entries = mIndexDirectory.listFiles();
+        File[] thumbnails = mThumbnailDirectory.listFiles();
+        if (entries == null) {
+            entries = new File[0];
+        }
+        if (thumbnails == null) {
+            thumbnails = new File[0];
+        }
+
+        File[] files = Arrays.copyOf(entries, entries.length + thumbnails.length);
+        System.arraycopy(thumbnails, 0, files, entries.length, thumbnails.length);
+        return files;
+    }
+
+    /**
+     * Finds the artwork of a song from its embedded picture, a cover image in its folder, or the
+     * MediaStore, in that order
+     * @return The encoded artwork, or {@code null} if the song doesn't have any artwork
+     */
+    @Nullable
+    private byte[] resolveArtwork(Uri songLocation, long albumId) {
+        byte[] embedded = fetchEmbeddedArtwork(songLocation);
+        if (embedded != null) {
+            return embedded;
+        }
+
+        try {
+            File folderImage = resolveFolderArtwork(songLocation);
+            if (folderImage != null) {
+                return readFile(folderImage);
+            }
+
+            String mediaStoreArtwork = resolveMediaStoreArtwork(songLocation, albumId);
+            if (mediaStoreArtwork != null) {
+                return readFile(new File(mediaStoreArtwork));
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Failed to read artwork for %s", songLocation);
+        }
+
+        return null;
+    }
+
+    @Nullable
+    private byte[] fetchEmbeddedArtwork(Uri songLocation) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+
+        try {
+            retriever.setDataSource(mContext, songLocation);
+            return retriever.getEmbeddedPicture();
+        } catch (RuntimeException e) {
+            Timber.e(e, "Failed to load full song artwork");
+        } catch (OutOfMemoryError e) {
+            Timber.e(e, "Unable to allocate space on the heap for full song artwork");
+        } finally {
+            retriever.release();
+        }
+
+        return null;
+    }
+
+    @Nullable
+    private File resolveFolderArtwork(Uri songLocation) {
+        String path = UriUtils.getPathFromUri(mContext, songLocation);
+        if (path == null) {
+            return null;
+        }
+
+        File directory = new File(path).getParentFile();
+        for (String cover : COVER_IMAGE_NAMES) {
+            File image = new File(directory, cover);
+            if (image.canRead()) {
+                return image;
+            }
+        }
+
+        return null;
+    }
+
+    @Nullable
+    private String resolveMediaStoreArtwork(Uri songLocation, long albumId) {
+        Cursor songCursor = null;
+        Cursor albumCursor = null;
+        try {
+            if (albumId < 0) {
+                String[] songProjection = new String[] { MediaStore.Audio.AudioColumns.ALBUM_ID };
+
+                songCursor = mContext.getContentResolver().query(
+                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                        songProjection, MediaStore.Audio.AudioColumns.DATA + " = ?",
+                        new String[] { songLocation.getPath() }, null);
+
+                if (songCursor == null || !songCursor.moveToFirst()) {
+                    return null;
+                }
+
+                albumId = songCursor.getLong(0);
+            }
+
+            String[] albumProjection = new String[] { MediaStore.Audio.AlbumColumns.ALBUM_ART };
+            albumCursor = mContext.getContentResolver().query(
+                    MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, albumProjection,
+                    MediaStore.Audio.AudioColumns._ID + " = " + albumId, null, null);
+
+            if (albumCursor == null || !albumCursor.moveToFirst()) {
+                return null;
+            }
+
+            return albumCursor.getString(0);
+        } finally {
+            if (songCursor != null) {
+                songCursor.close();
+            }
+            if (albumCursor != null) {
+                albumCursor.close();
+            }
+        }
+    }
+
+    /**
+     * Decodes an image so that neither of its sides is larger than {@code maxSize}. Images that
+     * are already smaller than this are not scaled up. Images in a format that can be transparent
+     * are always decoded with 32 bits per pixel, so that their thumbnails keep their transparency.
+     */
+    @Nullable
+    private static Bitmap decodeScaled(byte[] data, int maxSize, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= maxSize
+                && options.outHeight / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+
+        if (ALPHA_MIME_TYPES.contains(options.outMimeType)) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (OutOfMemoryError e) {
+            Timber.e(e, "Unable to allocate space on the heap for artwork");
+            return null;
+        }
+
+        if (bitmap == null) {
+            return null;
+        }
+
+        float scale = (float) maxSize / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (scale < 1) {
+            int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+            int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+            }
+            bitmap = scaled;
+        }
+
+        return bitmap;
+    }
+
+    private static String hash(byte[] data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported", e);
+        }
+
+        byte[] hash = digest.digest(data);
+        StringBuilder builder = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    return Arrays.copyOf(data, offset);
+                }
+                offset += read;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        File temp = createTempFile(file);
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        replaceFile(temp, file);
+    }
+
+    /**
+     * Creates a uniquely named file next to {@code file}, so that threads writing the same entry
+     * at the same time don't write into each other's files
+     */
+    private static File createTempFile(File file) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        return File.createTempFile(file.getName(), ".tmp", directory);
+    }
+
+    private static void replaceFile(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    /**
+     * A source of bitmaps that are no longer in use, which artwork can be decoded into instead of
+     * allocating a new bitmap
+     */
+    public interface BitmapPool {
+
+        /**
+         * Removes a bitmap from the pool that an image can be decoded into
+         * @param width The width of the image
+         * @param height The height of the image
+         * @param config The config that the image will be decoded with
+         * @return A mutable bitmap that can be passed to {@link BitmapFactory.Options#inBitmap},
+         *         or {@code null} if the pool doesn't have a suitable bitmap
+         */
+        @Nullable
+        Bitmap get(int width, int height, Bitmap.Config config);
+    }
+}
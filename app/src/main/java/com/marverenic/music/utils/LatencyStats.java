@@ -0,0 +1,104 @@
+package com.marverenic.music.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Aggregates how long named operations take. Only the count, total, and maximum duration of each
+ * operation are kept, so recording a measurement takes constant time and memory no matter how
+ * many times an operation runs. This class is thread-safe.
+ */
+public final class LatencyStats {
+
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+
+    /**
+     * @param operation The name of the operation that finished
+     * @param durationMs How long the operation took, in milliseconds
+     */
+    public synchronized void record(String operation, long durationMs) {
+        Entry entry = getEntry(operation);
+        entry.mCount++;
+        entry.mTotalMs += durationMs;
+        entry.mMaxMs = Math.max(entry.mMaxMs, durationMs);
+    }
+
+    /**
+     * Records that an operation was stopped before it finished. Cancelled operations aren't
+     * included in the mean or max durations.
+     * @param operation The name of the operation that was cancelled
+     */
+    public synchronized void recordCancellation(String operation) {
+        getEntry(operation).mCancelledCount++;
+    }
+
+    private Entry getEntry(String operation) {
+        Entry entry = mEntries.get(operation);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(operation, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @return The number of times an operation has finished
+     */
+    public synchronized int getCount(String operation) {
+        Entry entry = mEntries.get(operation);
+        return (entry == null) ? 0 : entry.mCount;
+    }
+
+    /**
+     * @return The number of times an operation has been cancelled
+     */
+    public synchronized int getCancelledCount(String operation) {
+        Entry entry = mEntries.get(operation);
+        return (entry == null) ? 0 : entry.mCancelledCount;
+    }
+
+    /**
+     * @return The mean duration of an operation in milliseconds, or 0 if it has never finished
+     */
+    public synchronized long getMeanMs(String operation) {
+        Entry entry = mEntries.get(operation);
+        return (entry == null || entry.mCount == 0) ? 0 : entry.mTotalMs / entry.mCount;
+    }
+
+    /**
+     * @return The longest duration of an operation in milliseconds, or 0 if it has never finished
+     */
+    public synchronized long getMaxMs(String operation) {
+        Entry entry = mEntries.get(operation);
+        return (entry == null) ? 0 : entry.mMaxMs;
+    }
+
+    /**
+     * @return A summary of every operation, in the order that they were first recorded
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Entry> operation : mEntries.entrySet()) {
+            Entry entry = operation.getValue();
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+
+            builder.append(operation.getKey())
+                    .append(" {count=").append(entry.mCount)
+                    .append(", mean=").append(getMeanMs(operation.getKey())).append("ms")
+                    .append(", max=").append(entry.mMaxMs).append("ms")
+                    .append(", cancelled=").append(entry.mCancelledCount)
+                    .append('}');
+        }
+        return builder.toString();
+    }
+
+    private static final class Entry {
+        int mCount;
+        int mCancelledCount;
+        long mTotalMs;
+        long mMaxMs;
+    }
+}
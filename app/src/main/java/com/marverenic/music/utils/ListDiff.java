@@ -0,0 +1,213 @@
+package com.marverenic.music.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Finds a small set of removals and insertions that turn one list into another. Unlike
+ * {@link androidx.recyclerview.widget.DiffUtil}, this doesn't look for the shortest possible
+ * edit script, but it runs in O(n log n) time so it can be used on lists with tens of thousands
+ * of items.
+ *
+ * Items that are kept are found by matching equal items between the two lists and picking the
+ * longest run of matches that are still in the same relative order. Every other old item is
+ * removed, and every other new item is inserted. This means that inserting, removing or moving a
+ * single item only produces one or two edits, regardless of the length of the list.
+ */
+public final class ListDiff {
+
+    private final int[] mOldIndices;
+    private final int[] mRemovedIndices;
+    private final int[] mInsertedIndices;
+
+    private ListDiff(int[] oldIndices, int[] removedIndices, int[] insertedIndices) {
+        mOldIndices = oldIndices;
+        mRemovedIndices = removedIndices;
+        mInsertedIndices = insertedIndices;
+    }
+
+    /**
+     * @return The indices of the items in the old list that were removed, in ascending order
+     */
+    public int[] getRemovedIndices() {
+        return mRemovedIndices;
+    }
+
+    /**
+     * @return The indices of the items in the new list that were inserted, in ascending order
+     */
+    public int[] getInsertedIndices() {
+        return mInsertedIndices;
+    }
+
+    /**
+     * @param newIndex The index of an item in the new list
+     * @return The index of the same item in the old list, or -1 if the item was inserted
+     */
+    public int getOldIndex(int newIndex) {
+        return mOldIndices[newIndex];
+    }
+
+    /**
+     * @return The total number of items that were removed or inserted
+     */
+    public int getEditCount() {
+        return mRemovedIndices.length + mInsertedIndices.length;
+    }
+
+    public static <T> ListDiff compute(List<T> oldItems, List<T> newItems) {
+        int oldSize = oldItems.size();
+        int newSize = newItems.size();
+        int minSize = Math.min(oldSize, newSize);
+
+        // Most edits only touch a small part of the list, so skip over the common prefix and
+        // suffix before doing anything more expensive
+        int prefix = 0;
+        while (prefix < minSize && oldItems.get(prefix).equals(newItems.get(prefix))) {
+            prefix++;
+        }
+
+        int suffix = 0;
+        while (suffix < minSize - prefix && oldItems.get(oldSize - 1 - suffix)
+                .equals(newItems.get(newSize - 1 - suffix))) {
+            suffix++;
+        }
+
+        int oldEnd = oldSize - suffix;
+        int newEnd = newSize - suffix;
+
+        // Match each new item with the first unused equal item in the old list
+        Map<T, Queue<Integer>> oldPositions = new HashMap<>();
+        for (int i = prefix; i < oldEnd; i++) {
+            T item = oldItems.get(i);
+            Queue<Integer> positions = oldPositions.get(item);
+            if (positions == null) {
+                positions = new ArrayDeque<>();
+                oldPositions.put(item, positions);
+            }
+            positions.add(i);
+        }
+
+        int[] matches = new int[newEnd - prefix];
+        for (int i = prefix; i < newEnd; i++) {
+            Queue<Integer> positions = oldPositions.get(newItems.get(i));
+            Integer match = (positions == null) ? null : positions.poll();
+            matches[i - prefix] = (match == null) ? -1 : match;
+        }
+
+        boolean[] keptNew = findLongestIncreasingRun(matches);
+        boolean[] keptOld = new boolean[oldEnd - prefix];
+
+        int[] oldIndices = new int[newSize];
+        for (int i = 0; i < prefix; i++) {
+            oldIndices[i] = i;
+        }
+        for (int i = 0; i < suffix; i++) {
+            oldIndices[newEnd + i] = oldEnd + i;
+        }
+
+        int[] inserted = new int[matches.length];
+        int insertedCount = 0;
+        for (int i = 0; i < matches.length; i++) {
+            if (keptNew[i]) {
+                oldIndices[prefix + i] = matches[i];
+                keptOld[matches[i] - prefix] = true;
+            } else {
+                oldIndices[prefix + i] = -1;
+                inserted[insertedCount++] = prefix + i;
+            }
+        }
+
+        int[] removed = new int[keptOld.length];
+        int removedCount = 0;
+        for (int i = 0; i < keptOld.length; i++) {
+            if (!keptOld[i]) {
+                removed[removedCount++] = prefix + i;
+            }
+        }
+
+        return new ListDiff(oldIndices, Arrays.copyOf(removed, removedCount),
+                Arrays.copyOf(inserted, insertedCount));
+    }
+
+    /**
+     * Finds the longest increasing subsequence of matched positions in O(n log n) time
+     * @param matches The old position matched with each new item, or -1 if there is no match
+     * @return Which of the new items are part of the subsequence and can be kept
+     */
+    private static boolean[] findLongestIncreasingRun(int[] matches) {
+        // tails[k] is the index into matches of the smallest value that ends a run of length k+1
+        int[] tails = new int[matches.length];
+        int[] predecessors = new int[matches.length];
+        int length = 0;
+
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i] < 0) {
+                continue;
+            }
+
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (matches[tails[mid]] < matches[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            predecessors[i] = (low > 0) ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] kept = new boolean[matches.length];
+        for (int i = (length > 0) ? tails[length - 1] : -1; i >= 0; i = predecessors[i]) {
+            kept[i] = true;
+        }
+        return kept;
+    }
+
+    /**
+     * Rebuilds the new list of a diff from the old list
+     * @param oldItems The list that the diff was computed from
+     * @param removedIndices The result of {@link #getRemovedIndices()}
+     * @param insertedIndices The result of {@link #getInsertedIndices()}
+     * @param insertedItems The items at each of the inserted indices, in the same order
+     * @return A new list with the edits applied
+     */
+    public static <T> List<T> apply(List<T> oldItems, int[] removedIndices,
+                                    int[] insertedIndices, List<T> insertedItems) {
+        if (insertedIndices.length != insertedItems.size()) {
+            throw new IllegalArgumentException("Expected " + insertedIndices.length
+                    + " inserted items, but got " + insertedItems.size());
+        }
+
+        int newSize = oldItems.size() - removedIndices.length + insertedIndices.length;
+        List<T> newItems = new ArrayList<>(newSize);
+
+        int oldIndex = 0;
+        int removed = 0;
+        int inserted = 0;
+        while (newItems.size() < newSize) {
+            if (inserted < insertedIndices.length
+                    && insertedIndices[inserted] == newItems.size()) {
+                newItems.add(insertedItems.get(inserted++));
+            } else if (removed < removedIndices.length && removedIndices[removed] == oldIndex) {
+                removed++;
+                oldIndex++;
+            } else {
+                newItems.add(oldItems.get(oldIndex++));
+            }
+        }
+        return newItems;
+    }
+}
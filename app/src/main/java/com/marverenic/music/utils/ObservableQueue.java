@@ -2,27 +2,62 @@ package com.marverenic.music.utils;
 
 import androidx.annotation.NonNull;
 
-import java.util.ArrayDeque;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import rx.Observable;
-import rx.subjects.ReplaySubject;
+import rx.Producer;
+import rx.Subscriber;
+import rx.exceptions.Exceptions;
 
 /**
  * A data structure that combines a queue with an observable stream. Objects can be enqueued to the
  * queue, and will be sent in order to the observable returned  by {@link #toObservable()}. Objects
  * are removed from the queue immediately before they are delivered to the subscriber.
+ *
+ * This queue is lock-free. Any number of threads may enqueue objects, which are added to a
+ * linked list with a single atomic swap. Objects are delivered by a drain loop that only runs on
+ * one thread at a time. Whichever thread finds the loop idle runs it until the queue is empty or
+ * the subscriber stops requesting more objects.
  * @param <T>
  */
 public class ObservableQueue<T> {
 
-    private final Object mLock = new Object();
+    /**
+     * The most recently enqueued node. Producers swap themselves in here.
+     */
+    private final AtomicReference<Node<T>> mTail;
+    /**
+     * The node before the next object to deliver. Only accessed by the drain loop.
+     */
+    private Node<T> mHead;
+
+    /**
+     * The consumer created by the last call to {@link #toObservable()}
+     */
+    private final AtomicReference<Consumer> mCurrentConsumer;
+    /**
+     * Consumers that were replaced by a later call to {@link #toObservable()} and need to be
+     * completed by the drain loop
+     */
+    private final Queue<Consumer> mRetiredConsumers;
 
-    private Queue<T> mQueue;
-    private ReplaySubject<T> mSubject;
+    /**
+     * The number of times that {@link #drain()} has been called since the drain loop last checked
+     * for work. The drain loop is only running when this is non-zero.
+     */
+    private final AtomicInteger mWorkInProgress;
 
     public ObservableQueue() {
-        mQueue = new ArrayDeque<>();
+        mHead = new Node<>(null);
+        mTail = new AtomicReference<>(mHead);
+        mCurrentConsumer = new AtomicReference<>();
+        mRetiredConsumers = new ConcurrentLinkedQueue<>();
+        mWorkInProgress = new AtomicInteger();
     }
 
     /**
@@ -31,12 +66,15 @@ public class ObservableQueue<T> {
      * @param value The value to be enqueued. Must not be null.
      */
     public void enqueue(@NonNull T value) {
-        synchronized (mLock) {
-            mQueue.add(value);
-            if (mSubject != null) {
-                mSubject.onNext(value);
-            }
+        if (value == null) {
+            throw new NullPointerException("Cannot enqueue null");
         }
+
+        Node<T> node = new Node<>(value);
+        Node<T> previous = mTail.getAndSet(node);
+        previous.lazySet(node);
+
+        drain();
     }
 
     /**
@@ -46,26 +84,142 @@ public class ObservableQueue<T> {
      * @return An observable containing the contents of the queue in order
      */
     public Observable<T> toObservable() {
-        synchronized (mLock) {
-            if (mSubject != null) {
-                mSubject.onCompleted();
+        Consumer consumer = new Consumer();
+        Consumer previous = mCurrentConsumer.getAndSet(consumer);
+        if (previous != null) {
+            mRetiredConsumers.offer(previous);
+            drain();
+        }
+
+        return Observable.<T>create(consumer::attach);
+    }
+
+    private T peek() {
+        Node<T> next = mHead.get();
+        return (next == null) ? null : next.mValue;
+    }
+
+    private void remove() {
+        Node<T> next = mHead.get();
+        next.mValue = null;
+        mHead = next;
+    }
+
+    private void drain() {
+        if (mWorkInProgress.getAndIncrement() != 0) {
+            // Another thread is running the drain loop, and will check for work again
+            return;
+        }
+
+        int missed = 1;
+        do {
+            Consumer retired;
+            while ((retired = mRetiredConsumers.poll()) != null) {
+                retired.complete();
             }
 
-            if (mQueue.isEmpty()) {
-                mSubject = ReplaySubject.create();
-            } else {
-                mSubject = ReplaySubject.create(mQueue.size());
+            Consumer consumer = mCurrentConsumer.get();
+            if (consumer != null) {
+                consumer.deliver();
+            }
+
+            missed = mWorkInProgress.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private static final class Node<T> extends AtomicReference<Node<T>> {
 
-                for (T data : mQueue) {
-                    mSubject.onNext(data);
+        T mValue;
+
+        Node(T value) {
+            mValue = value;
+        }
+    }
+
+    /**
+     * The subscriber of an Observable returned by {@link #toObservable()}
+     */
+    private final class Consumer implements Producer {
+
+        private final AtomicReference<Subscriber<? super T>> mSubscriber = new AtomicReference<>();
+        private final AtomicLong mRequested = new AtomicLong();
+        private final AtomicBoolean mCompleted = new AtomicBoolean();
+
+        void attach(Subscriber<? super T> subscriber) {
+            if (!mSubscriber.compareAndSet(null, subscriber)) {
+                subscriber.onError(new IllegalStateException(
+                        "ObservableQueue only supports one subscriber"));
+                return;
+            }
+
+            subscriber.setProducer(this);
+            if (mCurrentConsumer.get() != this) {
+                // This observable was replaced before it was subscribed to
+                mRetiredConsumers.offer(this);
+                drain();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                return;
+            }
+
+            long requested;
+            long updated;
+            do {
+                requested = mRequested.get();
+                updated = requested + n;
+                if (updated < 0) {
+                    updated = Long.MAX_VALUE;
+                }
+            } while (!mRequested.compareAndSet(requested, updated));
+
+            drain();
+        }
+
+        /**
+         * Sends as many enqueued objects to the subscriber as it has requested. Must only be
+         * called from the drain loop.
+         */
+        void deliver() {
+            Subscriber<? super T> subscriber = mSubscriber.get();
+            if (subscriber == null || mCompleted.get()) {
+                return;
+            }
+
+            while (mRequested.get() > 0 && !subscriber.isUnsubscribed()) {
+                T value = peek();
+                if (value == null) {
+                    return;
+                }
+
+                remove();
+                if (mRequested.get() != Long.MAX_VALUE) {
+                    mRequested.decrementAndGet();
+                }
+
+                try {
+                    subscriber.onNext(value);
+                } catch (Throwable throwable) {
+                    mCompleted.set(true);
+                    Exceptions.throwOrReport(throwable, subscriber, value);
+                    return;
                 }
             }
         }
 
-        return mSubject.map(item -> {
-            mQueue.remove();
-            return item;
-        }).asObservable();
+        /**
+         * Sends a completion event to the subscriber, if there is one. Must only be called from
+         * the drain loop.
+         */
+        void complete() {
+            Subscriber<? super T> subscriber = mSubscriber.get();
+            if (subscriber != null && mCompleted.compareAndSet(false, true)) {
+                subscriber.onCompleted();
+            }
+        }
     }
 
 }
@@ -5,20 +5,16 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.media.MediaMetadataRetriever;
 import android.media.audiofx.AudioEffect;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Build;
-import android.provider.MediaStore;
-import androidx.annotation.Nullable;
 import android.util.DisplayMetrics;
 import android.webkit.MimeTypeMap;
 
@@ -61,11 +57,6 @@ public final class Util {
             "application/itunes"
     );
 
-    private static final List<String> COVER_IMAGE_NAMES = Arrays.asList(
-            "cover.jpg",
-            "folder.jpg"
-    );
-
     /**
      * This class is never instantiated
      */
@@ -146,84 +137,13 @@ public final class Util {
         return false;
     }
 
-    @Nullable
-    private static byte[] fetchEmbeddedArtwork(Context context, Uri songLocation) {
-        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-
-        try {
-            retriever.setDataSource(context, songLocation);
-            return retriever.getEmbeddedPicture();
-        } catch (RuntimeException e) {
-            Timber.e(e, "Failed to load full song artwork");
-        } catch (OutOfMemoryError e) {
-            Timber.e(e, "Unable to allocate space on the heap for full song artwork");
-        } finally {
-            retriever.release();
-        }
-
-        return null;
-    }
-
-    @Nullable
-    private static File resolveArtwork(Context context, Uri songLocation) {
-        String path = UriUtils.getPathFromUri(context, songLocation);
-        if (path == null) {
-            return null;
-        }
-
-        File directory = new File(path).getParentFile();
-        for (String cover : COVER_IMAGE_NAMES) {
-            File image = new File(directory, cover);
-            if (image.canRead()) {
-                return image;
-            }
-        }
-
-        return null;
-    }
-
-    @Nullable
-    private static String resolveMediaStoreArtwork(Context context, Uri songLocation) {
-        Cursor songCursor = null;
-        Cursor albumCursor = null;
-        try {
-            String[] songProjection = new String[] { MediaStore.Audio.AudioColumns.ALBUM_ID };
-
-            songCursor = context.getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    songProjection, MediaStore.Audio.AudioColumns.DATA + " = ?",
-                    new String[] { songLocation.getPath() }, null);
-
-            if (songCursor == null || !songCursor.moveToFirst()) {
-                return null;
-            }
-
-            long albumId = songCursor.getLong(0);
-
-            String[] albumProjection = new String[] { MediaStore.Audio.AlbumColumns.ALBUM_ART };
-            albumCursor = context.getContentResolver().query(
-                    MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, albumProjection,
-                    MediaStore.Audio.AudioColumns._ID + " = " + albumId, null, null);
-
-            if (albumCursor == null || !albumCursor.moveToFirst()) {
-                return null;
-            }
-
-            return albumCursor.getString(0);
-        } finally {
-            if (songCursor != null) {
-                songCursor.close();
-            }
-            if (albumCursor != null) {
-                albumCursor.close();
-            }
-        }
-    }
-
     public static Observable<Bitmap> fetchArtwork(Context context, Song song) {
         if (song == null) {
             return fetchArtwork(context, (Uri) null);
         } else {
-            return fetchArtwork(context, song.getLocation());
+            DisplayMetrics displayMetrics = context.getResources().getDisplayMetrics();
+            int size = Math.max(displayMetrics.widthPixels, displayMetrics.heightPixels);
+            return fetchArtwork(context, song.getLocation(), song.getAlbumId(), size, true);
         }
     }
 
@@ -235,30 +155,25 @@ public final class Util {
 
     public static Observable<Bitmap> fetchArtwork(Context context, Uri songLocation,
                                                   int size, boolean highQuality) {
+        return fetchArtwork(context, songLocation, -1, size, highQuality);
+    }
+
+    public static Observable<Bitmap> fetchArtwork(Context context, Uri songLocation,
+                                                  long albumId, int size, boolean highQuality) {
         return Observable.fromCallable(() -> {
             if (songLocation == null) {
-                return Glide.with(context).load(R.drawable.art_default_xl);
-            }
-
-            byte[] embedded = fetchEmbeddedArtwork(context, songLocation);
-            if (embedded != null){
-                return Glide.with(context).load(embedded);
-            }
-
-            File folderImage = resolveArtwork(context, songLocation);
-            if (folderImage != null) {
-                return Glide.with(context).load(folderImage);
+                return null;
             }
-
-            String mediaStoreThumbnail = resolveMediaStoreArtwork(context, songLocation);
-            if (mediaStoreThumbnail != null) {
-                return Glide.with(context).load(mediaStoreThumbnail);
+            return ArtworkCache.getInstance(context)
+                    .getArtwork(songLocation, albumId, size, highQuality);
+        }).map(artwork -> {
+            if (artwork != null) {
+                return artwork;
             }
 
-            return Glide.with(context).load(R.drawable.art_default_xl);
-        }).map(request -> {
             try {
-                return request.asBitmap()
+                return Glide.with(context).load(R.drawable.art_default_xl)
+                        .asBitmap()
                         .format((highQuality)
                                 ? DecodeFormat.PREFER_ARGB_8888
                                 : DecodeFormat.PREFER_RGB_565)
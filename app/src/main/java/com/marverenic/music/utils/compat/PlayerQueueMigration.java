@@ -1,7 +1,6 @@
 package com.marverenic.music.utils.compat;
 
 import android.content.Context;
-import android.net.Uri;
 
 import com.marverenic.music.JockeyApplication;
 import com.marverenic.music.data.store.MediaStoreUtil;
@@ -10,7 +9,6 @@ import com.marverenic.music.player.persistence.PlaybackPersistenceManager;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Scanner;
@@ -60,8 +58,8 @@ public class PlayerQueueMigration {
             mPersistenceManager.setState(
                     new PlaybackPersistenceManager.State(
                             seekPosition, queuePosition,
-                            songsToUris(queue),
-                            songsToUris(shuffledQueue)
+                            queue,
+                            shuffledQueue
                     ));
         } catch (IOException|RuntimeException e) {
             Timber.i(e, "Failed to parse previous state. Removing old state...");
@@ -76,13 +74,4 @@ public class PlayerQueueMigration {
         }
     }
 
-    private List<Uri> songsToUris(List<Song> songs) {
-        List<Uri> uris = new ArrayList<>();
-        for (Song song : songs) {
-            uris.add(song.getLocation());
-        }
-
-        return uris;
-    }
-
 }
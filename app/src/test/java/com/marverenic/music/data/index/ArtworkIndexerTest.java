@@ -0,0 +1,121 @@
+package com.marverenic.music.data.index;
+
+import androidx.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ArtworkIndexerTest {
+
+    private LibraryIndexDatabase mDatabase;
+    private LibraryIndexDao mDao;
+    private ArtworkIndexer mIndexer;
+
+    @Before
+    public void setUp() {
+        mDatabase = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application,
+                LibraryIndexDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+
+        mDao = mDatabase.getLibraryIndexDao();
+        mIndexer = new ArtworkIndexer(RuntimeEnvironment.application, mDatabase);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    private static IndexedSong song(long songId, long albumId, String path, long dateModified) {
+        IndexedSong row = new IndexedSong();
+        row.songId = songId;
+        row.songName = "Song " + songId;
+        row.artistName = "Artist";
+        row.albumName = "Album " + albumId;
+        row.path = path;
+        row.dateModified = dateModified;
+        row.albumId = albumId;
+        row.sortableName = row.songName;
+        row.sortableArtistName = row.artistName;
+        row.sortableAlbumName = row.albumName;
+        return row;
+    }
+
+    private Map<Long, IndexedAlbumArtwork> getIndexedArtwork() {
+        Map<Long, IndexedAlbumArtwork> artwork = new HashMap<>();
+        for (IndexedAlbumArtwork row : mDao.getAlbumArtwork()) {
+            artwork.put(row.albumId, row);
+        }
+        return artwork;
+    }
+
+    @Test
+    public void testAlbumIsKeyedByMostRecentlyModifiedSong() {
+        mDao.putSongs(Arrays.asList(
+                song(1, 10, "/music/a/1.mp3", 100),
+                song(2, 10, "/music/a/2.mp3", 300),
+                song(3, 10, "/music/a/3.mp3", 200),
+                song(4, 20, "/music/b/4.mp3", 50)));
+
+        assertTrue(mIndexer.indexPendingAlbums());
+        Map<Long, IndexedAlbumArtwork> artwork = getIndexedArtwork();
+
+        // The album's thumbnails are cached under this song, so the grid has to load it
+        assertEquals(2, artwork.size());
+        assertEquals("/music/a/2.mp3", artwork.get(10L).path);
+        assertEquals(300, artwork.get(10L).dateModified);
+        assertEquals("/music/b/4.mp3", artwork.get(20L).path);
+
+        IndexedAlbumArtwork loaded = mIndexer.getAlbumArtwork(10).toBlocking().first();
+        assertEquals("/music/a/2.mp3", loaded.path);
+    }
+
+    @Test
+    public void testUnchangedAlbumsAreNotIndexedAgain() {
+        mDao.putSongs(Collections.singletonList(song(1, 10, "/music/a/1.mp3", 100)));
+        mIndexer.indexPendingAlbums();
+
+        // Mark the row so that it's possible to tell whether it was extracted again
+        IndexedAlbumArtwork row = getIndexedArtwork().get(10L);
+        row.hasSwatch = true;
+        mDao.putAlbumArtwork(row);
+
+        mIndexer.indexPendingAlbums();
+        assertTrue(getIndexedArtwork().get(10L).hasSwatch);
+
+        mDao.putSongs(Collections.singletonList(song(1, 10, "/music/a/1.mp3", 200)));
+        mIndexer.indexPendingAlbums();
+
+        row = getIndexedArtwork().get(10L);
+        assertFalse(row.hasSwatch);
+        assertEquals(200, row.dateModified);
+    }
+
+    @Test
+    public void testArtworkOfRemovedAlbumIsDeleted() {
+        mDao.putSongs(Arrays.asList(
+                song(1, 10, "/music/a/1.mp3", 100),
+                song(2, 20, "/music/b/2.mp3", 100)));
+        mIndexer.indexPendingAlbums();
+
+        mDao.deleteSongs(Collections.singletonList(2L));
+        mIndexer.indexPendingAlbums();
+
+        assertEquals(Collections.singleton(10L), getIndexedArtwork().keySet());
+    }
+}
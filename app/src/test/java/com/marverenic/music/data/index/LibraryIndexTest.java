@@ -0,0 +1,291 @@
+package com.marverenic.music.data.index;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import androidx.room.Room;
+
+import com.marverenic.music.R;
+import com.marverenic.music.model.Song;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LibraryIndexTest {
+
+    private FakeMediaStore mMediaStore;
+    private LibraryIndexDatabase mDatabase;
+    private LibraryIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mMediaStore = Robolectric.buildContentProvider(FakeMediaStore.class)
+                .create(MediaStore.AUTHORITY)
+                .get();
+
+        mDatabase = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application,
+                LibraryIndexDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+
+        mIndex = new LibraryIndex(RuntimeEnvironment.application, mDatabase);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    private static List<String> names(List<Song> songs) {
+        List<String> names = new ArrayList<>(songs.size());
+        for (Song song : songs) {
+            names.add(song.getSongName());
+        }
+        return names;
+    }
+
+    private static Set<Long> ids(List<Song> songs) {
+        Set<Long> ids = new HashSet<>();
+        for (Song song : songs) {
+            ids.add(song.getSongId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testEmptyIndexIsNotPopulated() {
+        assertFalse(mIndex.isPopulated());
+        assertEquals(0, mIndex.getVersion());
+        assertTrue(mIndex.getSongs().isEmpty());
+    }
+
+    @Test
+    public void testFirstSyncBuildsIndex() {
+        mMediaStore.putSong(3, "Charlie", "/music/c.mp3", 100);
+        mMediaStore.putSong(1, "Alpha", "/music/a.mp3", 100);
+        mMediaStore.putSong(2, "Bravo", "/music/b.mp3", 100);
+
+        LibraryIndex.Delta delta = mIndex.sync();
+
+        assertTrue(mIndex.isPopulated());
+        assertEquals(1, delta.getVersion());
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)), ids(delta.getInsertedSongs()));
+        assertTrue(delta.getUpdatedSongs().isEmpty());
+        assertTrue(delta.getRemovedSongIds().isEmpty());
+        assertEquals(Arrays.asList("Alpha", "Bravo", "Charlie"), names(mIndex.getSongs()));
+    }
+
+    @Test
+    public void testFirstSyncOfEmptyLibraryPopulatesIndex() {
+        LibraryIndex.Delta delta = mIndex.sync();
+
+        assertTrue(delta.isEmpty());
+        assertTrue(mIndex.isPopulated());
+        assertEquals(1, mIndex.getVersion());
+    }
+
+    @Test
+    public void testSyncWithoutChangesKeepsVersion() {
+        mMediaStore.putSong(1, "Alpha", "/music/a.mp3", 100);
+        mIndex.sync();
+
+        LibraryIndex.Delta delta = mIndex.sync();
+
+        assertTrue(delta.isEmpty());
+        assertEquals(1, delta.getVersion());
+        assertEquals(1, mIndex.getVersion());
+    }
+
+    @Test
+    public void testSyncAppliesInsertedUpdatedAndRemovedSongs() {
+        mMediaStore.putSong(1, "Alpha", "/music/a.mp3", 100);
+        mMediaStore.putSong(2, "Bravo", "/music/b.mp3", 100);
+        mMediaStore.putSong(3, "Charlie", "/music/c.mp3", 100);
+        mIndex.sync();
+
+        mMediaStore.removeSong(1);
+        mMediaStore.putSong(2, "Bravo (Remastered)", "/music/b.mp3", 200);
+        mMediaStore.putSong(4, "Delta", "/music/d.mp3", 200);
+
+        LibraryIndex.Delta delta = mIndex.sync();
+
+        assertEquals(2, delta.getVersion());
+        assertEquals(Collections.singleton(4L), ids(delta.getInsertedSongs()));
+        assertEquals(Collections.singleton(2L), ids(delta.getUpdatedSongs()));
+        assertEquals(Collections.singletonList(1L), delta.getRemovedSongIds());
+        assertEquals(Arrays.asList("Bravo (Remastered)", "Charlie", "Delta"),
+                names(mIndex.getSongs()));
+    }
+
+    @Test
+    public void testSongsWithoutPathAreNotIndexed() {
+        mMediaStore.putSong(1, "Alpha", "/music/a.mp3", 100);
+        mMediaStore.putSong(2, "Bravo", null, 100);
+
+        LibraryIndex.Delta delta = mIndex.sync();
+
+        assertEquals(Collections.singleton(1L), ids(delta.getInsertedSongs()));
+        assertEquals(Collections.singletonList("Alpha"), names(mIndex.getSongs()));
+
+        // The song without a path shouldn't be reloaded on every sync
+        assertTrue(mIndex.sync().isEmpty());
+    }
+
+    @Test
+    public void testBuildIndexedSongListUsesDefaultsForUnknownTags() {
+        MatrixCursor cursor = new MatrixCursor(FakeMediaStore.COLUMNS);
+        cursor.addRow(new Object[]{
+                MediaStore.UNKNOWN_STRING, 7L, null, null, 1000L, "/music/g.mp3", 2001, 10L, 20L,
+                5L, 6L, 3, 1
+        });
+        cursor.addRow(new Object[]{
+                "No path", 8L, "Artist", "Album", 1000L, null, 2001, 10L, 20L, 5L, 6L, 3, 1
+        });
+
+        List<IndexedSong> rows = IndexedSong.buildIndexedSongList(cursor,
+                RuntimeEnvironment.application.getResources());
+        cursor.close();
+
+        assertEquals(1, rows.size());
+
+        IndexedSong row = rows.get(0);
+        assertEquals(7L, row.songId);
+        assertEquals(RuntimeEnvironment.application.getString(R.string.unknown), row.songName);
+        assertEquals(RuntimeEnvironment.application.getString(R.string.unknown_artist),
+                row.artistName);
+        assertEquals(RuntimeEnvironment.application.getString(R.string.unknown_album),
+                row.albumName);
+        assertEquals("/music/g.mp3", row.path);
+        assertEquals(20L, row.dateModified);
+        assertEquals(3, row.trackNumber);
+    }
+
+    /**
+     * A stand-in for the MediaStore's audio table. It only understands the queries that are made
+     * while syncing the library index: an optional {@code IN(...)} filter on the song id, and an
+     * optional {@code IS NOT NULL} filter on the path.
+     */
+    public static class FakeMediaStore extends ContentProvider {
+
+        static final String[] COLUMNS = {
+                MediaStore.Audio.Media.TITLE,
+                MediaStore.Audio.Media._ID,
+                MediaStore.Audio.Media.ARTIST,
+                MediaStore.Audio.Media.ALBUM,
+                MediaStore.Audio.Media.DURATION,
+                MediaStore.Audio.Media.DATA,
+                MediaStore.Audio.Media.YEAR,
+                MediaStore.Audio.Media.DATE_ADDED,
+                MediaStore.Audio.Media.DATE_MODIFIED,
+                MediaStore.Audio.Media.ALBUM_ID,
+                MediaStore.Audio.Media.ARTIST_ID,
+                MediaStore.Audio.Media.TRACK,
+                MediaStore.Audio.Media.IS_MUSIC
+        };
+
+        private final TreeMap<Long, Map<String, Object>> mSongs = new TreeMap<>();
+
+        void putSong(long id, String title, String path, long dateModified) {
+            Map<String, Object> song = new HashMap<>();
+            song.put(MediaStore.Audio.Media.TITLE, title);
+            song.put(MediaStore.Audio.Media._ID, id);
+            song.put(MediaStore.Audio.Media.ARTIST, "Artist");
+            song.put(MediaStore.Audio.Media.ALBUM, "Album");
+            song.put(MediaStore.Audio.Media.DURATION, 180000L);
+            song.put(MediaStore.Audio.Media.DATA, path);
+            song.put(MediaStore.Audio.Media.YEAR, 2000);
+            song.put(MediaStore.Audio.Media.DATE_ADDED, 0L);
+            song.put(MediaStore.Audio.Media.DATE_MODIFIED, dateModified);
+            song.put(MediaStore.Audio.Media.ALBUM_ID, 1L);
+            song.put(MediaStore.Audio.Media.ARTIST_ID, 1L);
+            song.put(MediaStore.Audio.Media.TRACK, (int) id);
+            song.put(MediaStore.Audio.Media.IS_MUSIC, 1);
+            mSongs.put(id, song);
+        }
+
+        void removeSong(long id) {
+            mSongs.remove(id);
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+            Set<Long> ids = null;
+            if (selectionArgs != null) {
+                ids = new HashSet<>();
+                for (String arg : selectionArgs) {
+                    ids.add(Long.parseLong(arg));
+                }
+            }
+
+            boolean requirePath = selection != null
+                    && selection.contains(MediaStore.Audio.Media.DATA + " IS NOT NULL");
+
+            MatrixCursor cursor = new MatrixCursor(projection);
+            for (Map<String, Object> song : mSongs.values()) {
+                if (ids != null && !ids.contains(song.get(MediaStore.Audio.Media._ID))) {
+                    continue;
+                }
+                if (requirePath && song.get(MediaStore.Audio.Media.DATA) == null) {
+                    continue;
+                }
+
+                Object[] row = new Object[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    row[i] = song.get(projection[i]);
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                          String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
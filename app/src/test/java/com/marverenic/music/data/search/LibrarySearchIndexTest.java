@@ -0,0 +1,182 @@
+package com.marverenic.music.data.search;
+
+import com.marverenic.music.data.index.IndexedSong;
+import com.marverenic.music.data.store.LibraryChangeSet;
+import com.marverenic.music.model.Song;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LibrarySearchIndexTest {
+
+    private static Song song(long id, String name) {
+        return song(id, name, "");
+    }
+
+    private static Song song(long id, String name, String artist) {
+        IndexedSong row = new IndexedSong();
+        row.songId = id;
+        row.songName = name;
+        row.artistName = artist;
+        row.path = "/sdcard/music/" + id + ".mp3";
+        row.sortableName = name.toLowerCase();
+        row.sortableArtistName = artist.toLowerCase();
+        return Song.fromIndexedSong(row);
+    }
+
+    private static LibrarySearchIndex index(Song... songs) {
+        List<Song> library = new ArrayList<>(Arrays.asList(songs));
+        Collections.sort(library);
+
+        LibrarySearchIndex index = new LibrarySearchIndex();
+        index.applyChanges(LibraryChangeSet.reset(1, library));
+        return index;
+    }
+
+    private static List<String> names(List<Song> songs) {
+        List<String> names = new ArrayList<>(songs.size());
+        for (Song song : songs) {
+            names.add(song.getSongName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testFoldRemovesCaseAndAccents() {
+        assertEquals("beyonce", LibrarySearchIndex.fold("Beyonc\u00e9"));
+        assertEquals("angstrom", LibrarySearchIndex.fold("\u00c5NGSTR\u00d6M"));
+        assertEquals("sigur ros", LibrarySearchIndex.fold("Sigur Ro\u0301s"));
+        assertEquals("", LibrarySearchIndex.fold(null));
+    }
+
+    @Test
+    public void testSearchIgnoresCaseAndAccents() {
+        LibrarySearchIndex index = index(song(1, "Caf\u00e9 del Mar"), song(2, "Coffee"));
+
+        assertEquals(Collections.singletonList("Caf\u00e9 del Mar"),
+                names(index.search("cafe").getSongs()));
+        assertEquals(Collections.singletonList("Caf\u00e9 del Mar"),
+                names(index.search("CAF\u00c9").getSongs()));
+    }
+
+    @Test
+    public void testEmptyQueryHasNoResults() {
+        LibrarySearchIndex index = index(song(1, "Alpha"));
+
+        assertTrue(index.search("").isEmpty());
+        assertTrue(index.search("   ").isEmpty());
+    }
+
+    @Test
+    public void testShortQueriesMatchStartOfWords() {
+        LibrarySearchIndex index = index(song(1, "Go West"), song(2, "Ego Trip"),
+                song(3, "Let It Go"));
+
+        assertEquals(Arrays.asList("Go West", "Let It Go"), names(index.search("go").getSongs()));
+        assertEquals(Collections.singletonList("Ego Trip"), names(index.search("e").getSongs()));
+    }
+
+    @Test
+    public void testLongQueriesMatchSubstrings() {
+        LibrarySearchIndex index = index(song(1, "Random"), song(2, "Alpha"),
+                song(3, "Paranoid Android"), song(4, "Landslide"));
+
+        assertEquals(Arrays.asList("Paranoid Android", "Landslide", "Random"),
+                names(index.search("and").getSongs()));
+        assertEquals(Collections.singletonList("Landslide"),
+                names(index.search("dsli").getSongs()));
+        assertTrue(index.search("xyz").getSongs().isEmpty());
+    }
+
+    @Test
+    public void testResultsAreRankedByMatchQuality() {
+        LibrarySearchIndex index = index(song(1, "Random"), song(2, "Paranoid Android"),
+                song(3, "Anderson"), song(4, "And"));
+
+        // Exact, then prefix, then word prefix, then substring
+        assertEquals(Arrays.asList("And", "Anderson", "Paranoid Android", "Random"),
+                names(index.search("and").getSongs()));
+    }
+
+    @Test
+    public void testTitleMatchesRankAheadOfArtistMatches() {
+        LibrarySearchIndex index = index(song(1, "Red", "Blue Man Group"),
+                song(2, "Sky Blue", "Someone"), song(3, "Blue", "Someone Else"));
+
+        assertEquals(Arrays.asList("Blue", "Sky Blue", "Red"),
+                names(index.search("blue").getSongs()));
+    }
+
+    @Test
+    public void testTiesKeepLibraryOrder() {
+        LibrarySearchIndex index = index(song(3, "Charlie Song"), song(1, "Alpha Song"),
+                song(2, "Bravo Song"));
+
+        assertEquals(Arrays.asList("Alpha Song", "Bravo Song", "Charlie Song"),
+                names(index.search("song").getSongs()));
+    }
+
+    @Test
+    public void testResultsAreCapped() {
+        Song[] songs = new Song[LibrarySearchIndex.MAX_RESULTS + 50];
+        for (int i = 0; i < songs.length; i++) {
+            songs[i] = song(i, "Track " + i);
+        }
+
+        LibrarySearchIndex index = index(songs);
+        assertEquals(LibrarySearchIndex.MAX_RESULTS, index.search("track").getSongs().size());
+    }
+
+    @Test
+    public void testIncrementalChangesUpdateResults() {
+        Song alpha = song(1, "Alpha");
+        Song bravo = song(2, "Bravo");
+        List<Song> library = Arrays.asList(alpha, bravo);
+
+        LibrarySearchIndex index = new LibrarySearchIndex();
+        index.applyChanges(LibraryChangeSet.reset(1, library));
+
+        Song renamed = song(2, "Alphabet");
+        Song inserted = song(3, "Alpine");
+        List<Song> updatedLibrary = Arrays.asList(renamed, inserted);
+
+        index.applyChanges(LibraryChangeSet.delta(2, library, updatedLibrary,
+                Collections.singletonList(inserted), Collections.singletonList(alpha),
+                Collections.singletonList(renamed), Collections.singletonList(bravo)));
+
+        assertEquals(2, index.getSongVersion());
+        assertEquals(Arrays.asList("Alphabet", "Alpine"), names(index.search("alp").getSongs()));
+        assertTrue(index.search("bravo").getSongs().isEmpty());
+    }
+
+    @Test
+    public void testResetReplacesEverySong() {
+        List<Song> library = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            library.add(song(i, "Old " + i, "Same Artist"));
+        }
+
+        LibrarySearchIndex index = new LibrarySearchIndex();
+        index.applyChanges(LibraryChangeSet.reset(1, library));
+
+        List<Song> replaced = Arrays.asList(song(5000, "New", "Same Artist"),
+                song(5001, "Newer", "Other Artist"));
+        index.applyChanges(LibraryChangeSet.reset(5, replaced));
+
+        assertEquals(5, index.getSongVersion());
+        assertEquals(Collections.singletonList("New"),
+                names(index.search("same artist").getSongs()));
+        assertTrue(index.search("old").getSongs().isEmpty());
+        assertEquals(Arrays.asList("New", "Newer"), names(index.search("new").getSongs()));
+    }
+}
@@ -0,0 +1,359 @@
+package com.marverenic.music.data.store;
+
+import com.marverenic.music.data.index.IndexedSong;
+import com.marverenic.music.model.AutoPlaylist;
+import com.marverenic.music.model.Song;
+import com.marverenic.music.model.playlistrules.AutoPlaylistRule;
+import com.marverenic.music.model.playlistrules.SongPredicate;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rx.Observable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class AutoPlaylistContentsTest {
+
+    private static final SongPredicate KEEP = song -> song.getSongName().startsWith("Keep");
+
+    private FakePlayCountStore mPlayCounts;
+
+    @Before
+    public void setUp() {
+        mPlayCounts = new FakePlayCountStore();
+    }
+
+    private static Song song(long id, String name) {
+        IndexedSong row = new IndexedSong();
+        row.songId = id;
+        row.songName = name;
+        row.path = "/sdcard/music/" + id + ".mp3";
+        return Song.fromIndexedSong(row);
+    }
+
+    /**
+     * Makes a playlist that is sorted by play count, from most played to least played
+     * @param maximumEntries The maximum size of the playlist, or {@code -1} if it isn't limited
+     */
+    private AutoPlaylistContents contents(int maximumEntries) {
+        return contents(maximumEntries, AutoPlaylistRule.PLAY_COUNT);
+    }
+
+    /**
+     * Makes a playlist that is truncated by play count
+     * @param maximumEntries The maximum size of the playlist, or {@code -1} if it isn't limited
+     * @param sortMethod The order of the songs in the playlist, or {@link AutoPlaylistRule#ID}
+     *                   to shuffle them
+     */
+    private AutoPlaylistContents contents(int maximumEntries, int sortMethod) {
+        AutoPlaylistRule rule = new AutoPlaylistRule.Factory()
+                .setType(AutoPlaylistRule.SONG)
+                .setField(AutoPlaylistRule.NAME)
+                .setMatch(AutoPlaylistRule.CONTAINS)
+                .setValue("Keep")
+                .build();
+
+        AutoPlaylist playlist = new AutoPlaylist.Builder()
+                .setName("Most played")
+                .setMaximumEntries(maximumEntries)
+                .setTruncateMethod(AutoPlaylistRule.PLAY_COUNT)
+                .setSortMethod(sortMethod)
+                .setRules(rule)
+                .build(RuntimeEnvironment.application);
+
+        return new AutoPlaylistContents(playlist, mPlayCounts);
+    }
+
+    /**
+     * @return Songs named "Keep" (which match the playlist) or "Drop" (which don't) alternately,
+     *         where each song has been played as many times as its ID
+     */
+    private List<Song> library(int size) {
+        List<Song> songs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            songs.add(song(i, (i % 2 == 0) ? "Keep " + i : "Drop " + i));
+            mPlayCounts.mPlayCounts.put((long) i, i);
+        }
+        return songs;
+    }
+
+    private static List<Long> ids(List<Song> songs) {
+        List<Long> ids = new ArrayList<>(songs.size());
+        for (Song song : songs) {
+            ids.add(song.getSongId());
+        }
+        return ids;
+    }
+
+    private static LibraryChangeSet delta(List<Song> previous, List<Song> inserted,
+                                          List<Song> removed, List<Song> updated) {
+        List<Song> songs = new ArrayList<>(previous);
+        songs.removeAll(removed);
+        songs.removeAll(updated);
+        songs.addAll(inserted);
+        songs.addAll(updated);
+
+        List<Song> updatedPrevious = new ArrayList<>();
+        for (Song song : updated) {
+            updatedPrevious.add(previous.get(previous.indexOf(song)));
+        }
+
+        return LibraryChangeSet.delta(1, previous, songs, inserted, removed, updated,
+                updatedPrevious);
+    }
+
+    @Test
+    public void testResetFiltersAndSortsLibrary() {
+        AutoPlaylistContents contents = contents(-1);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library(10)));
+
+        assertTrue(contents.isInitialized());
+        assertEquals(Arrays.asList(8L, 6L, 4L, 2L, 0L), ids(contents.getContents()));
+    }
+
+    @Test
+    public void testInsertedSongsAreAddedInOrder() {
+        List<Song> library = library(10);
+        AutoPlaylistContents contents = contents(-1);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library));
+
+        Song matching = song(10, "Keep 10");
+        Song other = song(11, "Drop 11");
+        mPlayCounts.mPlayCounts.put(10L, 5);
+        mPlayCounts.mPlayCounts.put(11L, 100);
+
+        LibraryChangeSet changes = delta(library, Arrays.asList(matching, other),
+                Collections.emptyList(), Collections.emptyList());
+
+        assertTrue(contents.canApplyIncrementally(changes));
+        assertTrue(contents.applyLibraryChanges(changes));
+        assertEquals(Arrays.asList(8L, 6L, 10L, 4L, 2L, 0L), ids(contents.getContents()));
+    }
+
+    @Test
+    public void testRemovedSongsAreRemoved() {
+        List<Song> library = library(10);
+        AutoPlaylistContents contents = contents(-1);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library));
+
+        LibraryChangeSet changes = delta(library, Collections.emptyList(),
+                Arrays.asList(library.get(4), library.get(5)), Collections.emptyList());
+
+        assertTrue(contents.applyLibraryChanges(changes));
+        assertEquals(Arrays.asList(8L, 6L, 2L, 0L), ids(contents.getContents()));
+    }
+
+    @Test
+    public void testRemovingSongThatDoesNotMatchDoesNotChangeContents() {
+        List<Song> library = library(10);
+        AutoPlaylistContents contents = contents(-1);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library));
+        List<Song> before = contents.getContents();
+
+        LibraryChangeSet changes = delta(library, Collections.emptyList(),
+                Collections.singletonList(library.get(3)), Collections.emptyList());
+
+        assertFalse(contents.applyLibraryChanges(changes));
+        assertEquals(before, contents.getContents());
+    }
+
+    @Test
+    public void testUpdatedSongsAreReevaluated() {
+        List<Song> library = library(10);
+        AutoPlaylistContents contents = contents(-1);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library));
+
+        // Song 6 no longer matches the playlist, and song 7 now does
+        LibraryChangeSet changes = delta(library, Collections.emptyList(),
+                Collections.emptyList(), Arrays.asList(song(6, "Drop 6"), song(7, "Keep 7")));
+
+        assertTrue(contents.applyLibraryChanges(changes));
+        assertEquals(Arrays.asList(8L, 7L, 4L, 2L, 0L), ids(contents.getContents()));
+    }
+
+    @Test
+    public void testRuleChangeReevaluatesLibrary() {
+        List<Song> library = library(10);
+        AutoPlaylistContents contents = contents(-1);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library));
+
+        contents.reset(song -> song.getSongName().startsWith("Drop"),
+                LibraryChangeSet.reset(0, library));
+
+        assertEquals(Arrays.asList(9L, 7L, 5L, 3L, 1L), ids(contents.getContents()));
+    }
+
+    @Test
+    public void testPlayCountChangesMoveSongsInAndOutOfTruncatedPlaylist() {
+        AutoPlaylistContents contents = contents(3);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library(10)));
+        assertEquals(Arrays.asList(8L, 6L, 4L), ids(contents.getContents()));
+
+        mPlayCounts.mPlayCounts.put(0L, 7);
+        assertTrue(contents.applyPlayCountChanges(Collections.singleton(0L)));
+        assertEquals(Arrays.asList(8L, 0L, 6L), ids(contents.getContents()));
+
+        // Songs that don't match the playlist, or that stay below the cut, don't change it
+        mPlayCounts.mPlayCounts.put(1L, 100);
+        mPlayCounts.mPlayCounts.put(2L, 3);
+        assertFalse(contents.applyPlayCountChanges(new HashSet<>(Arrays.asList(1L, 2L))));
+        assertEquals(Arrays.asList(8L, 0L, 6L), ids(contents.getContents()));
+    }
+
+    @Test
+    public void testManyChangesInTheSamePlaceKeepOrder() {
+        List<Song> library = library(100);
+        AutoPlaylistContents contents = contents(-1);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library));
+
+        // Every song is moved into the same gap, which runs out of room between ranks
+        for (long id = 0; id < 98; id += 2) {
+            mPlayCounts.mPlayCounts.put(id, 1000);
+            contents.applyPlayCountChanges(Collections.singleton(id));
+        }
+
+        List<Long> expected = new ArrayList<>();
+        for (long id = 0; id <= 98; id += 2) {
+            expected.add(id);
+        }
+
+        assertEquals(expected, ids(contents.getContents()));
+    }
+
+    @Test
+    public void testSongsThatStayInPlaceDoNotChangeContents() {
+        AutoPlaylistContents contents = contents(-1);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library(10)));
+        List<Song> before = contents.getContents();
+
+        // Song 4 is still between songs 6 and 2, and song 6 is still between songs 8 and 4
+        mPlayCounts.mPlayCounts.put(4L, 5);
+        mPlayCounts.mPlayCounts.put(6L, 7);
+        assertFalse(contents.applyPlayCountChanges(new HashSet<>(Arrays.asList(4L, 6L))));
+        assertSame(before, contents.getContents());
+
+        mPlayCounts.mPlayCounts.put(4L, 7);
+        mPlayCounts.mPlayCounts.put(6L, 5);
+        assertTrue(contents.applyPlayCountChanges(new HashSet<>(Arrays.asList(4L, 6L))));
+        assertEquals(Arrays.asList(8L, 4L, 6L, 2L, 0L), ids(contents.getContents()));
+    }
+
+    @Test
+    public void testModifiedSongInSamePlaceChangesContents() {
+        List<Song> library = library(10);
+        AutoPlaylistContents contents = contents(-1);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library));
+
+        Song renamed = song(4, "Keep Renamed");
+        LibraryChangeSet changes = delta(library, Collections.emptyList(),
+                Collections.emptyList(), Collections.singletonList(renamed));
+
+        assertTrue(contents.applyLibraryChanges(changes));
+        assertSame(renamed, contents.getContents().get(2));
+    }
+
+    @Test
+    public void testShuffledPlaylistKeepsOrderOfRemainingSongs() {
+        AutoPlaylistContents contents = contents(3, AutoPlaylistRule.ID);
+        contents.reset(KEEP, LibraryChangeSet.reset(0, library(10)));
+
+        List<Long> before = ids(contents.getContents());
+        assertEquals(new HashSet<>(Arrays.asList(8L, 6L, 4L)), new HashSet<>(before));
+
+        // Song 0 replaces song 4, which falls below the cut
+        mPlayCounts.mPlayCounts.put(0L, 100);
+        assertTrue(contents.applyPlayCountChanges(Collections.singleton(0L)));
+
+        List<Long> after = new ArrayList<>(ids(contents.getContents()));
+        assertEquals(new HashSet<>(Arrays.asList(8L, 6L, 0L)), new HashSet<>(after));
+
+        before.remove(4L);
+        after.remove(0L);
+        assertEquals(before, after);
+    }
+
+    private static class FakePlayCountStore implements PlayCountStore {
+
+        final Map<Long, Integer> mPlayCounts = new HashMap<>();
+
+        @Override
+        public Observable<Void> refresh() {
+            return Observable.just(null);
+        }
+
+        @Override
+        public void save() {
+        }
+
+        @Override
+        public Observable<Set<Long>> getPlayCountChanges() {
+            return Observable.empty();
+        }
+
+        @Override
+        public int getPlayCount(Song song) {
+            Integer count = mPlayCounts.get(song.getSongId());
+            return (count == null) ? 0 : count;
+        }
+
+        @Override
+        public int getSkipCount(Song song) {
+            return 0;
+        }
+
+        @Override
+        public long getPlayDate(Song song) {
+            return 0;
+        }
+
+        @Override
+        public void incrementPlayCount(Song song) {
+        }
+
+        @Override
+        public void incrementSkipCount(Song song) {
+        }
+
+        @Override
+        public void setPlayDateToNow(Song song) {
+        }
+
+        @Override
+        public void setPlayCount(Song song, int count) {
+        }
+
+        @Override
+        public void setSkipCount(Song song, int count) {
+        }
+
+        @Override
+        public void setPlayDate(Song song, long timeInUnixSeconds) {
+        }
+
+        @Override
+        public void logPlay(Song song, long listenedMillis, boolean skipped) {
+        }
+
+        @Override
+        public PlayHistory getPlayHistory() {
+            return null;
+        }
+    }
+}
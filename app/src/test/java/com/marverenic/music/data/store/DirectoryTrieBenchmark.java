@@ -0,0 +1,151 @@
+package com.marverenic.music.data.store;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares excluding folders with SQL {@code LIKE} clauses, which is how the MediaStore queries
+ * used to be filtered, against querying every row and filtering the paths with a
+ * {@link DirectoryTrie}. This benchmark takes a while to run, so it's skipped unless the
+ * {@code benchmark} system property is set:
+ *
+ * ./gradlew testDebugUnitTest --tests '*DirectoryTrieBenchmark' -Dbenchmark=true
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DirectoryTrieBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 10;
+    private static final int SONG_COUNT = 30000;
+    private static final int FOLDER_COUNT = 500;
+    private static final int EXCLUDED_FOLDER_COUNT = 50;
+
+    private SQLiteDatabase mDatabase;
+    private List<String> mExcludedFolders;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE audio (_id INTEGER PRIMARY KEY, _data TEXT NOT NULL)");
+
+        mDatabase.beginTransaction();
+        for (int i = 0; i < SONG_COUNT; i++) {
+            String path = String.format(Locale.US, "/storage/emulated/0/Music/Artist %d/"
+                    + "Album %d/%02d Track.mp3", i % FOLDER_COUNT, i % 7, i % 20);
+            mDatabase.execSQL("INSERT INTO audio (_id, _data) VALUES (?, ?)",
+                    new Object[] {i, path});
+        }
+        mDatabase.setTransactionSuccessful();
+        mDatabase.endTransaction();
+
+        mExcludedFolders = new ArrayList<>();
+        for (int i = 0; i < EXCLUDED_FOLDER_COUNT; i++) {
+            mExcludedFolders.add("/storage/emulated/0/Music/Artist " + (i * 7));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mDatabase != null) {
+            mDatabase.close();
+        }
+    }
+
+    @Test
+    public void benchmarkFiftyExcludedFolders() {
+        assertEquals(querySqlLike(), queryTrie());
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            querySqlLike();
+            queryTrie();
+        }
+
+        Result sql = new Result();
+        Result trie = new Result();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            sql.measure(this::querySqlLike);
+            trie.measure(this::queryTrie);
+        }
+
+        System.out.println(String.format(Locale.US, "%d songs, %d excluded folders",
+                SONG_COUNT, EXCLUDED_FOLDER_COUNT));
+        System.out.println("  SQL LIKE: " + sql);
+        System.out.println("  trie:     " + trie);
+    }
+
+    private List<Long> querySqlLike() {
+        StringBuilder selection = new StringBuilder();
+        for (String directory : mExcludedFolders) {
+            selection.append("_data NOT LIKE '")
+                    .append(directory).append(File.separatorChar)
+                    .append("%' AND ");
+        }
+        selection.setLength(selection.length() - 5);
+
+        List<Long> ids = new ArrayList<>();
+        try (Cursor cur = mDatabase.query("audio", new String[] {"_id", "_data"},
+                selection.toString(), null, null, null, "_id")) {
+            while (cur.moveToNext()) {
+                ids.add(cur.getLong(0));
+            }
+        }
+        return ids;
+    }
+
+    private List<Long> queryTrie() {
+        DirectoryTrie excluded = DirectoryTrie.compile(mExcludedFolders);
+
+        List<Long> ids = new ArrayList<>();
+        try (Cursor cur = mDatabase.query("audio", new String[] {"_id", "_data"},
+                null, null, null, null, "_id")) {
+            while (cur.moveToNext()) {
+                if (!excluded.contains(cur.getString(1))) {
+                    ids.add(cur.getLong(0));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static class Result {
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        private long mElapsedNanos;
+        private long mCpuNanos;
+        private int mRounds;
+
+        void measure(Runnable query) {
+            long cpuStart = THREADS.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+            query.run();
+            mElapsedNanos += System.nanoTime() - start;
+            mCpuNanos += THREADS.getCurrentThreadCpuTime() - cpuStart;
+            mRounds++;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.2f ms per query, %.2f ms CPU",
+                    mElapsedNanos / 1e6 / mRounds, mCpuNanos / 1e6 / mRounds);
+        }
+    }
+}
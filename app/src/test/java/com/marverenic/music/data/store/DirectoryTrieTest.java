@@ -0,0 +1,46 @@
+package com.marverenic.music.data.store;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryTrieTest {
+
+    @Test
+    public void testContainsFilesInDirectory() {
+        DirectoryTrie trie = DirectoryTrie.compile(Arrays.asList("/sdcard/Music", "/sdcard/Books"));
+
+        assertTrue(trie.contains("/sdcard/Music/song.mp3"));
+        assertTrue(trie.contains("/sdcard/Books/Author/chapter.mp3"));
+        assertFalse(trie.contains("/sdcard/Podcasts/episode.mp3"));
+        assertFalse(trie.contains("/sdcard/song.mp3"));
+    }
+
+    @Test
+    public void testDirectoryMustBeFollowedBySeparator() {
+        DirectoryTrie trie = DirectoryTrie.compile(Collections.singletonList("/sdcard/Music"));
+
+        assertFalse(trie.contains("/sdcard/Music"));
+        assertFalse(trie.contains("/sdcard/Music.mp3"));
+        assertFalse(trie.contains("/sdcard/Music2/song.mp3"));
+    }
+
+    @Test
+    public void testIgnoresCaseAndTrailingSeparators() {
+        DirectoryTrie trie = DirectoryTrie.compile(Collections.singletonList("/SDCard/music/"));
+
+        assertTrue(trie.contains("/sdcard/Music/song.mp3"));
+    }
+
+    @Test
+    public void testEmptyTrieContainsNothing() {
+        DirectoryTrie trie = DirectoryTrie.compile(Collections.emptyList());
+
+        assertTrue(trie.isEmpty());
+        assertFalse(trie.contains("/sdcard/Music/song.mp3"));
+    }
+}
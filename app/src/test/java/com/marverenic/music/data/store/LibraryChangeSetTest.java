@@ -0,0 +1,266 @@
+package com.marverenic.music.data.store;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.marverenic.music.data.index.IndexedSong;
+import com.marverenic.music.data.index.LibraryIndex;
+import com.marverenic.music.data.store.LocalMusicStore.DirectoryFilter;
+import com.marverenic.music.data.store.LocalMusicStore.LibraryPatch;
+import com.marverenic.music.model.Song;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LibraryChangeSetTest {
+
+    private static final DirectoryFilter NO_FILTER =
+            new DirectoryFilter(Collections.emptySet(), Collections.emptySet());
+
+    private static Song song(long id, String name) {
+        return song(id, name, "/sdcard/Music/" + id + ".mp3");
+    }
+
+    private static Song song(long id, String name, String path) {
+        IndexedSong row = new IndexedSong();
+        row.songId = id;
+        row.songName = name;
+        row.sortableName = name.toLowerCase();
+        row.path = path;
+        return Song.fromIndexedSong(row);
+    }
+
+    private static List<Song> library(Song... songs) {
+        List<Song> library = new ArrayList<>(Arrays.asList(songs));
+        Collections.sort(library);
+        return Collections.unmodifiableList(library);
+    }
+
+    private static LibraryPatch patch(List<Song> library, DirectoryFilter filter,
+                                      List<Song> inserted, List<Song> updated,
+                                      List<Long> removed) {
+        return LocalMusicStore.patchLibrary(2, library, filter.filter(library), filter,
+                new LibraryIndex.Delta(2, inserted, updated, removed));
+    }
+
+    private static List<String> names(List<Song> songs) {
+        List<String> names = new ArrayList<>(songs.size());
+        for (Song song : songs) {
+            names.add(song.getSongName());
+        }
+        return names;
+    }
+
+    /**
+     * Dispatches the updates in a change set to a copy of its previous songs, and checks that the
+     * result is the same as the new list of songs
+     * @return The updates that were dispatched, in order
+     */
+    private static List<String> assertUpdatesApply(List<Song> previousSongs,
+                                                   LibraryChangeSet changes) {
+        List<Song> songs = new ArrayList<>(previousSongs);
+        List<String> updates = new ArrayList<>();
+
+        changes.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates.add("insert " + position);
+                songs.add(position, changes.getSongs().get(position));
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates.add("remove " + position);
+                songs.remove(position);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                updates.add("move " + fromPosition + " " + toPosition);
+                songs.add(toPosition, songs.remove(fromPosition));
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                updates.add("change " + position);
+                songs.set(position, changes.getSongs().get(position));
+            }
+        });
+
+        assertEquals(changes.getSongs(), songs);
+        return updates;
+    }
+
+    @Test
+    public void testInsertedSongsAreAddedInOrder() {
+        List<Song> library = library(song(1, "Alpha"), song(3, "Charlie"), song(5, "Echo"));
+
+        LibraryPatch patch = patch(library, NO_FILTER,
+                Arrays.asList(song(6, "Foxtrot"), song(2, "Bravo")),
+                Collections.emptyList(), Collections.emptyList());
+
+        LibraryChangeSet changes = patch.mChanges;
+        assertEquals(Arrays.asList("Alpha", "Bravo", "Charlie", "Echo", "Foxtrot"),
+                names(patch.mLibrary));
+        assertEquals(patch.mLibrary, changes.getSongs());
+        assertEquals(2, changes.getVersion());
+        assertTrue(changes.appliesTo(1));
+        assertEquals(2, changes.getInsertedSongs().size());
+        assertTrue(changes.getRemovedSongs().isEmpty());
+        assertTrue(changes.getUpdatedSongs().isEmpty());
+
+        assertEquals(Arrays.asList("insert 1", "insert 4"), assertUpdatesApply(library, changes));
+    }
+
+    @Test
+    public void testRemovedSongsAreDeleted() {
+        List<Song> library = library(song(1, "Alpha"), song(2, "Bravo"), song(3, "Charlie"));
+
+        LibraryPatch patch = patch(library, NO_FILTER, Collections.emptyList(),
+                Collections.emptyList(), Arrays.asList(1L, 3L));
+
+        LibraryChangeSet changes = patch.mChanges;
+        assertEquals(Collections.singletonList("Bravo"), names(patch.mLibrary));
+        assertEquals(Arrays.asList(song(1, "Alpha"), song(3, "Charlie")),
+                changes.getRemovedSongs());
+
+        assertEquals(Arrays.asList("remove 2", "remove 0"), assertUpdatesApply(library, changes));
+    }
+
+    @Test
+    public void testModifiedSongKeepsItsPosition() {
+        Song bravo = song(2, "Bravo");
+        List<Song> library = library(song(1, "Alpha"), bravo, song(3, "Charlie"));
+
+        Song modified = song(2, "Bravo", "/sdcard/Music/Moved/2.mp3");
+        LibraryPatch patch = patch(library, NO_FILTER, Collections.emptyList(),
+                Collections.singletonList(modified), Collections.emptyList());
+
+        LibraryChangeSet changes = patch.mChanges;
+        assertSame(modified, patch.mLibrary.get(1));
+        assertEquals(Collections.singletonList(modified), changes.getUpdatedSongs());
+        assertTrue(changes.getInsertedSongs().isEmpty());
+        assertTrue(changes.getRemovedSongs().isEmpty());
+
+        assertEquals(Collections.singletonList("change 1"), assertUpdatesApply(library, changes));
+    }
+
+    @Test
+    public void testRenamedSongIsMoved() {
+        List<Song> library = library(song(1, "Alpha"), song(2, "Bravo"), song(3, "Charlie"));
+
+        LibraryPatch patch = patch(library, NO_FILTER, Collections.emptyList(),
+                Collections.singletonList(song(1, "Zulu")), Collections.emptyList());
+
+        LibraryChangeSet changes = patch.mChanges;
+        assertEquals(Arrays.asList("Bravo", "Charlie", "Zulu"), names(patch.mLibrary));
+        assertEquals(1, changes.getUpdatedSongs().size());
+
+        assertEquals(Arrays.asList("remove 0", "insert 2"), assertUpdatesApply(library, changes));
+    }
+
+    @Test
+    public void testInsertsRemovalsAndUpdatesTogether() {
+        List<Song> library = library(song(1, "Alpha"), song(2, "Bravo"), song(3, "Charlie"),
+                song(4, "Delta"));
+
+        LibraryPatch patch = patch(library, NO_FILTER,
+                Collections.singletonList(song(5, "Bravissimo")),
+                Arrays.asList(song(3, "Charlie"), song(4, "Able")),
+                Collections.singletonList(2L));
+
+        assertEquals(Arrays.asList("Able", "Alpha", "Bravissimo", "Charlie"),
+                names(patch.mLibrary));
+        assertUpdatesApply(library, patch.mChanges);
+    }
+
+    @Test
+    public void testSongsMovingAcrossDirectoryFilterAreInsertedOrRemoved() {
+        DirectoryFilter filter = new DirectoryFilter(
+                Collections.singleton("/sdcard/Music"), Collections.emptySet());
+
+        List<Song> library = library(song(1, "Alpha"), song(2, "Bravo", "/sdcard/Podcasts/2.mp3"),
+                song(3, "Charlie"), song(4, "Delta", "/sdcard/Podcasts/4.mp3"));
+        List<Song> visible = filter.filter(library);
+
+        LibraryPatch patch = patch(library, filter,
+                Collections.singletonList(song(5, "Echo", "/sdcard/Podcasts/5.mp3")),
+                Arrays.asList(song(1, "Alpha", "/sdcard/Podcasts/1.mp3"),
+                        song(2, "Bravo", "/sdcard/Music/2.mp3")),
+                Collections.singletonList(4L));
+
+        LibraryChangeSet changes = patch.mChanges;
+
+        // Every song stays in the unfiltered library, but only visible songs are published
+        assertEquals(Arrays.asList("Alpha", "Bravo", "Charlie", "Echo"), names(patch.mLibrary));
+        assertEquals(Arrays.asList("Bravo", "Charlie"), names(changes.getSongs()));
+        assertEquals(Collections.singletonList("Bravo"), names(changes.getInsertedSongs()));
+        assertEquals(Collections.singletonList("Alpha"), names(changes.getRemovedSongs()));
+        assertTrue(changes.getUpdatedSongs().isEmpty());
+
+        assertUpdatesApply(visible, changes);
+    }
+
+    @Test
+    public void testDeltaInsertsAndRemovesSongs() {
+        Song bravo = song(2, "Bravo");
+        Song delta = song(4, "Delta");
+        List<Song> previous = library(song(1, "Alpha"), bravo, song(3, "Charlie"));
+        List<Song> current = library(song(1, "Alpha"), song(3, "Charlie"), delta);
+
+        LibraryChangeSet changes = LibraryChangeSet.delta(2, previous, current,
+                Collections.singletonList(delta), Collections.singletonList(bravo),
+                Collections.emptyList(), Collections.emptyList());
+
+        assertFalse(changes.isReset());
+        assertTrue(changes.appliesTo(1));
+        assertFalse(changes.appliesTo(2));
+        assertEquals(Arrays.asList("remove 1", "insert 2"), assertUpdatesApply(previous, changes));
+    }
+
+    @Test
+    public void testDeltaMovesRenamedSongs() {
+        Song alpha = song(1, "Alpha");
+        Song renamed = song(1, "Zulu");
+        List<Song> previous = library(alpha, song(2, "Bravo"), song(3, "Charlie"));
+        List<Song> current = library(song(2, "Bravo"), song(3, "Charlie"), renamed);
+
+        LibraryChangeSet changes = LibraryChangeSet.delta(2, previous, current,
+                Collections.emptyList(), Collections.emptyList(),
+                Collections.singletonList(renamed), Collections.singletonList(alpha));
+
+        assertUpdatesApply(previous, changes);
+    }
+
+    @Test
+    public void testResetOnlyAppliesToNothing() {
+        LibraryChangeSet reset = LibraryChangeSet.reset(3, library(song(1, "Alpha")));
+
+        assertTrue(reset.isReset());
+        assertFalse(reset.appliesTo(2));
+        assertFalse(reset.appliesTo(LibraryChangeSet.NO_VERSION));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testResetCannotDispatchUpdates() {
+        LibraryChangeSet.reset(1, library(song(1, "Alpha"))).dispatchUpdatesTo(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpdatedSongsNeedPreviousVersions() {
+        List<Song> library = library(song(1, "Alpha"));
+        LibraryChangeSet.delta(2, library, library, Collections.emptyList(),
+                Collections.emptyList(), library, Collections.emptyList());
+    }
+}
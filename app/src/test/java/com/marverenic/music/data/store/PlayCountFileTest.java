@@ -0,0 +1,97 @@
+package com.marverenic.music.data.store;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PlayCountFileTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private File mJournal;
+    private File mLegacyFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), ".playcounts");
+        mJournal = new File(mFolder.getRoot(), ".playcounts-journal");
+        mLegacyFile = new File(mFolder.getRoot(), ".playcount");
+    }
+
+    private PlayCountFile open() throws IOException {
+        return new PlayCountFile(mFile, mJournal, mLegacyFile);
+    }
+
+    @Test
+    public void testMigratesLegacyPlayCounts() throws IOException {
+        Properties legacyCounts = new Properties();
+        legacyCounts.put("1", "12,3,1500000000");
+        legacyCounts.put("2", "4,5");
+
+        try (Writer writer = new FileWriter(mLegacyFile)) {
+            legacyCounts.store(writer, null);
+        }
+
+        PlayCountFile playCounts = open();
+
+        assertEquals(12, playCounts.get(1).mPlays);
+        assertEquals(3, playCounts.get(1).mSkips);
+        assertEquals(1500000000, playCounts.get(1).mDate);
+        assertEquals(4, playCounts.get(2).mPlays);
+        assertEquals(0, playCounts.get(2).mDate);
+        assertNull(playCounts.get(3));
+        assertFalse(mLegacyFile.exists());
+
+        playCounts.close();
+    }
+
+    @Test
+    public void testUpdatesPersistAfterReopening() throws IOException {
+        PlayCountFile playCounts = open();
+        for (long songId = 0; songId < 5000; songId++) {
+            playCounts.update(songId, count -> count.mPlays++);
+        }
+        playCounts.update(42, count -> count.mSkips = 7);
+        playCounts.close();
+
+        PlayCountFile reopened = open();
+        assertEquals(1, reopened.get(4999).mPlays);
+        assertEquals(1, reopened.get(42).mPlays);
+        assertEquals(7, reopened.get(42).mSkips);
+        reopened.close();
+    }
+
+    @Test
+    public void testReadsChangesFromAnotherInstance() throws IOException {
+        PlayCountFile writer = open();
+        PlayCountFile reader = open();
+
+        Set<Long> writtenChanges = writer.update(10, count -> count.mPlays = 3);
+        assertEquals(Collections.singleton(10L), writtenChanges);
+
+        Set<Long> readChanges = reader.readChanges();
+        assertEquals(Collections.singleton(10L), readChanges);
+        assertEquals(3, reader.get(10).mPlays);
+
+        assertTrue(reader.readChanges().isEmpty());
+
+        writer.close();
+        reader.close();
+    }
+}
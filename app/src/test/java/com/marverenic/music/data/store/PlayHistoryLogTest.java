@@ -0,0 +1,263 @@
+package com.marverenic.music.data.store;
+
+import com.marverenic.music.data.index.IndexedSong;
+import com.marverenic.music.model.Song;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static com.marverenic.music.data.store.PlayHistory.PAST_MONTH;
+import static com.marverenic.music.data.store.PlayHistory.PAST_WEEK;
+import static com.marverenic.music.data.store.PlayHistory.PAST_YEAR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PlayHistoryLogTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    // Midnight at the start of a day in UTC, so that adding less than a day never changes the date
+    private static final long NOW = 18000 * DAY;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), ".playhistory");
+    }
+
+    private static Song song(long id, long artistId, long albumId) {
+        IndexedSong row = new IndexedSong();
+        row.songId = id;
+        row.artistId = artistId;
+        row.albumId = albumId;
+        row.path = "/sdcard/music/" + id + ".mp3";
+        return Song.fromIndexedSong(row);
+    }
+
+    private static Song song(long id) {
+        return song(id, 0, 0);
+    }
+
+    private static void play(PlayHistoryLog log, long songId, long time, int times)
+            throws IOException {
+        for (int i = 0; i < times; i++) {
+            log.append(songId, time, 60000, false);
+        }
+    }
+
+    @Test
+    public void testAppendCountsPlaysAndSkips() throws IOException {
+        PlayHistoryLog log = new PlayHistoryLog(null, UTC);
+
+        assertEquals(Collections.singleton(1L), log.append(1, NOW, 60000, false));
+        log.append(1, NOW, 1000, true);
+        log.append(1, NOW + 1000, 60000, false);
+
+        assertEquals(2, log.getPlayCount(song(1), PAST_WEEK));
+        assertEquals(1, log.getSkipCount(song(1), PAST_WEEK));
+        assertEquals(2, log.getPlayCount(song(1), PAST_YEAR));
+        assertEquals(0, log.getPlayCount(song(2), PAST_WEEK));
+    }
+
+    @Test
+    public void testPlaysExpireFromEachWindow() throws IOException {
+        PlayHistoryLog log = new PlayHistoryLog(null, UTC);
+        log.append(1, NOW, 60000, false);
+
+        assertEquals(Collections.singleton(1L), log.readNewEvents(NOW + 8 * DAY));
+        assertEquals(0, log.getPlayCount(song(1), PAST_WEEK));
+        assertEquals(1, log.getPlayCount(song(1), PAST_MONTH));
+
+        assertEquals(Collections.singleton(1L), log.readNewEvents(NOW + 31 * DAY));
+        assertEquals(0, log.getPlayCount(song(1), PAST_MONTH));
+        assertEquals(1, log.getPlayCount(song(1), PAST_YEAR));
+
+        // Nothing else expires until a bucket falls outside of a window
+        log.append(2, NOW + 31 * DAY, 60000, false);
+        assertTrue(log.readNewEvents(NOW + 31 * DAY + 1000).isEmpty());
+        assertEquals(1, log.getPlayCount(song(2), PAST_WEEK));
+    }
+
+    @Test
+    public void testDaysStartAtLocalMidnight() throws IOException {
+        PlayHistoryLog log = new PlayHistoryLog(null, TimeZone.getTimeZone("GMT-05:00"));
+
+        // This is 9 PM on the previous day in the local time zone
+        log.append(1, NOW + 2 * HOUR, 60000, false);
+
+        // 11 PM local time, six days later, is still within a week of the play
+        log.readNewEvents(NOW + 6 * DAY + 4 * HOUR);
+        assertEquals(1, log.getPlayCount(song(1), PAST_WEEK));
+
+        // The next local day starts at 5 AM UTC
+        assertEquals(Collections.singleton(1L), log.readNewEvents(NOW + 6 * DAY + 6 * HOUR));
+        assertEquals(0, log.getPlayCount(song(1), PAST_WEEK));
+    }
+
+    @Test
+    public void testOldPlaysAreNotCounted() throws IOException {
+        PlayHistoryLog log = new PlayHistoryLog(null, UTC);
+        log.readNewEvents(NOW);
+
+        assertTrue(log.append(1, NOW - 400 * DAY, 60000, false).contains(1L));
+        assertEquals(0, log.getPlayCount(song(1), PAST_YEAR));
+    }
+
+    @Test
+    public void testReplayFromFile() throws IOException {
+        PlayHistoryLog log = new PlayHistoryLog(mFile, UTC);
+        log.append(1, NOW - 400 * DAY, 60000, false);
+        log.append(1, NOW - 10 * DAY, 60000, false);
+        log.append(2, NOW - DAY, 60000, false);
+        log.append(2, NOW, 1000, true);
+
+        PlayHistoryLog replayed = new PlayHistoryLog(mFile, UTC);
+        replayed.readNewEvents(NOW);
+
+        assertEquals(0, replayed.getPlayCount(song(1), PAST_WEEK));
+        assertEquals(1, replayed.getPlayCount(song(1), PAST_MONTH));
+        assertEquals(1, replayed.getPlayCount(song(1), PAST_YEAR));
+        assertEquals(1, replayed.getPlayCount(song(2), PAST_WEEK));
+        assertEquals(1, replayed.getSkipCount(song(2), PAST_WEEK));
+    }
+
+    @Test
+    public void testReadsEventsFromOtherInstances() throws IOException {
+        PlayHistoryLog first = new PlayHistoryLog(mFile, UTC);
+        PlayHistoryLog second = new PlayHistoryLog(mFile, UTC);
+        first.readNewEvents(NOW);
+        second.readNewEvents(NOW);
+
+        first.append(1, NOW, 60000, false);
+        assertEquals(Collections.singleton(1L), second.readNewEvents(NOW));
+        assertEquals(1, second.getPlayCount(song(1), PAST_WEEK));
+
+        // Events are only read once
+        assertTrue(second.readNewEvents(NOW).isEmpty());
+
+        second.append(2, NOW, 60000, false);
+        first.readNewEvents(NOW);
+        assertEquals(1, first.getPlayCount(song(2), PAST_WEEK));
+    }
+
+    @Test
+    public void testPartialEventIsOverwritten() throws IOException {
+        PlayHistoryLog log = new PlayHistoryLog(mFile, UTC);
+        log.append(1, NOW, 60000, false);
+
+        // Simulate a process that crashed halfway through appending an event
+        OutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(new byte[7]);
+        } finally {
+            out.close();
+        }
+
+        log.append(2, NOW, 60000, false);
+
+        PlayHistoryLog replayed = new PlayHistoryLog(mFile, UTC);
+        replayed.readNewEvents(NOW);
+        assertEquals(1, replayed.getPlayCount(song(1), PAST_WEEK));
+        assertEquals(1, replayed.getPlayCount(song(2), PAST_WEEK));
+        assertEquals(32, mFile.length());
+    }
+
+    @Test
+    public void testMostPlayedSongIds() throws IOException {
+        PlayHistoryLog log = new PlayHistoryLog(null, UTC);
+        play(log, 1, NOW, 1);
+        play(log, 2, NOW, 3);
+        play(log, 3, NOW - 10 * DAY, 5);
+        play(log, 4, NOW, 3);
+        log.append(5, NOW, 1000, true);
+
+        assertEquals(Arrays.asList(2L, 4L, 1L), log.getMostPlayedSongIds(PAST_WEEK, 10));
+        assertEquals(Arrays.asList(3L, 2L), log.getMostPlayedSongIds(PAST_MONTH, 2));
+        assertTrue(log.getMostPlayedSongIds(PAST_MONTH, 0).isEmpty());
+
+        // The ranking changes as songs are played
+        play(log, 1, NOW, 3);
+        assertEquals(Arrays.asList(1L, 2L, 4L), log.getMostPlayedSongIds(PAST_WEEK, 10));
+
+        // ... and as plays expire
+        log.readNewEvents(NOW + 25 * DAY);
+        assertTrue(log.getMostPlayedSongIds(PAST_WEEK, 10).isEmpty());
+        assertEquals(Arrays.asList(1L, 2L, 4L), log.getMostPlayedSongIds(PAST_MONTH, 10));
+        assertEquals(Arrays.asList(3L, 1L, 2L, 4L), log.getMostPlayedSongIds(PAST_YEAR, 10));
+    }
+
+    @Test
+    public void testPlayCountsByArtistAndAlbum() throws IOException {
+        List<Song> songs = Arrays.asList(song(1, 10, 100), song(2, 10, 200), song(3, 20, 300));
+
+        PlayHistoryLog log = new PlayHistoryLog(null, UTC);
+        play(log, 1, NOW, 2);
+        play(log, 2, NOW - 10 * DAY, 1);
+        play(log, 3, NOW, 4);
+        play(log, 4, NOW, 8);
+
+        Map<Long, Integer> byArtist = new HashMap<>();
+        byArtist.put(10L, 3);
+        byArtist.put(20L, 4);
+        assertEquals(byArtist, log.getPlayCountsByArtist(PAST_MONTH, songs));
+
+        Map<Long, Integer> byAlbum = new HashMap<>();
+        byAlbum.put(100L, 2);
+        byAlbum.put(300L, 4);
+        assertEquals(byAlbum, log.getPlayCountsByAlbum(PAST_WEEK, songs));
+
+        // The sums are updated as songs are played and as plays expire
+        play(log, 2, NOW, 1);
+        byArtist.put(10L, 4);
+        assertEquals(byArtist, log.getPlayCountsByArtist(PAST_MONTH, songs));
+
+        log.readNewEvents(NOW + 25 * DAY);
+        byArtist.put(10L, 3);
+        assertEquals(byArtist, log.getPlayCountsByArtist(PAST_MONTH, songs));
+
+        log.readNewEvents(NOW + 35 * DAY);
+        assertTrue(log.getPlayCountsByArtist(PAST_MONTH, songs).isEmpty());
+    }
+
+    @Test
+    public void testPlayCountsAreRebuiltForDifferentSongs() throws IOException {
+        PlayHistoryLog log = new PlayHistoryLog(null, UTC);
+        play(log, 1, NOW, 2);
+        play(log, 2, NOW, 3);
+
+        assertEquals(Collections.singletonMap(10L, 2),
+                log.getPlayCountsByArtist(PAST_WEEK,
+                        Collections.singletonList(song(1, 10, 100))));
+
+        // Song 1 is now on a different album, and song 2 was added
+        List<Song> songs = Arrays.asList(song(1, 10, 101), song(2, 10, 200));
+        Map<Long, Integer> byAlbum = new HashMap<>();
+        byAlbum.put(101L, 2);
+        byAlbum.put(200L, 3);
+        assertEquals(byAlbum, log.getPlayCountsByAlbum(PAST_WEEK, songs));
+        assertEquals(Collections.singletonMap(10L, 5), log.getPlayCountsByArtist(PAST_WEEK, songs));
+    }
+}
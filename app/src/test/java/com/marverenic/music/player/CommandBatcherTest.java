@@ -0,0 +1,143 @@
+package com.marverenic.music.player;
+
+import com.marverenic.music.data.index.IndexedSong;
+import com.marverenic.music.model.Song;
+import com.marverenic.music.player.transaction.ChunkHeader;
+import com.marverenic.music.utils.ObservableQueue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class CommandBatcherTest {
+
+    private ObservableQueue<Runnable> mRequestQueue;
+    private CommandBatcher mBatcher;
+    private List<List<PlayerCommand>> mSent;
+
+    @Before
+    public void setUp() {
+        mRequestQueue = new ObservableQueue<>();
+        mSent = new ArrayList<>();
+        mBatcher = new CommandBatcher(mRequestQueue, commands -> {
+            mSent.add(new ArrayList<>(commands));
+        });
+    }
+
+    private static List<Song> songs(int start, int count) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = start; i < start + count; i++) {
+            IndexedSong row = new IndexedSong();
+            row.songId = i;
+            row.songName = "Song " + i;
+            row.path = "/sdcard/music/" + i + ".mp3";
+            songs.add(Song.fromIndexedSong(row));
+        }
+        return songs;
+    }
+
+    /**
+     * Runs every request in the queue in order, the same way that the request thread does
+     */
+    private void runRequests() {
+        mRequestQueue.toObservable().subscribe(Runnable::run);
+    }
+
+    @Test
+    public void testAdjacentCommandsAreSentInOneBatch() {
+        mBatcher.enqueue(PlayerCommand.pause());
+        mBatcher.enqueue(PlayerCommand.changeSong(1));
+        mBatcher.enqueue(PlayerCommand.play());
+        runRequests();
+
+        assertEquals(1, mSent.size());
+        assertEquals(3, mSent.get(0).size());
+        assertEquals(1, mBatcher.getBatchCount());
+        assertEquals(3, mBatcher.getSentCount());
+    }
+
+    @Test
+    public void testAdjacentCommandsAreCoalesced() {
+        mBatcher.enqueue(PlayerCommand.seek(1000));
+        mBatcher.enqueue(PlayerCommand.seek(2000));
+        mBatcher.enqueue(PlayerCommand.queueLast(songs(0, 2)));
+        mBatcher.enqueue(PlayerCommand.queueLast(songs(2, 2)));
+        runRequests();
+
+        List<PlayerCommand> batch = mSent.get(0);
+        assertEquals(2, batch.size());
+        assertEquals(2000, batch.get(0).getArgument());
+        assertEquals(songs(0, 4), batch.get(1).getSongs());
+
+        assertEquals(4, mBatcher.getEnqueuedCount());
+        assertEquals(2, mBatcher.getMergedCount());
+        assertEquals(2, mBatcher.getSentCount());
+    }
+
+    @Test
+    public void testOtherRequestsSplitBatches() {
+        List<String> order = new ArrayList<>();
+        mBatcher.enqueue(PlayerCommand.seek(1000));
+        mBatcher.enqueue(() -> order.add("request"));
+        mBatcher.enqueue(PlayerCommand.seek(2000));
+        runRequests();
+
+        // The seeks can't be merged across the request, or the request would see the wrong state
+        assertEquals(2, mSent.size());
+        assertEquals(1000, mSent.get(0).get(0).getArgument());
+        assertEquals(2000, mSent.get(1).get(0).getArgument());
+        assertEquals(Collections.singletonList("request"), order);
+        assertEquals(2, mBatcher.getBatchCount());
+    }
+
+    @Test
+    public void testCommandsAreNotAddedToBatchThatWasSent() {
+        runRequests();
+
+        mBatcher.enqueue(PlayerCommand.seek(1000));
+        mBatcher.enqueue(PlayerCommand.seek(2000));
+
+        // The request queue is already being drained, so each batch is sent as it's enqueued
+        assertEquals(2, mSent.size());
+        assertEquals(0, mBatcher.getMergedCount());
+    }
+
+    @Test
+    public void testBatchesFitInOneTransaction() {
+        mBatcher.enqueue(PlayerCommand.queueLast(songs(0, ChunkHeader.MAX_ENTRIES - 1)));
+        mBatcher.enqueue(PlayerCommand.queueNext(songs(ChunkHeader.MAX_ENTRIES, 2)));
+        runRequests();
+
+        assertEquals(2, mSent.size());
+        assertEquals(Arrays.asList(1, 1), Arrays.asList(mSent.get(0).size(), mSent.get(1).size()));
+    }
+
+    @Test
+    public void testLargeCommandsAreSplit() {
+        mBatcher.enqueue(PlayerCommand.queueLast(songs(0, ChunkHeader.MAX_ENTRIES * 2 + 1)));
+        runRequests();
+
+        assertEquals(3, mSent.size());
+        assertEquals(3, mBatcher.getSentCount());
+        assertEquals(1, mBatcher.getEnqueuedCount());
+    }
+
+    @Test
+    public void testQueueWaitIsRecorded() {
+        mBatcher.enqueue(PlayerCommand.play());
+        assertEquals(0, mBatcher.getAverageQueueWaitMs());
+
+        runRequests();
+        assertEquals(1, mBatcher.getBatchCount());
+        assertEquals(mBatcher.getMaxQueueWaitMs(), mBatcher.getAverageQueueWaitMs());
+    }
+}
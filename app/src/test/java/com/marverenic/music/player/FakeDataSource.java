@@ -0,0 +1,95 @@
+package com.marverenic.music.player;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link DataSource} that reads a song from memory, and records every read that is opened on it
+ */
+final class FakeDataSource implements DataSource {
+
+    private final byte[] mContent;
+    private final List<DataSpec> mOpenedSpecs;
+
+    @Nullable
+    private Uri mUri;
+    private int mPosition;
+    private long mBytesRemaining;
+
+    private FakeDataSource(byte[] content, List<DataSpec> openedSpecs) {
+        mContent = content;
+        mOpenedSpecs = openedSpecs;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) {
+        mOpenedSpecs.add(dataSpec);
+        mUri = dataSpec.uri;
+        mPosition = (int) dataSpec.absoluteStreamPosition;
+
+        long available = mContent.length - mPosition;
+        if (dataSpec.length == C.LENGTH_UNSET) {
+            mBytesRemaining = available;
+        } else {
+            mBytesRemaining = Math.min(dataSpec.length, available);
+        }
+        return mBytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) {
+        if (readLength == 0) {
+            return 0;
+        } else if (mBytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        int read = (int) Math.min(readLength, mBytesRemaining);
+        System.arraycopy(mContent, mPosition, buffer, offset, read);
+        mPosition += read;
+        mBytesRemaining -= read;
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return mUri;
+    }
+
+    @Override
+    public void close() {
+        mUri = null;
+    }
+
+    static final class Factory implements DataSource.Factory {
+
+        private final byte[] mContent;
+        private final List<DataSpec> mOpenedSpecs = new ArrayList<>();
+
+        /**
+         * @param content The bytes of the song that every data source reads, regardless of its URI
+         */
+        Factory(byte[] content) {
+            mContent = content;
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            return new FakeDataSource(mContent, mOpenedSpecs);
+        }
+
+        /**
+         * @return Every read that has been opened by a data source from this factory, in order
+         */
+        List<DataSpec> getOpenedSpecs() {
+            return mOpenedSpecs;
+        }
+    }
+}
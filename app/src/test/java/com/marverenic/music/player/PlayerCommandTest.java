@@ -0,0 +1,133 @@
+package com.marverenic.music.player;
+
+import com.marverenic.music.data.index.IndexedSong;
+import com.marverenic.music.model.Song;
+import com.marverenic.music.player.transaction.ChunkHeader;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class PlayerCommandTest {
+
+    private static Song song(long id) {
+        IndexedSong row = new IndexedSong();
+        row.songId = id;
+        row.songName = "Song " + id;
+        row.path = "/sdcard/music/" + id + ".mp3";
+        return Song.fromIndexedSong(row);
+    }
+
+    private static List<Song> songs(int start, int count) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = start; i < start + count; i++) {
+            songs.add(song(i));
+        }
+        return songs;
+    }
+
+    /**
+     * Simulates queueing songs after the current song, and after the end of the queue
+     * @return The songs that were queued, in the order that they'll play in
+     */
+    private static List<Song> run(List<PlayerCommand> commands) {
+        List<Song> next = new ArrayList<>();
+        List<Song> last = new ArrayList<>();
+        for (PlayerCommand command : commands) {
+            if (command.getType() == PlayerCommand.QUEUE_NEXT) {
+                next.addAll(0, command.getSongs());
+            } else if (command.getType() == PlayerCommand.QUEUE_LAST) {
+                last.addAll(command.getSongs());
+            }
+        }
+        next.addAll(last);
+        return next;
+    }
+
+    @Test
+    public void testMergeKeepsLastSeekAndSongChange() {
+        PlayerCommand seek = PlayerCommand.seek(1000);
+        PlayerCommand nextSeek = PlayerCommand.seek(2000);
+        assertSame(nextSeek, seek.mergeWith(nextSeek));
+
+        PlayerCommand change = PlayerCommand.changeSong(3);
+        PlayerCommand nextChange = PlayerCommand.changeSong(5);
+        assertSame(nextChange, change.mergeWith(nextChange));
+    }
+
+    @Test
+    public void testMergeDoesNotCombineDifferentTypes() {
+        assertNull(PlayerCommand.seek(1000).mergeWith(PlayerCommand.changeSong(1)));
+        assertNull(PlayerCommand.queueNext(songs(0, 1))
+                .mergeWith(PlayerCommand.queueLast(songs(1, 1))));
+    }
+
+    @Test
+    public void testMergeDoesNotCombineCommandsWithoutArguments() {
+        // Toggling play twice has a different effect than toggling it once
+        assertNull(PlayerCommand.togglePlay().mergeWith(PlayerCommand.togglePlay()));
+        assertNull(PlayerCommand.skip().mergeWith(PlayerCommand.skip()));
+    }
+
+    @Test
+    public void testMergedQueueLastKeepsOrder() {
+        PlayerCommand first = PlayerCommand.queueLast(songs(0, 2));
+        PlayerCommand second = PlayerCommand.queueLast(songs(2, 2));
+
+        PlayerCommand merged = first.mergeWith(second);
+        assertEquals(run(Arrays.asList(first, second)), merged.getSongs());
+        assertEquals(songs(0, 4), merged.getSongs());
+    }
+
+    @Test
+    public void testMergedQueueNextKeepsOrder() {
+        PlayerCommand first = PlayerCommand.queueNext(songs(0, 2));
+        PlayerCommand second = PlayerCommand.queueNext(songs(2, 2));
+
+        // The songs queued second play first
+        PlayerCommand merged = first.mergeWith(second);
+        assertEquals(run(Arrays.asList(first, second)), merged.getSongs());
+        assertEquals(Arrays.asList(song(2), song(3), song(0), song(1)), merged.getSongs());
+    }
+
+    @Test
+    public void testMergeDoesNotExceedTransactionSize() {
+        PlayerCommand first = PlayerCommand.queueLast(songs(0, ChunkHeader.MAX_ENTRIES));
+        assertNull(first.mergeWith(PlayerCommand.queueLast(songs(ChunkHeader.MAX_ENTRIES, 1))));
+    }
+
+    @Test
+    public void testSmallCommandIsNotSplit() {
+        PlayerCommand command = PlayerCommand.queueLast(songs(0, 10));
+        assertEquals(Arrays.asList(command), command.split(10));
+    }
+
+    @Test
+    public void testSplitQueueLastKeepsOrder() {
+        List<Song> songs = songs(0, 25);
+        List<PlayerCommand> parts = PlayerCommand.queueLast(songs).split(10);
+
+        assertEquals(3, parts.size());
+        assertEquals(10, parts.get(0).getSongs().size());
+        assertEquals(5, parts.get(2).getSongs().size());
+        assertEquals(songs, run(parts));
+    }
+
+    @Test
+    public void testSplitQueueNextKeepsOrder() {
+        List<Song> songs = songs(0, 25);
+        List<PlayerCommand> parts = PlayerCommand.queueNext(songs).split(10);
+
+        assertEquals(3, parts.size());
+        assertEquals(songs, run(parts));
+    }
+}
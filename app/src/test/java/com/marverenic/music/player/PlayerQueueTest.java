@@ -0,0 +1,198 @@
+package com.marverenic.music.player;
+
+import com.marverenic.music.data.index.IndexedSong;
+import com.marverenic.music.model.Song;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PlayerQueueTest {
+
+    private static Song song(long id) {
+        IndexedSong row = new IndexedSong();
+        row.songId = id;
+        row.songName = "Song " + id;
+        row.path = "/sdcard/music/" + id + ".mp3";
+        return Song.fromIndexedSong(row);
+    }
+
+    private static List<Song> songs(int count) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            songs.add(song(i));
+        }
+        return songs;
+    }
+
+    @Test
+    public void testShuffleIsReproducibleFromSeed() {
+        List<Song> queue = songs(50);
+        PlayerQueue shuffled = PlayerQueue.of(queue).shuffle(7, 1234);
+
+        // Read the second copy out of order so that it's generated in a different order
+        PlayerQueue other = PlayerQueue.of(queue).shuffle(7, 1234);
+        other.getCurrentQueue().get(30);
+
+        assertEquals(new ArrayList<>(shuffled.getCurrentQueue()),
+                new ArrayList<>(other.getCurrentQueue()));
+        assertEquals(queue, shuffled.getQueue());
+        assertEquals(7, shuffled.getUnshuffledIndex(0));
+
+        Set<Song> shuffledSongs = new HashSet<>(shuffled.getCurrentQueue());
+        assertEquals(new HashSet<>(queue), shuffledSongs);
+        assertEquals(queue.size(), shuffled.getCurrentQueue().size());
+    }
+
+    @Test
+    public void testShuffleOnlyGeneratesWhatIsRead() {
+        ShuffleOrder order = ShuffleOrder.create(1000000, 500, 42);
+
+        assertEquals(500, order.get(0));
+        assertEquals(1, order.getGeneratedSize());
+
+        order.get(9);
+        assertEquals(10, order.getGeneratedSize());
+        assertEquals(1000000, order.size());
+    }
+
+    @Test
+    public void testAppendWhileShuffledKeepsPlayedSongs() {
+        List<Song> queue = songs(100);
+        PlayerQueue shuffled = PlayerQueue.of(queue).shuffle(0, 7);
+        List<Song> played = new ArrayList<>(shuffled.getCurrentQueue().subList(0, 20));
+
+        List<Song> added = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            added.add(song(1000 + i));
+        }
+
+        PlayerQueue appended = shuffled.append(added, 19);
+        List<Song> current = new ArrayList<>(appended.getCurrentQueue());
+
+        assertEquals(played, current.subList(0, 20));
+        assertEquals(130, current.size());
+        assertTrue(current.containsAll(added));
+
+        List<Song> expectedOriginal = new ArrayList<>(queue);
+        expectedOriginal.addAll(added);
+        assertEquals(expectedOriginal, appended.getQueue());
+
+        // The original queue shouldn't be affected by the append
+        assertEquals(100, shuffled.getCurrentQueue().size());
+        assertEquals(played, shuffled.getCurrentQueue().subList(0, 20));
+    }
+
+    @Test
+    public void testInsertWhileShuffledAppendsToOriginalOrder() {
+        List<Song> queue = songs(10);
+        PlayerQueue shuffled = PlayerQueue.of(queue).shuffle(0, 42);
+        List<Song> added = Arrays.asList(song(100), song(101));
+
+        PlayerQueue inserted = shuffled.insert(1, added);
+
+        List<Song> expectedShuffled = new ArrayList<>(shuffled.getCurrentQueue());
+        expectedShuffled.addAll(1, added);
+        List<Song> expectedOriginal = new ArrayList<>(queue);
+        expectedOriginal.addAll(added);
+
+        assertEquals(expectedShuffled, inserted.getCurrentQueue());
+        assertEquals(expectedOriginal, inserted.getQueue());
+        assertEquals(expectedOriginal, inserted.unshuffle().getCurrentQueue());
+    }
+
+    @Test
+    public void testEditWhileShuffledRemovesFromOriginalOrder() {
+        List<Song> queue = songs(10);
+        PlayerQueue shuffled = PlayerQueue.of(queue).shuffle(3, 42);
+
+        List<Song> edited = new ArrayList<>(shuffled.getCurrentQueue());
+        Song removed = edited.remove(4);
+        Collections.swap(edited, 1, 2);
+
+        PlayerQueue result = shuffled.edit(edited);
+        List<Song> expectedOriginal = new ArrayList<>(queue);
+        expectedOriginal.remove(removed);
+
+        assertEquals(edited, result.getCurrentQueue());
+        assertEquals(expectedOriginal, result.getQueue());
+    }
+
+    @Test
+    public void testAppendDoesNotChangePreviousQueues() {
+        PlayerQueue original = PlayerQueue.of(songs(5));
+        PlayerQueue first = original.append(Collections.singletonList(song(100)));
+        PlayerQueue second = original.append(Collections.singletonList(song(200)));
+        PlayerQueue third = first.append(Collections.singletonList(song(300)));
+
+        assertEquals(5, original.size());
+        assertEquals(song(100), first.getCurrentQueue().get(5));
+        assertEquals(song(200), second.getCurrentQueue().get(5));
+        assertEquals(Arrays.asList(song(100), song(300)), third.getCurrentQueue().subList(5, 7));
+    }
+
+    @Test
+    public void testRestoreShuffledQueue() {
+        PlayerQueue shuffled = PlayerQueue.of(songs(20)).shuffle(5, 99)
+                .insert(3, Collections.singletonList(song(100)));
+
+        PlayerQueue restored = PlayerQueue.restore(shuffled.getQueue(),
+                shuffled.getShuffledQueue(), true);
+
+        assertTrue(restored.isShuffled());
+        assertEquals(shuffled.getQueue(), restored.getQueue());
+        assertEquals(shuffled.getCurrentQueue(), restored.getCurrentQueue());
+    }
+
+    @Test
+    public void testEditKeepsShuffleRandomState() {
+        PlayerQueue shuffled = PlayerQueue.of(songs(50)).shuffle(0, 7);
+        PlayerQueue edited = shuffled.edit(new ArrayList<>(shuffled.getCurrentQueue()));
+
+        List<Song> added = Arrays.asList(song(100), song(101), song(102));
+        assertEquals(new ArrayList<>(shuffled.append(added, 0).getCurrentQueue()),
+                new ArrayList<>(edited.append(added, 0).getCurrentQueue()));
+    }
+
+    @Test
+    public void testRestoredQueuesDoNotShareRandomState() {
+        List<Song> added = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            added.add(song(1000 + i));
+        }
+
+        List<List<Integer>> appendedPositions = new ArrayList<>();
+        for (long seed : new long[] {1, 2}) {
+            PlayerQueue shuffled = PlayerQueue.of(songs(50)).shuffle(0, seed);
+            PlayerQueue restored = PlayerQueue.restore(shuffled.getQueue(),
+                    shuffled.getShuffledQueue(), true);
+
+            List<Song> current = restored.append(added, 0).getCurrentQueue();
+            List<Integer> positions = new ArrayList<>();
+            for (Song song : added) {
+                positions.add(current.indexOf(song));
+            }
+            appendedPositions.add(positions);
+
+            // Restoring the same queue again should place appended songs the same way
+            PlayerQueue again = PlayerQueue.restore(shuffled.getQueue(),
+                    shuffled.getShuffledQueue(), true);
+            assertEquals(new ArrayList<>(current),
+                    new ArrayList<>(again.append(added, 0).getCurrentQueue()));
+        }
+
+        assertNotEquals(appendedPositions.get(0), appendedPositions.get(1));
+    }
+}
@@ -0,0 +1,126 @@
+package com.marverenic.music.player;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class PrefetchingDataSourceTest {
+
+    private static final Uri SONG = Uri.parse("file:///sdcard/music/song.mp3");
+    private static final Uri OTHER_SONG = Uri.parse("file:///sdcard/music/other.mp3");
+
+    private static final int SONG_LENGTH = 100;
+    private static final int PREFETCH_LENGTH = 40;
+
+    private byte[] mContent;
+    private FakeDataSource.Factory mUpstream;
+    private TestScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mContent = new byte[SONG_LENGTH];
+        for (int i = 0; i < mContent.length; i++) {
+            mContent[i] = (byte) i;
+        }
+
+        mUpstream = new FakeDataSource.Factory(mContent);
+        mScheduler = new TestScheduler();
+    }
+
+    private TrackPrefetcher prefetch(Uri uri, int maxPrefetchBytes) {
+        TrackPrefetcher prefetcher = new TrackPrefetcher(mUpstream, 10000, maxPrefetchBytes,
+                mScheduler);
+        prefetcher.prefetch(uri, 0);
+        mScheduler.triggerActions();
+        return prefetcher;
+    }
+
+    /**
+     * Reads all of a data spec through a {@link PrefetchingDataSource}. Reads are smaller than
+     * the prefetched data, so they cross the point where the prefetched data ends.
+     */
+    private byte[] readAll(TrackPrefetcher prefetcher, DataSpec dataSpec) throws IOException {
+        DataSource source = new PrefetchingDataSource.Factory(mUpstream, prefetcher)
+                .createDataSource();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16];
+        try {
+            source.open(dataSpec);
+            int read;
+            while ((read = source.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            source.close();
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testPrefetchedSongContinuesFromUpstream() throws IOException {
+        TrackPrefetcher prefetcher = prefetch(SONG, PREFETCH_LENGTH);
+        assertEquals(1, mUpstream.getOpenedSpecs().size());
+
+        assertArrayEquals(mContent, readAll(prefetcher, new DataSpec(SONG)));
+
+        // Storage should only be read from where the prefetched data ends
+        assertEquals(2, mUpstream.getOpenedSpecs().size());
+        assertEquals(PREFETCH_LENGTH, mUpstream.getOpenedSpecs().get(1).absoluteStreamPosition);
+    }
+
+    @Test
+    public void testSongThatFitsInPrefetchIsNotReadFromUpstream() throws IOException {
+        TrackPrefetcher prefetcher = prefetch(SONG, SONG_LENGTH * 2);
+
+        assertArrayEquals(mContent, readAll(prefetcher, new DataSpec(SONG)));
+        assertEquals(1, mUpstream.getOpenedSpecs().size());
+    }
+
+    @Test
+    public void testBoundedReadWithinPrefetchIsNotReadFromUpstream() throws IOException {
+        TrackPrefetcher prefetcher = prefetch(SONG, PREFETCH_LENGTH);
+
+        DataSpec dataSpec = new DataSpec(SONG, 10, 20, null);
+        assertArrayEquals(Arrays.copyOfRange(mContent, 10, 30), readAll(prefetcher, dataSpec));
+        assertEquals(1, mUpstream.getOpenedSpecs().size());
+    }
+
+    @Test
+    public void testSongThatWasNotPrefetchedIsReadFromUpstream() throws IOException {
+        TrackPrefetcher prefetcher = prefetch(OTHER_SONG, PREFETCH_LENGTH);
+
+        assertArrayEquals(mContent, readAll(prefetcher, new DataSpec(SONG)));
+        assertEquals(2, mUpstream.getOpenedSpecs().size());
+        assertEquals(SONG, mUpstream.getOpenedSpecs().get(1).uri);
+        assertEquals(0, mUpstream.getOpenedSpecs().get(1).absoluteStreamPosition);
+    }
+
+    @Test
+    public void testReadAfterPrefetchedDataIsReadFromUpstream() throws IOException {
+        TrackPrefetcher prefetcher = prefetch(SONG, PREFETCH_LENGTH);
+
+        DataSpec dataSpec = new DataSpec(SONG, 60, C.LENGTH_UNSET, null);
+        assertArrayEquals(Arrays.copyOfRange(mContent, 60, SONG_LENGTH),
+                readAll(prefetcher, dataSpec));
+        assertEquals(2, mUpstream.getOpenedSpecs().size());
+        assertEquals(60, mUpstream.getOpenedSpecs().get(1).absoluteStreamPosition);
+    }
+}
@@ -0,0 +1,130 @@
+package com.marverenic.music.player;
+
+import com.marverenic.music.data.index.IndexedSong;
+import com.marverenic.music.model.Song;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class QueueWindowTest {
+
+    private static Song song(long id) {
+        IndexedSong row = new IndexedSong();
+        row.songId = id;
+        row.songName = "Song " + id;
+        row.path = "/sdcard/music/" + id + ".mp3";
+        return Song.fromIndexedSong(row);
+    }
+
+    private static List<Song> songs(int count) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            songs.add(song(i));
+        }
+        return songs;
+    }
+
+    private static List<Song> window(List<Song> queue, int queueIndex, boolean repeatAll) {
+        int start = QueueWindow.getStart(queue.size(), queueIndex, repeatAll);
+        int length = QueueWindow.getLength(queue.size(), queueIndex, start, repeatAll);
+        return QueueWindow.get(queue, start, length);
+    }
+
+    /**
+     * Applies the edits from {@link QueueWindow#diff(List, List, QueueWindow.Editor)} to a copy of
+     * the old window, the same way that ExoPlayer applies them to its queue
+     */
+    private static <T> List<T> applyDiff(List<T> oldWindow, List<T> newWindow) {
+        List<T> applied = new ArrayList<>(oldWindow);
+        QueueWindow.diff(oldWindow, newWindow, new QueueWindow.Editor<T>() {
+            @Override
+            public void insert(int position, List<T> items) {
+                applied.addAll(position, items);
+            }
+
+            @Override
+            public void remove(int position) {
+                applied.remove(position);
+            }
+        });
+        return applied;
+    }
+
+    private static void advanceThroughQueue(int queueSize, boolean repeatAll) {
+        List<Song> queue = songs(queueSize);
+        List<Song> applied = window(queue, 0, repeatAll);
+
+        // Go around the queue twice to cover wrapping from the last song back to the first
+        for (int step = 1; step <= queueSize * 2; step++) {
+            List<Song> expected = window(queue, step % queueSize, repeatAll);
+            applied = applyDiff(applied, expected);
+            assertEquals("Window differs after advancing to song " + step, expected, applied);
+        }
+    }
+
+    @Test
+    public void testAdvanceThroughLongQueue() {
+        advanceThroughQueue(10, false);
+    }
+
+    @Test
+    public void testAdvanceThroughLongQueueWithRepeatAll() {
+        advanceThroughQueue(10, true);
+    }
+
+    @Test
+    public void testAdvanceThroughQueueJustLargerThanWindow() {
+        advanceThroughQueue(5, false);
+        advanceThroughQueue(5, true);
+    }
+
+    @Test
+    public void testAdvanceThroughShortQueue() {
+        advanceThroughQueue(3, false);
+        advanceThroughQueue(3, true);
+    }
+
+    @Test
+    public void testAdvanceKeepsSharedSongs() {
+        List<Integer> inserted = new ArrayList<>();
+        List<Integer> removed = new ArrayList<>();
+
+        QueueWindow.diff(Arrays.asList(0, 1, 2, 3), Arrays.asList(1, 2, 3, 4),
+                new QueueWindow.Editor<Integer>() {
+                    @Override
+                    public void insert(int position, List<Integer> items) {
+                        inserted.add(position);
+                        inserted.addAll(items);
+                    }
+
+                    @Override
+                    public void remove(int position) {
+                        removed.add(position);
+                    }
+                });
+
+        assertEquals(Collections.singletonList(0), removed);
+        assertEquals(Arrays.asList(3, 4), inserted);
+    }
+
+    @Test
+    public void testReplaceDisjointWindow() {
+        List<Integer> newWindow = Arrays.asList(5, 6, 7);
+        assertEquals(newWindow, applyDiff(Arrays.asList(0, 1, 2, 3), newWindow));
+    }
+
+    @Test
+    public void testEditInsideWindow() {
+        List<Integer> newWindow = Arrays.asList(0, 1, 9, 2);
+        assertEquals(newWindow, applyDiff(Arrays.asList(0, 1, 2, 3), newWindow));
+    }
+}
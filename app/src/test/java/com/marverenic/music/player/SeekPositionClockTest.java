@@ -0,0 +1,72 @@
+package com.marverenic.music.player;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class SeekPositionClockTest {
+
+    private static final int UNKNOWN_DURATION = 0;
+
+    @Test
+    public void testPositionAdvancesWhilePlaying() {
+        SeekPositionClock clock = new SeekPositionClock();
+        clock.setAnchor(5000, 1000, true);
+
+        assertTrue(clock.isAdvancing());
+        assertEquals(5000, clock.getPosition(1000, UNKNOWN_DURATION));
+        assertEquals(7500, clock.getPosition(3500, UNKNOWN_DURATION));
+    }
+
+    @Test
+    public void testPositionDoesNotAdvanceWhilePausedOrBuffering() {
+        SeekPositionClock clock = new SeekPositionClock();
+        clock.setAnchor(5000, 1000, false);
+
+        assertFalse(clock.isAdvancing());
+        assertEquals(5000, clock.getPosition(60000, UNKNOWN_DURATION));
+    }
+
+    @Test
+    public void testPositionDoesNotMoveBackwardsBeforeAnchor() {
+        SeekPositionClock clock = new SeekPositionClock();
+        clock.setAnchor(5000, 1000, true);
+
+        // The anchor is read in the service process, so it can be slightly ahead of this clock
+        assertEquals(5000, clock.getPosition(900, UNKNOWN_DURATION));
+    }
+
+    @Test
+    public void testPositionStopsAtEndOfSong() {
+        SeekPositionClock clock = new SeekPositionClock();
+        clock.setAnchor(5000, 1000, true);
+
+        assertEquals(6000, clock.getPosition(60000, 6000));
+        assertEquals(64000, clock.getPosition(60000, UNKNOWN_DURATION));
+    }
+
+    @Test
+    public void testPositionsInSameBucketHaveSameKey() {
+        SeekPositionClock clock = new SeekPositionClock();
+        clock.setAnchor(1000, 0, true);
+
+        int before = clock.getPosition(100, UNKNOWN_DURATION);
+        int after = clock.getPosition(900, UNKNOWN_DURATION);
+        assertEquals(clock.getKey(before, 1000), clock.getKey(after, 1000));
+
+        int next = clock.getPosition(1000, UNKNOWN_DURATION);
+        assertFalse(clock.getKey(after, 1000) == clock.getKey(next, 1000));
+    }
+
+    @Test
+    public void testSeekInSameBucketChangesKey() {
+        SeekPositionClock clock = new SeekPositionClock();
+        clock.setAnchor(1000, 0, true);
+        long key = clock.getKey(clock.getPosition(0, UNKNOWN_DURATION), 1000);
+
+        clock.setAnchor(1500, 0, true);
+        assertFalse(key == clock.getKey(clock.getPosition(0, UNKNOWN_DURATION), 1000));
+    }
+}
@@ -0,0 +1,93 @@
+package com.marverenic.music.player;
+
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class TrackPrefetcherTest {
+
+    private static final Uri SONG = Uri.parse("file:///sdcard/music/song.mp3");
+    private static final Uri OTHER_SONG = Uri.parse("file:///sdcard/music/other.mp3");
+
+    private FakeDataSource.Factory mUpstream;
+    private TestScheduler mScheduler;
+    private TrackPrefetcher mPrefetcher;
+
+    @Before
+    public void setUp() {
+        mUpstream = new FakeDataSource.Factory(new byte[100]);
+        mScheduler = new TestScheduler();
+        mPrefetcher = new TrackPrefetcher(mUpstream, 10000, 40, mScheduler);
+    }
+
+    @Test
+    public void testRequestForSongBeingReadIsSkipped() {
+        mPrefetcher.prefetch(SONG, 0);
+        mPrefetcher.prefetch(SONG, 0);
+        mScheduler.triggerActions();
+
+        assertEquals(1, mUpstream.getOpenedSpecs().size());
+        assertNotNull(mPrefetcher.get(SONG));
+    }
+
+    @Test
+    public void testRequestForPrefetchedSongIsSkipped() {
+        mPrefetcher.prefetch(SONG, 0);
+        mScheduler.triggerActions();
+        mPrefetcher.prefetch(SONG, 0);
+        mScheduler.triggerActions();
+
+        assertEquals(1, mUpstream.getOpenedSpecs().size());
+    }
+
+    @Test
+    public void testNewSongReplacesPrefetch() {
+        mPrefetcher.prefetch(SONG, 0);
+        mPrefetcher.prefetch(OTHER_SONG, 0);
+        mScheduler.triggerActions();
+
+        // The read of the first song is cancelled before it starts
+        assertEquals(1, mUpstream.getOpenedSpecs().size());
+        assertNull(mPrefetcher.get(SONG));
+        assertNotNull(mPrefetcher.get(OTHER_SONG));
+    }
+
+    @Test
+    public void testCancelledSongCanBePrefetchedAgain() {
+        mPrefetcher.prefetch(SONG, 0);
+        mPrefetcher.cancel();
+        mScheduler.triggerActions();
+
+        assertEquals(0, mUpstream.getOpenedSpecs().size());
+        assertNull(mPrefetcher.get(SONG));
+
+        mPrefetcher.prefetch(SONG, 0);
+        mScheduler.triggerActions();
+
+        assertEquals(1, mUpstream.getOpenedSpecs().size());
+        assertNotNull(mPrefetcher.get(SONG));
+    }
+
+    @Test
+    public void testPrefetchIsLimitedByDuration() {
+        // 10 seconds of a 100 second song that's 100 bytes long
+        mPrefetcher.prefetch(SONG, 100000);
+        mScheduler.triggerActions();
+
+        TrackPrefetcher.Prefetch prefetch = mPrefetcher.get(SONG);
+        assertEquals(10, prefetch.mLength);
+        assertEquals(100, prefetch.mContentLength);
+        assertFalse(prefetch.mComplete);
+    }
+}
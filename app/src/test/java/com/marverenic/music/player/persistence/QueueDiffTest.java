@@ -0,0 +1,152 @@
+package com.marverenic.music.player.persistence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class QueueDiffTest {
+
+    private List<String> generateList(int itemCount) {
+        List<String> list = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            list.add(Integer.toString(i));
+        }
+        return list;
+    }
+
+    /**
+     * Applies a diff to a copy of the stored rows, and checks that reading the rows back in
+     * order of their keys gives the new list
+     * @return The number of rows that were written
+     */
+    private int assertDiffApplies(long[] storedKeys, List<String> stored, List<String> updated) {
+        QueueDiff diff = QueueDiff.compute(storedKeys, stored, updated);
+
+        TreeMap<Long, String> rows = new TreeMap<>();
+        for (int i = 0; i < stored.size(); i++) {
+            rows.put(storedKeys[i], stored.get(i));
+        }
+
+        for (int index : diff.getRemovedIndices()) {
+            assertEquals(stored.get(index), rows.remove(storedKeys[index]));
+        }
+        for (int index : diff.getInsertedIndices()) {
+            assertNull("Inserted row replaced an existing row",
+                    rows.put(diff.getKeys()[index], updated.get(index)));
+        }
+
+        assertEquals(updated, new ArrayList<>(rows.values()));
+
+        int i = 0;
+        for (Map.Entry<Long, String> row : rows.entrySet()) {
+            assertEquals((long) row.getKey(), diff.getKeys()[i++]);
+        }
+
+        return diff.getRemovedIndices().length + diff.getInsertedIndices().length;
+    }
+
+    @Test
+    public void testInsertAfterCurrentSong() {
+        List<String> stored = generateList(20000);
+        List<String> updated = new ArrayList<>(stored);
+        updated.add(101, "new");
+
+        int writes = assertDiffApplies(QueueDiff.spacedKeys(stored.size()), stored, updated);
+        assertEquals(1, writes);
+    }
+
+    @Test
+    public void testRemoveSong() {
+        List<String> stored = generateList(20000);
+        List<String> updated = new ArrayList<>(stored);
+        updated.remove(5000);
+
+        int writes = assertDiffApplies(QueueDiff.spacedKeys(stored.size()), stored, updated);
+        assertEquals(1, writes);
+    }
+
+    @Test
+    public void testMoveSong() {
+        List<String> stored = generateList(20000);
+        List<String> updated = new ArrayList<>(stored);
+        updated.add(15000, updated.remove(10));
+
+        int writes = assertDiffApplies(QueueDiff.spacedKeys(stored.size()), stored, updated);
+        assertEquals(2, writes);
+    }
+
+    @Test
+    public void testPrependAndAppend() {
+        List<String> stored = generateList(100);
+        List<String> updated = new ArrayList<>(stored);
+        updated.addAll(0, Arrays.asList("a", "b", "c"));
+        updated.addAll(Arrays.asList("x", "y"));
+
+        int writes = assertDiffApplies(QueueDiff.spacedKeys(stored.size()), stored, updated);
+        assertEquals(5, writes);
+    }
+
+    @Test
+    public void testDuplicateSongs() {
+        List<String> stored = Arrays.asList("a", "b", "a", "c", "a");
+        List<String> updated = Arrays.asList("a", "a", "c", "b", "a", "a");
+
+        assertDiffApplies(QueueDiff.spacedKeys(stored.size()), stored, updated);
+    }
+
+    @Test
+    public void testFromAndToEmptyList() {
+        List<String> empty = Collections.emptyList();
+        List<String> list = generateList(10);
+
+        assertEquals(10, assertDiffApplies(new long[0], empty, list));
+        assertEquals(10, assertDiffApplies(QueueDiff.spacedKeys(10), list, empty));
+    }
+
+    @Test
+    public void testRunsOutOfKeys() {
+        List<String> stored = Arrays.asList("a", "b");
+        long[] keys = {0, 2};
+
+        assertEquals(1, assertDiffApplies(keys, stored, Arrays.asList("a", "x", "b")));
+        assertNull(QueueDiff.compute(keys, stored, Arrays.asList("a", "x", "y", "b")));
+    }
+
+    @Test
+    public void testRandomEdits() {
+        Random random = new Random(42);
+        List<String> stored = generateList(500);
+        long[] keys = QueueDiff.spacedKeys(stored.size());
+
+        for (int round = 0; round < 200; round++) {
+            List<String> updated = new ArrayList<>(stored);
+            int edits = 1 + random.nextInt(5);
+            for (int edit = 0; edit < edits; edit++) {
+                int index = random.nextInt(updated.size());
+                switch (random.nextInt(3)) {
+                    case 0:
+                        updated.add(index, "new" + round + "-" + edit);
+                        break;
+                    case 1:
+                        updated.remove(index);
+                        break;
+                    default:
+                        updated.add(random.nextInt(updated.size()), updated.remove(index));
+                }
+            }
+
+            assertDiffApplies(keys, stored, updated);
+            keys = QueueDiff.compute(keys, stored, updated).getKeys();
+            stored = updated;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.marverenic.music.ui.browse;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.marverenic.music.utils.ArtworkCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class ThumbnailLoaderTest {
+
+    private static final int SIZE = 100;
+
+    private int mThumbnailBytes;
+
+    @Before
+    public void setUp() {
+        mThumbnailBytes = createBitmap(SIZE).getAllocationByteCount();
+    }
+
+    private static Bitmap createBitmap(int size) {
+        return Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    }
+
+    private static File file(int index) {
+        return new File("/sdcard/music/" + index + ".mp3");
+    }
+
+    /**
+     * Creates a loader that decodes thumbnails synchronously, and that has room for a number of
+     * thumbnails of the default size
+     */
+    private FakeThumbnailLoader createLoader(int capacity) {
+        return new FakeThumbnailLoader(capacity * mThumbnailBytes);
+    }
+
+    private static Bitmap load(ThumbnailLoader loader, File file) {
+        return loader.getThumbnail(file).toBlocking().first();
+    }
+
+    /**
+     * Loads a file's thumbnail and immediately releases it, as if the view was recycled
+     */
+    private static Bitmap loadAndRelease(ThumbnailLoader loader, File file) {
+        Bitmap thumbnail = load(loader, file);
+        loader.releaseThumbnail(file);
+        return thumbnail;
+    }
+
+    @Test
+    public void testCacheIsBoundedByBytes() {
+        FakeThumbnailLoader loader = createLoader(3);
+        for (int i = 0; i < 4; i++) {
+            loadAndRelease(loader, file(i));
+        }
+
+        assertEquals(1, loader.getEvictionCount());
+        assertEquals(3 * mThumbnailBytes, loader.getSize());
+    }
+
+    @Test
+    public void testSmallerThumbnailsUseLessOfCache() {
+        FakeThumbnailLoader loader = createLoader(3);
+        loader.mSize = SIZE / 2;
+        for (int i = 0; i < 12; i++) {
+            loadAndRelease(loader, file(i));
+        }
+
+        assertEquals(0, loader.getEvictionCount());
+        assertEquals(3 * mThumbnailBytes, loader.getSize());
+
+        loadAndRelease(loader, file(12));
+        assertEquals(1, loader.getEvictionCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedThumbnailIsEvicted() {
+        FakeThumbnailLoader loader = createLoader(3);
+        for (int i = 0; i < 3; i++) {
+            loadAndRelease(loader, file(i));
+        }
+
+        // Using the first thumbnail again makes the second one the least recently used
+        loadAndRelease(loader, file(0));
+        assertEquals(1, loader.getHitCount());
+
+        loadAndRelease(loader, file(3));
+        loader.mLoadedUris.clear();
+
+        loadAndRelease(loader, file(0));
+        assertEquals(0, loader.mLoadedUris.size());
+
+        loadAndRelease(loader, file(1));
+        assertEquals(1, loader.mLoadedUris.size());
+        assertEquals(Uri.fromFile(file(1)), loader.mLoadedUris.get(0));
+    }
+
+    @Test
+    public void testEvictedThumbnailIsReused() {
+        FakeThumbnailLoader loader = createLoader(2);
+        Bitmap evicted = loadAndRelease(loader, file(0));
+        loadAndRelease(loader, file(1));
+        loadAndRelease(loader, file(2));
+
+        assertSame(evicted, loadAndRelease(loader, file(3)));
+        assertEquals(1, loader.getReuseCount());
+    }
+
+    @Test
+    public void testThumbnailInUseIsNotReused() {
+        FakeThumbnailLoader loader = createLoader(2);
+        Bitmap evicted = load(loader, file(0));
+        loadAndRelease(loader, file(1));
+        loadAndRelease(loader, file(2));
+
+        // The first file's view is still showing its thumbnail, so it can't be decoded into
+        assertNotSame(evicted, loadAndRelease(loader, file(3)));
+        assertEquals(0, loader.getReuseCount());
+    }
+
+    @Test
+    public void testSmallerThumbnailIsNotReused() {
+        FakeThumbnailLoader loader = createLoader(2);
+        loader.mSize = SIZE / 2;
+        loadAndRelease(loader, file(0));
+        loader.mSize = SIZE;
+        loadAndRelease(loader, file(1));
+        loadAndRelease(loader, file(2));
+
+        loadAndRelease(loader, file(3));
+        assertEquals(0, loader.getReuseCount());
+
+        // A smaller image can be decoded into a larger bitmap
+        loader.mSize = SIZE / 2;
+        loadAndRelease(loader, file(4));
+        assertEquals(1, loader.getReuseCount());
+    }
+
+    @Test
+    public void testImmutableThumbnailIsNotReused() {
+        FakeThumbnailLoader loader = createLoader(2);
+        loader.mMutable = false;
+        loadAndRelease(loader, file(0));
+        loader.mMutable = true;
+        loadAndRelease(loader, file(1));
+        loadAndRelease(loader, file(2));
+
+        loadAndRelease(loader, file(3));
+        assertEquals(0, loader.getReuseCount());
+    }
+
+    @Test
+    public void testTrimMemoryLevels() {
+        assertEquals(4 * mThumbnailBytes,
+                trimFullCache(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals(3 * mThumbnailBytes,
+                trimFullCache(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(2 * mThumbnailBytes,
+                trimFullCache(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(2 * mThumbnailBytes,
+                trimFullCache(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(2 * mThumbnailBytes,
+                trimFullCache(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertEquals(mThumbnailBytes,
+                trimFullCache(ComponentCallbacks2.TRIM_MEMORY_MODERATE));
+        assertEquals(0,
+                trimFullCache(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+    }
+
+    /**
+     * Fills a cache that has room for four thumbnails, then trims it
+     * @return The number of bytes left in the cache
+     */
+    private int trimFullCache(int level) {
+        FakeThumbnailLoader loader = createLoader(4);
+        for (int i = 0; i < 4; i++) {
+            loadAndRelease(loader, file(i));
+        }
+
+        loader.trimMemory(level);
+        return loader.getSize();
+    }
+
+    @Test
+    public void testTrimMemoryClearsPool() {
+        FakeThumbnailLoader loader = createLoader(2);
+        for (int i = 0; i < 3; i++) {
+            loadAndRelease(loader, file(i));
+        }
+
+        loader.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        loadAndRelease(loader, file(3));
+        assertEquals(0, loader.getReuseCount());
+    }
+
+    /**
+     * A {@link ThumbnailLoader} that creates a blank thumbnail for every file instead of reading
+     * its artwork, and that loads and delivers thumbnails on the calling thread
+     */
+    private static class FakeThumbnailLoader extends ThumbnailLoader {
+
+        final List<Uri> mLoadedUris = new ArrayList<>();
+
+        /**
+         * The width and height of the thumbnails that are created
+         */
+        int mSize = SIZE;
+        boolean mMutable = true;
+
+        FakeThumbnailLoader(int maxBytes) {
+            super(RuntimeEnvironment.application, maxBytes, Schedulers.immediate(),
+                    Schedulers.immediate());
+        }
+
+        @Override
+        Bitmap loadBitmap(Uri fileUri, ArtworkCache.BitmapPool pool) {
+            mLoadedUris.add(fileUri);
+
+            Bitmap reused = pool.get(mSize, mSize, Bitmap.Config.ARGB_8888);
+            if (reused != null) {
+                return reused;
+            }
+
+            Bitmap bitmap = createBitmap(mSize);
+            return (mMutable) ? bitmap : bitmap.copy(Bitmap.Config.ARGB_8888, false);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.marverenic.music.utils;
+
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ArtworkCacheTest {
+
+    private static final int SIZE = 256;
+    private static final long MAX_DISK_BYTES = 64 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mCacheDirectory;
+    private File mMusicDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mCacheDirectory = mFolder.newFolder("cache");
+        mMusicDirectory = mFolder.newFolder("music");
+    }
+
+    private ArtworkCache createCache(long maxDiskBytes) {
+        return new ArtworkCache(RuntimeEnvironment.application, mCacheDirectory, maxDiskBytes);
+    }
+
+    private File createSong(String name) throws IOException {
+        File song = new File(mMusicDirectory, name);
+        writeFile(song, new byte[16]);
+        return song;
+    }
+
+    /**
+     * Writes a cover image into the music folder, which is used as the artwork of every song in
+     * the folder
+     * @param rgb The color of the image. Covers with different colors have different hashes.
+     */
+    private void writeCover(int rgb) throws IOException {
+        BufferedImage image = new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.setRGB(x, y, rgb);
+            }
+        }
+        ImageIO.write(image, "jpg", new File(mMusicDirectory, "cover.jpg"));
+    }
+
+    private File[] listFiles(String directoryName) {
+        File[] files = new File(mCacheDirectory, directoryName).listFiles();
+        return (files == null) ? new File[0] : files;
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testSongsWithSameArtworkShareThumbnail() throws IOException {
+        writeCover(0xFF0000);
+        File first = createSong("first.mp3");
+        File second = createSong("second.mp3");
+
+        ArtworkCache cache = createCache(MAX_DISK_BYTES);
+        assertNotNull(cache.getArtwork(Uri.fromFile(first), -1, SIZE, true));
+        assertNotNull(cache.getArtwork(Uri.fromFile(second), -1, SIZE, true));
+
+        assertEquals(2, listFiles("index").length);
+        assertEquals(1, listFiles("thumbnails").length);
+    }
+
+    @Test
+    public void testEditedSongIsResolvedAgain() throws IOException {
+        writeCover(0xFF0000);
+        File song = createSong("song.mp3");
+
+        ArtworkCache cache = createCache(MAX_DISK_BYTES);
+        cache.getArtwork(Uri.fromFile(song), -1, SIZE, true);
+
+        // Artwork isn't resolved again until the song itself changes
+        writeCover(0x0000FF);
+        cache.getArtwork(Uri.fromFile(song), -1, SIZE, true);
+        assertEquals(1, listFiles("thumbnails").length);
+
+        assertTrue(song.setLastModified(song.lastModified() + 10000));
+        cache.getArtwork(Uri.fromFile(song), -1, SIZE, true);
+        assertEquals(2, listFiles("thumbnails").length);
+
+        // The entry for the older version of the song should have been replaced
+        assertEquals(1, listFiles("index").length);
+    }
+
+    @Test
+    public void testIndexIsKeyedByPathAndModificationTime() throws IOException {
+        writeCover(0xFF0000);
+        File song = createSong("song.mp3");
+        createCache(MAX_DISK_BYTES).getArtwork(Uri.fromFile(song), -1, SIZE, true);
+
+        // A new cache only has the entries on disk, which still match this version of the song
+        writeCover(0x0000FF);
+        createCache(MAX_DISK_BYTES).getArtwork(Uri.fromFile(song), -1, SIZE, true);
+        assertEquals(1, listFiles("thumbnails").length);
+
+        // Once the song changes, its entry on disk is for an older version and is ignored
+        assertTrue(song.setLastModified(song.lastModified() + 10000));
+        createCache(MAX_DISK_BYTES).getArtwork(Uri.fromFile(song), -1, SIZE, true);
+        assertEquals(2, listFiles("thumbnails").length);
+        assertEquals(1, listFiles("index").length);
+    }
+
+    @Test
+    public void testSongWithoutArtworkIsRemembered() throws IOException {
+        File song = createSong("song.mp3");
+        assertNull(createCache(MAX_DISK_BYTES).getArtwork(Uri.fromFile(song), -1, SIZE, true));
+
+        writeCover(0xFF0000);
+        assertNull(createCache(MAX_DISK_BYTES).getArtwork(Uri.fromFile(song), -1, SIZE, true));
+
+        assertEquals(1, listFiles("index").length);
+        assertEquals(0, listFiles("thumbnails").length);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFilesAreTrimmed() throws IOException {
+        int fileCount = 10;
+        int fileBytes = 1000;
+        long maxDiskBytes = fileCount * fileBytes;
+
+        // Fill the cache to its limit with files that were last used at increasing times
+        File thumbnailDirectory = new File(mCacheDirectory, "thumbnails");
+        assertTrue(thumbnailDirectory.mkdirs());
+        File[] oldFiles = new File[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            oldFiles[i] = new File(thumbnailDirectory, "old-" + i);
+            writeFile(oldFiles[i], new byte[fileBytes]);
+            assertTrue(oldFiles[i].setLastModified(1000000000000L + i * 1000));
+        }
+
+        writeCover(0xFF0000);
+        File song = createSong("song.mp3");
+        createCache(maxDiskBytes).getArtwork(Uri.fromFile(song), -1, SIZE, true);
+
+        long totalBytes = 0;
+        for (File file : listFiles("index")) {
+            totalBytes += file.length();
+        }
+        for (File file : listFiles("thumbnails")) {
+            totalBytes += file.length();
+        }
+        assertTrue(totalBytes <= maxDiskBytes);
+
+        // Files should be deleted from the least recently used, and the new files kept
+        assertFalse(oldFiles[0].exists());
+        assertTrue(oldFiles[fileCount - 1].exists());
+        for (int i = 1; i < fileCount; i++) {
+            assertTrue(!oldFiles[i - 1].exists() || oldFiles[i].exists());
+        }
+        assertEquals(1, listFiles("index").length);
+        assertEquals(fileCount + 1, listFiles("thumbnails").length + countDeleted(oldFiles));
+    }
+
+    private static int countDeleted(File[] files) {
+        int deleted = 0;
+        for (File file : files) {
+            if (!file.exists()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+}
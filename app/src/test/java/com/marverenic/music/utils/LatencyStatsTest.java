@@ -0,0 +1,58 @@
+package com.marverenic.music.utils;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class LatencyStatsTest {
+
+    @Test
+    public void testUnknownOperationIsEmpty() {
+        LatencyStats stats = new LatencyStats();
+
+        assertEquals(0, stats.getCount("search"));
+        assertEquals(0, stats.getCancelledCount("search"));
+        assertEquals(0, stats.getMeanMs("search"));
+        assertEquals(0, stats.getMaxMs("search"));
+        assertEquals("", stats.toString());
+    }
+
+    @Test
+    public void testOperationsAreAggregatedSeparately() {
+        LatencyStats stats = new LatencyStats();
+        stats.record("search", 10);
+        stats.record("search", 30);
+        stats.record("search", 20);
+        stats.record("diff", 5);
+
+        assertEquals(3, stats.getCount("search"));
+        assertEquals(20, stats.getMeanMs("search"));
+        assertEquals(30, stats.getMaxMs("search"));
+
+        assertEquals(1, stats.getCount("diff"));
+        assertEquals(5, stats.getMeanMs("diff"));
+        assertEquals(5, stats.getMaxMs("diff"));
+    }
+
+    @Test
+    public void testCancellationsDoNotAffectDurations() {
+        LatencyStats stats = new LatencyStats();
+        stats.record("search", 40);
+        stats.recordCancellation("search");
+        stats.recordCancellation("search");
+
+        assertEquals(1, stats.getCount("search"));
+        assertEquals(2, stats.getCancelledCount("search"));
+        assertEquals(40, stats.getMeanMs("search"));
+        assertEquals("search {count=1, mean=40ms, max=40ms, cancelled=2}", stats.toString());
+    }
+
+    @Test
+    public void testOnlyCancelledOperationHasNoMean() {
+        LatencyStats stats = new LatencyStats();
+        stats.recordCancellation("search");
+
+        assertEquals(0, stats.getMeanMs("search"));
+        assertEquals("search {count=0, mean=0ms, max=0ms, cancelled=1}", stats.toString());
+    }
+}
@@ -0,0 +1,144 @@
+package com.marverenic.music.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+
+public class ListDiffTest {
+
+    private List<String> generateList(int itemCount) {
+        List<String> list = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            list.add(Integer.toString(i));
+        }
+        return list;
+    }
+
+    /**
+     * Computes the diff between two lists, and checks that applying it to the old list gives
+     * the new list
+     * @return The diff
+     */
+    private ListDiff assertDiffApplies(List<String> oldList, List<String> newList) {
+        ListDiff diff = ListDiff.compute(oldList, newList);
+
+        List<String> inserted = new ArrayList<>();
+        for (int index : diff.getInsertedIndices()) {
+            inserted.add(newList.get(index));
+        }
+
+        assertEquals(newList, ListDiff.apply(oldList, diff.getRemovedIndices(),
+                diff.getInsertedIndices(), inserted));
+
+        for (int i = 0; i < newList.size(); i++) {
+            int oldIndex = diff.getOldIndex(i);
+            if (oldIndex >= 0) {
+                assertEquals(newList.get(i), oldList.get(oldIndex));
+            }
+        }
+        return diff;
+    }
+
+    @Test
+    public void testIdenticalListsHaveNoEdits() {
+        List<String> list = generateList(100);
+        ListDiff diff = assertDiffApplies(list, new ArrayList<>(list));
+
+        assertEquals(0, diff.getEditCount());
+        assertEquals(42, diff.getOldIndex(42));
+    }
+
+    @Test
+    public void testInsertedItem() {
+        List<String> oldList = generateList(100);
+        List<String> newList = new ArrayList<>(oldList);
+        newList.add(50, "new");
+
+        ListDiff diff = assertDiffApplies(oldList, newList);
+        assertEquals(Collections.singletonList(50), toList(diff.getInsertedIndices()));
+        assertEquals(0, diff.getRemovedIndices().length);
+        assertEquals(-1, diff.getOldIndex(50));
+        assertEquals(50, diff.getOldIndex(51));
+    }
+
+    @Test
+    public void testRemovedItem() {
+        List<String> oldList = generateList(100);
+        List<String> newList = new ArrayList<>(oldList);
+        newList.remove(0);
+
+        ListDiff diff = assertDiffApplies(oldList, newList);
+        assertEquals(Collections.singletonList(0), toList(diff.getRemovedIndices()));
+        assertEquals(0, diff.getInsertedIndices().length);
+    }
+
+    @Test
+    public void testMovedItemIsOneRemovalAndOneInsertion() {
+        List<String> oldList = generateList(10000);
+        List<String> newList = new ArrayList<>(oldList);
+        newList.add(9000, newList.remove(10));
+
+        ListDiff diff = assertDiffApplies(oldList, newList);
+        assertEquals(2, diff.getEditCount());
+    }
+
+    @Test
+    public void testDuplicateItems() {
+        List<String> oldList = Arrays.asList("a", "b", "a", "c", "a");
+        List<String> newList = Arrays.asList("a", "a", "c", "b", "a", "a");
+
+        assertDiffApplies(oldList, newList);
+    }
+
+    @Test
+    public void testEmptyLists() {
+        List<String> list = generateList(10);
+
+        assertEquals(10, assertDiffApplies(Collections.emptyList(), list).getEditCount());
+        assertEquals(10, assertDiffApplies(list, Collections.emptyList()).getEditCount());
+        assertEquals(0, assertDiffApplies(Collections.<String>emptyList(),
+                Collections.emptyList()).getEditCount());
+    }
+
+    @Test
+    public void testRandomEdits() {
+        Random random = new Random(0);
+        for (int trial = 0; trial < 100; trial++) {
+            List<String> oldList = new ArrayList<>();
+            for (int i = random.nextInt(50); i > 0; i--) {
+                oldList.add(Integer.toString(random.nextInt(20)));
+            }
+
+            List<String> newList = new ArrayList<>(oldList);
+            for (int edit = random.nextInt(10); edit > 0; edit--) {
+                if (!newList.isEmpty() && random.nextBoolean()) {
+                    newList.remove(random.nextInt(newList.size()));
+                } else {
+                    newList.add(random.nextInt(newList.size() + 1),
+                            Integer.toString(random.nextInt(20)));
+                }
+            }
+
+            assertDiffApplies(oldList, newList);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyRequiresEveryInsertedItem() {
+        ListDiff.apply(generateList(3), new int[0], new int[] {1}, Collections.emptyList());
+    }
+
+    private static List<Integer> toList(int[] array) {
+        List<Integer> list = new ArrayList<>(array.length);
+        for (int value : array) {
+            list.add(value);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,212 @@
+package com.marverenic.music.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import rx.Observable;
+import rx.subjects.ReplaySubject;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the enqueue throughput and delivery latency of {@link ObservableQueue} against the
+ * lock-based implementation that it replaced. This benchmark takes a while to run, so it's
+ * skipped unless the {@code benchmark} system property is set:
+ *
+ * ./gradlew testDebugUnitTest --tests '*ObservableQueueBenchmark' -Dbenchmark=true
+ */
+public class ObservableQueueBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int VALUES_PER_PRODUCER = 200000;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void benchmarkSingleProducer() throws InterruptedException {
+        compare(1);
+    }
+
+    @Test
+    public void benchmarkFourProducers() throws InterruptedException {
+        compare(4);
+    }
+
+    private void compare(int producerCount) throws InterruptedException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(new LockingQueue(), producerCount);
+            run(new LockFreeQueue(), producerCount);
+        }
+
+        Result locking = new Result();
+        Result lockFree = new Result();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            locking.add(run(new LockingQueue(), producerCount));
+            lockFree.add(run(new LockFreeQueue(), producerCount));
+        }
+
+        System.out.println(String.format(Locale.US, "%d producers", producerCount));
+        System.out.println("  synchronized: " + locking);
+        System.out.println("  lock-free:    " + lockFree);
+    }
+
+    private Result run(BenchmarkQueue queue, int producerCount) throws InterruptedException {
+        int valueCount = producerCount * VALUES_PER_PRODUCER;
+        long[] latencies = new long[valueCount];
+        int[] received = new int[1];
+        CountDownLatch done = new CountDownLatch(1);
+
+        queue.subscribe(enqueueTime -> {
+            latencies[received[0]++] = System.nanoTime() - enqueueTime;
+            if (received[0] == valueCount) {
+                done.countDown();
+            }
+        });
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[producerCount];
+        for (int i = 0; i < producerCount; i++) {
+            producers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+
+                for (int value = 0; value < VALUES_PER_PRODUCER; value++) {
+                    queue.enqueue(System.nanoTime());
+                }
+            });
+            producers[i].start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - startTime;
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        Arrays.sort(latencies);
+        return new Result(valueCount, elapsed, latencies[valueCount / 2],
+                latencies[(int) (valueCount * 0.99)]);
+    }
+
+    private interface BenchmarkQueue {
+        void enqueue(long value);
+        void subscribe(Consumer<Long> consumer);
+    }
+
+    private static class LockFreeQueue implements BenchmarkQueue {
+
+        private final ObservableQueue<Long> mQueue = new ObservableQueue<>();
+
+        @Override
+        public void enqueue(long value) {
+            mQueue.enqueue(value);
+        }
+
+        @Override
+        public void subscribe(Consumer<Long> consumer) {
+            mQueue.toObservable().subscribe(consumer::accept);
+        }
+    }
+
+    /**
+     * The previous implementation of ObservableQueue
+     */
+    private static class LockingQueue implements BenchmarkQueue {
+
+        private final Object mLock = new Object();
+
+        private Queue<Long> mQueue = new ArrayDeque<>();
+        private ReplaySubject<Long> mSubject;
+
+        @Override
+        public void enqueue(long value) {
+            synchronized (mLock) {
+                mQueue.add(value);
+                if (mSubject != null) {
+                    mSubject.onNext(value);
+                }
+            }
+        }
+
+        @Override
+        public void subscribe(Consumer<Long> consumer) {
+            toObservable().subscribe(consumer::accept);
+        }
+
+        private Observable<Long> toObservable() {
+            synchronized (mLock) {
+                if (mSubject != null) {
+                    mSubject.onCompleted();
+                }
+
+                if (mQueue.isEmpty()) {
+                    mSubject = ReplaySubject.create();
+                } else {
+                    mSubject = ReplaySubject.create(mQueue.size());
+
+                    for (Long data : mQueue) {
+                        mSubject.onNext(data);
+                    }
+                }
+            }
+
+            return mSubject.map(item -> {
+                mQueue.remove();
+                return item;
+            }).asObservable();
+        }
+    }
+
+    private static class Result {
+
+        private long mValues;
+        private long mElapsedNanos;
+        private long mMedianLatencySum;
+        private long mP99LatencySum;
+        private int mRounds;
+
+        Result() {
+        }
+
+        Result(long values, long elapsedNanos, long medianLatency, long p99Latency) {
+            mValues = values;
+            mElapsedNanos = elapsedNanos;
+            mMedianLatencySum = medianLatency;
+            mP99LatencySum = p99Latency;
+            mRounds = 1;
+        }
+
+        void add(Result other) {
+            mValues += other.mValues;
+            mElapsedNanos += other.mElapsedNanos;
+            mMedianLatencySum += other.mMedianLatencySum;
+            mP99LatencySum += other.mP99LatencySum;
+            mRounds += other.mRounds;
+        }
+
+        @Override
+        public String toString() {
+            double throughput = mValues / (mElapsedNanos / 1e9);
+            return String.format(Locale.US,
+                    "%,.0f enqueues/s, median latency %,d ns, p99 latency %,d ns",
+                    throughput, mMedianLatencySum / mRounds, mP99LatencySum / mRounds);
+        }
+    }
+}
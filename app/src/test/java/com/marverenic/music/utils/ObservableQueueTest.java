@@ -3,8 +3,16 @@ package com.marverenic.music.utils;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import rx.Observable;
 import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
 
 public class ObservableQueueTest {
 
@@ -114,4 +122,109 @@ public class ObservableQueueTest {
         subscriber.assertValues("Hello world!", "My hands are typing words!", "HAAAAAANDS!");
     }
 
+    @Test
+    public void testConcurrentEnqueueWhileSubscribed() throws InterruptedException {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        mSubject.toObservable().subscribe(subscriber);
+
+        enqueueConcurrently(8, 10000);
+
+        subscriber.assertNoErrors();
+        subscriber.assertNoTerminalEvent();
+        assertDeliveredInOrder(subscriber.getOnNextEvents(), 8, 10000);
+    }
+
+    @Test
+    public void testConcurrentEnqueueWhileSubscribing() throws InterruptedException {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+
+        Thread subscribeThread = new Thread(() -> {
+            mSubject.toObservable().subscribe(subscriber);
+        });
+
+        Thread[] producers = startProducers(8, 10000);
+        subscribeThread.start();
+        joinAll(producers);
+        subscribeThread.join();
+
+        subscriber.assertNoErrors();
+        assertDeliveredInOrder(subscriber.getOnNextEvents(), 8, 10000);
+    }
+
+    @Test
+    public void testConcurrentEnqueueWithBackpressure() throws InterruptedException {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+
+        mSubject.toObservable()
+                .observeOn(Schedulers.newThread())
+                .take(8 * 10000)
+                .subscribe(subscriber);
+
+        enqueueConcurrently(8, 10000);
+        subscriber.awaitTerminalEvent(30, TimeUnit.SECONDS);
+
+        subscriber.assertNoErrors();
+        subscriber.assertCompleted();
+        assertDeliveredInOrder(subscriber.getOnNextEvents(), 8, 10000);
+    }
+
+    private void enqueueConcurrently(int producerCount, int valuesPerProducer)
+            throws InterruptedException {
+        joinAll(startProducers(producerCount, valuesPerProducer));
+    }
+
+    private Thread[] startProducers(int producerCount, int valuesPerProducer) {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[producerCount];
+
+        for (int i = 0; i < producerCount; i++) {
+            int producer = i;
+            producers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+
+                for (int value = 0; value < valuesPerProducer; value++) {
+                    mSubject.enqueue(producer + ":" + value);
+                }
+            });
+            producers[i].start();
+        }
+
+        start.countDown();
+        return producers;
+    }
+
+    private static void joinAll(Thread[] threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Checks that every value was delivered exactly once, and that the values from each producer
+     * were delivered in the order that they were enqueued
+     */
+    private static void assertDeliveredInOrder(List<String> values, int producerCount,
+                                               int valuesPerProducer) {
+        assertEquals(producerCount * valuesPerProducer, values.size());
+
+        List<Integer> nextValues = new ArrayList<>();
+        for (int i = 0; i < producerCount; i++) {
+            nextValues.add(0);
+        }
+
+        for (String value : values) {
+            String[] parts = value.split(":");
+            int producer = Integer.parseInt(parts[0]);
+            int index = Integer.parseInt(parts[1]);
+
+            assertEquals("Out of order value from producer " + producer,
+                    (int) nextValues.get(producer), index);
+            nextValues.set(producer, index + 1);
+        }
+    }
+
 }